@@ -0,0 +1,174 @@
+package amie.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javatools.datatypes.ByteString;
+import amie.data.IntKB;
+import amie.data.KB;
+
+/**
+ * Generator of synthetic KBs for the benchmarks. Subjects, objects and relations are
+ * drawn from Zipf distributions with the given exponent: with skew 0 all of them are
+ * equally likely, with skew 1 the i-th most frequent one appears about 1/i times as
+ * often as the first one, as in real KBs.
+ *
+ * Entities are named &lt;e0&gt;, &lt;e1&gt;, ... and relations &lt;r0&gt;, &lt;r1&gt;, ...
+ * by decreasing frequency, so &lt;e0&gt; is the hub entity and &lt;r0&gt; the largest
+ * relation. The facts only depend on the parameters and the seed.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBGenerator {
+
+	private final int nFacts;
+
+	private final int nEntities;
+
+	private final int nRelations;
+
+	private final double skew;
+
+	private final long seed;
+
+	/**
+	 * @param nFacts Number of generated facts, duplicates included
+	 * @param nEntities
+	 * @param nRelations
+	 * @param skew Exponent of the Zipf distributions, 0 for uniform distributions
+	 * @param seed
+	 */
+	public KBGenerator(int nFacts, int nEntities, int nRelations, double skew, long seed) {
+		this.nFacts = nFacts;
+		this.nEntities = nEntities;
+		this.nRelations = nRelations;
+		this.skew = skew;
+		this.seed = seed;
+	}
+
+	/**
+	 * A KB with one entity every 5 facts and 20 relations.
+	 * @param nFacts
+	 * @param skew
+	 */
+	public KBGenerator(int nFacts, double skew) {
+		this(nFacts, Math.max(10, nFacts / 5), 20, skew, 42);
+	}
+
+	/**
+	 * It returns an empty KB of the given backend: "KB", "IntKB" or "IntKB-leapfrog".
+	 * @param backend
+	 * @return
+	 */
+	public static KB newKB(String backend) {
+		switch (backend) {
+		case "KB":
+			return (new KB());
+		case "IntKB":
+		case "IntKB-leapfrog":
+			return (new IntKB());
+		default:
+			throw new IllegalArgumentException("Unknown backend " + backend);
+		}
+	}
+
+	/**
+	 * It prepares a loaded KB for querying: IntKB-leapfrog KBs are frozen and evaluate
+	 * queries with the Leapfrog Triejoin.
+	 * @param kb
+	 * @param backend
+	 */
+	public static void prepare(KB kb, String backend) {
+		if (backend.equals("IntKB-leapfrog")) {
+			IntKB intKB = (IntKB) kb;
+			intKB.freeze();
+			intKB.setQueryEngine(IntKB.QueryEngine.LEAPFROG);
+		}
+	}
+
+	public static ByteString entity(int rank) {
+		return (ByteString.of("<e" + rank + ">"));
+	}
+
+	public static ByteString relation(int rank) {
+		return (ByteString.of("<r" + rank + ">"));
+	}
+
+	/**
+	 * Cumulative probabilities of a Zipf distribution over n elements.
+	 */
+	private double[] cumulative(int n) {
+		double[] cdf = new double[n];
+		double sum = 0.0;
+		for (int i = 0; i < n; ++i) {
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < n; ++i) {
+			cdf[i] /= sum;
+		}
+		return (cdf);
+	}
+
+	private static int sample(double[] cdf, Random random) {
+		int pos = Arrays.binarySearch(cdf, random.nextDouble());
+		return (Math.min(pos >= 0 ? pos : -pos - 1, cdf.length - 1));
+	}
+
+	/**
+	 * It returns the generated facts as subject, relation and object.
+	 * @return
+	 */
+	public ByteString[][] facts() {
+		double[] entities = cumulative(nEntities);
+		double[] relations = cumulative(nRelations);
+		// The names are created once, the facts share them
+		ByteString[] entityNames = new ByteString[nEntities];
+		for (int i = 0; i < nEntities; ++i) {
+			entityNames[i] = entity(i);
+		}
+		ByteString[] relationNames = new ByteString[nRelations];
+		for (int i = 0; i < nRelations; ++i) {
+			relationNames[i] = relation(i);
+		}
+
+		Random random = new Random(seed);
+		ByteString[][] facts = new ByteString[nFacts][];
+		for (int i = 0; i < nFacts; ++i) {
+			facts[i] = new ByteString[]{entityNames[sample(entities, random)],
+					relationNames[sample(relations, random)], entityNames[sample(entities, random)]};
+		}
+		return (facts);
+	}
+
+	/**
+	 * It adds the generated facts to the KB.
+	 * @param kb
+	 */
+	public void fill(KB kb) {
+		for (ByteString[] fact : facts()) {
+			kb.add(fact);
+		}
+	}
+
+	/**
+	 * It writes the generated facts into a TSV file that KB.load can read.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"))) {
+			for (ByteString[] fact : facts()) {
+				writer.write(fact[0] + "\t" + fact[1] + "\t" + fact[2] + "\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package amie.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+import amie.data.KBLoader;
+
+/**
+ * Benchmarks of the construction of a KB from a generated set of facts: KB.add, one fact
+ * at a time, and the parallel loading of a TSV file (see KBLoader). Each operation builds
+ * a whole KB. See KBQueryBenchmark for how to run the benchmarks.
+ *
+ * @author lgalarra
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KBLoadBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int facts;
+
+	@Param({"0.0", "1.0"})
+	public double skew;
+
+	@Param({"KB", "IntKB"})
+	public String backend;
+
+	private ByteString[][] generatedFacts;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		KBGenerator generator = new KBGenerator(facts, skew);
+		generatedFacts = generator.facts();
+		file = File.createTempFile("amie-bench", ".tsv");
+		generator.write(file);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public KB add() {
+		KB kb = KBGenerator.newKB(backend);
+		for (ByteString[] fact : generatedFacts) {
+			kb.add(fact);
+		}
+		return (kb);
+	}
+
+	@Benchmark
+	public KB load() throws IOException {
+		KB kb = KBGenerator.newKB(backend);
+		new KBLoader(kb).load(Arrays.asList(file));
+		return (kb);
+	}
+}
@@ -0,0 +1,169 @@
+package amie.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+import amie.data.KB;
+
+/**
+ * Benchmarks of the query primitives of KB on generated KBs (see KBGenerator). The
+ * queries have the shapes of the bodies AMIE evaluates: paths, triangles, stars and
+ * atoms with constants, over the largest relations of the KB. The query cache is
+ * disabled, so every call evaluates the query.
+ *
+ * The benchmarks use JMH. They are compiled with the AMIE classes, jmh-core and
+ * jmh-generator-annprocess in the classpath, which generates the benchmark classes:
+ *
+ * <pre>
+ * javac -cp amie.jar:jmh-core.jar:jmh-generator-annprocess.jar -d bench src/bench/amie/bench/*.java
+ * java -cp amie.jar:jmh-core.jar:jopt-simple.jar:commons-math3.jar:bench org.openjdk.jmh.Main \
+ *     KBQueryBenchmark -p facts=1000000 -p backend=IntKB
+ * </pre>
+ *
+ * @author lgalarra
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KBQueryBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int facts;
+
+	@Param({"0.0", "1.0"})
+	public double skew;
+
+	@Param({"KB", "IntKB", "IntKB-leapfrog"})
+	public String backend;
+
+	private KB kb;
+
+	private static final ByteString a = ByteString.of("?a");
+
+	private static final ByteString b = ByteString.of("?b");
+
+	private static final ByteString c = ByteString.of("?c");
+
+	private static final ByteString r = ByteString.of("?r");
+
+	/** The most frequent entity **/
+	private ByteString hub;
+
+	/** An infrequent entity **/
+	private ByteString tail;
+
+	/** ?a r0 ?b, ?b r1 ?c **/
+	private List<ByteString[]> path;
+
+	/** ?a r0 ?b, ?b r1 ?c, ?a r2 ?c **/
+	private List<ByteString[]> triangle;
+
+	/** ?a r0 ?b, ?a r1 ?c, ?a r2 ?d **/
+	private List<ByteString[]> star;
+
+	/** ?a r0 ?b, ?b r1 hub **/
+	private List<ByteString[]> pathToHub;
+
+	/** ?a r0 ?b, ?b ?r ?c: the relations of a dangling atom **/
+	private List<ByteString[]> danglingAtom;
+
+	@Setup
+	public void setUp() {
+		KBGenerator generator = new KBGenerator(facts, skew);
+		kb = KBGenerator.newKB(backend);
+		generator.fill(kb);
+		KBGenerator.prepare(kb, backend);
+
+		ByteString r0 = KBGenerator.relation(0);
+		ByteString r1 = KBGenerator.relation(1);
+		ByteString r2 = KBGenerator.relation(2);
+		hub = KBGenerator.entity(0);
+		tail = KBGenerator.entity(facts / 10);
+		path = KB.triples(KB.triple(a, r0, b), KB.triple(b, r1, c));
+		triangle = KB.triples(KB.triple(a, r0, b), KB.triple(b, r1, c), KB.triple(a, r2, c));
+		star = KB.triples(KB.triple(a, r0, b), KB.triple(a, r1, c),
+				KB.triple(a, r2, ByteString.of("?d")));
+		pathToHub = KB.triples(KB.triple(a, r0, b), KB.triple(b, r1, hub));
+		danglingAtom = KB.triples(KB.triple(a, r0, b), KB.triple(b, r, c));
+	}
+
+	// ---------------------------------------------------------------------------
+	// Single atoms
+	// ---------------------------------------------------------------------------
+
+	@Benchmark
+	public IntHashMap<ByteString> resultsOneVariable() {
+		return (kb.resultsOneVariable(KB.triple(a, KBGenerator.relation(0), hub)));
+	}
+
+	@Benchmark
+	public Map<ByteString, IntHashMap<ByteString>> resultsTwoVariables() {
+		return (kb.resultsTwoVariables(a, b, KB.triple(a, KBGenerator.relation(1), b)));
+	}
+
+	// ---------------------------------------------------------------------------
+	// Rule bodies
+	// ---------------------------------------------------------------------------
+
+	@Benchmark
+	public Set<ByteString> selectDistinctPath() {
+		return (kb.selectDistinct(a, path));
+	}
+
+	@Benchmark
+	public long countDistinctStar() {
+		return (kb.countDistinct(a, star));
+	}
+
+	@Benchmark
+	public long countDistinctConstant() {
+		return (kb.countDistinct(a, pathToHub));
+	}
+
+	@Benchmark
+	public long countDistinctPairsPath() {
+		return (kb.countDistinctPairs(a, c, path));
+	}
+
+	@Benchmark
+	public long countDistinctPairsTriangle() {
+		return (kb.countDistinctPairs(a, b, triangle));
+	}
+
+	@Benchmark
+	public IntHashMap<ByteString> frequentBindingsOf() {
+		return (kb.frequentBindingsOf(r, a, danglingAtom));
+	}
+
+	@Benchmark
+	public boolean existsTriangleHub() {
+		return (kb.existsBS(KB.triples(KB.triple(hub, KBGenerator.relation(0), b),
+				KB.triple(b, KBGenerator.relation(1), c), KB.triple(hub, KBGenerator.relation(2), c))));
+	}
+
+	@Benchmark
+	public boolean existsPathTail() {
+		return (kb.existsBS(KB.triples(KB.triple(tail, KBGenerator.relation(0), b),
+				KB.triple(b, KBGenerator.relation(1), tail))));
+	}
+}
@@ -0,0 +1,469 @@
+package amie.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class BindingCursor
+ *
+ * Pull-based enumeration of the distinct bindings of some variables of a conjunctive query.
+ * The atoms are instantiated one at a time, the next atom being the most restrictive one
+ * given the current bindings (see KB.mostRestrictiveTriple) or, if cost-based planning is
+ * enabled, the next atom of the plan computed once for the query. The values of each atom are
+ * read directly from the indexes of the KB. Unlike the recursive evaluation of selectDistinct,
+ * no intermediate set of bindings is materialized: the cursor keeps one iterator per
+ * instantiated atom plus the bindings returned so far.
+ *
+ * If the most restrictive atom contains unbound projection variables and other variables,
+ * only the projection variables are bound. Once all the projection variables are bound,
+ * the rest of the query is only tested for existence. Each binding of the projection
+ * variables is returned once. The cursor works on a copy of the query, but the KB must not
+ * be modified while the cursor is in use.
+ *
+ * @author lgalarra
+ *
+ */
+public class BindingCursor {
+
+	private final KB kb;
+
+	/** Projection variables **/
+	private final ByteString[] projection;
+
+	/** Atoms that are not fully instantiated yet, copies of the atoms of the query **/
+	private final List<ByteString[]> remaining;
+
+	/** Atoms of the query in the order of the plan, null to choose the most restrictive atom **/
+	private List<ByteString[]> plan;
+
+	/** One frame per instantiated atom **/
+	private final Deque<Frame> frames = new ArrayDeque<>();
+
+	/** Current values of the bound variables **/
+	private final Map<ByteString, ByteString> bindings = new HashMap<>();
+
+	/** Bindings returned so far, depending on the number of projection variables **/
+	private final IntHashMap<ByteString> seen1 = new IntHashMap<>();
+
+	private final Map<ByteString, IntHashMap<ByteString>> seen2 = new HashMap<>();
+
+	private final Set<List<ByteString>> seenN = new HashSet<>();
+
+	private boolean started;
+
+	private boolean done;
+
+	/**
+	 * Iteration over the values of one atom. The variables of the atom are bound in the
+	 * given order, possibly only the first ones.
+	 */
+	private static final class Frame {
+		/** Position in the list of remaining atoms, -1 if the atom stays there **/
+		int index;
+
+		ByteString[] atom;
+
+		/** Variables bound by the frame, in order **/
+		ByteString[] variables;
+
+		/** Current values of the variables **/
+		ByteString[] values;
+
+		/** True if some variable occurs twice in the atom **/
+		boolean repeated;
+
+		/** Number of variables of the atom **/
+		int nVariables;
+
+		IntHashMap<ByteString> set;
+
+		Map<ByteString, IntHashMap<ByteString>> map2;
+
+		Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> map3;
+
+		Map<ByteString, IntHashMap<ByteString>> inner;
+
+		Iterator<ByteString> level0, level1, level2;
+
+		/** Occurrences of the variables in the remaining atoms **/
+		List<ByteString[]> targetAtoms = new ArrayList<>();
+
+		List<Integer> targetPositions = new ArrayList<>();
+
+		List<Integer> targetValues = new ArrayList<>();
+
+		/**
+		 * It moves to the next tuple of values.
+		 * @return false if there are no more values
+		 */
+		boolean step() {
+			switch (values.length) {
+			case 0:
+				// Ground atom, checked when the frame was created
+				if (level0 != null)
+					return (false);
+				level0 = new ArrayList<ByteString>().iterator();
+				return (true);
+			case 1:
+				if (!level0.hasNext())
+					return (false);
+				values[0] = level0.next();
+				return (true);
+			case 2:
+				while (level1 == null || !level1.hasNext()) {
+					if (!level0.hasNext())
+						return (false);
+					values[0] = level0.next();
+					if (nVariables == 2) {
+						level1 = map2.get(values[0]).iterator();
+					} else {
+						inner = map3.get(values[0]);
+						level1 = inner.keySet().iterator();
+					}
+				}
+				values[1] = level1.next();
+				return (true);
+			default:
+				while (level2 == null || !level2.hasNext()) {
+					while (level1 == null || !level1.hasNext()) {
+						if (!level0.hasNext())
+							return (false);
+						values[0] = level0.next();
+						inner = map3.get(values[0]);
+						level1 = inner.keySet().iterator();
+					}
+					values[1] = level1.next();
+					level2 = inner.get(values[1]).iterator();
+				}
+				values[2] = level2.next();
+				return (true);
+			}
+		}
+
+		/**
+		 * It returns false if a repeated variable got different values.
+		 */
+		boolean consistent() {
+			if (!repeated)
+				return (true);
+			for (int i = 0; i < values.length; ++i) {
+				for (int j = i + 1; j < values.length; ++j) {
+					if (variables[i].equals(variables[j]) && !values[i].equals(values[j]))
+						return (false);
+				}
+			}
+			return (true);
+		}
+	}
+
+	/**
+	 * @param kb
+	 * @param query It is not modified
+	 * @param projection Variables whose distinct bindings are returned, possibly none
+	 */
+	BindingCursor(KB kb, List<ByteString[]> query, ByteString... projection) {
+		this.kb = kb;
+		this.projection = projection;
+		this.remaining = new ArrayList<>(query.size());
+		for (ByteString[] atom : query) {
+			remaining.add(atom.clone());
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Iteration
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It moves to the next binding of the projection variables. Without projection
+	 * variables, it returns true at most once, if the query has a solution.
+	 * @return false if there are no more bindings
+	 */
+	public boolean next() {
+		if (done)
+			return (false);
+		if (!started) {
+			started = true;
+			if (isProjectionBound()) {
+				done = true;
+				return (kb.existsBS(remaining));
+			}
+			plan(kb.plan(remaining));
+			if (!push()) {
+				done = true;
+				return (false);
+			}
+		}
+		while (!frames.isEmpty()) {
+			Frame frame = frames.peek();
+			if (!advance(frame)) {
+				pop();
+				continue;
+			}
+			if (remaining.isEmpty() || isProjectionBound()) {
+				if (isNew() && (remaining.isEmpty() || kb.existsBS(remaining))) {
+					markSeen();
+					return (true);
+				}
+				continue;
+			}
+			// If no atom can be instantiated, the frame moves to its next values
+			push();
+		}
+		done = true;
+		return (false);
+	}
+
+	/**
+	 * Value of the i-th projection variable in the current binding.
+	 */
+	public ByteString get(int i) {
+		return (bindings.get(projection[i]));
+	}
+
+	/**
+	 * Value of the variable in the current binding, null if it is not bound. Variables
+	 * that are not projected may not be bound.
+	 */
+	public ByteString get(ByteString variable) {
+		return (bindings.get(variable));
+	}
+
+	private boolean isProjectionBound() {
+		for (ByteString variable : projection) {
+			if (!bindings.containsKey(variable))
+				return (false);
+		}
+		return (true);
+	}
+
+	private boolean isNew() {
+		switch (projection.length) {
+		case 1:
+			return (!seen1.contains(get(0)));
+		case 2:
+			IntHashMap<ByteString> values = seen2.get(get(0));
+			return (values == null || !values.contains(get(1)));
+		default:
+			return (!seenN.contains(currentTuple()));
+		}
+	}
+
+	private void markSeen() {
+		switch (projection.length) {
+		case 1:
+			seen1.add(get(0));
+			break;
+		case 2:
+			IntHashMap<ByteString> values = seen2.get(get(0));
+			if (values == null)
+				seen2.put(get(0), values = new IntHashMap<>());
+			values.add(get(1));
+			break;
+		default:
+			seenN.add(currentTuple());
+			break;
+		}
+	}
+
+	private List<ByteString> currentTuple() {
+		ByteString[] tuple = new ByteString[projection.length];
+		for (int i = 0; i < tuple.length; ++i) {
+			tuple[i] = get(i);
+		}
+		return (Arrays.asList(tuple));
+	}
+
+	private void plan(QueryPlanner.Plan queryPlan) {
+		if (queryPlan == null)
+			return;
+		plan = new ArrayList<>();
+		for (QueryPlanner.Step step : queryPlan.getSteps()) {
+			plan.add(remaining.get(step.atom));
+		}
+	}
+
+	/**
+	 * It returns the position in the remaining atoms of the next atom of the plan, -1 if
+	 * the query has no solutions.
+	 */
+	private int nextPlannedAtom() {
+		for (ByteString[] atom : plan) {
+			int index = remaining.indexOf(atom);
+			if (index != -1)
+				return (index);
+		}
+		return (-1);
+	}
+
+	/**
+	 * It instantiates the next atom of the plan or the most restrictive remaining atom.
+	 * @return false if the current bindings have no solution
+	 */
+	private boolean push() {
+		int best = plan == null ? kb.mostRestrictiveTriple(remaining) : nextPlannedAtom();
+		if (best == -1)
+			return (false);
+		ByteString[] atom = remaining.get(best);
+		Frame frame = new Frame();
+		frame.atom = atom;
+
+		// Order of the variables: the unbound projection variables first
+		List<Integer> positions = new ArrayList<>();
+		Set<ByteString> distinct = new HashSet<>();
+		for (int i = 0; i < atom.length; ++i) {
+			if (KB.isVariable(atom[i])) {
+				positions.add(i);
+				frame.repeated |= !distinct.add(atom[i]);
+			}
+		}
+		frame.nVariables = positions.size();
+		int projected = 0;
+		if (!frame.repeated) {
+			List<Integer> order = new ArrayList<>();
+			for (int i : positions) {
+				if (Arrays.asList(projection).contains(atom[i]))
+					order.add(i);
+			}
+			projected = order.size();
+			for (int i : positions) {
+				if (!order.contains(i))
+					order.add(i);
+			}
+			positions = order;
+		}
+		// Bind only the projection variables if there are others
+		int nBound = projected > 0 && projected < positions.size() ? projected : positions.size();
+		frame.index = nBound == positions.size() ? best : -1;
+		frame.variables = new ByteString[nBound];
+		frame.values = new ByteString[nBound];
+		for (int i = 0; i < nBound; ++i) {
+			frame.variables[i] = atom[positions.get(i)];
+		}
+
+		switch (positions.size()) {
+		case 0:
+			if (!kb.contains(atom))
+				return (false);
+			break;
+		case 1:
+			frame.set = kb.resultsOneVariable(atom);
+			frame.level0 = frame.set.iterator();
+			break;
+		case 2:
+			frame.map2 = kb.resultsTwoVariables(positions.get(0), positions.get(1), atom);
+			frame.level0 = frame.map2.keySet().iterator();
+			break;
+		default:
+			frame.map3 = kb.resultsThreeVariables(positions.get(0), positions.get(1),
+					positions.get(2), atom);
+			frame.level0 = frame.map3.keySet().iterator();
+			break;
+		}
+
+		if (frame.index != -1)
+			remaining.remove(best);
+		for (int v = 0; v < nBound; ++v) {
+			ByteString variable = frame.variables[v];
+			if (Arrays.asList(frame.variables).indexOf(variable) != v)
+				continue;
+			for (ByteString[] other : remaining) {
+				for (int k = 0; k < other.length; ++k) {
+					if (other[k].equals(variable)) {
+						frame.targetAtoms.add(other);
+						frame.targetPositions.add(k);
+						frame.targetValues.add(v);
+					}
+				}
+			}
+		}
+		frames.push(frame);
+		return (true);
+	}
+
+	/**
+	 * It moves the frame to its next consistent values and instantiates them
+	 * in the remaining atoms.
+	 * @return false if the frame has no more values
+	 */
+	private boolean advance(Frame frame) {
+		while (frame.step()) {
+			if (!frame.consistent())
+				continue;
+			for (int t = 0; t < frame.targetAtoms.size(); ++t) {
+				frame.targetAtoms.get(t)[frame.targetPositions.get(t)] =
+						frame.values[frame.targetValues.get(t)];
+			}
+			for (int v = 0; v < frame.values.length; ++v) {
+				bindings.put(frame.variables[v], frame.values[v]);
+			}
+			return (true);
+		}
+		return (false);
+	}
+
+	/**
+	 * It removes the top frame and restores the variables it had instantiated.
+	 */
+	private void pop() {
+		Frame frame = frames.pop();
+		for (int t = 0; t < frame.targetAtoms.size(); ++t) {
+			frame.targetAtoms.get(t)[frame.targetPositions.get(t)] =
+					frame.variables[frame.targetValues.get(t)];
+		}
+		for (ByteString variable : frame.variables) {
+			bindings.remove(variable);
+		}
+		if (frame.index != -1)
+			remaining.add(frame.index, frame.atom);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Consumers
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It returns true if the query has a solution.
+	 */
+	public boolean exists() {
+		return (next());
+	}
+
+	/**
+	 * It counts the remaining bindings of the projection variables, stopping at the limit.
+	 */
+	public long countDistinct(long limit) {
+		long count = 0;
+		while (count < limit && next())
+			++count;
+		return (count);
+	}
+
+	/**
+	 * It returns the distinct values of the (single) projection variable, at least limit of them
+	 * if there are so many.
+	 */
+	public IntHashMap<ByteString> selectDistinct(long limit) {
+		while (seen1.size() < limit && next());
+		return (seen1);
+	}
+
+	/**
+	 * It returns the distinct pairs of values of the two projection variables.
+	 */
+	public Map<ByteString, IntHashMap<ByteString>> selectDistinctPairs() {
+		while (next());
+		return (seen2);
+	}
+}
@@ -0,0 +1,254 @@
+package amie.data;
+
+import java.nio.IntBuffer;
+
+/**
+ * Class CSRTripleIndex
+ *
+ * Read-only 3-level index (key1 -> key2 -> values) in compressed sparse row layout.
+ * The first-level keys are stored in a sorted array. The second-level keys of the i-th
+ * first-level key are the sorted segment keys2[offsets1[i] .. offsets1[i + 1]) and the
+ * values of the j-th second-level key are the sorted segment
+ * values[offsets2[j] .. offsets2[j + 1]). Lookups are binary searches and the
+ * index can be read concurrently without synchronization.
+ *
+ * The arrays are int buffers, so they can live either in the heap or in a memory-mapped
+ * file (see KBSnapshot). Reads use absolute positions only.
+ *
+ * @author lgalarra
+ *
+ */
+public class CSRTripleIndex {
+
+	final IntBuffer keys1;
+
+	final IntBuffer offsets1;
+
+	final IntBuffer keys2;
+
+	final IntBuffer offsets2;
+
+	final IntBuffer values;
+
+	CSRTripleIndex(int[] keys1, int[] offsets1, int[] keys2, int[] offsets2, int[] values) {
+		this(IntBuffer.wrap(keys1), IntBuffer.wrap(offsets1), IntBuffer.wrap(keys2),
+				IntBuffer.wrap(offsets2), IntBuffer.wrap(values));
+	}
+
+	CSRTripleIndex(IntBuffer keys1, IntBuffer offsets1, IntBuffer keys2, IntBuffer offsets2, IntBuffer values) {
+		this.keys1 = keys1;
+		this.offsets1 = offsets1;
+		this.keys2 = keys2;
+		this.offsets2 = offsets2;
+		this.values = values;
+	}
+
+	/**
+	 * Binary search of the key in the sorted segment [from, to) of the buffer.
+	 * It returns the position of the key or -1 if the key is not found.
+	 */
+	static int search(IntBuffer buffer, int from, int to, int key) {
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = buffer.get(mid);
+			if (value < key)
+				low = mid + 1;
+			else if (value > key)
+				high = mid - 1;
+			else
+				return (mid);
+		}
+		return (-1);
+	}
+
+	private static int[] copy(IntBuffer buffer, int from, int to) {
+		int[] result = new int[to - from];
+		for (int i = from; i < to; ++i) {
+			result[i - from] = buffer.get(i);
+		}
+		return (result);
+	}
+
+	/**
+	 * It returns the position of key1 in the first level or -1 if
+	 * the key is not in the index.
+	 */
+	int find(int key1) {
+		return (search(keys1, 0, keys1.capacity(), key1));
+	}
+
+	/**
+	 * It returns the position of key2 in the second level (under key1) or -1 if
+	 * the pair is not in the index.
+	 */
+	int find(int key1, int key2) {
+		int pos1 = find(key1);
+		if (pos1 < 0)
+			return (-1);
+		return (search(keys2, offsets1.get(pos1), offsets1.get(pos1 + 1), key2));
+	}
+
+	public boolean contains(int key1) {
+		return (find(key1) >= 0);
+	}
+
+	public boolean contains(int key1, int key2) {
+		return (find(key1, key2) >= 0);
+	}
+
+	public boolean contains(int key1, int key2, int value) {
+		int pos2 = find(key1, key2);
+		if (pos2 < 0)
+			return (false);
+		return (search(values, offsets2.get(pos2), offsets2.get(pos2 + 1), value) >= 0);
+	}
+
+	public int size() {
+		return (keys1.capacity());
+	}
+
+	public int size(int key1) {
+		int pos1 = find(key1);
+		return (pos1 < 0 ? 0 : offsets1.get(pos1 + 1) - offsets1.get(pos1));
+	}
+
+	public int size(int key1, int key2) {
+		int pos2 = find(key1, key2);
+		return (pos2 < 0 ? 0 : offsets2.get(pos2 + 1) - offsets2.get(pos2));
+	}
+
+	public long triples() {
+		return (values.capacity());
+	}
+
+	public int[] keys() {
+		return (copy(keys1, 0, keys1.capacity()));
+	}
+
+	public int[] keys(int key1) {
+		int pos1 = find(key1);
+		if (pos1 < 0)
+			return (new int[0]);
+		return (copy(keys2, offsets1.get(pos1), offsets1.get(pos1 + 1)));
+	}
+
+	public int[] values(int key1, int key2) {
+		int pos2 = find(key1, key2);
+		if (pos2 < 0)
+			return (new int[0]);
+		return (copy(values, offsets2.get(pos2), offsets2.get(pos2 + 1)));
+	}
+
+	/**
+	 * It sets the run to the segment of second-level keys of key1.
+	 */
+	IntTripleIndex.Run keys(int key1, IntTripleIndex.Run run) {
+		int pos1 = find(key1);
+		if (pos1 < 0)
+			return (run.clear());
+		return (run.reset(keys2, offsets1.get(pos1), offsets1.get(pos1 + 1)));
+	}
+
+	/**
+	 * It sets the run to the segment of values of the pair (key1, key2).
+	 */
+	IntTripleIndex.Run values(int key1, int key2, IntTripleIndex.Run run) {
+		int pos2 = find(key1, key2);
+		if (pos2 < 0)
+			return (run.clear());
+		return (run.reset(values, offsets2.get(pos2), offsets2.get(pos2 + 1)));
+	}
+
+	/**
+	 * It returns a new iterator over the index seen as a trie of depth 3.
+	 */
+	public TrieIterator iterator() {
+		return (new TrieIterator());
+	}
+
+	/**
+	 * Iterator over the keys of one level of the index at a time, as required by 
+	 * Leapfrog Triejoin (see LeapfrogTriejoin). The iterator starts above the first 
+	 * level: open() moves to the first key of the next level under the current key 
+	 * and up() goes back to the previous level.
+	 */
+	public final class TrieIterator {
+
+		/** Current level, -1 before the first call to open **/
+		private int depth = -1;
+
+		/** Current position in each level **/
+		private final int[] position = new int[3];
+
+		/** End (exclusive) of the segment of each level **/
+		private final int[] end = new int[3];
+
+		private IntBuffer buffer(int level) {
+			return (level == 0 ? keys1 : (level == 1 ? keys2 : values));
+		}
+
+		public void open() {
+			int start;
+			if (depth == -1) {
+				start = 0;
+				end[0] = keys1.capacity();
+			} else if (depth == 0) {
+				start = offsets1.get(position[0]);
+				end[1] = offsets1.get(position[0] + 1);
+			} else {
+				start = offsets2.get(position[1]);
+				end[2] = offsets2.get(position[1] + 1);
+			}
+			position[++depth] = start;
+		}
+
+		public void up() {
+			--depth;
+		}
+
+		public int depth() {
+			return (depth);
+		}
+
+		public boolean atEnd() {
+			return (position[depth] >= end[depth]);
+		}
+
+		public int key() {
+			return (buffer(depth).get(position[depth]));
+		}
+
+		public void next() {
+			++position[depth];
+		}
+
+		/**
+		 * It moves to the first key greater than or equal to the given key,
+		 * or to the end of the level if there is none. The search gallops from
+		 * the current position, so a sequence of seeks costs a single pass.
+		 */
+		public void seek(int key) {
+			IntBuffer buffer = buffer(depth);
+			int low = position[depth];
+			int limit = end[depth];
+			int step = 1;
+			int high = low;
+			while (high < limit && buffer.get(high) < key) {
+				low = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			high = Math.min(high, limit);
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (buffer.get(mid) < key)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			position[depth] = low;
+		}
+	}
+}
@@ -0,0 +1,776 @@
+package amie.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class IntKB
+ *
+ * In-memory KB that interns every entity and relation into a dense integer
+ * identifier (see KBDictionary) and stores the six permutation indexes as
+ * primitive int structures (see IntTripleIndex). This avoids the per-fact cost
+ * of boxed references and nested hash maps of the ByteString indexes.
+ *
+ * Existence checks, distinct counts and selections are evaluated directly on the
+ * integer indexes (see IntQueryEvaluator), only their results are decoded. The
+ * other operations of KB (e.g. frequentBindingsOf) read the index fields of the
+ * superclass, which are read-only views that decode the integer indexes on demand,
+ * so they allocate more than on a KB.
+ *
+ * The KB can be restricted to the permutations required by a workload (see
+ * IntKB(Set)). The other permutations are not filled during loading: they are
+ * built in parallel from the subject-relation-object index the first time a
+ * query reads them.
+ *
+ * Once frozen, multi-atom queries can be evaluated with a worst-case optimal join
+ * (see LeapfrogTriejoin and setQueryEngine).
+ *
+ * @author lgalarra
+ *
+ */
+public class IntKB extends KB {
+
+	/** Dictionary of entities and relations **/
+	protected final KBDictionary dictionary;
+
+	/** Integer indexes, in the same order as the views of the superclass **/
+	protected final IntTripleIndex subjectRelationObject;
+
+	protected final IntTripleIndex relationObjectSubject;
+
+	protected final IntTripleIndex objectSubjectRelation;
+
+	protected final IntTripleIndex relationSubjectObject;
+
+	protected final IntTripleIndex objectRelationSubject;
+
+	protected final IntTripleIndex subjectObjectRelation;
+
+	/** Engine for distinct counts, selections and existence checks **/
+	private volatile QueryEngine queryEngine = QueryEngine.INSTANTIATION;
+
+	/**
+	 * Permutation indexes of the KB, in the order of the constructor.
+	 */
+	public enum Permutation {
+		SRO, ROS, OSR, RSO, ORS, SOR
+	}
+
+	/**
+	 * Evaluation strategies for queries with several atoms.
+	 */
+	public enum QueryEngine {
+		/** Instantiation of the most restrictive atom first, as in KB **/
+		INSTANTIATION,
+		/** Leapfrog Triejoin on the frozen indexes, see LeapfrogTriejoin **/
+		LEAPFROG
+	}
+
+	/** Number of facts copied from the primary index in every step of a lazy build **/
+	private static final int BUILD_CHUNK = 1 << 20;
+
+	public IntKB() {
+		this(EnumSet.allOf(Permutation.class));
+	}
+
+	/**
+	 * It creates a KB that maintains only the given permutations during loading.
+	 * The remaining ones are built on first access. The permutation SRO is
+	 * always maintained, as it is used to detect duplicates.
+	 * Facts must not be added or removed while a permutation is being built.
+	 * @param permutations
+	 */
+	public IntKB(Set<Permutation> permutations) {
+		this(new KBDictionary(), new IntTripleIndex(), new IntTripleIndex(), new IntTripleIndex(),
+				new IntTripleIndex(), new IntTripleIndex(), new IntTripleIndex());
+		IntTripleIndex[] indexes = indexes();
+		for (Permutation permutation : Permutation.values()) {
+			if (permutation != Permutation.SRO && !permutations.contains(permutation))
+				indexes[permutation.ordinal()].setBuilder(new PermutationBuilder(permutation));
+		}
+	}
+
+	IntKB(KBDictionary dictionary, IntTripleIndex sro, IntTripleIndex ros, IntTripleIndex osr,
+			IntTripleIndex rso, IntTripleIndex ors, IntTripleIndex sor) {
+		super(new IndexView(sro, dictionary), new IndexView(ros, dictionary), new IndexView(osr, dictionary),
+				new IndexView(rso, dictionary), new IndexView(ors, dictionary), new IndexView(sor, dictionary));
+		this.dictionary = dictionary;
+		this.subjectRelationObject = sro;
+		this.relationObjectSubject = ros;
+		this.objectSubjectRelation = osr;
+		this.relationSubjectObject = rso;
+		this.objectRelationSubject = ors;
+		this.subjectObjectRelation = sor;
+	}
+
+	/**
+	 * It returns the dictionary used to encode the entities and relations
+	 * of the KB.
+	 * @return
+	 */
+	public KBDictionary getDictionary() {
+		return (dictionary);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Loading and deletion
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It converts the indexes into a read-only sorted layout (see CSRTripleIndex), 
+	 * where lookups are binary searches. It is meant to be called once the KB is loaded. 
+	 * Afterwards, facts cannot be added or removed and all threads can read the KB 
+	 * without synchronization.
+	 */
+	public void freeze() {
+		for (IntTripleIndex index : indexes()) {
+			synchronized (index) {
+				index.freeze();
+			}
+		}
+	}
+
+	/**
+	 * It returns the integer indexes in the order of the constructor.
+	 */
+	IntTripleIndex[] indexes() {
+		return (new IntTripleIndex[]{subjectRelationObject, relationObjectSubject,
+				objectSubjectRelation, relationSubjectObject, objectRelationSubject, subjectObjectRelation});
+	}
+
+	/**
+	 * It returns true if the KB has been frozen.
+	 */
+	public boolean isFrozen() {
+		return (subjectRelationObject.isFrozen());
+	}
+
+	/**
+	 * It returns the permutations that have been built so far.
+	 */
+	public Set<Permutation> getBuiltPermutations() {
+		Set<Permutation> result = EnumSet.noneOf(Permutation.class);
+		IntTripleIndex[] indexes = indexes();
+		for (Permutation permutation : Permutation.values()) {
+			if (indexes[permutation.ordinal()].isBuilt())
+				result.add(permutation);
+		}
+		return (result);
+	}
+
+	/**
+	 * Builds a permutation from the primary index (SRO). The facts are copied in
+	 * chunks and every chunk is inserted by one task per shard of identifiers.
+	 */
+	private final class PermutationBuilder implements IntTripleIndex.Builder {
+
+		private final Permutation permutation;
+
+		PermutationBuilder(Permutation permutation) {
+			this.permutation = permutation;
+		}
+
+		@Override
+		public void build(IntTripleIndex index) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				index.ensureCapacity(dictionary.size() + 1);
+				int[] facts = new int[3 * BUILD_CHUNK];
+				int n = 0;
+				for (int subject : subjectRelationObject.keys()) {
+					for (int relation : subjectRelationObject.keys(subject)) {
+						for (int object : subjectRelationObject.values(subject, relation)) {
+							facts[3 * n] = subject;
+							facts[3 * n + 1] = relation;
+							facts[3 * n + 2] = object;
+							if (++n == BUILD_CHUNK) {
+								insert(index, facts, n, executor, threads);
+								n = 0;
+							}
+						}
+					}
+				}
+				insert(index, facts, n, executor, threads);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while building the permutation " + permutation, e);
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		private void insert(final IntTripleIndex index, final int[] facts, final int n,
+				ExecutorService executor, final int shards) throws InterruptedException {
+			final int[] order = PERMUTATIONS[permutation.ordinal()];
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int shard = 0; shard < shards; ++shard) {
+				final int myShard = shard;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						index.addShard(facts, n, order, myShard, shards, null);
+						return (null);
+					}
+				});
+			}
+			KBLoader.invokeAll(executor, tasks);
+		}
+	}
+
+	@Override
+	protected boolean add(ByteString key1, ByteString key2, ByteString value,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> map) {
+		IntTripleIndex index = ((IndexView) map).index;
+		if (!index.isBuilt()) {
+			// The fact will be copied from the primary index when the permutation is built
+			return (true);
+		}
+		int id1 = dictionary.encode(key1);
+		int id2 = dictionary.encode(key2);
+		int id3 = dictionary.encode(value);
+		synchronized (index) {
+			return (index.add(id1, id2, id3));
+		}
+	}
+
+	@Override
+	protected KBLoader.Batch newBatch() {
+		return (new IntBatch(dictionary));
+	}
+
+	/**
+	 * The facts are inserted by one task per shard of identifiers. The task of
+	 * shard k owns the first-level keys key1 % shards == k in all the indexes,
+	 * so no synchronization is needed.
+	 */
+	@Override
+	protected void addToIndexes(final List<KBLoader.Batch> batches, ExecutorService executor,
+			final int parallelism) throws InterruptedException {
+		final IntTripleIndex[] indexes = indexes();
+		int capacity = dictionary.size() + 1;
+		for (IntTripleIndex index : indexes) {
+			synchronized (index) {
+				if (index.isBuilt())
+					index.ensureCapacity(capacity);
+			}
+		}
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int shard = 0; shard < parallelism; ++shard) {
+			final int myShard = shard;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (KBLoader.Batch batch : batches) {
+						IntBatch intBatch = (IntBatch) batch;
+						for (int p = 0; p < indexes.length; ++p) {
+							if (!indexes[p].isBuilt())
+								continue;
+							indexes[p].addShard(intBatch.facts, intBatch.size(), PERMUTATIONS[p],
+									myShard, parallelism, p == 0 ? intBatch.fresh : null);
+						}
+					}
+					return (null);
+				}
+			});
+		}
+		KBLoader.invokeAll(executor, tasks);
+	}
+
+	@Override
+	public boolean delete(ByteString subject, ByteString predicate, ByteString object) {
+		if (isFrozen())
+			throw new UnsupportedOperationException("The KB is frozen");
+		return (super.delete(subject, predicate, object));
+	}
+
+	@Override
+	protected void removeFromIndex(ByteString key1, ByteString key2, ByteString value,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> map) {
+		IntTripleIndex index = ((IndexView) map).index;
+		if (!index.isBuilt())
+			return;
+		synchronized (index) {
+			index.remove(dictionary.get(key1), dictionary.get(key2), dictionary.get(value));
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Lookups
+	// ---------------------------------------------------------------------------
+
+	@Override
+	protected boolean contains(ByteString... fact) {
+		if (isSpecialAtom(fact))
+			return (super.contains(fact));
+		int subject = dictionary.get(fact[0]);
+		int relation = dictionary.get(fact[1]);
+		int object = dictionary.get(fact[2]);
+		if (subject == 0 || relation == 0 || object == 0)
+			return (false);
+		return (subjectRelationObject.contains(subject, relation, object));
+	}
+
+	@Override
+	protected long countOneVariable(ByteString... triple) {
+		if (isSpecialAtom(triple))
+			return (super.countOneVariable(triple));
+		if (isVariable(triple[0]))
+			return (size(relationObjectSubject, triple[1], triple[2]));
+		if (isVariable(triple[1]))
+			return (size(objectSubjectRelation, triple[2], triple[0]));
+		return (size(subjectRelationObject, triple[0], triple[1]));
+	}
+
+	/**
+	 * It sets the engine used to evaluate queries. The Leapfrog Triejoin engine is
+	 * used only when the KB is frozen and the query is supported (see LeapfrogTriejoin),
+	 * otherwise queries are evaluated as in KB.
+	 * @param queryEngine
+	 */
+	public void setQueryEngine(QueryEngine queryEngine) {
+		this.queryEngine = queryEngine;
+	}
+
+	public QueryEngine getQueryEngine() {
+		return (queryEngine);
+	}
+
+	/**
+	 * It returns the compiled join for the query or null if the query should be
+	 * evaluated by instantiation.
+	 */
+	private LeapfrogTriejoin join(List<ByteString[]> query, ByteString... projection) {
+		if (queryEngine != QueryEngine.LEAPFROG || !isFrozen())
+			return (null);
+		return (LeapfrogTriejoin.compile(this, query, projection));
+	}
+
+	@Override
+	public boolean existsBS(List<ByteString[]> triples) {
+		long start = startQuery(existsTimer);
+		try {
+			LeapfrogTriejoin join = join(triples);
+			if (join != null)
+				return (join.exists());
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, triples);
+			return (evaluator == null ? super.existsBS(triples) : evaluator.exists());
+		} finally {
+			stopQuery(existsTimer, start);
+		}
+	}
+
+	@Override
+	public long countDistinct(ByteString variable, List<ByteString[]> query) {
+		long start = startQuery(countDistinctTimer);
+		try {
+			QueryCache cache = queryCache(query);
+			if (cache != null)
+				return (cache.countDistinct(this, variable, query));
+			LeapfrogTriejoin join = join(query, variable);
+			if (join != null)
+				return (join.count());
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, variable);
+			return (evaluator == null ? super.countDistinct(variable, query) : evaluator.count());
+		} finally {
+			stopQuery(countDistinctTimer, start);
+		}
+	}
+
+	@Override
+	public Set<ByteString> selectDistinct(ByteString variable, List<ByteString[]> query) {
+		long start = startQuery(selectDistinctTimer);
+		try {
+			QueryCache cache = queryCache(query);
+			if (cache != null)
+				return (cache.selectDistinct(this, variable, query));
+			LeapfrogTriejoin join = join(query, variable);
+			return (join == null ? super.selectDistinct(variable, query) : join.select());
+		} finally {
+			stopQuery(selectDistinctTimer, start);
+		}
+	}
+
+	@Override
+	public Set<ByteString> selectDistinct(ByteString variable, List<ByteString[]> query, long limit) {
+		long start = startQuery(selectDistinctTimer);
+		try {
+			LeapfrogTriejoin join = join(query, variable);
+			if (join != null)
+				return (join.select(limit));
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, variable);
+			return (evaluator == null ? super.selectDistinct(variable, query, limit) : evaluator.select(limit));
+		} finally {
+			stopQuery(selectDistinctTimer, start);
+		}
+	}
+
+	@Override
+	public long countDistinctAtMost(ByteString variable, List<ByteString[]> query, long limit) {
+		long start = startQuery(countDistinctAtMostTimer);
+		try {
+			QueryCache cache = queryCache(query);
+			if (cache != null)
+				return (cache.countDistinctAtMost(this, variable, query, limit));
+			LeapfrogTriejoin join = join(query, variable);
+			if (join != null)
+				return (join.count(limit));
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, variable);
+			return (evaluator == null ? super.countDistinctAtMost(variable, query, limit) : evaluator.count(limit));
+		} finally {
+			stopQuery(countDistinctAtMostTimer, start);
+		}
+	}
+
+	@Override
+	public Map<ByteString, IntHashMap<ByteString>> selectDistinct(ByteString var1, ByteString var2,
+			List<ByteString[]> query) {
+		long start = startQuery(selectDistinctPairsTimer);
+		try {
+			LeapfrogTriejoin join = join(query, var1, var2);
+			if (join != null)
+				return (join.selectPairs());
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, var1, var2);
+			return (evaluator == null ? super.selectDistinct(var1, var2, query) : evaluator.selectPairs());
+		} finally {
+			stopQuery(selectDistinctPairsTimer, start);
+		}
+	}
+
+	@Override
+	public long countDistinctPairs(ByteString var1, ByteString var2, List<ByteString[]> query) {
+		long start = startQuery(countDistinctPairsTimer);
+		try {
+			QueryCache cache = queryCache(query);
+			if (cache != null)
+				return (cache.countDistinctPairs(this, var1, var2, query));
+			LeapfrogTriejoin join = join(query, var1, var2);
+			if (join != null)
+				return (join.count());
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, var1, var2);
+			return (evaluator == null ? super.countDistinctPairs(var1, var2, query)
+					: evaluator.count(Long.MAX_VALUE, getQueryPool()));
+		} finally {
+			stopQuery(countDistinctPairsTimer, start);
+		}
+	}
+
+	@Override
+	public long countDistinctPairsAtMost(ByteString var1, ByteString var2, List<ByteString[]> query,
+			long limit) {
+		long start = startQuery(countDistinctPairsAtMostTimer);
+		try {
+			QueryCache cache = queryCache(query);
+			if (cache != null)
+				return (cache.countDistinctPairsAtMost(this, var1, var2, query, limit));
+			LeapfrogTriejoin join = join(query, var1, var2);
+			if (join != null)
+				return (join.count(limit));
+			IntQueryEvaluator evaluator = IntQueryEvaluator.compile(this, query, var1, var2);
+			return (evaluator == null ? super.countDistinctPairsAtMost(var1, var2, query, limit)
+					: evaluator.count(limit, getQueryPool()));
+		} finally {
+			stopQuery(countDistinctPairsAtMostTimer, start);
+		}
+	}
+
+	private int size(IntTripleIndex index, ByteString key1, ByteString key2) {
+		int id1 = dictionary.get(key1);
+		int id2 = dictionary.get(key2);
+		if (id1 == 0 || id2 == 0)
+			return (0);
+		return (index.size(id1, id2));
+	}
+
+	/**
+	 * The identifiers of the dictionary are used as entity identifiers.
+	 */
+	@Override
+	protected int[][] overlapColumns(List<ByteString> relations) {
+		int[][] columns = new int[2 * relations.size()][];
+		for (int i = 0; i < relations.size(); ++i) {
+			int relation = dictionary.get(relations.get(i));
+			columns[2 * i] = relation == 0 ? new int[0] : relationSubjectObject.keys(relation);
+			columns[2 * i + 1] = relation == 0 ? new int[0] : relationObjectSubject.keys(relation);
+		}
+		return (columns);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Views
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * Batch of facts encoded with the dictionary of the KB.
+	 */
+	private static final class IntBatch extends KBLoader.Batch {
+
+		final int[] facts = new int[3 * KBLoader.BATCH_SIZE];
+
+		private final KBDictionary dictionary;
+
+		IntBatch(KBDictionary dictionary) {
+			this.dictionary = dictionary;
+			this.fresh = new boolean[KBLoader.BATCH_SIZE];
+		}
+
+		@Override
+		public void add(CharSequence subject, CharSequence relation, CharSequence object) {
+			int base = 3 * size++;
+			facts[base] = dictionary.encode(compress(subject));
+			facts[base + 1] = dictionary.encode(compress(relation));
+			facts[base + 2] = dictionary.encode(compress(object));
+		}
+
+		@Override
+		public void add(byte[] buffer, TripleParser parser) {
+			int base = 3 * size++;
+			for (int column = 0; column < 3; ++column) {
+				facts[base + column] = dictionary.encode(buffer, parser.start(column),
+						parser.end(column) - parser.start(column));
+			}
+		}
+
+		@Override
+		public ByteString get(int fact, int column) {
+			return (dictionary.decode(facts[3 * fact + column]));
+		}
+	}
+
+	/**
+	 * Iterator that decodes the identifiers of a run as they are read.
+	 */
+	private abstract static class RunIterator<T> implements Iterator<T> {
+
+		private final IntTripleIndex.Run run;
+
+		private int next;
+
+		RunIterator(IntTripleIndex.Run run) {
+			this.run = run;
+			this.next = run.next();
+		}
+
+		protected abstract T get(int id);
+
+		@Override
+		public boolean hasNext() {
+			return (next != 0);
+		}
+
+		@Override
+		public T next() {
+			if (next == 0)
+				throw new NoSuchElementException();
+			int id = next;
+			next = run.next();
+			return (get(id));
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Set of the strings of the first-level keys of an index (key1 = 0) or of the
+	 * second-level keys under key1. The keys are decoded while they are read from the index.
+	 */
+	private static final class DecodedSet extends AbstractSet<ByteString> {
+
+		private final IntTripleIndex index;
+
+		private final KBDictionary dictionary;
+
+		private final int key1;
+
+		DecodedSet(IntTripleIndex index, KBDictionary dictionary, int key1) {
+			this.index = index;
+			this.dictionary = dictionary;
+			this.key1 = key1;
+		}
+
+		@Override
+		public Iterator<ByteString> iterator() {
+			IntTripleIndex.Run run = new IntTripleIndex.Run();
+			return new RunIterator<ByteString>(key1 == 0 ? index.keys(run) : index.keys(key1, run)) {
+				@Override
+				protected ByteString get(int id) {
+					return (dictionary.decode(id));
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			int id = key instanceof ByteString ? dictionary.get((ByteString) key) : 0;
+			if (id == 0)
+				return (false);
+			return (key1 == 0 ? index.contains(id) : index.contains(key1, id));
+		}
+
+		@Override
+		public int size() {
+			return (key1 == 0 ? index.size() : index.size(key1));
+		}
+	}
+
+	/**
+	 * Read-only view of an integer index as a 3-level map of strings.
+	 */
+	private static final class IndexView extends AbstractMap<ByteString, Map<ByteString, IntHashMap<ByteString>>> {
+
+		final IntTripleIndex index;
+
+		final KBDictionary dictionary;
+
+		IndexView(IntTripleIndex index, KBDictionary dictionary) {
+			this.index = index;
+			this.dictionary = dictionary;
+		}
+
+		private int id(Object key) {
+			return (key instanceof ByteString ? dictionary.get((ByteString) key) : 0);
+		}
+
+		@Override
+		public Map<ByteString, IntHashMap<ByteString>> get(Object key) {
+			int id = id(key);
+			if (id == 0 || !index.contains(id))
+				return (null);
+			return (new NodeView(index, dictionary, id));
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int id = id(key);
+			return (id != 0 && index.contains(id));
+		}
+
+		@Override
+		public int size() {
+			return (index.size());
+		}
+
+		@Override
+		public Set<ByteString> keySet() {
+			return (new DecodedSet(index, dictionary, 0));
+		}
+
+		@Override
+		public Set<Map.Entry<ByteString, Map<ByteString, IntHashMap<ByteString>>>> entrySet() {
+			return new AbstractSet<Map.Entry<ByteString, Map<ByteString, IntHashMap<ByteString>>>>() {
+				@Override
+				public Iterator<Map.Entry<ByteString, Map<ByteString, IntHashMap<ByteString>>>> iterator() {
+					return new RunIterator<Map.Entry<ByteString, Map<ByteString, IntHashMap<ByteString>>>>(
+							index.keys(new IntTripleIndex.Run())) {
+						@Override
+						protected Map.Entry<ByteString, Map<ByteString, IntHashMap<ByteString>>> get(int id) {
+							Map<ByteString, IntHashMap<ByteString>> value = new NodeView(index, dictionary, id);
+							return (new AbstractMap.SimpleImmutableEntry<ByteString, Map<ByteString, IntHashMap<ByteString>>>(
+									dictionary.decode(id), value));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return (index.size());
+				}
+			};
+		}
+	}
+
+	/**
+	 * Read-only view of the second and third levels of an integer index
+	 * for a fixed first-level key. The third level is decoded on access, unlike
+	 * the runs read by IntQueryEvaluator.
+	 */
+	private static final class NodeView extends AbstractMap<ByteString, IntHashMap<ByteString>> {
+
+		private final IntTripleIndex index;
+
+		private final KBDictionary dictionary;
+
+		private final int key1;
+
+		NodeView(IntTripleIndex index, KBDictionary dictionary, int key1) {
+			this.index = index;
+			this.dictionary = dictionary;
+			this.key1 = key1;
+		}
+
+		private int id(Object key) {
+			return (key instanceof ByteString ? dictionary.get((ByteString) key) : 0);
+		}
+
+		private IntHashMap<ByteString> values(int key2) {
+			IntHashMap<ByteString> result = new IntHashMap<ByteString>();
+			IntTripleIndex.Run run = index.values(key1, key2, new IntTripleIndex.Run());
+			for (int value = run.next(); value != 0; value = run.next()) {
+				result.add(dictionary.decode(value));
+			}
+			return (result);
+		}
+
+		@Override
+		public IntHashMap<ByteString> get(Object key) {
+			int id = id(key);
+			if (id == 0 || !index.contains(key1, id))
+				return (null);
+			return (values(id));
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int id = id(key);
+			return (id != 0 && index.contains(key1, id));
+		}
+
+		@Override
+		public int size() {
+			return (index.size(key1));
+		}
+
+		@Override
+		public Set<ByteString> keySet() {
+			return (new DecodedSet(index, dictionary, key1));
+		}
+
+		@Override
+		public Set<Map.Entry<ByteString, IntHashMap<ByteString>>> entrySet() {
+			return new AbstractSet<Map.Entry<ByteString, IntHashMap<ByteString>>>() {
+				@Override
+				public Iterator<Map.Entry<ByteString, IntHashMap<ByteString>>> iterator() {
+					return new RunIterator<Map.Entry<ByteString, IntHashMap<ByteString>>>(
+							index.keys(key1, new IntTripleIndex.Run())) {
+						@Override
+						protected Map.Entry<ByteString, IntHashMap<ByteString>> get(int id) {
+							return (new AbstractMap.SimpleImmutableEntry<ByteString, IntHashMap<ByteString>>(
+									dictionary.decode(id), values(id)));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return (index.size(key1));
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,665 @@
+package amie.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class IntQueryEvaluator
+ *
+ * Evaluation of conjunctive queries by instantiation, as in KB, directly on the integer
+ * indexes of an IntKB. The atoms are encoded once with the dictionary and the values of
+ * every atom are read from the runs of the indexes (see IntTripleIndex.Run), so the
+ * evaluation creates no strings nor maps: only the returned bindings are decoded.
+ *
+ * At every step, the most restrictive atom given the current bindings is instantiated.
+ * If it contains unbound projection variables and other variables, only the projection
+ * variables are bound. Once all the projection variables are bound, the rest of the query
+ * is only tested for existence. On frozen indexes, the atoms whose only unbound variable is
+ * the one bound by the instantiated atom are read as sorted runs and intersected in a single
+ * pass, e.g., the closing atom of a path. On other indexes, those atoms become ground and are
+ * tested with a lookup.
+ *
+ * A query is compiled for a list of at most two projection variables. Queries with special
+ * atoms (see KB.isSpecialAtom) or with a variable repeated in an atom are not supported.
+ *
+ * @author lgalarra
+ *
+ */
+public class IntQueryEvaluator {
+
+	private final IntKB kb;
+
+	private final KBDictionary dictionary;
+
+	private final IntTripleIndex[] indexes;
+
+	/** Atoms of the query: identifiers for the constants, -(i + 1) for the i-th variable **/
+	private final int[][] atoms;
+
+	/** Number of projection variables, which are the first variables **/
+	private int projected;
+
+	/** True if some constant is unknown **/
+	private final boolean empty;
+
+	/** Current values of the variables, 0 if unbound **/
+	private final int[] binding;
+
+	/** True for the atoms that are fully instantiated by the current bindings **/
+	private final boolean[] evaluated;
+
+	/** Bindings of the projection variables found so far **/
+	private IdSet seen;
+
+	private long limit;
+
+	/** Number of atoms not evaluated yet, set by mostRestrictiveAtom **/
+	private int remaining;
+
+	/** Returned by mostRestrictiveAtom if all atoms are evaluated **/
+	private static final int NONE = -2;
+
+	/** Index of the permutation whose first two columns are i and j **/
+	private static final int[][] PERMUTATION = new int[3][3];
+
+	static {
+		for (int p = 0; p < KB.PERMUTATIONS.length; ++p) {
+			PERMUTATION[KB.PERMUTATIONS[p][0]][KB.PERMUTATIONS[p][1]] = p;
+		}
+	}
+
+	private IntQueryEvaluator(IntKB kb, int[][] atoms, int nVariables, int projected, boolean empty) {
+		this.kb = kb;
+		this.dictionary = kb.getDictionary();
+		this.indexes = kb.indexes();
+		this.atoms = atoms;
+		this.projected = projected;
+		this.empty = empty;
+		this.binding = new int[nVariables];
+		this.evaluated = new boolean[atoms.length];
+	}
+
+	/**
+	 * It compiles the query for the given projection variables.
+	 * @param kb
+	 * @param query
+	 * @param projection At most two variables whose distinct bindings are returned, possibly none
+	 * @return The evaluator or null if the query is not supported, in which case it should be
+	 * evaluated by the KB.
+	 */
+	public static IntQueryEvaluator compile(IntKB kb, List<ByteString[]> query, ByteString... projection) {
+		if (query.isEmpty() || projection.length > 2)
+			return (null);
+		List<ByteString> variables = new ArrayList<>();
+		for (ByteString variable : projection) {
+			if (variables.contains(variable))
+				return (null);
+			variables.add(variable);
+		}
+		KBDictionary dictionary = kb.getDictionary();
+		int[][] atoms = new int[query.size()][];
+		boolean empty = false;
+		boolean[] occurs = new boolean[projection.length];
+		for (int a = 0; a < atoms.length; ++a) {
+			ByteString[] atom = query.get(a);
+			if (atom.length != 3 || kb.isSpecialAtom(atom))
+				return (null);
+			atoms[a] = new int[3];
+			for (int i = 0; i < 3; ++i) {
+				if (!KB.isVariable(atom[i])) {
+					atoms[a][i] = dictionary.get(atom[i]);
+					empty |= atoms[a][i] == 0;
+					continue;
+				}
+				for (int j = 0; j < i; ++j) {
+					if (atom[j].equals(atom[i]))
+						return (null);
+				}
+				int variable = variables.indexOf(atom[i]);
+				if (variable == -1) {
+					variable = variables.size();
+					variables.add(atom[i]);
+				} else if (variable < occurs.length) {
+					occurs[variable] = true;
+				}
+				atoms[a][i] = -variable - 1;
+			}
+		}
+		for (boolean occurrence : occurs) {
+			if (!occurrence)
+				return (null);
+		}
+		return (new IntQueryEvaluator(kb, atoms, variables.size(), projection.length, empty));
+	}
+
+	// ---------------------------------------------------------------------------
+	// Evaluation
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It returns true if the query has at least one solution.
+	 */
+	public boolean exists() {
+		reset(0);
+		return (!empty && solve());
+	}
+
+	/**
+	 * Number of distinct bindings of the projection variables.
+	 */
+	public long count() {
+		return (count(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Number of distinct bindings of the projection variables, the enumeration stops
+	 * once limit bindings have been found.
+	 * @return The number of bindings or limit if there are more
+	 */
+	public long count(long limit) {
+		return (count(limit, null));
+	}
+
+	/**
+	 * Number of distinct bindings of the projection variables, up to the given limit. As in
+	 * KB.countDistinctPairs, the values of the first of two projection variables are split 
+	 * among the threads of the pool if there are at least KB.PARALLEL_PAIRS_THRESHOLD of them.
+	 * @param pool The query pool of the KB, null to count sequentially
+	 * @return The number of bindings or limit if there are more
+	 */
+	public long count(long limit, ForkJoinPool pool) {
+		if (projected < 2 || empty || limit <= 0) {
+			enumerate(limit);
+			return (seen.size());
+		}
+		// Pairs are counted per value of the first variable, as in KB.countDistinctPairs, 
+		// so that only the pairs of one value are kept at a time
+		projected = 1;
+		enumerate(Long.MAX_VALUE);
+		long[] values = seen.values();
+		projected = 2;
+		if (pool == null || values.length < KB.PARALLEL_PAIRS_THRESHOLD)
+			return (countPairs(values, 0, values.length, limit, new AtomicLong()));
+		int chunk = Math.max(KB.PARALLEL_PAIRS_CHUNK, values.length / (8 * pool.getParallelism()));
+		PairsTask task = new PairsTask(values, 0, values.length, chunk, limit, new AtomicLong());
+		return (Math.min(pool.invoke(task), limit));
+	}
+
+	/**
+	 * Distinct values of the (single) projection variable.
+	 */
+	public IntHashMap<ByteString> select() {
+		return (select(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Distinct values of the (single) projection variable, at most limit of them.
+	 */
+	public IntHashMap<ByteString> select(long limit) {
+		enumerate(limit);
+		IntHashMap<ByteString> result = new IntHashMap<>();
+		for (long value : seen.values()) {
+			result.add(dictionary.decode((int) value));
+		}
+		return (result);
+	}
+
+	/**
+	 * Distinct pairs of values of the two projection variables.
+	 */
+	public Map<ByteString, IntHashMap<ByteString>> selectPairs() {
+		enumerate(Long.MAX_VALUE);
+		Map<ByteString, IntHashMap<ByteString>> result = new HashMap<>();
+		for (long pair : seen.values()) {
+			ByteString value1 = dictionary.decode((int) (pair >>> 32));
+			IntHashMap<ByteString> values2 = result.get(value1);
+			if (values2 == null)
+				result.put(value1, values2 = new IntHashMap<ByteString>());
+			values2.add(dictionary.decode((int) pair));
+		}
+		return (result);
+	}
+
+	/**
+	 * It counts the bindings of the second projection variable for the values in [from, to) 
+	 * of the first one. The count stops once the total, shared by the tasks that count the
+	 * other values, reaches the limit.
+	 */
+	private long countPairs(long[] values, int from, int to, long limit, AtomicLong total) {
+		long count = 0;
+		for (int i = from; i < to && total.get() < limit; ++i) {
+			binding[0] = (int) values[i];
+			reset(limit - total.get());
+			collect();
+			count += seen.size();
+			total.addAndGet(seen.size());
+		}
+		binding[0] = 0;
+		return (count);
+	}
+
+	private void reset(long limit) {
+		this.limit = limit;
+		this.seen = new IdSet();
+	}
+
+	private void enumerate(long limit) {
+		reset(limit);
+		if (!empty && limit > 0)
+			collect();
+	}
+
+	/**
+	 * Value of the i-th column of the atom, 0 if it is an unbound variable.
+	 */
+	private int value(int[] atom, int i) {
+		return (atom[i] > 0 ? atom[i] : binding[-atom[i] - 1]);
+	}
+
+	private static int variable(int[] atom, int i) {
+		return (-atom[i] - 1);
+	}
+
+	private boolean isProjectionBound() {
+		for (int v = 0; v < projected; ++v) {
+			if (binding[v] == 0)
+				return (false);
+		}
+		return (true);
+	}
+
+	/**
+	 * Current binding of the projection variables as a non-zero key.
+	 */
+	private long projectionKey() {
+		if (projected == 0)
+			return (1);
+		return (projected == 1 ? binding[0] : ((long) binding[0] << 32) | (binding[1] & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * It binds the unbound variables until all the projection variables are bound and
+	 * records the new bindings that have a solution.
+	 * @return true if the enumeration must stop, i.e., the limit was reached
+	 */
+	private boolean collect() {
+		if (isProjectionBound()) {
+			long key = projectionKey();
+			if (seen.contains(key) || !solve())
+				return (false);
+			seen.add(key);
+			return (seen.size() >= limit);
+		}
+		int best = mostRestrictiveAtom();
+		if (best < 0)
+			return (false);
+		return (instantiate(best, false));
+	}
+
+	/**
+	 * @return true if the atoms that are not evaluated yet have a solution
+	 */
+	private boolean solve() {
+		int best = mostRestrictiveAtom();
+		if (best == NONE)
+			return (true);
+		if (best < 0)
+			return (false);
+		if (remaining == 1)
+			return (true);
+		return (instantiate(best, true));
+	}
+
+	/**
+	 * It returns the atom with the fewest facts given the current bindings among those
+	 * that are not evaluated yet, -1 if one of them has no facts and NONE if all of them
+	 * are evaluated.
+	 */
+	private int mostRestrictiveAtom() {
+		int best = NONE;
+		long bestCount = Long.MAX_VALUE;
+		remaining = 0;
+		for (int a = 0; a < atoms.length; ++a) {
+			if (evaluated[a])
+				continue;
+			++remaining;
+			long count = count(atoms[a]);
+			if (count == 0)
+				return (-1);
+			if (count < bestCount) {
+				best = a;
+				bestCount = count;
+			}
+		}
+		return (best);
+	}
+
+	/**
+	 * Number of facts that match the atom given the current bindings.
+	 */
+	private long count(int[] atom) {
+		int s = value(atom, 0), r = value(atom, 1), o = value(atom, 2);
+		if (s != 0 && r != 0 && o != 0)
+			return (indexes[0].contains(s, r, o) ? 1 : 0);
+		if (s != 0 && r != 0)
+			return (indexes[PERMUTATION[0][1]].size(s, r));
+		if (r != 0 && o != 0)
+			return (indexes[PERMUTATION[1][2]].size(r, o));
+		if (s != 0 && o != 0)
+			return (indexes[PERMUTATION[2][0]].size(o, s));
+		if (s != 0)
+			return (kb.subjectSize.get(dictionary.decode(s), 0));
+		if (r != 0)
+			return (kb.relationSize.get(dictionary.decode(r), 0));
+		if (o != 0)
+			return (kb.objectSize.get(dictionary.decode(o), 0));
+		return (kb.size());
+	}
+
+	/**
+	 * It enumerates the values of the unbound variables of the atom and continues
+	 * the evaluation for each of them. In the enumeration, if the atom has unbound
+	 * projection variables and other variables, only the projection variables are bound.
+	 * @param existential True to test the existence of a solution, false to enumerate
+	 * the bindings of the projection variables
+	 * @return true if the evaluation must stop: a solution was found (existential) or
+	 * the limit was reached
+	 */
+	private boolean instantiate(int a, boolean existential) {
+		int[] atom = atoms[a];
+		// Columns of the atom: the bound ones, then the projection variables, then the others
+		int[] order = new int[3];
+		int nBound = 0;
+		for (int i = 0; i < 3; ++i) {
+			if (value(atom, i) != 0)
+				order[nBound++] = i;
+		}
+		int n = nBound;
+		for (int i = 0; i < 3; ++i) {
+			if (value(atom, i) == 0 && variable(atom, i) < projected)
+				order[n++] = i;
+		}
+		int nProjected = n - nBound;
+		for (int i = 0; i < 3; ++i) {
+			if (value(atom, i) == 0 && variable(atom, i) >= projected)
+				order[n++] = i;
+		}
+		int nFree = 3 - nBound;
+		int nBind = !existential && nProjected > 0 && nProjected < nFree ? nProjected : nFree;
+		evaluated[a] = nBind == nFree;
+		boolean stop;
+		if (nBound == 3) {
+			stop = proceed(existential);
+		} else {
+			IntTripleIndex index = indexes[PERMUTATION[order[0]][order[1]]];
+			int[] variables = new int[nBind];
+			for (int k = 0; k < nBind; ++k) {
+				variables[k] = variable(atom, order[nBound + k]);
+			}
+			switch (nBound) {
+			case 2:
+				stop = bindValues(a, index.values(value(atom, order[0]), value(atom, order[1]),
+						new IntTripleIndex.Run()), variables[0], existential);
+				break;
+			case 1:
+				stop = bindPairs(index, value(atom, order[0]), variables, existential);
+				break;
+			default:
+				stop = bindTriples(index, variables, existential);
+				break;
+			}
+			for (int variable : variables) {
+				binding[variable] = 0;
+			}
+		}
+		evaluated[a] = false;
+		return (stop);
+	}
+
+	private boolean proceed(boolean existential) {
+		return (existential ? solve() : collect());
+	}
+
+	/**
+	 * It binds the variable to the values of the run. If the run is sorted, the other atoms
+	 * whose only unbound variable is this variable are intersected with the run.
+	 */
+	private boolean bindValues(int a, IntTripleIndex.Run run, int variable, 
+			boolean existential) {
+		List<Integer> joined = new ArrayList<>();
+		List<IntTripleIndex.Run> runs = new ArrayList<>();
+		runs.add(run);
+		if (run.isSorted()) {
+			for (int b = 0; b < atoms.length; ++b) {
+				IntTripleIndex.Run other = b == a || evaluated[b] ? null : run(atoms[b], variable);
+				if (other != null) {
+					joined.add(b);
+					runs.add(other);
+					evaluated[b] = true;
+				}
+			}
+		}
+		boolean stop = false;
+		if (runs.size() == 1) {
+			for (int value = run.next(); value != 0 && !stop; value = run.next()) {
+				binding[variable] = value;
+				stop = proceed(existential);
+			}
+		} else {
+			int target = 1;
+			while (!stop) {
+				int value = intersect(runs, target);
+				if (value == 0)
+					break;
+				binding[variable] = value;
+				stop = proceed(existential);
+				target = value + 1;
+			}
+		}
+		for (int b : joined) {
+			evaluated[b] = false;
+		}
+		return (stop);
+	}
+
+	/**
+	 * It returns the sorted run of the values of the atom if its only unbound column is the
+	 * given variable, otherwise null.
+	 */
+	private IntTripleIndex.Run run(int[] atom, int variable) {
+		int free = -1;
+		for (int i = 0; i < 3; ++i) {
+			if (value(atom, i) == 0) {
+				if (free != -1 || variable(atom, i) != variable)
+					return (null);
+				free = i;
+			}
+		}
+		if (free == -1)
+			return (null);
+		int first = (free + 1) % 3;
+		int second = (free + 2) % 3;
+		IntTripleIndex.Run run = indexes[PERMUTATION[first][second]].values(value(atom, first),
+				value(atom, second), new IntTripleIndex.Run());
+		return (run.isSorted() ? run : null);
+	}
+
+	/**
+	 * It returns the smallest value greater than or equal to target that is in all the
+	 * sorted runs, 0 if there is none. The runs only move forward.
+	 */
+	private static int intersect(List<IntTripleIndex.Run> runs, int target) {
+		while (true) {
+			int value = runs.get(0).seek(target);
+			if (value == 0)
+				return (0);
+			boolean aligned = true;
+			for (int r = 1; r < runs.size() && aligned; ++r) {
+				int other = runs.get(r).seek(value);
+				if (other == 0)
+					return (0);
+				if (other != value) {
+					target = other;
+					aligned = false;
+				}
+			}
+			if (aligned)
+				return (value);
+		}
+	}
+
+	/**
+	 * Atom with one bound column: it binds the first variable to the second-level keys
+	 * of the index and, if required, the second one to the values.
+	 */
+	private boolean bindPairs(IntTripleIndex index, int key1, int[] variables, 
+			boolean existential) {
+		IntTripleIndex.Run keys = index.keys(key1, new IntTripleIndex.Run());
+		IntTripleIndex.Run values = new IntTripleIndex.Run();
+		boolean stop = false;
+		for (int key2 = keys.next(); key2 != 0 && !stop; key2 = keys.next()) {
+			binding[variables[0]] = key2;
+			if (variables.length == 1) {
+				stop = proceed(existential);
+				continue;
+			}
+			index.values(key1, key2, values);
+			for (int value = values.next(); value != 0 && !stop; value = values.next()) {
+				binding[variables[1]] = value;
+				stop = proceed(existential);
+			}
+		}
+		return (stop);
+	}
+
+	/**
+	 * Atom without bound columns: it binds the variables to the levels of the index.
+	 */
+	private boolean bindTriples(IntTripleIndex index, int[] variables, boolean existential) {
+		IntTripleIndex.Run keys = index.keys(new IntTripleIndex.Run());
+		boolean stop = false;
+		for (int key1 = keys.next(); key1 != 0 && !stop; key1 = keys.next()) {
+			binding[variables[0]] = key1;
+			if (variables.length == 1)
+				stop = proceed(existential);
+			else
+				stop = bindPairs(index, key1, Arrays.copyOfRange(variables, 1, variables.length), existential);
+		}
+		return (stop);
+	}
+
+	/**
+	 * Fork/join task that counts the pairs of the values in [from, to) of the first
+	 * projection variable. Each leaf evaluates the query with its own bindings.
+	 */
+	private final class PairsTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[] values;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunk;
+
+		private final long limit;
+
+		private final AtomicLong total;
+
+		PairsTask(long[] values, int from, int to, int chunk, long limit, AtomicLong total) {
+			this.values = values;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.limit = limit;
+			this.total = total;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from > chunk) {
+				int middle = (from + to) >>> 1;
+				PairsTask left = new PairsTask(values, from, middle, chunk, limit, total);
+				left.fork();
+				long right = new PairsTask(values, middle, to, chunk, limit, total).compute();
+				return (right + left.join());
+			}
+			IntQueryEvaluator evaluator = new IntQueryEvaluator(kb, atoms, binding.length, projected, empty);
+			return (evaluator.countPairs(values, from, to, limit, total));
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Bindings
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * Open-addressing set of non-zero longs.
+	 */
+	private static final class IdSet {
+
+		private long[] table = new long[16];
+
+		private int size;
+
+		private static int slot(long key, int mask) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return ((int) (h ^ (h >>> 32)) & mask);
+		}
+
+		boolean contains(long key) {
+			int mask = table.length - 1;
+			for (int i = slot(key, mask); table[i] != 0; i = (i + 1) & mask) {
+				if (table[i] == key)
+					return (true);
+			}
+			return (false);
+		}
+
+		void add(long key) {
+			if ((size + 1) * 4 > table.length * 3) {
+				long[] old = table;
+				table = new long[old.length * 2];
+				size = 0;
+				for (long value : old) {
+					if (value != 0)
+						add(value);
+				}
+			}
+			int mask = table.length - 1;
+			int i = slot(key, mask);
+			while (table[i] != 0) {
+				if (table[i] == key)
+					return;
+				i = (i + 1) & mask;
+			}
+			table[i] = key;
+			++size;
+		}
+
+		int size() {
+			return (size);
+		}
+
+		long[] values() {
+			long[] result = new long[size];
+			int j = 0;
+			for (long value : table) {
+				if (value != 0)
+					result[j++] = value;
+			}
+			return (result);
+		}
+	}
+}
@@ -0,0 +1,752 @@
+package amie.data;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Class IntTripleIndex
+ *
+ * A 3-level index (key1 -> key2 -> values) over dictionary-encoded triples. The first level
+ * is an array indexed by the identifier of key1, the second level is an open-addressing
+ * int-to-set map and the sets in the third level are open-addressing int tables stored in
+ * plain int arrays. Identifiers must be strictly positive, 0 is used to mark empty slots.
+ *
+ * Once the data is loaded, the index can be frozen into a read-only CSR layout
+ * (see CSRTripleIndex) with sorted keys and values. Modifications are not thread-safe,
+ * reads on a frozen index do not require synchronization.
+ *
+ * An index can also be built lazily (see setBuilder): its content is then
+ * computed by a Builder the first time it is read.
+ *
+ * @author lgalarra
+ *
+ */
+public class IntTripleIndex {
+
+	/** Second level of the index, indexed by the identifier of the first key **/
+	private Node[] nodes = new Node[16];
+
+	/** Number of non-empty keys in the first level **/
+	private int keys;
+
+	/** Number of triples stored in the index **/
+	private long triples;
+
+	/** Read-only layout, not null once the index is frozen **/
+	private volatile CSRTripleIndex frozen;
+
+	/** Computes the content of the index on first read, null once the index is built **/
+	private volatile Builder builder;
+
+	/** True if freeze was called before the index was built **/
+	private boolean freezeWhenBuilt;
+
+	/** Lock for the construction, distinct from the monitor of the index used by addShard **/
+	private final Object buildLock = new Object();
+
+	/**
+	 * Fills an index that is built on demand.
+	 */
+	interface Builder {
+		/**
+		 * It adds the content of the index. Reads on the index block until
+		 * this method returns.
+		 */
+		void build(IntTripleIndex index);
+	}
+
+	public IntTripleIndex() {}
+
+	/**
+	 * It creates a frozen index with the given layout.
+	 */
+	IntTripleIndex(CSRTripleIndex frozen) {
+		this.frozen = frozen;
+		this.nodes = null;
+	}
+
+	/**
+	 * It defers the construction of the index until it is read for the first time.
+	 * The index must be empty.
+	 */
+	void setBuilder(Builder builder) {
+		this.builder = builder;
+	}
+
+	/**
+	 * It returns false if the index is waiting to be built on first read.
+	 */
+	public boolean isBuilt() {
+		return (builder == null);
+	}
+
+	/**
+	 * It builds the index if its construction was deferred.
+	 */
+	public void ensureBuilt() {
+		if (builder != null)
+			build();
+	}
+
+	private void build() {
+		synchronized (buildLock) {
+			Builder currentBuilder = builder;
+			if (currentBuilder == null)
+				return;
+			currentBuilder.build(this);
+			synchronized (this) {
+				// Frozen before publication, readers never see the hash-based structures
+				if (freezeWhenBuilt)
+					convert();
+				builder = null;
+			}
+		}
+	}
+
+	/**
+	 * It converts the index into a read-only CSR layout. The hash-based
+	 * structures are released progressively while the layout is built.
+	 * Subsequent modifications throw an UnsupportedOperationException.
+	 * If the index has not been built yet, it is frozen once it is built.
+	 */
+	public synchronized void freeze() {
+		if (frozen != null)
+			return;
+		if (builder != null) {
+			freezeWhenBuilt = true;
+			return;
+		}
+		convert();
+	}
+
+	private void convert() {
+		if (triples > Integer.MAX_VALUE)
+			throw new IllegalStateException("Too many triples for a frozen index: " + triples);
+		int n2 = 0;
+		for (Node node : nodes) {
+			if (node != null)
+				n2 += node.size;
+		}
+		int[] keys1 = new int[keys];
+		int[] offsets1 = new int[keys + 1];
+		int[] keys2 = new int[n2];
+		int[] offsets2 = new int[n2 + 1];
+		int[] values = new int[(int) triples];
+		int i1 = 0, i2 = 0, i3 = 0;
+		for (int key1 = 0; key1 < nodes.length; ++key1) {
+			Node node = nodes[key1];
+			if (node == null)
+				continue;
+			keys1[i1] = key1;
+			offsets1[i1++] = i2;
+			int[] sortedKeys = compact(node.keys, node.size);
+			Arrays.sort(sortedKeys);
+			for (int key2 : sortedKeys) {
+				keys2[i2] = key2;
+				offsets2[i2++] = i3;
+				int[] set = node.get(key2);
+				int start = i3;
+				for (int j = 1; j < set.length; ++j) {
+					if (set[j] != 0)
+						values[i3++] = set[j];
+				}
+				Arrays.sort(values, start, i3);
+			}
+			nodes[key1] = null;
+		}
+		offsets1[i1] = i2;
+		offsets2[i2] = i3;
+		frozen = new CSRTripleIndex(keys1, offsets1, keys2, offsets2, values);
+		nodes = null;
+	}
+
+	/**
+	 * It returns true if the index has been frozen.
+	 */
+	public boolean isFrozen() {
+		return (frozen != null);
+	}
+
+	/**
+	 * It returns the read-only layout of the index or null if the
+	 * index has not been frozen.
+	 */
+	public CSRTripleIndex getFrozen() {
+		ensureBuilt();
+		return (frozen);
+	}
+
+	private void checkNotFrozen() {
+		if (frozen != null)
+			throw new UnsupportedOperationException("The index is frozen");
+	}
+
+	/**
+	 * Adds a triple to the index.
+	 * @return true if the index changed, i.e., the triple was not there before
+	 */
+	public boolean add(int key1, int key2, int value) {
+		checkNotFrozen();
+		if (key1 >= nodes.length) {
+			nodes = Arrays.copyOf(nodes, Math.max(key1 + 1, nodes.length * 2));
+		}
+		Node node = nodes[key1];
+		if (node == null) {
+			nodes[key1] = node = new Node();
+		}
+		if (node.size == 0) {
+			++keys;
+		}
+		if (node.add(key2, value)) {
+			++triples;
+			return (true);
+		}
+		return (false);
+	}
+
+	/**
+	 * It makes room in the first level for all keys smaller than the given capacity.
+	 */
+	public void ensureCapacity(int capacity) {
+		checkNotFrozen();
+		if (capacity > nodes.length)
+			nodes = Arrays.copyOf(nodes, Math.max(capacity, nodes.length * 2));
+	}
+
+	/**
+	 * Bulk insertion for one shard of the first level. It adds the facts whose first key 
+	 * satisfies key1 % shards == shard. Different shards can be filled concurrently without 
+	 * synchronization, provided that the first level has room for all keys (see ensureCapacity).
+	 * @param facts Facts encoded as consecutive (subject, relation, object) identifiers
+	 * @param n Number of facts
+	 * @param order Positions of key1, key2 and the value within a fact
+	 * @param fresh If not null, fresh[i] is set to true if the i-th fact of the shard was not in the index
+	 */
+	public void addShard(int[] facts, int n, int[] order, int shard, int shards, boolean[] fresh) {
+		checkNotFrozen();
+		int newKeys = 0;
+		long newTriples = 0;
+		for (int i = 0; i < n; ++i) {
+			int base = 3 * i;
+			int key1 = facts[base + order[0]];
+			if (key1 % shards != shard)
+				continue;
+			Node node = nodes[key1];
+			if (node == null) {
+				nodes[key1] = node = new Node();
+				++newKeys;
+			}
+			boolean added = node.add(facts[base + order[1]], facts[base + order[2]]);
+			if (added)
+				++newTriples;
+			if (fresh != null)
+				fresh[i] = added;
+		}
+		synchronized (this) {
+			keys += newKeys;
+			triples += newTriples;
+		}
+	}
+
+	/**
+	 * Removes a triple from the index.
+	 * @return true if the triple was in the index
+	 */
+	public boolean remove(int key1, int key2, int value) {
+		checkNotFrozen();
+		Node node = node(key1);
+		if (node == null || !node.remove(key2, value))
+			return (false);
+		if (node.size == 0) {
+			nodes[key1] = null;
+			--keys;
+		}
+		--triples;
+		return (true);
+	}
+
+	public boolean contains(int key1) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.contains(key1));
+		return (node(key1) != null);
+	}
+
+	public boolean contains(int key1, int key2) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.contains(key1, key2));
+		Node node = node(key1);
+		return (node != null && node.get(key2) != null);
+	}
+
+	public boolean contains(int key1, int key2, int value) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.contains(key1, key2, value));
+		Node node = node(key1);
+		if (node == null)
+			return (false);
+		int[] set = node.get(key2);
+		return (set != null && setContains(set, value));
+	}
+
+	/**
+	 * Number of distinct keys in the first level.
+	 */
+	public int size() {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.size());
+		return (keys);
+	}
+
+	/**
+	 * Number of distinct second-level keys for the given first-level key.
+	 */
+	public int size(int key1) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.size(key1));
+		Node node = node(key1);
+		return (node == null ? 0 : node.size);
+	}
+
+	/**
+	 * Number of values for the given pair of keys.
+	 */
+	public int size(int key1, int key2) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.size(key1, key2));
+		Node node = node(key1);
+		if (node == null)
+			return (0);
+		int[] set = node.get(key2);
+		return (set == null ? 0 : set[0]);
+	}
+
+	/**
+	 * Number of triples in the index.
+	 */
+	public long triples() {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.triples());
+		return (triples);
+	}
+
+	/**
+	 * It returns the first-level keys of the index.
+	 */
+	public int[] keys() {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.keys());
+		int[] result = new int[keys];
+		int j = 0;
+		for (int i = 0; i < nodes.length; ++i) {
+			if (nodes[i] != null)
+				result[j++] = i;
+		}
+		return (result);
+	}
+
+	/**
+	 * It returns the second-level keys for the given first-level key.
+	 */
+	public int[] keys(int key1) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.keys(key1));
+		Node node = node(key1);
+		if (node == null)
+			return (new int[0]);
+		return (compact(node.keys, node.size));
+	}
+
+	/**
+	 * It returns the values associated to the given pair of keys.
+	 */
+	public int[] values(int key1, int key2) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.values(key1, key2));
+		Node node = node(key1);
+		if (node == null)
+			return (new int[0]);
+		int[] set = node.get(key2);
+		if (set == null)
+			return (new int[0]);
+		int[] result = new int[set[0]];
+		int j = 0;
+		for (int i = 1; i < set.length; ++i) {
+			if (set[i] != 0)
+				result[j++] = set[i];
+		}
+		return (result);
+	}
+
+	/**
+	 * It sets the run to the first-level keys of the index. The keys of a frozen index
+	 * are read in place, otherwise they are collected first (see keys()).
+	 * @return The given run
+	 */
+	public Run keys(Run run) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (run.reset(csr.keys1, 0, csr.keys1.capacity()));
+		int[] result = keys();
+		return (run.reset(result, 0, result.length, result.length));
+	}
+
+	/**
+	 * It sets the run to the second-level keys for the given first-level key.
+	 * @return The given run
+	 */
+	public Run keys(int key1, Run run) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.keys(key1, run));
+		Node node = node(key1);
+		if (node == null)
+			return (run.clear());
+		return (run.reset(node.keys, 0, node.keys.length, node.size));
+	}
+
+	/**
+	 * It sets the run to the values associated to the given pair of keys.
+	 * @return The given run
+	 */
+	public Run values(int key1, int key2, Run run) {
+		ensureBuilt();
+		CSRTripleIndex csr = frozen;
+		if (csr != null)
+			return (csr.values(key1, key2, run));
+		Node node = node(key1);
+		int[] set = node == null ? null : node.get(key2);
+		if (set == null)
+			return (run.clear());
+		return (run.reset(set, 1, set.length, set[0]));
+	}
+
+	private Node node(int key1) {
+		if (key1 <= 0 || key1 >= nodes.length)
+			return (null);
+		return (nodes[key1]);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Open-addressing helpers
+	// ---------------------------------------------------------------------------
+
+	private static int slot(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & mask);
+	}
+
+	private static int[] compact(int[] table, int size) {
+		int[] result = new int[size];
+		int j = 0;
+		for (int i = 0; i < table.length; ++i) {
+			if (table[i] != 0)
+				result[j++] = table[i];
+		}
+		return (result);
+	}
+
+	/**
+	 * Returns true if the element at position 'from' must be moved to the hole at position 'hole'
+	 * during a backward-shift deletion, i.e., if its home slot is not cyclically in (hole, from].
+	 */
+	private static boolean shift(int home, int hole, int from) {
+		if (hole <= from)
+			return (home <= hole || home > from);
+		return (home <= hole && home > from);
+	}
+
+	/*
+	 * The third level sets are stored in a single array: position 0 contains the number
+	 * of elements and positions 1..n the open-addressing table (n is a power of 2).
+	 */
+
+	private static boolean setContains(int[] set, int value) {
+		int mask = set.length - 2;
+		int i = slot(value, mask);
+		int v;
+		while ((v = set[i + 1]) != 0) {
+			if (v == value)
+				return (true);
+			i = (i + 1) & mask;
+		}
+		return (false);
+	}
+
+	/**
+	 * Adds a value to the set. It returns the same array or a bigger one if the
+	 * set had to grow. The caller detects the insertion by comparing the sizes.
+	 */
+	private static int[] setAdd(int[] set, int value) {
+		int mask = set.length - 2;
+		int i = slot(value, mask);
+		int v;
+		while ((v = set[i + 1]) != 0) {
+			if (v == value)
+				return (set);
+			i = (i + 1) & mask;
+		}
+		if ((set[0] + 1) * 4 > (mask + 1) * 3) {
+			int[] grown = new int[(mask + 1) * 2 + 1];
+			for (int j = 1; j < set.length; ++j) {
+				if (set[j] != 0)
+					setAdd(grown, set[j]);
+			}
+			return (setAdd(grown, value));
+		}
+		set[i + 1] = value;
+		++set[0];
+		return (set);
+	}
+
+	private static boolean setRemove(int[] set, int value) {
+		int mask = set.length - 2;
+		int i = slot(value, mask);
+		int v;
+		while ((v = set[i + 1]) != value) {
+			if (v == 0)
+				return (false);
+			i = (i + 1) & mask;
+		}
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int w = set[j + 1];
+			if (w == 0)
+				break;
+			if (shift(slot(w, mask), i, j)) {
+				set[i + 1] = w;
+				i = j;
+			}
+		}
+		set[i + 1] = 0;
+		--set[0];
+		return (true);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Runs
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * Set of identifiers read in place from the index, without copying them: either a
+	 * segment of a frozen index, which is sorted, or an open-addressing table, whose empty
+	 * slots are skipped. A run is only valid while the index is not modified. The same run 
+	 * can be reset to other sets, so the join code needs no allocation per lookup.
+	 */
+	public static final class Run {
+
+		/** Open-addressing table, null if the run is a sorted segment **/
+		private int[] table;
+
+		private IntBuffer buffer;
+
+		private int position;
+
+		/** End (exclusive) of the segment or of the table **/
+		private int end;
+
+		private int size;
+
+		Run reset(int[] table, int from, int to, int size) {
+			this.table = table;
+			this.buffer = null;
+			this.position = from;
+			this.end = to;
+			this.size = size;
+			return (this);
+		}
+
+		Run reset(IntBuffer buffer, int from, int to) {
+			this.table = null;
+			this.buffer = buffer;
+			this.position = from;
+			this.end = to;
+			this.size = to - from;
+			return (this);
+		}
+
+		Run clear() {
+			table = null;
+			buffer = null;
+			position = end = size = 0;
+			return (this);
+		}
+
+		/**
+		 * Number of identifiers in the run, including those already read.
+		 */
+		public int size() {
+			return (size);
+		}
+
+		/**
+		 * It returns true if the identifiers come in increasing order, which is
+		 * the case for frozen indexes.
+		 */
+		public boolean isSorted() {
+			return (table == null);
+		}
+
+		/**
+		 * It returns the next identifier of the run or 0 if there are no more.
+		 */
+		public int next() {
+			if (table != null) {
+				while (position < end) {
+					int value = table[position++];
+					if (value != 0)
+						return (value);
+				}
+				return (0);
+			}
+			return (position < end ? buffer.get(position++) : 0);
+		}
+
+		/**
+		 * Only for sorted runs. It skips the identifiers smaller than the given key and
+		 * returns the next one without consuming it, or 0 if there are no more. The
+		 * search gallops from the current position, so a sequence of seeks costs a
+		 * single pass over the run.
+		 */
+		public int seek(int key) {
+			int low = position;
+			int step = 1;
+			int high = low;
+			while (high < end && buffer.get(high) < key) {
+				low = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			high = Math.min(high, end);
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (buffer.get(mid) < key)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			position = low;
+			return (low < end ? buffer.get(low) : 0);
+		}
+	}
+
+	/**
+	 * Second level of the index: an open-addressing map from key2 to
+	 * the set of values.
+	 */
+	private static final class Node {
+
+		int[] keys = new int[2];
+
+		int[][] values = new int[2][];
+
+		int size;
+
+		int[] get(int key) {
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			int k;
+			while ((k = keys[i]) != 0) {
+				if (k == key)
+					return (values[i]);
+				i = (i + 1) & mask;
+			}
+			return (null);
+		}
+
+		boolean add(int key, int value) {
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			int k;
+			while ((k = keys[i]) != 0) {
+				if (k == key) {
+					int[] set = values[i];
+					int before = set[0];
+					values[i] = set = setAdd(set, value);
+					return (set[0] > before);
+				}
+				i = (i + 1) & mask;
+			}
+			if ((size + 1) * 4 > keys.length * 3) {
+				grow();
+				return (add(key, value));
+			}
+			keys[i] = key;
+			values[i] = setAdd(new int[3], value);
+			++size;
+			return (true);
+		}
+
+		boolean remove(int key, int value) {
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			int k;
+			while ((k = keys[i]) != key) {
+				if (k == 0)
+					return (false);
+				i = (i + 1) & mask;
+			}
+			int[] set = values[i];
+			if (!setRemove(set, value))
+				return (false);
+			if (set[0] > 0)
+				return (true);
+			// The set became empty, remove the key with backward shifting
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				int w = keys[j];
+				if (w == 0)
+					break;
+				if (shift(slot(w, mask), i, j)) {
+					keys[i] = w;
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			keys[i] = 0;
+			values[i] = null;
+			--size;
+			return (true);
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			int[][] oldValues = values;
+			keys = new int[oldKeys.length * 2];
+			values = new int[oldKeys.length * 2][];
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; ++j) {
+				if (oldKeys[j] != 0) {
+					int i = slot(oldKeys[j], mask);
+					while (keys[i] != 0)
+						i = (i + 1) & mask;
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+	}
+}
@@ -19,6 +19,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,6 +38,8 @@ import javatools.datatypes.Triple;
 import javatools.filehandlers.FileLines;
 import javatools.parsers.Char17;
 import javatools.parsers.NumberFormatter;
+import amie.metrics.Metrics;
+import amie.metrics.Timer;
 
 /**
  * Class KB
@@ -49,22 +57,22 @@ public class KB {
 	// ---------------------------------------------------------------------------
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2relation2object = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2relation2object;
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2object2subject = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2object2subject;
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2subject2relation = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2subject2relation;
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2subject2object = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2subject2object;
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2relation2subject = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2relation2subject;
 
 	/** Index */
-	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2object2relation = new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>();
+	protected final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2object2relation;
 
 	/** Number of facts per subject */
 	protected final IntHashMap<ByteString> subjectSize = new IntHashMap<ByteString>();
@@ -94,9 +102,111 @@ public class KB {
 	 */
 	protected final Map<ByteString, IntHashMap<ByteString>> object2objectOverlap = new IdentityHashMap<ByteString, IntHashMap<ByteString>>();
 
+	/**
+	 * True once the overlap tables have been built. From then on, they are
+	 * updated whenever facts are added or removed.
+	 */
+	protected volatile boolean overlapTablesBuilt;
+
+	/** Chooses the atom to instantiate first in multi-atom queries, null to use the most restrictive triple **/
+	private volatile QueryPlanner planner;
+
+	/** Results of multi-atom queries, null if caching is disabled **/
+	private volatile QueryCache queryCache;
+
+	/** Threads for the evaluation of expensive queries, null to evaluate them sequentially **/
+	private volatile ForkJoinPool queryPool;
+
 	/** Number of facts */
 	protected long size;
 	
+	// ---------------------------------------------------------------------------
+	// Metrics
+	// ---------------------------------------------------------------------------
+	
+	/** 
+	 * Time of the queries issued from outside the KB, one timer per type of query. The
+	 * public methods measure the time and delegate to their untimed versions.
+	 **/
+	protected static final Timer existsTimer = Metrics.timer("kb.exists");
+	
+	protected static final Timer countDistinctTimer = Metrics.timer("kb.countDistinct");
+	
+	protected static final Timer countDistinctAtMostTimer = Metrics.timer("kb.countDistinctAtMost");
+	
+	protected static final Timer selectDistinctTimer = Metrics.timer("kb.selectDistinct");
+	
+	protected static final Timer selectDistinctPairsTimer = Metrics.timer("kb.selectDistinctPairs");
+	
+	protected static final Timer frequentBindingsOfTimer = Metrics.timer("kb.frequentBindingsOf");
+	
+	protected static final Timer countProjectionBindingsTimer = Metrics.timer("kb.countProjectionBindings");
+	
+	protected static final Timer countProjectionTimer = Metrics.timer("kb.countProjection");
+	
+	protected static final Timer countDistinctPairsTimer = Metrics.timer("kb.countDistinctPairs");
+	
+	protected static final Timer countDistinctPairsAtMostTimer = Metrics.timer("kb.countDistinctPairsAtMost");
+	
+	/** Returned by startQuery for the queries issued by another query **/
+	private static final long NESTED_QUERY = Long.MIN_VALUE + 1;
+	
+	/** Number of queries being evaluated by each thread **/
+	private static final ThreadLocal<int[]> queryDepth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return (new int[1]);
+		}
+	};
+	
+	/**
+	 * It starts measuring a query. Only the outermost query of each thread is measured: 
+	 * the queries it issues to compute its result are part of its time.
+	 * @param timer
+	 * @return The value to pass to stopQuery
+	 */
+	protected static long startQuery(Timer timer) {
+		if (!Metrics.isEnabled())
+			return (Timer.NOT_TIMED);
+		int[] depth = queryDepth.get();
+		return (depth[0]++ == 0 ? System.nanoTime() : NESTED_QUERY);
+	}
+	
+	/**
+	 * It stops measuring a query started with startQuery.
+	 * @param timer
+	 * @param start
+	 */
+	protected static void stopQuery(Timer timer, long start) {
+		if (start == Timer.NOT_TIMED)
+			return;
+		queryDepth.get()[0]--;
+		if (start != NESTED_QUERY)
+			timer.record(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Number of queries being evaluated by the current thread.
+	 */
+	public static int getQueryDepth() {
+		return (queryDepth.get()[0]);
+	}
+	
+	/**
+	 * It sets the number of queries being evaluated by the current thread and returns the
+	 * previous one. A task that evaluates part of a query in another thread runs with the
+	 * depth of the thread that created it, so that its queries are not measured as outermost
+	 * queries, and restores the previous depth when it ends.
+	 * @param depth
+	 * @return
+	 */
+	public static int setQueryDepth(int depth) {
+		int[] current = queryDepth.get();
+		int previous = current[0];
+		current[0] = depth;
+		return (previous);
+	}
+	
 	// ---------------------------------------------------------------------------
 	// Constants
 	// ---------------------------------------------------------------------------
@@ -144,6 +254,18 @@ public class KB {
 	private static List<ByteString> specialRelations = Arrays.asList(DIFFERENTFROMbs, 
 			EQUALSbs, EXISTSbs, EXISTSINVbs, NOTEXISTSbs, NOTEXISTSINVbs);
 
+	/** Variable used to count the objects of a subject (or the subjects of an object) in a relation **/
+	private static final ByteString OVERLAP_VARIABLE = ByteString.of("?x");
+
+	/** Minimal number of atoms of a query for the cost-based planner to be used **/
+	public static final int PLANNING_THRESHOLD = 3;
+
+	/** Minimal number of bindings of the first variable for countDistinctPairs to run in parallel **/
+	public static final int PARALLEL_PAIRS_THRESHOLD = 1 << 10;
+
+	/** Minimal number of bindings counted by each parallel task **/
+	static final int PARALLEL_PAIRS_CHUNK = 64;
+
 	/** Identifiers for the overlap maps */
 	public static final int SUBJECT2SUBJECT = 0;
 
@@ -152,6 +274,13 @@ public class KB {
 	public static final int OBJECT2OBJECT = 4;
 	
 	public enum Column { Subject, Relation, Object };
+
+	/** 
+	 * Order of the columns (0 = subject, 1 = relation, 2 = object) in each of the indexes, 
+	 * in the order of the constructor.
+	 */
+	protected static final int[][] PERMUTATIONS = {{0, 1, 2}, {1, 2, 0}, {2, 0, 1}, 
+		{1, 0, 2}, {2, 1, 0}, {0, 2, 1}};
 	
 	public static final String hasNumberOfValuesEquals = "hasNumberOfValuesEquals";
 	
@@ -181,7 +310,33 @@ public class KB {
 	// Loading
 	// ---------------------------------------------------------------------------
 
-	public KB() {}
+	public KB() {
+		this(new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>(),
+				new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>(),
+				new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>(),
+				new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>(),
+				new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>(),
+				new IdentityHashMap<ByteString, Map<ByteString, IntHashMap<ByteString>>>());
+	}
+
+	/**
+	 * Constructor for subclasses that provide their own storage for the indexes. 
+	 * Subclasses whose maps do not support modifications must override the methods
+	 * add(key1, key2, value, map) and removeFromIndex.
+	 */
+	protected KB(Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2relation2object,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2object2subject,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2subject2relation,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> relation2subject2object,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> object2relation2subject,
+			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> subject2object2relation) {
+		this.subject2relation2object = subject2relation2object;
+		this.relation2object2subject = relation2object2subject;
+		this.object2subject2relation = object2subject2relation;
+		this.relation2subject2object = relation2subject2object;
+		this.object2relation2subject = object2relation2subject;
+		this.subject2object2relation = subject2object2relation;
+	}
 
 	/** Methods to add single facts to the KB **/
 	protected boolean add(ByteString subject, ByteString relation,
@@ -257,34 +412,12 @@ public class KB {
 			objectSize.increase(object);
 		}
 
-		synchronized (subject2subjectOverlap) {
-			IntHashMap<ByteString> overlaps = subject2subjectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				subject2subjectOverlap.put(relation,
-						new IntHashMap<ByteString>());
-			}
-		}
-
-		synchronized (subject2objectOverlap) {
-			IntHashMap<ByteString> overlaps = subject2objectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				subject2objectOverlap.put(relation,
-						new IntHashMap<ByteString>());
-			}
-		}
-
-		synchronized (object2objectOverlap) {
-			IntHashMap<ByteString> overlaps = object2objectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				object2objectOverlap.put(relation,
-						new IntHashMap<ByteString>());
-			}
-		}
+		addOverlapRow(relation);
+		if (overlapTablesBuilt)
+			updateOverlaps(subject, relation, object, 1);
 
 		size++;
+		invalidateQueryCache();
 		return (true);
 	}
 	
@@ -360,8 +493,8 @@ public class KB {
 	
 
 	/**
-	 * It clears the overlap tables and rebuilds them. Recommended when new facts has been added
-	 * to the KB after the initial loading.
+	 * It clears the overlap tables and rebuilds them. Once built, the tables are kept up to
+	 * date when facts are added or removed, so a rebuild is not needed after updates.
 	 */
 	public void rebuildOverlapTables() {
 		resetOverlapTables(); 
@@ -372,6 +505,7 @@ public class KB {
 	 * It clears all overlap tables.
 	 */
 	private void resetOverlapTables() {
+		overlapTablesBuilt = false;
 		resetMap(subject2subjectOverlap);
 		resetMap(subject2objectOverlap);
 		resetMap(object2objectOverlap);
@@ -393,54 +527,344 @@ public class KB {
 	 * objects in common between pairs of relations. They can be used for join cardinality estimation.
 	 */
 	public void buildOverlapTables() {
-		for (ByteString r1 : relationSize) {
-			Set<ByteString> subjects1 = relation2subject2object.get(r1)
-					.keySet();
-			Set<ByteString> objects1 = relation2object2subject.get(r1)
-					.keySet();
-			for (ByteString r2 : relationSize) {
-				Set<ByteString> subjects2 = relation2subject2object.get(r2)
-						.keySet();
-				Set<ByteString> objects2 = relation2object2subject.get(r2)
-						.keySet();
-
-				if (!r1.equals(r2)) {
-					int ssoverlap = computeOverlap(subjects1, subjects2);
-					subject2subjectOverlap.get(r1).put(r2, ssoverlap);
-					subject2subjectOverlap.get(r2).put(r1, ssoverlap);
-				} else {
-					subject2subjectOverlap.get(r1).put(r1, subjects2.size());
+		buildOverlapTables(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * It builds the overlap tables with the given number of threads. The subjects and objects
+	 * of every relation are stored as bitmaps over dense entity identifiers, so that an overlap
+	 * is the number of bits set in the intersection of two bitmaps. The pairs of relations are
+	 * distributed among the threads with fork/join.
+	 * @param parallelism
+	 */
+	public void buildOverlapTables(int parallelism) {
+		final List<ByteString> relations = new ArrayList<ByteString>(relationSize.keys());
+		final int n = relations.size();
+		for (ByteString relation : relations) {
+			for (Map<ByteString, IntHashMap<ByteString>> overlaps : Arrays.asList(subject2subjectOverlap,
+					subject2objectOverlap, object2objectOverlap)) {
+				if (!overlaps.containsKey(relation))
+					overlaps.put(relation, new IntHashMap<ByteString>());
+			}
+		}
+
+		final int[][] columns = overlapColumns(relations);
+		final EntityBitmap[] subjects = new EntityBitmap[n];
+		final EntityBitmap[] objects = new EntityBitmap[n];
+		// Upper triangles (j >= i) of the symmetric tables, row i starts at column i
+		final int[][] subjectSubject = new int[n][];
+		final int[][] objectObject = new int[n][];
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			pool.invoke(new RelationTask(new RelationBody() {
+				@Override
+				public void apply(int i) {
+					subjects[i] = new EntityBitmap(columns[2 * i]);
+					objects[i] = new EntityBitmap(columns[2 * i + 1]);
+					columns[2 * i] = columns[2 * i + 1] = null;
+				}
+			}, 0, n));
+
+			pool.invoke(new RelationTask(new RelationBody() {
+				@Override
+				public void apply(int i) {
+					subjectSubject[i] = new int[n - i];
+					objectObject[i] = new int[n - i];
+					for (int j = i; j < n; ++j) {
+						subjectSubject[i][j - i] = subjects[i].overlap(subjects[j]);
+						objectObject[i][j - i] = objects[i].overlap(objects[j]);
+					}
+					IntHashMap<ByteString> subjectObject = subject2objectOverlap.get(relations.get(i));
+					for (int j = 0; j < n; ++j) {
+						subjectObject.put(relations.get(j), subjects[i].overlap(objects[j]));
+					}
+				}
+			}, 0, n));
+
+			// Every task writes only the row of its relation
+			pool.invoke(new RelationTask(new RelationBody() {
+				@Override
+				public void apply(int i) {
+					IntHashMap<ByteString> subjectSubjectRow = subject2subjectOverlap.get(relations.get(i));
+					IntHashMap<ByteString> objectObjectRow = object2objectOverlap.get(relations.get(i));
+					for (int j = 0; j < n; ++j) {
+						subjectSubjectRow.put(relations.get(j),
+								j < i ? subjectSubject[j][i - j] : subjectSubject[i][j - i]);
+						objectObjectRow.put(relations.get(j),
+								j < i ? objectObject[j][i - j] : objectObject[i][j - i]);
+					}
+				}
+			}, 0, n));
+		} finally {
+			pool.shutdown();
+		}
+		overlapTablesBuilt = true;
+	}
+
+	/**
+	 * It adds an entry for the relation in the overlap tables if it is not there. If the
+	 * tables have been built, the overlaps of the relation are initialized to 0.
+	 * All the tables are guarded by the lock of subject2subjectOverlap.
+	 * @param relation
+	 */
+	protected void addOverlapRow(ByteString relation) {
+		synchronized (subject2subjectOverlap) {
+			for (Map<ByteString, IntHashMap<ByteString>> overlaps : Arrays.asList(subject2subjectOverlap,
+					subject2objectOverlap, object2objectOverlap)) {
+				if (overlaps.containsKey(relation))
+					continue;
+				IntHashMap<ByteString> row = new IntHashMap<ByteString>();
+				overlaps.put(relation, row);
+				if (overlapTablesBuilt) {
+					for (ByteString other : overlaps.keySet()) {
+						row.put(other, 0);
+						overlaps.get(other).put(relation, 0);
+					}
 				}
+			}
+		}
+	}
 
-				int soverlap1 = computeOverlap(subjects1, objects2);
-				subject2objectOverlap.get(r1).put(r2, soverlap1);
-				int soverlap2 = computeOverlap(subjects2, objects1);
-				subject2objectOverlap.get(r2).put(r1, soverlap2);
+	/**
+	 * It updates the overlap tables once the fact has been added (delta = 1) to
+	 * or removed (delta = -1) from the indexes. Only the relation of the fact can 
+	 * have gained or lost its subject or its object.
+	 */
+	private void updateOverlaps(ByteString subject, ByteString relation, ByteString object, int delta) {
+		long expected = delta > 0 ? 1 : 0;
+		Set<ByteString> changed = Collections.singleton(relation);
+		Set<ByteString> unchanged = Collections.emptySet();
+		boolean subjectChanged = countOneVariable(subject, relation, OVERLAP_VARIABLE) == expected;
+		boolean objectChanged = countOneVariable(OVERLAP_VARIABLE, relation, object) == expected;
+		if (subject == object) {
+			if (subjectChanged || objectChanged)
+				updateOverlaps(subject, subjectChanged ? changed : unchanged,
+						objectChanged ? changed : unchanged, delta);
+		} else {
+			if (subjectChanged)
+				updateOverlaps(subject, changed, unchanged, delta);
+			if (objectChanged)
+				updateOverlaps(object, unchanged, changed, delta);
+		}
+	}
 
-				if (!r1.equals(r2)) {
-					int oooverlap = computeOverlap(objects1, objects2);
-					object2objectOverlap.get(r1).put(r2, oooverlap);
-					object2objectOverlap.get(r2).put(r1, oooverlap);
-				} else {
-					object2objectOverlap.get(r1).put(r1, objects2.size());
+	/**
+	 * It updates the overlap tables once the fresh facts of the batches have been
+	 * added to the indexes. An entity is a new subject of a relation if all the facts
+	 * with that subject and relation are fresh, and likewise for objects.
+	 */
+	private void updateOverlaps(List<KBLoader.Batch> batches) {
+		Map<ByteString, IntHashMap<ByteString>> freshSubjects = new IdentityHashMap<ByteString, IntHashMap<ByteString>>();
+		Map<ByteString, IntHashMap<ByteString>> freshObjects = new IdentityHashMap<ByteString, IntHashMap<ByteString>>();
+		for (KBLoader.Batch batch : batches) {
+			for (int i = 0; i < batch.size(); ++i) {
+				if (batch.fresh[i]) {
+					increase(freshSubjects, batch.get(i, 0), batch.get(i, 1));
+					increase(freshObjects, batch.get(i, 2), batch.get(i, 1));
 				}
 			}
 		}
+		Set<ByteString> entities = new LinkedHashSet<ByteString>(freshSubjects.keySet());
+		entities.addAll(freshObjects.keySet());
+		for (ByteString entity : entities) {
+			Set<ByteString> subjectOf = new HashSet<ByteString>();
+			IntHashMap<ByteString> relations = freshSubjects.get(entity);
+			if (relations != null) {
+				for (ByteString relation : relations) {
+					if (countOneVariable(entity, relation, OVERLAP_VARIABLE) == relations.get(relation))
+						subjectOf.add(relation);
+				}
+			}
+			Set<ByteString> objectOf = new HashSet<ByteString>();
+			relations = freshObjects.get(entity);
+			if (relations != null) {
+				for (ByteString relation : relations) {
+					if (countOneVariable(OVERLAP_VARIABLE, relation, entity) == relations.get(relation))
+						objectOf.add(relation);
+				}
+			}
+			if (!subjectOf.isEmpty() || !objectOf.isEmpty())
+				updateOverlaps(entity, subjectOf, objectOf, 1);
+		}
+	}
+
+	private static void increase(Map<ByteString, IntHashMap<ByteString>> map, ByteString key, ByteString value) {
+		IntHashMap<ByteString> values = map.get(key);
+		if (values == null)
+			map.put(key, values = new IntHashMap<ByteString>());
+		values.increase(value);
+	}
+
+	/**
+	 * It updates the overlap tables for an entity that became (delta = 1) or stopped being 
+	 * (delta = -1) a subject of the relations in subjectOf and an object of the relations in
+	 * objectOf. The indexes must already reflect the change. Every overlap counts the entities 
+	 * shared by two relations, hence it changes by delta for the pairs of relations of the entity 
+	 * that involve at least one changed relation.
+	 */
+	protected void updateOverlaps(ByteString entity, Set<ByteString> subjectOf, 
+			Set<ByteString> objectOf, int delta) {
+		Set<ByteString> subjectRelations = relations(subject2relation2object, entity);
+		Set<ByteString> objectRelations = relations(object2relation2subject, entity);
+		if (delta < 0) {
+			subjectRelations.addAll(subjectOf);
+			objectRelations.addAll(objectOf);
+		}
+		synchronized (subject2subjectOverlap) {
+			updateOverlaps(subject2subjectOverlap, subjectRelations, subjectOf, subjectRelations, subjectOf, delta);
+			updateOverlaps(subject2objectOverlap, subjectRelations, subjectOf, objectRelations, objectOf, delta);
+			updateOverlaps(object2objectOverlap, objectRelations, objectOf, objectRelations, objectOf, delta);
+		}
+	}
+
+	private static Set<ByteString> relations(Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> index, 
+			ByteString entity) {
+		Map<ByteString, IntHashMap<ByteString>> relations = index.get(entity);
+		if (relations == null)
+			return (new HashSet<ByteString>());
+		return (new HashSet<ByteString>(relations.keySet()));
 	}
 
 	/**
-	 * Calculates the number of elements in the intersection of two sets of ByteStrings.
-	 * @param s1
-	 * @param s2
+	 * It adds delta to table[r1][r2] for all r1 in rows and r2 in columns
+	 * such that r1 is in changedRows or r2 is in changedColumns.
+	 */
+	private static void updateOverlaps(Map<ByteString, IntHashMap<ByteString>> table, 
+			Set<ByteString> rows, Set<ByteString> changedRows, 
+			Set<ByteString> columns, Set<ByteString> changedColumns, int delta) {
+		for (ByteString r1 : changedRows) {
+			IntHashMap<ByteString> row = table.get(r1);
+			for (ByteString r2 : columns)
+				row.add(r2, delta);
+		}
+		if (changedColumns.isEmpty())
+			return;
+		for (ByteString r1 : rows) {
+			if (changedRows.contains(r1))
+				continue;
+			IntHashMap<ByteString> row = table.get(r1);
+			for (ByteString r2 : changedColumns)
+				row.add(r2, delta);
+		}
+	}
+
+	/**
+	 * It returns the subjects (position 2i) and the objects (position 2i + 1) of the i-th
+	 * relation as non-negative entity identifiers. The same entity must have the same 
+	 * identifier in all the arrays, and identifiers should be as dense as possible.
+	 * @param relations
 	 * @return
 	 */
-	private static int computeOverlap(Set<ByteString> s1, Set<ByteString> s2) {
-		int overlap = 0;
-		for (ByteString r : s1) {
-			if (s2.contains(r))
-				++overlap;
+	protected int[][] overlapColumns(List<ByteString> relations) {
+		Map<ByteString, Integer> ids = new IdentityHashMap<ByteString, Integer>();
+		int[][] columns = new int[2 * relations.size()][];
+		for (int i = 0; i < relations.size(); ++i) {
+			ByteString relation = relations.get(i);
+			columns[2 * i] = overlapColumn(relation2subject2object.get(relation), ids);
+			columns[2 * i + 1] = overlapColumn(relation2object2subject.get(relation), ids);
+		}
+		return (columns);
+	}
+
+	private static int[] overlapColumn(Map<ByteString, ?> entities, Map<ByteString, Integer> ids) {
+		if (entities == null)
+			return (new int[0]);
+		int[] result = new int[entities.size()];
+		int k = 0;
+		for (ByteString entity : entities.keySet()) {
+			Integer id = ids.get(entity);
+			if (id == null)
+				ids.put(entity, id = ids.size());
+			result[k++] = id;
+		}
+		return (result);
+	}
+
+	/**
+	 * Set of entity identifiers stored as a bitmap restricted to the range
+	 * of words between its smallest and largest identifiers.
+	 */
+	private static final class EntityBitmap {
+
+		/** Index of the first word of the bitmap **/
+		final int offset;
+
+		final long[] words;
+
+		final int cardinality;
+
+		EntityBitmap(int[] ids) {
+			cardinality = ids.length;
+			if (ids.length == 0) {
+				offset = 0;
+				words = new long[0];
+				return;
+			}
+			int min = Integer.MAX_VALUE, max = 0;
+			for (int id : ids) {
+				min = Math.min(min, id);
+				max = Math.max(max, id);
+			}
+			offset = min >>> 6;
+			words = new long[(max >>> 6) - offset + 1];
+			for (int id : ids) {
+				words[(id >>> 6) - offset] |= 1L << id;
+			}
+		}
+
+		/**
+		 * Number of identifiers in common with the given bitmap.
+		 */
+		int overlap(EntityBitmap other) {
+			if (other == this)
+				return (cardinality);
+			int from = Math.max(offset, other.offset);
+			int to = Math.min(offset + words.length, other.offset + other.words.length);
+			int count = 0;
+			// Bitmaps whose ranges do not intersect are skipped by the empty loop
+			for (int w = from; w < to; ++w) {
+				count += Long.bitCount(words[w - offset] & other.words[w - other.offset]);
+			}
+			return (count);
+		}
+	}
+
+	/**
+	 * Work done for every relation in buildOverlapTables.
+	 */
+	private interface RelationBody {
+		void apply(int i);
+	}
+
+	/**
+	 * Fork/join task that applies a body to the relations in [from, to).
+	 */
+	private static final class RelationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RelationBody body;
+
+		private final int from;
+
+		private final int to;
+
+		RelationTask(RelationBody body, int from, int to) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				body.apply(from);
+			} else if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RelationTask(body, from, middle), new RelationTask(body, middle, to));
+			}
 		}
-		return overlap;
 	}
 
 	/**
@@ -465,47 +889,137 @@ public class KB {
 		long time = System.currentTimeMillis();
 		long memory = Runtime.getRuntime().freeMemory();
 		Announce.doing("Loading files");
-		final int[] running = new int[1];
-		for (final File file : files) {
-			running[0]++;
-			new Thread() {
-				public void run() {
-					try {
-						synchronized (Announce.blanks) {
-							Announce.message("Starting " + file.getName());
+		new KBLoader(this).load(files);
+		Announce.done("Loaded " + (size() - size) + " facts in "
+				+ NumberFormatter.formatMS(System.currentTimeMillis() - time)
+				+ " using "
+				+ ((Runtime.getRuntime().freeMemory() - memory) / 1000000)
+				+ " MB");
+	}
+	
+	/**
+	 * It returns an empty batch for the facts parsed by the parallel loader.
+	 */
+	protected KBLoader.Batch newBatch() {
+		return (new KBLoader.ByteStringBatch());
+	}
+	
+	/**
+	 * It adds the facts of the batches produced by the parallel loader. The indexes are filled
+	 * by addToIndexes and the statistics are then updated by one task per map. 
+	 * @param batches
+	 * @param executor
+	 * @param parallelism Number of threads of the executor
+	 * @throws InterruptedException
+	 */
+	protected void addAll(final List<KBLoader.Batch> batches, ExecutorService executor, 
+			int parallelism) throws InterruptedException {
+		addToIndexes(batches, executor, parallelism);
+		List<Callable<Long>> tasks = new ArrayList<>();
+		final int[] columns = {0, 1, 2};
+		final List<IntHashMap<ByteString>> sizes = Arrays.asList(subjectSize, relationSize, objectSize);
+		for (final int column : columns) {
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					IntHashMap<ByteString> sizeMap = sizes.get(column);
+					long newFacts = 0;
+					synchronized (sizeMap) {
+						for (KBLoader.Batch batch : batches) {
+							for (int i = 0; i < batch.size(); ++i) {
+								if (batch.fresh[i]) {
+									sizeMap.increase(batch.get(i, column));
+									++newFacts;
+								}
+							}
 						}
-						load(file, null);
-					} catch (Exception e) {
-						e.printStackTrace();
 					}
-					synchronized (Announce.blanks) {
-						Announce.message("Finished " + file.getName()
-								+ ", still running: " + (running[0] - 1));
-						synchronized (running) {
-							if (--running[0] == 0) {
-								running.notify();
+					return (newFacts);
+				}
+			});
+		}
+		long newFacts = KBLoader.invokeAll(executor, tasks).get(0);
+		
+		for (ByteString relation : relationSize) {
+			addOverlapRow(relation);
+		}
+		if (overlapTablesBuilt)
+			updateOverlaps(batches);
+		size += newFacts;
+		if (newFacts > 0)
+			invalidateQueryCache();
+	}
+	
+	/**
+	 * It adds the facts of the batches to the indexes and marks the facts that were not 
+	 * in the KB (see KBLoader.Batch). The missing first-level entries are created first, 
+	 * one task per index, because the outer maps do not support concurrent insertions. 
+	 * The facts are then inserted by one task per shard: the task of shard k owns the 
+	 * first-level keys whose hash modulo parallelism is k in all the indexes.
+	 * @param batches
+	 * @param executor
+	 * @param parallelism
+	 * @throws InterruptedException
+	 */
+	protected void addToIndexes(final List<KBLoader.Batch> batches, ExecutorService executor, 
+			final int parallelism) throws InterruptedException {
+		final List<Map<ByteString, Map<ByteString, IntHashMap<ByteString>>>> indexes = 
+				Arrays.asList(subject2relation2object, relation2object2subject, object2subject2relation,
+						relation2subject2object, object2relation2subject, subject2object2relation);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int p = 0; p < PERMUTATIONS.length; ++p) {
+			final int first = PERMUTATIONS[p][0];
+			final Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> index = indexes.get(p);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					synchronized (index) {
+						for (KBLoader.Batch batch : batches) {
+							for (int i = 0; i < batch.size(); ++i) {
+								ByteString key1 = batch.get(i, first);
+								if (!index.containsKey(key1))
+									index.put(key1, new IdentityHashMap<ByteString, IntHashMap<ByteString>>());
 							}
 						}
 					}
+					return (null);
 				}
-			}.start();
+			});
 		}
-
-		try {
-			synchronized (running) {
-				running.wait();
-			}
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		KBLoader.invokeAll(executor, tasks);
+
+		tasks.clear();
+		for (int shard = 0; shard < parallelism; ++shard) {
+			final int myShard = shard;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (KBLoader.Batch batch : batches) {
+						for (int p = 0; p < PERMUTATIONS.length; ++p) {
+							int[] order = PERMUTATIONS[p];
+							Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> index = indexes.get(p);
+							for (int i = 0; i < batch.size(); ++i) {
+								ByteString key1 = batch.get(i, order[0]);
+								if ((System.identityHashCode(key1) & Integer.MAX_VALUE) % parallelism != myShard)
+									continue;
+								Map<ByteString, IntHashMap<ByteString>> key2values = index.get(key1);
+								ByteString key2 = batch.get(i, order[1]);
+								IntHashMap<ByteString> values = key2values.get(key2);
+								if (values == null)
+									key2values.put(key2, values = new IntHashMap<ByteString>());
+								boolean added = values.add(batch.get(i, order[2]));
+								if (p == 0)
+									batch.fresh[i] = added;
+							}
+						}
+					}
+					return (null);
+				}
+			});
 		}
-		
-		Announce.done("Loaded " + (size() - size) + " facts in "
-				+ NumberFormatter.formatMS(System.currentTimeMillis() - time)
-				+ " using "
-				+ ((Runtime.getRuntime().freeMemory() - memory) / 1000000)
-				+ " MB");
+		KBLoader.invokeAll(executor, tasks);
 	}
-	
+
 	/**
 	 * It loads the contents of the given file into the in-memory database.
 	 * @param f
@@ -1240,7 +1754,7 @@ public class KB {
 	 * @param triple
 	 * @return
 	 */
-	private Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> resultsThreeVariables(
+	protected Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> resultsThreeVariables(
 			int varPos1, int varPos2, int varPos3, ByteString[] triple) {
 		switch (varPos1) {
 		case 0 :
@@ -1521,11 +2035,110 @@ public class KB {
 	}
 
 	/**
-	 * It returns the index of the most restrictive triple, -1 if most restrictive has count 0.
+	 * It enables or disables the cost-based choice of the atom to instantiate (see QueryPlanner).
+	 * When disabled, the atom with the smallest number of instances is chosen. It is disabled 
+	 * by default.
+	 * @param enabled
+	 */
+	public void setCostBasedPlanning(boolean enabled) {
+		planner = enabled ? new QueryPlanner(this) : null;
+	}
+
+	public boolean isCostBasedPlanning() {
+		return (planner != null);
+	}
+
+	/**
+	 * It sets the cache for the results of countDistinct, countDistinctPairs and 
+	 * selectDistinct on multi-atom queries (see QueryCache).
+	 * @param cache The cache or null to disable caching
+	 */
+	public void setQueryCache(QueryCache cache) {
+		queryCache = cache;
+	}
+
+	public QueryCache getQueryCache() {
+		return (queryCache);
+	}
+
+	/**
+	 * It sets the number of threads that evaluate the outer loop of countDistinctPairs when the 
+	 * first variable has at least PARALLEL_PAIRS_THRESHOLD bindings.
+	 * @param parallelism Number of threads, 1 or less to evaluate all queries sequentially
+	 */
+	public void setQueryParallelism(int parallelism) {
+		ForkJoinPool old = queryPool;
+		queryPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		if (old != null)
+			old.shutdown();
+	}
+
+	public int getQueryParallelism() {
+		ForkJoinPool pool = queryPool;
+		return (pool == null ? 1 : pool.getParallelism());
+	}
+
+	/**
+	 * It returns the pool that counts the pairs of the expensive queries, null if the
+	 * queries are evaluated sequentially.
+	 */
+	protected ForkJoinPool getQueryPool() {
+		return (queryPool);
+	}
+
+	/**
+	 * It returns the cache that should answer the query, or null if the query must be
+	 * evaluated, e.g., because it is issued while evaluating another query.
+	 */
+	protected QueryCache queryCache(List<ByteString[]> query) {
+		QueryCache cache = queryCache;
+		return (cache != null && cache.accepts(query) ? cache : null);
+	}
+
+	/**
+	 * It drops the cached results, called whenever the KB changes.
+	 */
+	protected void invalidateQueryCache() {
+		QueryCache cache = queryCache;
+		if (cache != null)
+			cache.invalidate();
+	}
+
+	/**
+	 * It returns the plan chosen by the cost-based planner for the query, with the estimated
+	 * number of bindings after each atom. The atoms are instantiated in this order, although
+	 * the rest of the plan is recomputed once the first atom has been instantiated.
+	 * @param query
+	 * @return
+	 */
+	public QueryPlanner.Plan explain(List<ByteString[]> query) {
+		return (new QueryPlanner(this).plan(query));
+	}
+
+	/**
+	 * It returns the plan of the query if cost-based planning is enabled and the query has at
+	 * least PLANNING_THRESHOLD atoms, null otherwise.
+	 * @param query
+	 * @return
+	 */
+	protected QueryPlanner.Plan plan(List<ByteString[]> query) {
+		QueryPlanner queryPlanner = planner;
+		if (queryPlanner != null && query.size() >= PLANNING_THRESHOLD)
+			return (queryPlanner.plan(query));
+		return (null);
+	}
+
+	/**
+	 * It returns the index of the atom to instantiate first. If cost-based planning is enabled
+	 * and the query has at least PLANNING_THRESHOLD atoms, it is the first atom of the cheapest 
+	 * plan (see QueryPlanner). Otherwise, it is the most restrictive triple.
 	 * The most restrictive triple is the one that contains the smallest number of satisfying
-	 * instantiations.
+	 * instantiations. It returns -1 if some atom has count 0.
 	 **/
 	protected int mostRestrictiveTriple(List<ByteString[]> triples) {
+		QueryPlanner.Plan plan = plan(triples);
+		if (plan != null)
+			return (plan.first());
 		int bestPos = -1;
 		long count = Long.MAX_VALUE;
 		for (int i = 0; i < triples.size(); i++) {
@@ -1547,7 +2160,7 @@ public class KB {
 	 * @param byteStrings
 	 * @return
 	 */
-	private boolean isSpecialAtom(ByteString[] atom) {
+	protected boolean isSpecialAtom(ByteString[] atom) {
 		return specialRelations.contains(atom[1]) ||
 				parseCardinalityRelation(atom[1]) != null;
 	}
@@ -1561,6 +2174,9 @@ public class KB {
 	 **/
 	protected int mostRestrictiveTriple(List<ByteString[]> triples,
 			ByteString variable) {
+		QueryPlanner queryPlanner = planner;
+		if (queryPlanner != null && triples.size() >= PLANNING_THRESHOLD)
+			return (queryPlanner.plan(triples, Arrays.asList(variable)).first());
 		int bestPos = -1;
 		long count = Long.MAX_VALUE;
 		for (int i = 0; i < triples.size(); i++) {
@@ -1587,6 +2203,9 @@ public class KB {
 	 **/
 	protected int mostRestrictiveTriple(List<ByteString[]> triples,
 			ByteString var1, ByteString var2) {
+		QueryPlanner queryPlanner = planner;
+		if (queryPlanner != null && triples.size() >= PLANNING_THRESHOLD)
+			return (queryPlanner.plan(triples, Arrays.asList(var1, var2)).first());
 		int bestPos = -1;
 		long count = Long.MAX_VALUE;
 		for (int i = 0; i < triples.size(); i++) {
@@ -1682,6 +2301,15 @@ public class KB {
 	 * @return
 	 */
 	public boolean existsBS(List<ByteString[]> triples) {
+		long start = startQuery(existsTimer);
+		try {
+			return (untimedExistsBS(triples));
+		} finally {
+			stopQuery(existsTimer, start);
+		}
+	}
+
+	private boolean untimedExistsBS(List<ByteString[]> triples) {
 		if (triples.isEmpty())
 			return (false);
 		if (triples.size() == 1)
@@ -1751,9 +2379,59 @@ public class KB {
 
 	/** returns the number of instances that fulfill a certain condition */
 	public long countDistinct(ByteString variable, List<ByteString[]> query) {
+		long start = startQuery(countDistinctTimer);
+		try {
+			return (untimedCountDistinct(variable, query));
+		} finally {
+			stopQuery(countDistinctTimer, start);
+		}
+	}
+
+	private long untimedCountDistinct(ByteString variable, List<ByteString[]> query) {
+		QueryCache cache = queryCache(query);
+		if (cache != null)
+			return (cache.countDistinct(this, variable, query));
 		return (long) (selectDistinct(variable, query).size());
 	}
 
+	/**
+	 * It counts the bindings of the variable in the query up to the given limit. 
+	 * The evaluation stops as soon as the limit is reached, which is enough to
+	 * test thresholds on support or confidence.
+	 * @param variable Projection variable
+	 * @param query
+	 * @param limit
+	 * @return The number of distinct bindings or limit if there are more
+	 */
+	public long countDistinctAtMost(ByteString variable, List<ByteString[]> query, long limit) {
+		long start = startQuery(countDistinctAtMostTimer);
+		try {
+			return (untimedCountDistinctAtMost(variable, query, limit));
+		} finally {
+			stopQuery(countDistinctAtMostTimer, start);
+		}
+	}
+
+	private long untimedCountDistinctAtMost(ByteString variable, List<ByteString[]> query, long limit) {
+		if (limit <= 0)
+			return (0);
+		QueryCache cache = queryCache(query);
+		if (cache != null)
+			return (cache.countDistinctAtMost(this, variable, query, limit));
+		return (Math.min(selectDistinct(variable, query, limit).size(), limit));
+	}
+
+	/**
+	 * It returns true if the variable has at least threshold distinct bindings in the query.
+	 * @param variable
+	 * @param query
+	 * @param threshold
+	 * @return
+	 */
+	public boolean countDistinctAtLeast(ByteString variable, List<ByteString[]> query, long threshold) {
+		return (countDistinctAtMost(variable, query, threshold) >= threshold);
+	}
+
 	// ---------------------------------------------------------------------------
 	// Selection
 	// ---------------------------------------------------------------------------
@@ -1767,6 +2445,44 @@ public class KB {
 	/** returns the instances that fulfill a certain condition */
 	public Set<ByteString> selectDistinct(ByteString variable,
 			List<ByteString[]> query) {
+		long start = startQuery(selectDistinctTimer);
+		try {
+			return (untimedSelectDistinct(variable, query));
+		} finally {
+			stopQuery(selectDistinctTimer, start);
+		}
+	}
+
+	private Set<ByteString> untimedSelectDistinct(ByteString variable,
+			List<ByteString[]> query) {
+		QueryCache cache = queryCache(query);
+		if (cache != null)
+			return (cache.selectDistinct(this, variable, query));
+		return (selectDistinct(variable, query, Long.MAX_VALUE));
+	}
+
+	/**
+	 * It returns the instances that fulfill a certain condition. The evaluation 
+	 * stops once limit instances have been found, so the result contains 
+	 * all the instances or at least limit of them.
+	 * Queries with several atoms are evaluated by a BindingCursor.
+	 * @param variable
+	 * @param query
+	 * @param limit
+	 * @return
+	 */
+	public Set<ByteString> selectDistinct(ByteString variable,
+			List<ByteString[]> query, long limit) {
+		long start = startQuery(selectDistinctTimer);
+		try {
+			return (untimedSelectDistinct(variable, query, limit));
+		} finally {
+			stopQuery(selectDistinctTimer, start);
+		}
+	}
+
+	private Set<ByteString> untimedSelectDistinct(ByteString variable,
+			List<ByteString[]> query, long limit) {
 		// Only one triple
 		if (query.size() == 1) {
 			ByteString[] triple = query.get(0);
@@ -1802,127 +2518,19 @@ public class KB {
 					+ " WHERE " + toString(query.get(0)));
 		}
 
-		int bestPos = mostRestrictiveTriple(query);
-		IntHashMap<ByteString> result = new IntHashMap<>();
-		if (bestPos == -1)
-			return (result);
-		ByteString[] best = query.get(bestPos);
-
-		// If the variable is in the most restrictive triple
-		if (Arrays.asList(best).indexOf(variable) != -1) {
-			switch (numVariables(best)) {
-			case 1 :
-				try (Instantiator insty = new Instantiator(remove(bestPos,
-						query), variable)) {
-					for (ByteString inst : resultsOneVariable(best)) {
-						if (existsBS(insty.instantiate(inst)))
-							result.add(inst);
-					}
-				}
-				break;
-			case 2:
-				int firstVar = firstVariablePos(best);
-				int secondVar = secondVariablePos(best);
-				Map<ByteString, IntHashMap<ByteString>> instantiations = best[firstVar]
-						.equals(variable) ? resultsTwoVariables(firstVar,
-						secondVar, best) : resultsTwoVariables(secondVar,
-						firstVar, best);
-				try (Instantiator insty = new Instantiator(query, variable)) {
-					for (ByteString val : instantiations.keySet()) {
-						if (existsBS(insty.instantiate(val)))
-							result.add(val);
-					}
-				}
-				break;
-			case 3:
-			default:
-				try (Instantiator insty = new Instantiator(remove(bestPos, query), variable)) {
-					int varPos = varpos(variable, best);
-					ByteString var1, var2, var3;
-					switch (varPos) {
-					case 0 :
-						var1 = best[0];
-						var2 = best[1];
-						var3 = best[2];
-						break;
-					case 1 :
-						var1 = best[1];
-						var2 = best[0];
-						var3 = best[2];
-						break;
-					case 2 : default :
-						var1 = best[2];
-						var2 = best[0];
-						var3 = best[1];
-						break;							
-					}
-
-					for (ByteString inst : resultsThreeVariables(var1, var2, var3, best).keySet()) {
-						if (existsBS(insty.instantiate(inst)))
-							result.add(inst);
-					}
-				}
-				break;
-			}
-			return (result);
-		}
-
-		// If the variable is not in the most restrictive triple...
-		List<ByteString[]> others = remove(bestPos, query);
-		switch (numVariables(best)) {
-		case 0:
-			return (selectDistinct(variable, others));
-		case 1:
-			ByteString var = best[firstVariablePos(best)];
-			try (Instantiator insty = new Instantiator(others, var)) {
-				for (ByteString inst : resultsOneVariable(best)) {
-					result.addAll(selectDistinct(variable,
-							insty.instantiate(inst)));
-				}
-			}
-			break;
-		case 2:
-			int firstVar = firstVariablePos(best);
-			int secondVar = secondVariablePos(best);
-			Map<ByteString, IntHashMap<ByteString>> instantiations = resultsTwoVariables(
-					firstVar, secondVar, best);
-			try (Instantiator insty1 = new Instantiator(others, best[firstVar]);
-					Instantiator insty2 = new Instantiator(others,
-							best[secondVar])) {
-				for (ByteString val1 : instantiations.keySet()) {
-					insty1.instantiate(val1);
-					for (ByteString val2 : instantiations.get(val1)) {
-						result.addAll(selectDistinct(variable,
-								insty2.instantiate(val2)));
-					}
-				}
-			}
-			break;
-		case 3:
-		default:
-			firstVar = firstVariablePos(best);
-			secondVar = secondVariablePos(best);
-			Map<ByteString, Map<ByteString, IntHashMap<ByteString>>> map = 
-					resultsThreeVariables(best[0], best[1], best[2], best);
-			try (Instantiator insty1 = new Instantiator(others, best[0]);
-					Instantiator insty2 = new Instantiator(others, best[1]);
-						Instantiator insty3 = new Instantiator(others, best[2])) {
-				for (ByteString val1 : map.keySet()) {
-					insty1.instantiate(val1);
-					instantiations = map.get(val1);
-					for (ByteString val2 : instantiations.keySet()) {
-						insty2.instantiate(val2);
-						IntHashMap<ByteString> instantiations2 = instantiations.get(val2);
-						for (ByteString val3 : instantiations2) {
-							result.addAll(selectDistinct(variable, insty3.instantiate(val3)));
-						}
-					}
-				}
-			}
-			break;
+		return (cursor(query, variable).selectDistinct(limit));
+	}
 
-		}
-		return (result);
+	/**
+	 * It returns a cursor over the distinct bindings of the given variables in the query.
+	 * The bindings are computed on demand, without materializing intermediate results
+	 * (see BindingCursor).
+	 * @param query
+	 * @param variables Projection variables, possibly none
+	 * @return
+	 */
+	public BindingCursor cursor(List<ByteString[]> query, ByteString... variables) {
+		return (new BindingCursor(this, query, variables));
 	}
 
 	// ---------------------------------------------------------------------------
@@ -1938,23 +2546,22 @@ public class KB {
 	/** Returns all (distinct) pairs of values that make the query true */
 	public Map<ByteString, IntHashMap<ByteString>> selectDistinct(
 			ByteString var1, ByteString var2, List<ByteString[]> query) {
+		long start = startQuery(selectDistinctPairsTimer);
+		try {
+			return (untimedSelectDistinct(var1, var2, query));
+		} finally {
+			stopQuery(selectDistinctPairsTimer, start);
+		}
+	}
+
+	private Map<ByteString, IntHashMap<ByteString>> untimedSelectDistinct(
+			ByteString var1, ByteString var2, List<ByteString[]> query) {
 		if (query.isEmpty())
 			return (Collections.emptyMap());
 		if (query.size() == 1) {
 			return (resultsTwoVariables(var1, var2, query.get(0)));
 		}
-		Map<ByteString, IntHashMap<ByteString>> result = new HashMap<>();
-		try (Instantiator insty1 = new Instantiator(query, var1)) {
-			for (ByteString val1 : selectDistinct(var1, query)) {
-				Set<ByteString> val2s = selectDistinct(var2,
-						insty1.instantiate(val1));
-				IntHashMap<ByteString> ihm = val2s instanceof IntHashMap<?> ? (IntHashMap<ByteString>) val2s
-						: new IntHashMap<>(val2s);
-				if (!val2s.isEmpty())
-					result.put(val1, ihm);
-			}
-		}
-		return (result);
+		return (cursor(query, var1, var2).selectDistinctPairs());
 	}
 	
 	// ---------------------------------------------------------------------------
@@ -2113,6 +2720,16 @@ public class KB {
 	 **/
 	public IntHashMap<ByteString> frequentBindingsOf(ByteString variable,
 			ByteString projectionVariable, List<ByteString[]> query) {
+		long start = startQuery(frequentBindingsOfTimer);
+		try {
+			return (untimedFrequentBindingsOf(variable, projectionVariable, query));
+		} finally {
+			stopQuery(frequentBindingsOfTimer, start);
+		}
+	}
+
+	private IntHashMap<ByteString> untimedFrequentBindingsOf(ByteString variable,
+			ByteString projectionVariable, List<ByteString[]> query) {
 		// If only one triple
 		if (query.size() == 1) {
 			ByteString[] triple = query.get(0);
@@ -2382,6 +2999,17 @@ public class KB {
 	public IntHashMap<ByteString> countProjectionBindings(
 			ByteString[] projectionTriple, List<ByteString[]> otherTriples,
 			ByteString variable) {
+		long start = startQuery(countProjectionBindingsTimer);
+		try {
+			return (untimedCountProjectionBindings(projectionTriple, otherTriples, variable));
+		} finally {
+			stopQuery(countProjectionBindingsTimer, start);
+		}
+	}
+
+	private IntHashMap<ByteString> untimedCountProjectionBindings(
+			ByteString[] projectionTriple, List<ByteString[]> otherTriples,
+			ByteString variable) {
 		int pos = Arrays.asList(projectionTriple).indexOf(variable);
 
 		// If the other triples are empty, count all bindings
@@ -2591,6 +3219,16 @@ public class KB {
 	 */
 	public long countProjection(ByteString[] projectionTriple,
 			List<ByteString[]> otherTriples) {
+		long start = startQuery(countProjectionTimer);
+		try {
+			return (untimedCountProjection(projectionTriple, otherTriples));
+		} finally {
+			stopQuery(countProjectionTimer, start);
+		}
+	}
+
+	private long untimedCountProjection(ByteString[] projectionTriple,
+			List<ByteString[]> otherTriples) {
 		if (otherTriples.isEmpty())
 			return (count(projectionTriple));
 		switch (numVariables(projectionTriple)) {
@@ -2836,11 +3474,27 @@ public class KB {
 	/** returns the number of distinct pairs (var1,var2) for the query */
 	public long countDistinctPairs(ByteString var1, ByteString var2,
 			List<ByteString[]> query) {
+		long start = startQuery(countDistinctPairsTimer);
+		try {
+			return (untimedCountDistinctPairs(var1, var2, query));
+		} finally {
+			stopQuery(countDistinctPairsTimer, start);
+		}
+	}
+
+	private long untimedCountDistinctPairs(ByteString var1, ByteString var2,
+			List<ByteString[]> query) {
+		QueryCache cache = queryCache(query);
+		if (cache != null)
+			return (cache.countDistinctPairs(this, var1, var2, query));
 		// Go for the standard plan
 		long result = 0;
 
 		try (Instantiator insty1 = new Instantiator(query, var1)) {
 			Set<ByteString> bindings = selectDistinct(var1, query);
+			ForkJoinPool pool = queryPool;
+			if (pool != null && bindings.size() >= PARALLEL_PAIRS_THRESHOLD)
+				return (countDistinctPairs(pool, var1, var2, query, bindings, Long.MAX_VALUE));
 			for (ByteString val1 : bindings) {
 				result += countDistinct(var2, insty1.instantiate(val1));
 			}
@@ -2849,6 +3503,126 @@ public class KB {
 		return (result);
 	}
 
+	/**
+	 * It counts the distinct pairs (var1, var2) of the query up to the given limit.
+	 * The evaluation stops as soon as the limit is reached.
+	 * @return The number of distinct pairs or limit if there are more
+	 */
+	public long countDistinctPairsAtMost(ByteString var1, ByteString var2,
+			List<ByteString[]> query, long limit) {
+		long start = startQuery(countDistinctPairsAtMostTimer);
+		try {
+			return (untimedCountDistinctPairsAtMost(var1, var2, query, limit));
+		} finally {
+			stopQuery(countDistinctPairsAtMostTimer, start);
+		}
+	}
+
+	private long untimedCountDistinctPairsAtMost(ByteString var1, ByteString var2,
+			List<ByteString[]> query, long limit) {
+		QueryCache cache = queryCache(query);
+		if (cache != null)
+			return (cache.countDistinctPairsAtMost(this, var1, var2, query, limit));
+		long result = 0;
+
+		try (Instantiator insty1 = new Instantiator(query, var1)) {
+			Set<ByteString> bindings = selectDistinct(var1, query);
+			ForkJoinPool pool = queryPool;
+			if (pool != null && bindings.size() >= PARALLEL_PAIRS_THRESHOLD)
+				return (countDistinctPairs(pool, var1, var2, query, bindings, limit));
+			for (ByteString val1 : bindings) {
+				if (result >= limit)
+					break;
+				result += countDistinctAtMost(var2, insty1.instantiate(val1), limit - result);
+			}
+		}
+
+		return (Math.min(result, limit));
+	}
+
+	/**
+	 * It counts the distinct pairs (var1, var2) of the query, up to the given limit, by splitting
+	 * the bindings of var1 among the threads of the pool.
+	 */
+	private long countDistinctPairs(ForkJoinPool pool, ByteString var1, ByteString var2,
+			List<ByteString[]> query, Set<ByteString> bindings, long limit) {
+		ByteString[] values = bindings.toArray(new ByteString[bindings.size()]);
+		int chunk = Math.max(PARALLEL_PAIRS_CHUNK, values.length / (8 * pool.getParallelism()));
+		PairsTask task = new PairsTask(var1, var2, query, values, 0, values.length, chunk, 
+				limit, new AtomicLong());
+		return (Math.min(pool.invoke(task), limit));
+	}
+
+	/**
+	 * Fork/join task that counts the bindings of var2 for the values in [from, to) of var1.
+	 * Each leaf instantiates its own copy of the query. The tasks stop once the total
+	 * reaches the limit.
+	 */
+	private final class PairsTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ByteString var1;
+
+		private final ByteString var2;
+
+		private final List<ByteString[]> query;
+
+		private final ByteString[] values;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunk;
+
+		private final long limit;
+
+		private final AtomicLong total;
+
+		PairsTask(ByteString var1, ByteString var2, List<ByteString[]> query, ByteString[] values,
+				int from, int to, int chunk, long limit, AtomicLong total) {
+			this.var1 = var1;
+			this.var2 = var2;
+			this.query = query;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.limit = limit;
+			this.total = total;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from > chunk) {
+				int middle = (from + to) >>> 1;
+				PairsTask left = new PairsTask(var1, var2, query, values, from, middle, chunk, limit, total);
+				left.fork();
+				long right = new PairsTask(var1, var2, query, values, middle, to, chunk, limit, total).compute();
+				return (right + left.join());
+			}
+			List<ByteString[]> copy = new ArrayList<>(query.size());
+			for (ByteString[] atom : query) {
+				copy.add(atom.clone());
+			}
+			long count = 0;
+			// The queries of the leaf are part of the query that created the task
+			int depth = setQueryDepth(getQueryDepth() + 1);
+			try (Instantiator insty = new Instantiator(copy, var1)) {
+				for (int i = from; i < to && total.get() < limit; ++i) {
+					// The instantiated queries are not worth caching
+					long n = Math.min(selectDistinct(var2, insty.instantiate(values[i]), limit).size(), limit);
+					count += n;
+					total.addAndGet(n);
+				}
+			} finally {
+				setQueryDepth(depth);
+			}
+			return (count);
+		}
+	}
+
 	/** Can instantiate a variable in a query with a value */
 	public static class Instantiator implements Closeable {
 		List<ByteString[]> query;
@@ -3836,7 +4610,10 @@ public class KB {
 			removeFromIndex(predicate, object, subject, relation2object2subject);
 			removeFromIndex(object, subject, predicate, object2subject2relation);
 			removeFromIndex(object, predicate, subject, object2relation2subject);
+			if (overlapTablesBuilt)
+				updateOverlaps(subject, predicate, object, -1);
 			--size;
+			invalidateQueryCache();
 			return true;
 		}
 		
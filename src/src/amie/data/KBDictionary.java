@@ -0,0 +1,186 @@
+package amie.data;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javatools.datatypes.ByteString;
+
+/**
+ * Class KBDictionary
+ *
+ * Bidirectional mapping between the entities and relations of a KB and dense
+ * integer identifiers. Identifiers start at 1, so that 0 can be used as a
+ * "no value" marker by the integer indexes. Lookups do not block, only the
+ * creation of new identifiers is synchronized.
+ *
+ * Strings can be looked up either as ByteStrings or as slices of a buffer with
+ * their UTF-8 bytes. The latter is used by the loader to resolve the tokens of
+ * the input without creating intermediate objects: a string object is created
+ * only the first time an entity or relation is seen.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Entity/relation to identifier **/
+	private final Map<ByteString, Integer> ids = new ConcurrentHashMap<ByteString, Integer>();
+
+	/** Identifier to entity/relation. Position 0 is never used. **/
+	private volatile ByteString[] strings = new ByteString[1024];
+
+	/** Identifier to UTF-8 bytes of the entity/relation **/
+	private volatile byte[][] bytes = new byte[1024][];
+
+	/** Open-addressing table of identifiers hashed by their UTF-8 bytes, 0 marks empty slots **/
+	private volatile int[] table = new int[2048];
+
+	/** Number of encoded strings **/
+	private int size;
+
+	/**
+	 * It returns the identifier of the given string, creating a new one
+	 * if the string was not encoded before.
+	 * @param string
+	 * @return
+	 */
+	public int encode(ByteString string) {
+		Integer id = ids.get(string);
+		if (id != null)
+			return (id.intValue());
+		return (add(string, string.toString().getBytes(UTF8)));
+	}
+
+	/**
+	 * It returns the identifier of the string whose UTF-8 bytes are
+	 * buffer[offset .. offset + length), creating a new one if the string was
+	 * not encoded before.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int encode(byte[] buffer, int offset, int length) {
+		int id = get(buffer, offset, length);
+		if (id != 0)
+			return (id);
+		byte[] data = Arrays.copyOfRange(buffer, offset, offset + length);
+		return (add(ByteString.of(new String(data, UTF8)), data));
+	}
+
+	private synchronized int add(ByteString string, byte[] data) {
+		Integer id = ids.get(string);
+		if (id != null)
+			return (id.intValue());
+
+		int newId = ++size;
+		ByteString[] currentStrings = strings;
+		byte[][] currentBytes = bytes;
+		if (newId >= currentStrings.length) {
+			currentStrings = Arrays.copyOf(currentStrings, currentStrings.length * 2);
+			currentBytes = Arrays.copyOf(currentBytes, currentBytes.length * 2);
+		}
+		currentStrings[newId] = string;
+		currentBytes[newId] = data;
+		strings = currentStrings;
+		bytes = currentBytes;
+
+		int[] currentTable = table;
+		if (2 * newId > currentTable.length) {
+			currentTable = new int[currentTable.length * 2];
+			for (int i = 1; i < newId; ++i)
+				insert(currentTable, i, currentBytes[i]);
+		}
+		insert(currentTable, newId, data);
+		table = currentTable;
+		ids.put(string, newId);
+		return (newId);
+	}
+
+	private static void insert(int[] table, int id, byte[] data) {
+		int mask = table.length - 1;
+		int i = hash(data, 0, data.length) & mask;
+		while (table[i] != 0)
+			i = (i + 1) & mask;
+		table[i] = id;
+	}
+
+	private static int hash(byte[] buffer, int offset, int length) {
+		int h = 0x811c9dc5;
+		for (int i = offset; i < offset + length; ++i) {
+			h ^= buffer[i];
+			h *= 0x01000193;
+		}
+		return (h ^ (h >>> 16));
+	}
+
+	/**
+	 * It returns the identifier of the given string or 0 if the string
+	 * is not in the dictionary.
+	 * @param string
+	 * @return
+	 */
+	public int get(ByteString string) {
+		Integer id = ids.get(string);
+		return (id == null ? 0 : id.intValue());
+	}
+
+	/**
+	 * It returns the identifier of the string whose UTF-8 bytes are
+	 * buffer[offset .. offset + length) or 0 if the string is not in the dictionary.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int get(byte[] buffer, int offset, int length) {
+		// Racy reads: an entry that is being added may be missed, in which case
+		// encode falls back to the synchronized path
+		int[] currentTable = table;
+		byte[][] currentBytes = bytes;
+		int mask = currentTable.length - 1;
+		int i = hash(buffer, offset, length) & mask;
+		int id;
+		while ((id = currentTable[i]) != 0) {
+			if (id < currentBytes.length) {
+				byte[] candidate = currentBytes[id];
+				if (candidate != null && equals(candidate, buffer, offset, length))
+					return (id);
+			}
+			i = (i + 1) & mask;
+		}
+		return (0);
+	}
+
+	private static boolean equals(byte[] data, byte[] buffer, int offset, int length) {
+		if (data.length != length)
+			return (false);
+		for (int i = 0; i < length; ++i) {
+			if (data[i] != buffer[offset + i])
+				return (false);
+		}
+		return (true);
+	}
+
+	/**
+	 * It returns the string associated to the given identifier.
+	 * @param id An identifier returned by encode or get.
+	 * @return
+	 */
+	public ByteString decode(int id) {
+		return (strings[id]);
+	}
+
+	/**
+	 * Number of strings in the dictionary. Identifiers range from 1
+	 * to size() (inclusive).
+	 * @return
+	 */
+	public synchronized int size() {
+		return (size);
+	}
+}
@@ -0,0 +1,324 @@
+package amie.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javatools.datatypes.ByteString;
+
+/**
+ * Class KBLoader
+ *
+ * Parallel loader for TSV and N-Triples files (see TripleParser). The input files are split into byte ranges aligned
+ * to line boundaries, so that a single large file is parsed by all the threads. The
+ * ranges are processed in rounds: the threads of a bounded pool parse one range each
+ * into batches of facts and the batches are then merged into the indexes of the KB
+ * (see KB.addAll), where every task owns a disjoint part of the indexes. The next
+ * round is parsed while the batches of the current one are merged.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBLoader {
+
+	/** Size of the byte ranges in which the files are split **/
+	public static final long RANGE_SIZE = 64L << 20;
+
+	/** Initial size of the read buffer of each parsing thread **/
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Maximal number of facts in a batch **/
+	public static final int BATCH_SIZE = 1 << 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final KB kb;
+
+	private final int threads;
+
+	private final long rangeSize;
+
+	public KBLoader(KB kb) {
+		this(kb, Runtime.getRuntime().availableProcessors());
+	}
+
+	public KBLoader(KB kb, int threads) {
+		this(kb, threads, RANGE_SIZE);
+	}
+
+	/**
+	 * @param kb Target KB
+	 * @param threads Number of parsing and merging threads
+	 * @param rangeSize Size in bytes of the ranges in which the files are split
+	 */
+	public KBLoader(KB kb, int threads, long rangeSize) {
+		this.kb = kb;
+		this.threads = Math.max(1, threads);
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * Buffer of parsed facts. The loader fills it with add and the KB
+	 * reads it back in KB.addAll.
+	 */
+	public static abstract class Batch {
+
+		/** Number of facts in the batch **/
+		protected int size;
+
+		/** fresh[i] is true if the i-th fact was not in the KB before the merge **/
+		protected boolean[] fresh;
+
+		/**
+		 * Adds a fact to the batch.
+		 */
+		public abstract void add(CharSequence subject, CharSequence relation, CharSequence object);
+
+		/**
+		 * Adds the fact last recognized by the parser in the buffer. By default, 
+		 * the columns are decoded into strings.
+		 */
+		public void add(byte[] buffer, TripleParser parser) {
+			add(new String(buffer, parser.start(0), parser.end(0) - parser.start(0), UTF8),
+					new String(buffer, parser.start(1), parser.end(1) - parser.start(1), UTF8),
+					new String(buffer, parser.start(2), parser.end(2) - parser.start(2), UTF8));
+		}
+
+		/**
+		 * It returns the given column (0 = subject, 1 = relation, 2 = object) of the
+		 * i-th fact.
+		 */
+		public abstract ByteString get(int fact, int column);
+
+		public int size() {
+			return (size);
+		}
+
+		public boolean isFull() {
+			return (size >= BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Batch of facts stored as interned strings.
+	 */
+	public static class ByteStringBatch extends Batch {
+
+		private final ByteString[] facts = new ByteString[3 * BATCH_SIZE];
+
+		public ByteStringBatch() {
+			this.fresh = new boolean[BATCH_SIZE];
+		}
+
+		@Override
+		public void add(CharSequence subject, CharSequence relation, CharSequence object) {
+			int base = 3 * size++;
+			facts[base] = KB.compress(subject);
+			facts[base + 1] = KB.compress(relation);
+			facts[base + 2] = KB.compress(object);
+		}
+
+		@Override
+		public ByteString get(int fact, int column) {
+			return (facts[3 * fact + column]);
+		}
+	}
+
+	/**
+	 * Portion [start, end) of a file. The range owns the lines that
+	 * start within it.
+	 */
+	private static final class Range {
+		final File file;
+		final long start;
+		final long end;
+
+		Range(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * It loads the given files (or directories) into the KB. The parsing of a round 
+	 * runs in its own pool while the previous round is merged, so at most two rounds 
+	 * of batches are in memory.
+	 * @param files
+	 * @throws IOException
+	 */
+	public void load(List<File> files) throws IOException {
+		List<Range> ranges = new ArrayList<>();
+		for (File file : files) {
+			split(file, ranges);
+		}
+
+		ExecutorService parsers = Executors.newFixedThreadPool(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<List<Batch>>> round = parse(ranges, 0, parsers);
+			for (int i = 0; i < ranges.size(); i += threads) {
+				List<Batch> batches = new ArrayList<>();
+				for (List<Batch> result : getAll(round)) {
+					batches.addAll(result);
+				}
+				round = parse(ranges, i + threads, parsers);
+				kb.addAll(batches, executor, threads);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading was interrupted");
+		} finally {
+			// It stops the parsing of the next round if the merge failed
+			parsers.shutdownNow();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * It submits the parsing of the round of ranges that starts at the given position.
+	 */
+	private List<Future<List<Batch>>> parse(List<Range> ranges, int from, ExecutorService parsers) {
+		List<Future<List<Batch>>> round = new ArrayList<>();
+		for (final Range range : ranges.subList(Math.min(from, ranges.size()), 
+				Math.min(from + threads, ranges.size()))) {
+			round.add(parsers.submit(new Callable<List<Batch>>() {
+				@Override
+				public List<Batch> call() throws Exception {
+					return (parse(range));
+				}
+			}));
+		}
+		return (round);
+	}
+
+	/**
+	 * It runs the tasks in the executor and returns their results. If one
+	 * of the tasks fails, its exception is rethrown.
+	 */
+	static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks)
+			throws InterruptedException {
+		return (getAll(executor.invokeAll(tasks)));
+	}
+
+	/**
+	 * It waits for the given futures and returns their results. If one
+	 * of the tasks failed, its exception is rethrown.
+	 */
+	static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException {
+		List<T> results = new ArrayList<>();
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+		return (results);
+	}
+
+	/**
+	 * Splits a file (or the files of a directory) into ranges of at most
+	 * rangeSize bytes.
+	 */
+	private void split(File file, List<Range> ranges) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children)
+				split(child, ranges);
+			return;
+		}
+		long length = file.length();
+		for (long start = 0; start < length; start += rangeSize) {
+			ranges.add(new Range(file, start, Math.min(length, start + rangeSize)));
+		}
+	}
+
+	/**
+	 * It parses the lines that start in the given range. The range is read through
+	 * a ByteBuffer and the lines are tokenized directly on the bytes of the buffer.
+	 */
+	private List<Batch> parse(Range range) throws IOException {
+		List<Batch> batches = new ArrayList<>();
+		Batch batch = kb.newBatch();
+		TripleParser parser = new TripleParser();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try (FileInputStream fis = new FileInputStream(range.file)) {
+			FileChannel channel = fis.getChannel();
+			// File position of the first byte of the buffer
+			long bufferPosition = range.start;
+			if (range.start > 0) {
+				// The line that crosses the start of the range belongs to the previous range,
+				// we start reading one byte before to know if the range starts with a new line
+				--bufferPosition;
+			}
+			channel.position(bufferPosition);
+			boolean skipLine = range.start > 0;
+			boolean eof = false;
+			buffer.limit(0);
+			while (true) {
+				byte[] bytes = buffer.array();
+				int lineStart = buffer.position();
+				int newLine = -1;
+				for (int i = lineStart; i < buffer.limit(); ++i) {
+					if (bytes[i] == '\n') {
+						newLine = i;
+						break;
+					}
+				}
+				if (newLine == -1 && !eof) {
+					// Incomplete line: move it to the beginning of the buffer and read more
+					bufferPosition += lineStart;
+					buffer.compact();
+					if (!buffer.hasRemaining()) {
+						ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+						buffer.flip();
+						grown.put(buffer);
+						buffer = grown;
+					}
+					eof = channel.read(buffer) == -1;
+					buffer.flip();
+					continue;
+				}
+				int lineEnd = newLine == -1 ? buffer.limit() : newLine;
+				if (bufferPosition + lineStart >= range.end || (eof && lineStart == lineEnd && newLine == -1))
+					break;
+				buffer.position(newLine == -1 ? lineEnd : newLine + 1);
+				if (skipLine) {
+					skipLine = false;
+					continue;
+				}
+				if (parser.parse(bytes, lineStart, lineEnd)) {
+					batch.add(bytes, parser);
+					if (batch.isFull()) {
+						batches.add(batch);
+						batch = kb.newBatch();
+					}
+				}
+				if (newLine == -1)
+					break;
+			}
+		}
+		if (batch.size() > 0)
+			batches.add(batch);
+		return (batches);
+	}
+}
@@ -0,0 +1,368 @@
+package amie.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class KBSnapshot
+ *
+ * Binary snapshot of a KB. The file contains the dictionary of entities and relations,
+ * the six permutation indexes in CSR layout (see CSRTripleIndex), the number of facts per
+ * subject, relation and object and the overlap tables. When a snapshot is read, the
+ * dictionary and the statistics are loaded into the heap, while the indexes are memory-mapped,
+ * so opening a KB costs a few seconds and the pages of the indexes are shared by all the
+ * processes that open the same snapshot.
+ *
+ * All numbers are little-endian. Every array is mapped separately and a mapping cannot exceed
+ * 2 GB, hence an index can contain at most 2^29 facts.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBSnapshot {
+
+	/** "AMIE" in ASCII **/
+	private static final int MAGIC = 0x414d4945;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * It returns true if the file starts with the header of a KB snapshot.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isSnapshot(File file) throws IOException {
+		if (!file.isFile() || file.length() < 8)
+			return (false);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			Input in = new Input(raf.getChannel());
+			return (in.getInt() == MAGIC);
+		}
+	}
+
+	/**
+	 * It writes a snapshot of the KB into the given file. If the KB is an IntKB, it
+	 * is frozen in the process, otherwise its facts are first copied into an IntKB.
+	 * @param kb
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(KB kb, File file) throws IOException {
+		IntKB intKb;
+		if (kb instanceof IntKB) {
+			intKb = (IntKB) kb;
+		} else {
+			intKb = new IntKB();
+			intKb.add(kb);
+		}
+		intKb.freeze();
+		KBDictionary dictionary = intKb.getDictionary();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			Output out = new Output(raf.getChannel());
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(kb.size());
+
+			int n = dictionary.size();
+			out.putInt(n);
+			for (int id = 1; id <= n; ++id) {
+				byte[] bytes = dictionary.decode(id).toString().getBytes(UTF8);
+				out.putInt(bytes.length);
+				out.putBytes(bytes);
+			}
+			out.align();
+
+			for (IntTripleIndex index : intKb.indexes()) {
+				CSRTripleIndex csr = index.getFrozen();
+				out.putInt(csr.keys1.capacity());
+				out.putInt(csr.keys2.capacity());
+				out.putInt(csr.values.capacity());
+				out.putInts(csr.keys1);
+				out.putInts(csr.offsets1);
+				out.putInts(csr.keys2);
+				out.putInts(csr.offsets2);
+				out.putInts(csr.values);
+			}
+
+			// Entities and relations whose facts were deleted before the copy are not in the dictionary
+			for (IntHashMap<ByteString> sizes : sizeMaps(kb)) {
+				List<ByteString> keys = encoded(sizes, dictionary);
+				out.putInt(keys.size());
+				for (ByteString key : keys) {
+					out.putInt(dictionary.get(key));
+					out.putInt(sizes.get(key));
+				}
+			}
+
+			for (Map<ByteString, IntHashMap<ByteString>> overlaps : overlapTables(kb)) {
+				List<ByteString> relations = encoded(overlaps.keySet(), dictionary);
+				out.putInt(relations.size());
+				for (ByteString r1 : relations) {
+					IntHashMap<ByteString> values = overlaps.get(r1);
+					List<ByteString> others = encoded(values, dictionary);
+					out.putInt(dictionary.get(r1));
+					out.putInt(others.size());
+					for (ByteString r2 : others) {
+						out.putInt(dictionary.get(r2));
+						out.putInt(values.get(r2));
+					}
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * It opens a KB from a snapshot. The indexes of the returned KB are
+	 * memory-mapped and the KB is frozen.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static IntKB read(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			// The mappings remain valid after the channel is closed
+			Input in = new Input(raf.getChannel());
+			if (in.getInt() != MAGIC)
+				throw new IOException(file + " is not a KB snapshot");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version + " in " + file);
+			long size = in.getLong();
+
+			KBDictionary dictionary = new KBDictionary();
+			int n = in.getInt();
+			for (int id = 1; id <= n; ++id) {
+				byte[] bytes = in.getBytes(in.getInt());
+				dictionary.encode(ByteString.of(new String(bytes, UTF8)));
+			}
+			in.align();
+
+			IntTripleIndex[] indexes = new IntTripleIndex[6];
+			for (int i = 0; i < indexes.length; ++i) {
+				int n1 = in.getInt();
+				int n2 = in.getInt();
+				int n3 = in.getInt();
+				IntBuffer keys1 = in.mapInts(n1);
+				IntBuffer offsets1 = in.mapInts(n1 + 1);
+				IntBuffer keys2 = in.mapInts(n2);
+				IntBuffer offsets2 = in.mapInts(n2 + 1);
+				IntBuffer values = in.mapInts(n3);
+				indexes[i] = new IntTripleIndex(new CSRTripleIndex(keys1, offsets1, keys2, offsets2, values));
+			}
+			IntKB kb = new IntKB(dictionary, indexes[0], indexes[1], indexes[2], indexes[3], indexes[4], indexes[5]);
+			kb.size = size;
+
+			for (IntHashMap<ByteString> sizes : sizeMaps(kb)) {
+				int entries = in.getInt();
+				for (int i = 0; i < entries; ++i) {
+					ByteString key = dictionary.decode(in.getInt());
+					sizes.put(key, in.getInt());
+				}
+			}
+
+			for (Map<ByteString, IntHashMap<ByteString>> overlaps : overlapTables(kb)) {
+				int relations = in.getInt();
+				for (int i = 0; i < relations; ++i) {
+					ByteString r1 = dictionary.decode(in.getInt());
+					int entries = in.getInt();
+					IntHashMap<ByteString> values = new IntHashMap<ByteString>();
+					for (int j = 0; j < entries; ++j) {
+						ByteString r2 = dictionary.decode(in.getInt());
+						values.put(r2, in.getInt());
+					}
+					overlaps.put(r1, values);
+				}
+			}
+			return (kb);
+		}
+	}
+
+	/**
+	 * It returns the strings that have an identifier in the dictionary.
+	 */
+	private static List<ByteString> encoded(Iterable<ByteString> strings, KBDictionary dictionary) {
+		List<ByteString> result = new ArrayList<ByteString>();
+		for (ByteString string : strings) {
+			if (dictionary.get(string) != 0)
+				result.add(string);
+		}
+		return (result);
+	}
+
+	private static List<IntHashMap<ByteString>> sizeMaps(KB kb) {
+		return (Arrays.asList(kb.subjectSize, kb.relationSize, kb.objectSize));
+	}
+
+	private static List<Map<ByteString, IntHashMap<ByteString>>> overlapTables(KB kb) {
+		return (Arrays.asList(kb.subject2subjectOverlap, kb.subject2objectOverlap, kb.object2objectOverlap));
+	}
+
+	/**
+	 * Buffered little-endian writer on a file channel.
+	 */
+	private static final class Output {
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		private long position;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+			position += 4;
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+			position += 8;
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensure(1);
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+			position += bytes.length;
+		}
+
+		void putInts(IntBuffer ints) throws IOException {
+			for (int i = 0; i < ints.capacity(); ++i)
+				putInt(ints.get(i));
+		}
+
+		/** Pads the output to a multiple of 4 bytes **/
+		void align() throws IOException {
+			while (position % 4 != 0) {
+				ensure(1);
+				buffer.put((byte) 0);
+				++position;
+			}
+		}
+	}
+
+	/**
+	 * Buffered little-endian reader on a file channel that can also
+	 * map regions of the file.
+	 */
+	private static final class Input {
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		/** File position of the next byte to be consumed **/
+		private long position;
+
+		Input(FileChannel channel) {
+			this.channel = channel;
+			this.buffer.limit(0);
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			long next = position + buffer.remaining();
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				int read = channel.read(buffer, next);
+				if (read < 0)
+					throw new EOFException();
+				next += read;
+			}
+			buffer.flip();
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			position += 4;
+			return (buffer.getInt());
+		}
+
+		long getLong() throws IOException {
+			ensure(8);
+			position += 8;
+			return (buffer.getLong());
+		}
+
+		byte[] getBytes(int length) throws IOException {
+			byte[] result = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				ensure(1);
+				int chunk = Math.min(buffer.remaining(), length - offset);
+				buffer.get(result, offset, chunk);
+				offset += chunk;
+			}
+			position += length;
+			return (result);
+		}
+
+		void align() throws IOException {
+			while (position % 4 != 0) {
+				ensure(1);
+				buffer.get();
+				++position;
+			}
+		}
+
+		/**
+		 * It maps the next 'length' ints of the file and skips them.
+		 */
+		IntBuffer mapInts(int length) throws IOException {
+			long bytes = 4L * length;
+			IntBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			if (buffer.remaining() >= bytes) {
+				buffer.position(buffer.position() + (int) bytes);
+			} else {
+				buffer.limit(0);
+			}
+			position += bytes;
+			return (result);
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package amie.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class LeapfrogTriejoin
+ *
+ * Worst-case optimal evaluation of conjunctive queries (T. Veldhuizen, "Leapfrog Triejoin:
+ * a simple, worst-case optimal join algorithm", ICDT 2014) on the sorted indexes of a
+ * frozen IntKB. The variables are bound one at a time in a global order. For each variable,
+ * the atoms that contain it are read through the permutation whose key order is: constants
+ * first, then variables in the global order. The candidate values of the variable are then
+ * the intersection of sorted lists, computed by seeking every list to the largest current key.
+ * Unlike the evaluation by instantiation of KB, cyclic queries (e.g. the triangles created
+ * by closing atoms) never materialize the bindings of one atom that do not join with the others.
+ *
+ * A join is compiled for a query and a list of projection variables, which come first in
+ * the order. Queries with special atoms (see KB.isSpecialAtom) or with a variable repeated
+ * in an atom are not supported.
+ *
+ * @author lgalarra
+ *
+ */
+public class LeapfrogTriejoin {
+
+	private final KBDictionary dictionary;
+
+	/** Variables in binding order, the projection variables first **/
+	private final List<ByteString> variables;
+
+	/** Number of projection variables **/
+	private final int projected;
+
+	/** Index of each atom **/
+	private final CSRTripleIndex[] indexes;
+
+	/** Constants of each atom, in the order of the levels of its index **/
+	private final int[][] constants;
+
+	/** For each variable, the atoms in which it occurs **/
+	private final int[][] atomsOfVariable;
+
+	/** True if some constant is unknown or some ground atom is false **/
+	private final boolean empty;
+
+	/** Current values of the variables **/
+	private final int[] binding;
+
+	/**
+	 * Receives the distinct bindings of the projection variables.
+	 */
+	private interface Handler {
+		void handle(int[] binding);
+	}
+
+	private LeapfrogTriejoin(KBDictionary dictionary, List<ByteString> variables, int projected,
+			CSRTripleIndex[] indexes, int[][] constants, int[][] atomsOfVariable, boolean empty) {
+		this.dictionary = dictionary;
+		this.variables = variables;
+		this.projected = projected;
+		this.indexes = indexes;
+		this.constants = constants;
+		this.atomsOfVariable = atomsOfVariable;
+		this.empty = empty;
+		this.binding = new int[variables.size()];
+	}
+
+	/**
+	 * It compiles the query for the given projection variables.
+	 * @param kb A KB whose indexes are frozen
+	 * @param query
+	 * @param projection Variables whose distinct bindings are returned, possibly none
+	 * @return The join or null if the query is not supported, in which case it should be
+	 * evaluated by the KB.
+	 */
+	public static LeapfrogTriejoin compile(IntKB kb, List<ByteString[]> query, ByteString... projection) {
+		if (query.isEmpty())
+			return (null);
+		// Order: projection first, then the variables that occur in more atoms
+		final Map<ByteString, Integer> occurrences = new HashMap<>();
+		List<ByteString> others = new ArrayList<>();
+		for (ByteString[] atom : query) {
+			if (atom.length != 3 || kb.isSpecialAtom(atom))
+				return (null);
+			for (int i = 0; i < 3; ++i) {
+				if (!KB.isVariable(atom[i]))
+					continue;
+				for (int j = 0; j < i; ++j) {
+					if (atom[j].equals(atom[i]))
+						return (null);
+				}
+				Integer count = occurrences.get(atom[i]);
+				occurrences.put(atom[i], count == null ? 1 : count + 1);
+				if (count == null)
+					others.add(atom[i]);
+			}
+		}
+		List<ByteString> variables = new ArrayList<>();
+		for (ByteString variable : projection) {
+			if (!occurrences.containsKey(variable) || variables.contains(variable))
+				return (null);
+			variables.add(variable);
+		}
+		others.removeAll(variables);
+		// Stable sort, ties keep the order of first occurrence
+		Collections.sort(others, new Comparator<ByteString>() {
+			@Override
+			public int compare(ByteString v1, ByteString v2) {
+				return (occurrences.get(v2) - occurrences.get(v1));
+			}
+		});
+		variables.addAll(others);
+
+		KBDictionary dictionary = kb.getDictionary();
+		IntTripleIndex[] kbIndexes = kb.indexes();
+		List<CSRTripleIndex> indexes = new ArrayList<>();
+		List<int[]> constants = new ArrayList<>();
+		List<List<Integer>> atomsOfVariable = new ArrayList<>();
+		for (int i = 0; i < variables.size(); ++i) {
+			atomsOfVariable.add(new ArrayList<Integer>());
+		}
+		boolean empty = false;
+		for (ByteString[] atom : query) {
+			int[] order = order(atom, variables);
+			int permutation = 0;
+			while (!Arrays.equals(KB.PERMUTATIONS[permutation], order))
+				++permutation;
+			CSRTripleIndex index = kbIndexes[permutation].getFrozen();
+			if (index == null)
+				return (null);
+			int nConstants = 3 - KB.numVariables(atom);
+			int[] ids = new int[nConstants];
+			for (int k = 0; k < nConstants; ++k) {
+				ids[k] = dictionary.get(atom[order[k]]);
+				if (ids[k] == 0)
+					empty = true;
+			}
+			if (nConstants == 3) {
+				// Ground atom, it does not take part in the join
+				if (!empty && !index.contains(ids[0], ids[1], ids[2]))
+					empty = true;
+				continue;
+			}
+			for (int k = nConstants; k < 3; ++k) {
+				atomsOfVariable.get(variables.indexOf(atom[order[k]])).add(indexes.size());
+			}
+			indexes.add(index);
+			constants.add(ids);
+		}
+
+		int[][] atoms = new int[variables.size()][];
+		for (int i = 0; i < atoms.length; ++i) {
+			List<Integer> list = atomsOfVariable.get(i);
+			atoms[i] = new int[list.size()];
+			for (int k = 0; k < atoms[i].length; ++k)
+				atoms[i][k] = list.get(k);
+		}
+		return (new LeapfrogTriejoin(dictionary, variables, projection.length,
+				indexes.toArray(new CSRTripleIndex[indexes.size()]),
+				constants.toArray(new int[constants.size()][]), atoms, empty));
+	}
+
+	/**
+	 * Columns of the atom (0 = subject, 1 = relation, 2 = object) sorted with the constants
+	 * first and then the variables in the given order.
+	 */
+	private static int[] order(ByteString[] atom, List<ByteString> variables) {
+		int[] order = new int[3];
+		int n = 0;
+		for (int i = 0; i < 3; ++i) {
+			if (!KB.isVariable(atom[i]))
+				order[n++] = i;
+		}
+		for (ByteString variable : variables) {
+			for (int i = 0; i < 3; ++i) {
+				if (atom[i].equals(variable))
+					order[n++] = i;
+			}
+		}
+		return (order);
+	}
+
+	/**
+	 * It returns the variables in the order in which they are bound.
+	 */
+	public List<ByteString> getVariableOrder() {
+		return (variables);
+	}
+
+	// ---------------------------------------------------------------------------
+	// Evaluation
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It returns true if the query has at least one solution.
+	 */
+	public boolean exists() {
+		CSRTripleIndex.TrieIterator[] iterators = open();
+		return (iterators != null && exists(iterators, 0));
+	}
+
+	/**
+	 * Number of distinct bindings of the projection variables.
+	 */
+	public long count() {
+		return (count(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Number of distinct bindings of the projection variables, the enumeration stops
+	 * once limit bindings have been found.
+	 * @return The number of bindings or limit if there are more
+	 */
+	public long count(long limit) {
+		CSRTripleIndex.TrieIterator[] iterators = open();
+		if (iterators == null || limit <= 0)
+			return (0);
+		return (enumerate(iterators, 0, null, limit));
+	}
+
+	/**
+	 * Distinct values of the (single) projection variable.
+	 */
+	public Set<ByteString> select() {
+		return (select(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Distinct values of the (single) projection variable, at most limit of them.
+	 */
+	public Set<ByteString> select(long limit) {
+		final Set<ByteString> result = new HashSet<>();
+		CSRTripleIndex.TrieIterator[] iterators = open();
+		if (iterators != null && limit > 0) {
+			enumerate(iterators, 0, new Handler() {
+				@Override
+				public void handle(int[] binding) {
+					result.add(dictionary.decode(binding[0]));
+				}
+			}, limit);
+		}
+		return (result);
+	}
+
+	/**
+	 * Distinct pairs of values of the two projection variables.
+	 */
+	public Map<ByteString, IntHashMap<ByteString>> selectPairs() {
+		final Map<ByteString, IntHashMap<ByteString>> result = new HashMap<>();
+		CSRTripleIndex.TrieIterator[] iterators = open();
+		if (iterators != null) {
+			enumerate(iterators, 0, new Handler() {
+				@Override
+				public void handle(int[] binding) {
+					ByteString value1 = dictionary.decode(binding[0]);
+					IntHashMap<ByteString> values2 = result.get(value1);
+					if (values2 == null)
+						result.put(value1, values2 = new IntHashMap<ByteString>());
+					values2.add(dictionary.decode(binding[1]));
+				}
+			}, Long.MAX_VALUE);
+		}
+		return (result);
+	}
+
+	/**
+	 * It creates one iterator per atom, positioned after the constants of the atom.
+	 * It returns null if some atom has no facts.
+	 */
+	private CSRTripleIndex.TrieIterator[] open() {
+		if (empty)
+			return (null);
+		CSRTripleIndex.TrieIterator[] iterators = new CSRTripleIndex.TrieIterator[indexes.length];
+		for (int a = 0; a < indexes.length; ++a) {
+			iterators[a] = indexes[a].iterator();
+			for (int constant : constants[a]) {
+				iterators[a].open();
+				iterators[a].seek(constant);
+				if (iterators[a].atEnd() || iterators[a].key() != constant)
+					return (null);
+			}
+		}
+		return (iterators);
+	}
+
+	/**
+	 * It binds the variables from the given depth on. Once the projection variables are
+	 * bound, the rest of the query only needs to be satisfiable. It stops once limit
+	 * bindings have been found.
+	 * @return Number of distinct bindings of the projection variables
+	 */
+	private long enumerate(CSRTripleIndex.TrieIterator[] iterators, int depth, Handler handler,
+			long limit) {
+		if (depth == projected) {
+			if (!exists(iterators, depth))
+				return (0);
+			if (handler != null)
+				handler.handle(binding);
+			return (1);
+		}
+		long count = 0;
+		int[] atoms = atomsOfVariable[depth];
+		for (int a : atoms)
+			iterators[a].open();
+		while (count < limit && leapfrog(iterators, atoms)) {
+			binding[depth] = iterators[atoms[0]].key();
+			count += enumerate(iterators, depth + 1, handler, limit - count);
+			iterators[atoms[0]].next();
+		}
+		for (int a : atoms)
+			iterators[a].up();
+		return (count);
+	}
+
+	private boolean exists(CSRTripleIndex.TrieIterator[] iterators, int depth) {
+		if (depth == binding.length)
+			return (true);
+		int[] atoms = atomsOfVariable[depth];
+		for (int a : atoms)
+			iterators[a].open();
+		boolean found = false;
+		while (!found && leapfrog(iterators, atoms)) {
+			binding[depth] = iterators[atoms[0]].key();
+			found = exists(iterators, depth + 1);
+			iterators[atoms[0]].next();
+		}
+		for (int a : atoms)
+			iterators[a].up();
+		return (found);
+	}
+
+	/**
+	 * It moves the iterators of the given atoms to their smallest common key,
+	 * from their current positions.
+	 * @return false if the iterators have no more keys in common
+	 */
+	private static boolean leapfrog(CSRTripleIndex.TrieIterator[] iterators, int[] atoms) {
+		int max = Integer.MIN_VALUE;
+		for (int a : atoms) {
+			if (iterators[a].atEnd())
+				return (false);
+			max = Math.max(max, iterators[a].key());
+		}
+		boolean aligned = false;
+		while (!aligned) {
+			aligned = true;
+			for (int a : atoms) {
+				CSRTripleIndex.TrieIterator iterator = iterators[a];
+				if (iterator.key() < max) {
+					iterator.seek(max);
+					if (iterator.atEnd())
+						return (false);
+				}
+				if (iterator.key() > max) {
+					max = iterator.key();
+					aligned = false;
+				}
+			}
+		}
+		return (true);
+	}
+}
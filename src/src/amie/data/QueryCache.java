@@ -0,0 +1,393 @@
+package amie.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+
+/**
+ * Class QueryCache
+ *
+ * Size-bounded cache for the results of countDistinct, countDistinctPairs and selectDistinct
+ * on queries with several atoms. The bounded counts (e.g. countDistinctAtMost) use the 
+ * entries of the exact counts. Queries are keyed by a canonical form that does not
+ * depend on the order of the atoms nor on the names of the non-projected variables, so that
+ * the body of a rule and the body of a sibling rule with renamed variables share an entry.
+ *
+ * The cache is bounded by the estimated size of its entries: the sets returned by
+ * selectDistinct take far more memory than the counts, so a number of entries says little
+ * about the heap they use. The cache is split into segments, each one an LRU map with its 
+ * own lock and an equal share of the size. A result that would take more than a quarter of
+ * its segment is not stored. Only the
+ * outermost query of each thread is cached: the queries issued by the KB while evaluating it
+ * (e.g. with some variables instantiated) go straight to the KB. The KB invalidates the
+ * cache whenever a fact is added or removed.
+ *
+ * @author lgalarra
+ *
+ */
+public class QueryCache {
+
+	/** Default maximal estimated size in bytes **/
+	public static final long DEFAULT_CAPACITY = 64L << 20;
+
+	/** Estimated size in bytes of an entry of the LRU maps, without its key and value **/
+	private static final int ENTRY_BYTES = 64;
+
+	/** Estimated size in bytes of a boxed count **/
+	private static final int COUNT_BYTES = 24;
+
+	/** Estimated size in bytes of an element of a cached set, the strings belong to the KB **/
+	private static final int ELEMENT_BYTES = 48;
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/** Incremented on every invalidation, results computed across an invalidation are not stored **/
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** True while the current thread evaluates a query on behalf of the cache **/
+	private final ThreadLocal<Boolean> evaluating = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return (Boolean.FALSE);
+		}
+	};
+
+	/**
+	 * Cached result and its estimated size.
+	 */
+	private static final class Entry {
+		final Object value;
+
+		final long bytes;
+
+		Entry(Object value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * LRU map guarded by its own monitor. The least recently used entries are evicted
+	 * when the estimated size of the entries exceeds the capacity.
+	 */
+	private final class Segment extends LinkedHashMap<String, Entry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long capacity;
+
+		/** Estimated size of the entries **/
+		private long bytes;
+
+		Segment(long capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		void add(String key, Entry entry) {
+			Entry old = put(key, entry);
+			if (old != null)
+				bytes -= old.bytes;
+			bytes += entry.bytes;
+			Iterator<Entry> eldest = values().iterator();
+			while (bytes > capacity) {
+				bytes -= eldest.next().bytes;
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void clear() {
+			super.clear();
+			bytes = 0;
+		}
+	}
+
+	public QueryCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Maximal estimated size in bytes of the cached results
+	 */
+	public QueryCache(long capacity) {
+		long segmentCapacity = Math.max(1, capacity / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; ++i) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Cached operations
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It returns true if the query should be answered through the cache.
+	 */
+	boolean accepts(List<ByteString[]> query) {
+		return (query.size() > 1 && !evaluating.get());
+	}
+
+	long countDistinct(KB kb, ByteString variable, List<ByteString[]> query) {
+		String key = key("countDistinct", query, variable);
+		Object value = get(key);
+		if (value != null)
+			return ((Long) value);
+		long start = generation.get();
+		long result;
+		evaluating.set(Boolean.TRUE);
+		try {
+			result = kb.countDistinct(variable, query);
+		} finally {
+			evaluating.set(Boolean.FALSE);
+		}
+		put(key, result, start);
+		return (result);
+	}
+
+	long countDistinctPairs(KB kb, ByteString var1, ByteString var2, List<ByteString[]> query) {
+		String key = key("countDistinctPairs", query, var1, var2);
+		Object value = get(key);
+		if (value != null)
+			return ((Long) value);
+		long start = generation.get();
+		long result;
+		evaluating.set(Boolean.TRUE);
+		try {
+			result = kb.countDistinctPairs(var1, var2, query);
+		} finally {
+			evaluating.set(Boolean.FALSE);
+		}
+		put(key, result, start);
+		return (result);
+	}
+
+	/**
+	 * Bounded counts share the entries of countDistinct. A count below the limit is
+	 * exact and is stored.
+	 */
+	long countDistinctAtMost(KB kb, ByteString variable, List<ByteString[]> query, long limit) {
+		String key = key("countDistinct", query, variable);
+		Object value = get(key);
+		if (value != null)
+			return (Math.min((Long) value, limit));
+		long start = generation.get();
+		long result;
+		evaluating.set(Boolean.TRUE);
+		try {
+			result = kb.countDistinctAtMost(variable, query, limit);
+		} finally {
+			evaluating.set(Boolean.FALSE);
+		}
+		if (result < limit)
+			put(key, result, start);
+		return (result);
+	}
+
+	long countDistinctPairsAtMost(KB kb, ByteString var1, ByteString var2, List<ByteString[]> query,
+			long limit) {
+		String key = key("countDistinctPairs", query, var1, var2);
+		Object value = get(key);
+		if (value != null)
+			return (Math.min((Long) value, limit));
+		long start = generation.get();
+		long result;
+		evaluating.set(Boolean.TRUE);
+		try {
+			result = kb.countDistinctPairsAtMost(var1, var2, query, limit);
+		} finally {
+			evaluating.set(Boolean.FALSE);
+		}
+		if (result < limit)
+			put(key, result, start);
+		return (result);
+	}
+
+	/**
+	 * The cached set is shared, callers get a copy.
+	 */
+	@SuppressWarnings("unchecked")
+	Set<ByteString> selectDistinct(KB kb, ByteString variable, List<ByteString[]> query) {
+		String key = key("selectDistinct", query, variable);
+		Object value = get(key);
+		if (value != null)
+			return (new IntHashMap<ByteString>((Set<ByteString>) value));
+		long start = generation.get();
+		Set<ByteString> result;
+		evaluating.set(Boolean.TRUE);
+		try {
+			result = kb.selectDistinct(variable, query);
+		} finally {
+			evaluating.set(Boolean.FALSE);
+		}
+		put(key, Collections.unmodifiableSet(new IntHashMap<ByteString>(result)), start);
+		return (result);
+	}
+
+	private Segment segment(String key) {
+		return (segments[(key.hashCode() & 0x7fffffff) % SEGMENTS]);
+	}
+
+	private Object get(String key) {
+		Segment segment = segment(key);
+		Entry entry;
+		synchronized (segment) {
+			entry = segment.get(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return (null);
+		}
+		hits.incrementAndGet();
+		return (entry.value);
+	}
+
+	private void put(String key, Object value, long start) {
+		Segment segment = segment(key);
+		long bytes = ENTRY_BYTES + 2L * key.length()
+				+ (value instanceof Set ? (long) ELEMENT_BYTES * ((Set<?>) value).size() : COUNT_BYTES);
+		if (bytes > segment.capacity / 4)
+			return;
+		synchronized (segment) {
+			// The KB may have changed during the evaluation
+			if (generation.get() == start)
+				segment.add(key, new Entry(value, bytes));
+		}
+	}
+
+	/**
+	 * It removes all the entries. Called by the KB when its content changes.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				if (!segment.isEmpty())
+					segment.clear();
+			}
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Canonical form
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It returns a string that identifies the query up to the order of the atoms and
+	 * the names of the variables other than the projection variables. The atoms are sorted
+	 * by their shape (the atom where the non-projection variables are anonymized) and the
+	 * variables are then renamed in order of first occurrence. Queries with the same key are
+	 * therefore equivalent, although some equivalent queries may get different keys.
+	 */
+	static String key(String operation, List<ByteString[]> query, ByteString... projection) {
+		final Map<ByteString, String> names = new HashMap<>();
+		for (int i = 0; i < projection.length; ++i) {
+			names.put(projection[i], "?p" + i);
+		}
+		List<ByteString[]> atoms = new ArrayList<>(query);
+		final Map<ByteString[], String> shapes = new HashMap<>();
+		for (ByteString[] atom : atoms) {
+			StringBuilder shape = new StringBuilder();
+			for (ByteString term : atom) {
+				String name = names.get(term);
+				shape.append(name != null ? name : (KB.isVariable(term) ? "?" : term.toString())).append(' ');
+			}
+			shapes.put(atom, shape.toString());
+		}
+		Collections.sort(atoms, new Comparator<ByteString[]>() {
+			@Override
+			public int compare(ByteString[] atom1, ByteString[] atom2) {
+				return (shapes.get(atom1).compareTo(shapes.get(atom2)));
+			}
+		});
+		StringBuilder key = new StringBuilder(operation);
+		for (ByteString[] atom : atoms) {
+			key.append(" |");
+			for (ByteString term : atom) {
+				String name = names.get(term);
+				if (name == null && KB.isVariable(term)) {
+					name = "?v" + names.size();
+					names.put(term, name);
+				}
+				key.append(' ').append(name != null ? name : term.toString());
+			}
+		}
+		return (key.toString());
+	}
+
+	// ---------------------------------------------------------------------------
+	// Statistics
+	// ---------------------------------------------------------------------------
+
+	public long getHits() {
+		return (hits.get());
+	}
+
+	public long getMisses() {
+		return (misses.get());
+	}
+
+	public long getEvictions() {
+		return (evictions.get());
+	}
+
+	/**
+	 * Number of cached results.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return (size);
+	}
+
+	/**
+	 * Estimated size in bytes of the cached results.
+	 */
+	public long getEstimatedSize() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				bytes += segment.bytes;
+			}
+		}
+		return (bytes);
+	}
+
+	/**
+	 * Fraction of lookups answered by the cache.
+	 */
+	public double getHitRatio() {
+		long lookups = hits.get() + misses.get();
+		return (lookups == 0 ? 0.0 : (double) hits.get() / lookups);
+	}
+
+	@Override
+	public String toString() {
+		return ("hits=" + getHits() + ", misses=" + getMisses() + ", hit ratio="
+				+ String.format("%.3f", getHitRatio()) + ", evictions=" + getEvictions()
+				+ ", entries=" + size() + ", estimated size=" + (getEstimatedSize() >> 10) + " KB");
+	}
+}
@@ -0,0 +1,403 @@
+package amie.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javatools.datatypes.ByteString;
+
+/**
+ * Class QueryPlanner
+ *
+ * Cost-based choice of the order in which the atoms of a query are instantiated. The
+ * cost of an order is the estimated number of intermediate bindings, i.e., the sum of the
+ * estimated sizes of its prefixes. The size of a prefix is estimated from the exact counts
+ * of the single atoms and the statistics of the KB:
+ * <ul>
+ * <li> the number of distinct subjects and objects of each relation (functionality and
+ * inverse functionality),</li>
+ * <li> the overlap tables, if they have been built, to estimate the probability that a
+ * value bound by a previous atom occurs in the joined position of the next atom.
+ * Otherwise, the smaller set of values is assumed to be contained in the larger one.</li>
+ * </ul>
+ * Orders are enumerated exhaustively with branch-and-bound for queries of up to
+ * EXHAUSTIVE_LIMIT atoms and greedily for longer queries.
+ *
+ * @author lgalarra
+ *
+ */
+public class QueryPlanner {
+
+	/** Maximal number of atoms for the exhaustive enumeration of orders **/
+	public static final int EXHAUSTIVE_LIMIT = 7;
+
+	private final KB kb;
+
+	public QueryPlanner(KB kb) {
+		this.kb = kb;
+	}
+
+	/**
+	 * A step of a plan: the atom instantiated at that point and the estimated
+	 * number of bindings after it.
+	 */
+	public static class Step {
+
+		/** Position of the atom in the query **/
+		public final int atom;
+
+		public final ByteString[] pattern;
+
+		/** Exact number of instances of the atom alone **/
+		public final long count;
+
+		/** Estimated number of instances of the atom per binding of the previous steps **/
+		public final double fanout;
+
+		/** Estimated number of bindings of the variables after this step **/
+		public final double rows;
+
+		/** Variables bound for the first time at this step **/
+		public final List<ByteString> newVariables;
+
+		Step(int atom, ByteString[] pattern, long count, double fanout, double rows,
+				List<ByteString> newVariables) {
+			this.atom = atom;
+			this.pattern = pattern;
+			this.count = count;
+			this.fanout = fanout;
+			this.rows = rows;
+			this.newVariables = newVariables;
+		}
+
+		@Override
+		public String toString() {
+			return (KB.toString(pattern) + "\tcount=" + count + "\tfanout=" + format(fanout)
+					+ "\trows=" + format(rows) + "\tbinds=" + newVariables);
+		}
+	}
+
+	/**
+	 * Order of evaluation of a query.
+	 */
+	public static class Plan {
+
+		private final List<Step> steps;
+
+		private final double cost;
+
+		private final boolean empty;
+
+		Plan(List<Step> steps, double cost, boolean empty) {
+			this.steps = steps;
+			this.cost = cost;
+			this.empty = empty;
+		}
+
+		public List<Step> getSteps() {
+			return (steps);
+		}
+
+		/**
+		 * Estimated number of intermediate bindings.
+		 */
+		public double getCost() {
+			return (cost);
+		}
+
+		/**
+		 * True if some atom has no instances, hence the query has no solutions.
+		 */
+		public boolean isEmpty() {
+			return (empty);
+		}
+
+		/**
+		 * Position in the query of the first atom to instantiate, -1 if the query is empty.
+		 */
+		public int first() {
+			return (empty || steps.isEmpty() ? -1 : steps.get(0).atom);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("Plan (cost=").append(format(cost)).append(empty ? ", empty" : "").append(")\n");
+			for (int i = 0; i < steps.size(); ++i) {
+				builder.append(i + 1).append(". ").append(steps.get(i)).append("\n");
+			}
+			return (builder.toString());
+		}
+	}
+
+	private static String format(double value) {
+		if (Double.isInfinite(value))
+			return ("inf");
+		return (String.format("%.1f", value));
+	}
+
+	/**
+	 * State of the estimation after a prefix of the order.
+	 */
+	private static final class Estimate {
+		/** Estimated number of distinct values of the bound variables **/
+		final Map<ByteString, Double> distinct = new HashMap<>();
+
+		/** Atom and column that bound each variable **/
+		final Map<ByteString, int[]> origin = new HashMap<>();
+
+		Estimate copy() {
+			Estimate result = new Estimate();
+			result.distinct.putAll(distinct);
+			result.origin.putAll(origin);
+			return (result);
+		}
+	}
+
+	/**
+	 * It computes the best order for the query.
+	 * @param query
+	 * @return
+	 */
+	public Plan plan(List<ByteString[]> query) {
+		return (plan(query, Collections.<ByteString>emptyList()));
+	}
+
+	/**
+	 * It computes the best order for the query among those whose first atom contains
+	 * at least one of the given variables (any atom if the collection is empty).
+	 * @param query
+	 * @param firstVariables
+	 * @return
+	 */
+	public Plan plan(List<ByteString[]> query, Collection<ByteString> firstVariables) {
+		int n = query.size();
+		long[] counts = new long[n];
+		boolean[] candidates = new boolean[n];
+		boolean anyCandidate = false;
+		for (int i = 0; i < n; ++i) {
+			ByteString[] atom = query.get(i);
+			candidates[i] = firstVariables.isEmpty() || containsAny(atom, firstVariables);
+			anyCandidate |= candidates[i];
+			counts[i] = kb.isSpecialAtom(atom) ? -1 : kb.count(atom);
+			if (counts[i] == 0 && candidates[i])
+				return (new Plan(Collections.<Step>emptyList(), 0, true));
+		}
+		if (!anyCandidate)
+			return (new Plan(Collections.<Step>emptyList(), 0, true));
+
+		Search search = new Search(query, counts, candidates);
+		if (n <= EXHAUSTIVE_LIMIT) {
+			search.exhaustive(0, new Estimate(), 1.0, 0.0);
+		} else {
+			search.greedy();
+		}
+		if (search.bestOrder == null || Double.isInfinite(search.bestCost)) {
+			// Only special atoms can start the query: same choice as the greedy heuristic
+			search.bestOrder = null;
+			search.greedy();
+		}
+		return (search.toPlan());
+	}
+
+	private static boolean containsAny(ByteString[] atom, Collection<ByteString> variables) {
+		for (ByteString term : atom) {
+			if (variables.contains(term))
+				return (true);
+		}
+		return (false);
+	}
+
+	/**
+	 * Branch-and-bound search of the cheapest order.
+	 */
+	private final class Search {
+		final List<ByteString[]> query;
+
+		final long[] counts;
+
+		final boolean[] candidates;
+
+		final int[] order;
+
+		final boolean[] used;
+
+		int[] bestOrder;
+
+		double bestCost = Double.POSITIVE_INFINITY;
+
+		Search(List<ByteString[]> query, long[] counts, boolean[] candidates) {
+			this.query = query;
+			this.counts = counts;
+			this.candidates = candidates;
+			this.order = new int[query.size()];
+			this.used = new boolean[query.size()];
+		}
+
+		void exhaustive(int depth, Estimate estimate, double rows, double cost) {
+			if (cost >= bestCost)
+				return;
+			if (depth == order.length) {
+				bestCost = cost;
+				bestOrder = order.clone();
+				return;
+			}
+			for (int i = 0; i < order.length; ++i) {
+				if (used[i] || (depth == 0 && !candidates[i]))
+					continue;
+				Estimate next = estimate.copy();
+				double fanout = fanout(i, next);
+				double newRows = rows * fanout;
+				order[depth] = i;
+				used[i] = true;
+				exhaustive(depth + 1, next, newRows, cost + newRows);
+				used[i] = false;
+			}
+		}
+
+		void greedy() {
+			Estimate estimate = new Estimate();
+			double rows = 1.0;
+			double cost = 0.0;
+			for (int depth = 0; depth < order.length; ++depth) {
+				int best = -1;
+				double bestFanout = Double.POSITIVE_INFINITY;
+				Estimate bestEstimate = null;
+				for (int i = 0; i < order.length; ++i) {
+					if (used[i] || (depth == 0 && !candidates[i]))
+						continue;
+					Estimate next = estimate.copy();
+					double fanout = fanout(i, next);
+					// Special atoms come last unless they are the only choice
+					if (best == -1 || fanout < bestFanout) {
+						best = i;
+						bestFanout = fanout;
+						bestEstimate = next;
+					}
+				}
+				order[depth] = best;
+				used[best] = true;
+				estimate = bestEstimate;
+				rows *= bestFanout;
+				cost += rows;
+			}
+			Arrays.fill(used, false);
+			bestOrder = order.clone();
+			bestCost = cost;
+		}
+
+		/**
+		 * Estimated number of instances of the i-th atom per binding of the variables
+		 * in the estimate. The estimate is updated with the variables of the atom.
+		 */
+		double fanout(int i, Estimate estimate) {
+			ByteString[] atom = query.get(i);
+			if (counts[i] < 0) {
+				// Special atoms are filters that require their variables to be bound
+				for (ByteString term : atom) {
+					if (KB.isVariable(term) && !estimate.distinct.containsKey(term))
+						return (Double.POSITIVE_INFINITY);
+				}
+				return (1.0);
+			}
+			double count = counts[i];
+			double fanout = count;
+			boolean allBound = true;
+			List<int[]> newBindings = new ArrayList<>();
+			for (int column = 0; column < 3; ++column) {
+				ByteString term = atom[column];
+				if (!KB.isVariable(term))
+					continue;
+				double distinct = distinct(atom, column, count);
+				Double bound = estimate.distinct.get(term);
+				if (bound == null) {
+					allBound = false;
+					newBindings.add(new int[]{column});
+					continue;
+				}
+				// Probability that a bound value occurs in this column times the
+				// number of instances per value
+				double probability = Math.min(1.0, distinct / Math.max(1.0, bound));
+				int[] origin = estimate.origin.get(term);
+				if (origin != null) {
+					double overlap = overlap(query.get(origin[0]), origin[1], atom, column);
+					if (overlap >= 0) {
+						double sourceDistinct = distinct(query.get(origin[0]), origin[1],
+								Math.max(1, counts[origin[0]]));
+						probability = Math.min(1.0, overlap / Math.max(1.0, sourceDistinct));
+					}
+				}
+				fanout *= probability / Math.max(1.0, distinct);
+			}
+			if (allBound)
+				fanout = Math.min(1.0, fanout);
+			for (int[] binding : newBindings) {
+				ByteString variable = atom[binding[0]];
+				estimate.distinct.put(variable, distinct(atom, binding[0], count));
+				estimate.origin.put(variable, new int[]{i, binding[0]});
+			}
+			return (fanout);
+		}
+
+		Plan toPlan() {
+			List<Step> steps = new ArrayList<>();
+			Estimate estimate = new Estimate();
+			double rows = 1.0;
+			for (int i : bestOrder) {
+				List<ByteString> newVariables = new ArrayList<>();
+				for (ByteString term : query.get(i)) {
+					if (KB.isVariable(term) && !estimate.distinct.containsKey(term) && !newVariables.contains(term))
+						newVariables.add(term);
+				}
+				double fanout = fanout(i, estimate);
+				rows *= fanout;
+				steps.add(new Step(i, query.get(i), counts[i], fanout, rows, newVariables));
+			}
+			return (new Plan(steps, bestCost, false));
+		}
+	}
+
+	/**
+	 * Estimated number of distinct values in the given column of the instances of the atom.
+	 */
+	private double distinct(ByteString[] atom, int column, double count) {
+		ByteString relation = atom[1];
+		if (column != 1 && !KB.isVariable(relation)) {
+			// Distinct subjects (objects) of the relation, at most one per instance
+			Map<ByteString, ?> values = column == 0 ? kb.relation2subject2object.get(relation)
+					: kb.relation2object2subject.get(relation);
+			double distinct = values == null ? 0 : values.size();
+			return (Math.min(count, distinct));
+		}
+		KB.Column[] columns = KB.Column.values();
+		return (Math.min(count, kb.size(columns[column])));
+	}
+
+	/**
+	 * Number of values shared by the given columns of two atoms according to the overlap
+	 * tables, or -1 if it is unknown.
+	 */
+	private double overlap(ByteString[] atom1, int column1, ByteString[] atom2, int column2) {
+		if (!kb.overlapTablesBuilt || column1 == 1 || column2 == 1
+				|| KB.isVariable(atom1[1]) || KB.isVariable(atom2[1]))
+			return (-1);
+		ByteString r1 = atom1[1];
+		ByteString r2 = atom2[1];
+		if (!kb.subject2subjectOverlap.containsKey(r1) || !kb.subject2subjectOverlap.containsKey(r2))
+			return (-1);
+		int value;
+		if (column1 == 0 && column2 == 0)
+			value = kb.overlap(r1, r2, KB.SUBJECT2SUBJECT);
+		else if (column1 == 2 && column2 == 2)
+			value = kb.overlap(r1, r2, KB.OBJECT2OBJECT);
+		else if (column1 == 0)
+			value = kb.overlap(r1, r2, KB.SUBJECT2OBJECT);
+		else
+			value = kb.overlap(r2, r1, KB.SUBJECT2OBJECT);
+		return (value < 0 ? -1 : value);
+	}
+}
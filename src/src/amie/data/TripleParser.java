@@ -0,0 +1,171 @@
+package amie.data;
+
+/**
+ * Class TripleParser
+ *
+ * Tokenizer for lines of facts given as UTF-8 bytes. It does not create any object:
+ * the columns of the fact are returned as [start, end) positions in the buffer.
+ * Instances are not thread-safe, each parsing thread should use its own.
+ *
+ * Two formats are supported:
+ * <ul>
+ * <li> Tab-separated lines with 3 (subject, relation, object) or 4 (identifier,
+ * subject, relation, object) columns, optionally ended by a dot, as in KB.load.</li>
+ * <li> N-Triples lines: &lt;s&gt; &lt;p&gt; &lt;o&gt; . where the terms are IRIs, blank nodes
+ * or literals.</li>
+ * </ul>
+ * As in KB.compress, the datatype of literals is dropped, e.g., "31"^^xsd:integer
+ * becomes "31". Language tags are kept.
+ *
+ * @author lgalarra
+ *
+ */
+public class TripleParser {
+
+	/** Start and end of the fields of a tab-separated line **/
+	private final int[] fields = new int[10];
+
+	/** Start and end of the subject, the relation and the object of the last fact **/
+	private final int[] bounds = new int[6];
+
+	/**
+	 * Start of the given column (0 = subject, 1 = relation, 2 = object) of the
+	 * last parsed fact.
+	 */
+	public int start(int column) {
+		return (bounds[2 * column]);
+	}
+
+	/**
+	 * End (exclusive) of the given column of the last parsed fact.
+	 */
+	public int end(int column) {
+		return (bounds[2 * column + 1]);
+	}
+
+	private static boolean isSpace(byte b) {
+		// Same definition as String.trim
+		return ((b & 0xff) <= ' ');
+	}
+
+	/**
+	 * It parses the line buffer[start .. end) (without the line break).
+	 * @return true if the line contains a fact. The positions of its columns
+	 * are then given by start(column) and end(column).
+	 */
+	public boolean parse(byte[] buffer, int start, int end) {
+		while (end > start && isSpace(buffer[end - 1]))
+			--end;
+		if (end > start && buffer[end - 1] == '.')
+			--end;
+		for (int i = start; i < end; ++i) {
+			if (buffer[i] == '\t')
+				return (parseTSV(buffer, start, end));
+		}
+		return (parseNTriples(buffer, start, end));
+	}
+
+	private boolean parseTSV(byte[] buffer, int start, int end) {
+		// Up to 5 fields are needed to tell valid lines (3 or 4 fields) from invalid ones
+		int nFields = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end && nFields < 5; ++i) {
+			if (i == end || buffer[i] == '\t') {
+				fields[2 * nFields] = fieldStart;
+				fields[2 * nFields + 1] = i;
+				++nFields;
+				fieldStart = i + 1;
+			}
+		}
+		// Trailing empty fields are ignored, as in String.split
+		while (nFields > 0 && fields[2 * nFields - 2] == fields[2 * nFields - 1])
+			--nFields;
+		int first;
+		if (nFields == 3)
+			first = 0;
+		else if (nFields == 4)
+			first = 1;
+		else
+			return (false);
+		for (int column = 0; column < 3; ++column) {
+			int s = fields[2 * (first + column)];
+			int e = fields[2 * (first + column) + 1];
+			while (s < e && isSpace(buffer[s]))
+				++s;
+			while (e > s && isSpace(buffer[e - 1]))
+				--e;
+			bounds[2 * column] = s;
+			bounds[2 * column + 1] = dropDatatype(buffer, s, e);
+		}
+		return (true);
+	}
+
+	/**
+	 * It returns the end of the term once the datatype of a literal, i.e.,
+	 * everything after "^^, has been removed.
+	 */
+	private static int dropDatatype(byte[] buffer, int start, int end) {
+		for (int i = start; i + 2 < end; ++i) {
+			if (buffer[i] == '"' && buffer[i + 1] == '^' && buffer[i + 2] == '^')
+				return (i + 1);
+		}
+		return (end);
+	}
+
+	private boolean parseNTriples(byte[] buffer, int start, int end) {
+		int i = start;
+		for (int column = 0; column < 3; ++column) {
+			while (i < end && isSpace(buffer[i]))
+				++i;
+			if (i == end)
+				return (false);
+			byte first = buffer[i];
+			if (column < 2 && first != '<' && first != '_')
+				return (false);
+			int termStart = i;
+			int termEnd;
+			if (first == '<') {
+				while (i < end && buffer[i] != '>')
+					++i;
+				if (i == end)
+					return (false);
+				termEnd = ++i;
+			} else if (first == '"') {
+				++i;
+				while (i < end && buffer[i] != '"') {
+					if (buffer[i] == '\\')
+						++i;
+					++i;
+				}
+				if (i >= end)
+					return (false);
+				termEnd = ++i;
+				if (i < end && buffer[i] == '@') {
+					while (i < end && !isSpace(buffer[i]))
+						++i;
+					termEnd = i;
+				} else if (i + 1 < end && buffer[i] == '^' && buffer[i + 1] == '^') {
+					i += 2;
+					if (i < end && buffer[i] == '<') {
+						while (i < end && buffer[i] != '>')
+							++i;
+						if (i < end)
+							++i;
+					} else {
+						while (i < end && !isSpace(buffer[i]))
+							++i;
+					}
+				}
+			} else {
+				while (i < end && !isSpace(buffer[i]))
+					++i;
+				termEnd = i;
+			}
+			bounds[2 * column] = termStart;
+			bounds[2 * column + 1] = termEnd;
+		}
+		while (i < end && isSpace(buffer[i]))
+			++i;
+		return (i == end);
+	}
+}
@@ -0,0 +1,50 @@
+package amie.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named counter. It only counts while the metrics are enabled (see Metrics).
+ *
+ * @author lgalarra
+ *
+ */
+public final class Counter implements CounterMBean {
+
+	private final String name;
+
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return (name);
+	}
+
+	public void increment() {
+		if (Metrics.isEnabled())
+			count.incrementAndGet();
+	}
+
+	public void add(long n) {
+		if (Metrics.isEnabled())
+			count.addAndGet(n);
+	}
+
+	@Override
+	public long getCount() {
+		return (count.get());
+	}
+
+	@Override
+	public void reset() {
+		count.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return (name + "\tcount=" + count.get());
+	}
+}
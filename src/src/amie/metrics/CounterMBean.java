@@ -0,0 +1,16 @@
+package amie.metrics;
+
+/**
+ * JMX view of a Counter.
+ *
+ * @author lgalarra
+ *
+ */
+public interface CounterMBean {
+
+	public String getName();
+
+	public long getCount();
+
+	public void reset();
+}
@@ -0,0 +1,193 @@
+package amie.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the counters and timers of AMIE. Metrics are identified by dotted names,
+ * e.g., "operator.dangling" or "kb.countDistinct", and are created the first time they
+ * are requested. They are disabled by default: counters and timers then cost a volatile
+ * read.
+ *
+ * The metrics can be exposed as JMX MBeans under the domain "amie" and printed
+ * periodically.
+ *
+ * @author lgalarra
+ *
+ */
+public final class Metrics {
+
+	private static volatile boolean enabled = false;
+
+	private static volatile boolean mbeansRegistered = false;
+
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private static ScheduledExecutorService dumper;
+
+	private Metrics() {
+	}
+
+	public static boolean isEnabled() {
+		return (enabled);
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/**
+	 * It returns the counter with the given name.
+	 * @param name
+	 * @return
+	 */
+	public static Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter newCounter = new Counter(name);
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+				if (mbeansRegistered)
+					register("Counter", name, counter);
+			}
+		}
+		return (counter);
+	}
+
+	/**
+	 * It returns the timer with the given name.
+	 * @param name
+	 * @return
+	 */
+	public static Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer newTimer = new Timer(name);
+			timer = timers.putIfAbsent(name, newTimer);
+			if (timer == null) {
+				timer = newTimer;
+				if (mbeansRegistered)
+					register("Timer", name, timer);
+			}
+		}
+		return (timer);
+	}
+
+	/**
+	 * It sets all the counters and timers to zero.
+	 */
+	public static void reset() {
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+	}
+
+	// ---------------------------------------------------------------------------
+	// Export
+	// ---------------------------------------------------------------------------
+
+	/**
+	 * It registers all the metrics, and those created afterwards, in the platform MBean
+	 * server, e.g., amie:type=Timer,name="operator.dangling".
+	 */
+	public static synchronized void registerMBeans() {
+		if (mbeansRegistered)
+			return;
+		mbeansRegistered = true;
+		for (Counter counter : counters.values()) {
+			register("Counter", counter.getName(), counter);
+		}
+		for (Timer timer : timers.values()) {
+			register("Timer", timer.getName(), timer);
+		}
+	}
+
+	static ObjectName getObjectName(String type, String name) throws JMException {
+		return (new ObjectName("amie:type=" + type + ",name=" + ObjectName.quote(name)));
+	}
+
+	private static void register(String type, String name, Object mbean) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = getObjectName(type, name);
+			if (!server.isRegistered(objectName))
+				server.registerMBean(mbean, objectName);
+		} catch (JMException e) {
+			System.err.println("The metric " + name + " could not be registered: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * It prints the timers and the counters that have been used, sorted by name,
+	 * one per line.
+	 * @param out
+	 */
+	public static void dump(PrintStream out) {
+		List<String> lines = new ArrayList<>();
+		for (Timer timer : timers.values()) {
+			if (timer.getCount() > 0)
+				lines.add(timer.toString());
+		}
+		for (Counter counter : counters.values()) {
+			if (counter.getCount() > 0)
+				lines.add(counter.toString());
+		}
+		Collections.sort(lines);
+		StringBuilder strBuilder = new StringBuilder();
+		for (String line : lines) {
+			strBuilder.append(line).append('\n');
+		}
+		// A single call, so the dump is not interleaved with other output
+		out.print(strBuilder);
+		out.flush();
+	}
+
+	/**
+	 * It prints the metrics every interval milliseconds in a background thread until
+	 * stopDump is called.
+	 * @param out
+	 * @param interval
+	 */
+	public static synchronized void startDump(final PrintStream out, long interval) {
+		stopDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AMIE metrics");
+				thread.setDaemon(true);
+				return (thread);
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				dump(out);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized void stopDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package amie.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A named latency histogram. The durations are counted in buckets of powers of two
+ * nanoseconds, so percentiles are known up to a factor of two. Usage:
+ *
+ * <pre>
+ * long start = timer.start();
+ * try {
+ *     ...
+ * } finally {
+ *     timer.stop(start);
+ * }
+ * </pre>
+ *
+ * Nothing is measured while the metrics are disabled (see Metrics).
+ *
+ * @author lgalarra
+ *
+ */
+public final class Timer implements TimerMBean {
+
+	/** Returned by start when the metrics are disabled **/
+	public static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final String name;
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/** Bucket i counts the durations d with 2^(i-1) <= d < 2^i nanoseconds **/
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+	Timer(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return (name);
+	}
+
+	/**
+	 * @return The start time to pass to stop
+	 */
+	public long start() {
+		return (Metrics.isEnabled() ? System.nanoTime() : NOT_TIMED);
+	}
+
+	/**
+	 * It records the time since start.
+	 * @param start The value returned by start
+	 */
+	public void stop(long start) {
+		if (start != NOT_TIMED)
+			record(System.nanoTime() - start);
+	}
+
+	/**
+	 * It records a duration.
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	@Override
+	public long getCount() {
+		return (count.get());
+	}
+
+	@Override
+	public double getTotalTimeMillis() {
+		return (totalNanos.get() / 1e6);
+	}
+
+	@Override
+	public double getMeanTimeMicros() {
+		long n = count.get();
+		return (n == 0 ? 0.0 : totalNanos.get() / 1e3 / n);
+	}
+
+	@Override
+	public double getMaxTimeMicros() {
+		return (maxNanos.get() / 1e3);
+	}
+
+	@Override
+	public double getMedianTimeMicros() {
+		return (getPercentileMicros(0.5));
+	}
+
+	@Override
+	public double get99thPercentileMicros() {
+		return (getPercentileMicros(0.99));
+	}
+
+	/**
+	 * It returns an upper bound of the given percentile of the durations.
+	 * @param p A number between 0 and 1
+	 * @return
+	 */
+	public double getPercentileMicros(double p) {
+		long n = count.get();
+		if (n == 0)
+			return (0.0);
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); ++i) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				// Upper limit of the bucket, but never above the maximum
+				long bound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+				return (Math.min(bound, maxNanos.get()) / 1e3);
+			}
+		}
+		return (getMaxTimeMicros());
+	}
+
+	@Override
+	public void reset() {
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+		for (int i = 0; i < buckets.length(); ++i) {
+			buckets.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (String.format("%s\tcount=%d\ttotal=%.1fms\tmean=%.1fus\tp50<=%.1fus\tp99<=%.1fus\tmax=%.1fus",
+				name, getCount(), getTotalTimeMillis(), getMeanTimeMicros(), getMedianTimeMicros(),
+				get99thPercentileMicros(), getMaxTimeMicros()));
+	}
+}
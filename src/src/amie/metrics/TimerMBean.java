@@ -0,0 +1,26 @@
+package amie.metrics;
+
+/**
+ * JMX view of a Timer. Percentiles are upper bounds given by the histogram of the timer.
+ *
+ * @author lgalarra
+ *
+ */
+public interface TimerMBean {
+
+	public String getName();
+
+	public long getCount();
+
+	public double getTotalTimeMillis();
+
+	public double getMeanTimeMicros();
+
+	public double getMaxTimeMicros();
+
+	public double getMedianTimeMicros();
+
+	public double get99thPercentileMicros();
+
+	public void reset();
+}
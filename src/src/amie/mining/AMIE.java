@@ -11,10 +11,13 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -27,15 +30,22 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 
+import amie.data.IntKB;
 import amie.data.KB;
+import amie.data.KBSnapshot;
+import amie.data.QueryCache;
+import amie.metrics.Counter;
+import amie.metrics.Metrics;
+import amie.metrics.Timer;
 import amie.mining.assistant.DefaultMiningAssistant;
 import amie.mining.assistant.MiningAssistant;
 import amie.mining.assistant.RelationSignatureDefaultMiningAssistant;
 import amie.rules.Metric;
 import amie.rules.Rule;
+import amie.rules.SubsumptionIndex;
+import amie.rules.TopKRules;
 import javatools.administrative.Announce;
 import javatools.datatypes.ByteString;
-import javatools.datatypes.MultiMap;
 import javatools.parsers.NumberFormatter;
 
 /**
@@ -111,6 +121,65 @@ public class AMIE {
      */
     private Collection<ByteString> seeds;
     
+    /**
+     * If true, the rules are scheduled with a WorkStealingQueue instead of an AMIEQueue.
+     */
+    private boolean workStealing;
+    
+    /**
+     * If positive, only the topK rules with the highest PCA confidence for each head 
+     * relation are mined (see TopKRules).
+     */
+    private int topK;
+    
+    /**
+     * If not null, the state of the mining is saved in this file (see AMIEQueue.Checkpointer).
+     */
+    private File checkpointFile;
+    
+    /**
+     * Milliseconds between two checkpoints within the same generation.
+     */
+    private long checkpointInterval;
+    
+    /**
+     * If not null, the mining continues from this checkpoint.
+     */
+    private MiningCheckpoint resumeCheckpoint;
+    
+    /**
+     * If not null, the rules are written to this sink instead of the standard output.
+     */
+    private RuleSink outputSink;
+    
+    /**
+     * If not null, the mining stops refining rules when this budget is exhausted.
+     */
+    private MiningBudget budget;
+    
+    /**
+     * Head relations of the rules dequeued in the last call to mine.
+     */
+    private Set<ByteString> headRelations;
+    
+    /**
+     * Head relations with rules that were not refined because the budget was exhausted.
+     */
+    private Set<ByteString> incompleteHeadRelations;
+    
+    /**
+     * Metrics of the mining threads (see amie.metrics.Metrics)
+     */
+    private static final Counter dequeuedCounter = Metrics.counter("mining.rules");
+    
+    private static final Counter outputCounter = Metrics.counter("mining.outputRules");
+    
+    private static final Timer confidenceBoundsTimer = Metrics.timer("mining.confidenceBounds");
+    
+    private static final Timer parentsTimer = Metrics.timer("mining.additionalParents");
+    
+    private static final Timer confidenceTimer = Metrics.timer("mining.confidence");
+    
     /**
      * Column headers
      */
@@ -161,6 +230,109 @@ public class AMIE {
     public void setSeeds(Collection<ByteString> seeds) {
     	this.seeds = seeds;
     }
+    
+    public boolean isWorkStealing() {
+    	return workStealing;
+    }
+    
+    public void setWorkStealing(boolean workStealing) {
+    	this.workStealing = workStealing;
+    }
+
+    public int getTopK() {
+    	return topK;
+    }
+    
+    /**
+     * It enables the top-k mining mode: only the k rules with the highest PCA confidence
+     * for each head relation are returned and the rules are refined in best-first order. 
+     * The rules are not printed as they are discovered in this mode.
+     * @param topK The number of rules per head relation, 0 to mine all the rules.
+     */
+    public void setTopK(int topK) {
+    	this.topK = topK;
+    }
+
+    public File getCheckpointFile() {
+    	return checkpointFile;
+    }
+    
+    /**
+     * It saves the state of the mining in the given file at the end of each generation
+     * and every interval milliseconds. Checkpoints are not supported with work stealing
+     * and in the top-k mode.
+     * @param checkpointFile
+     * @param interval If not positive, checkpoints are only saved at the end of each generation.
+     */
+    public void setCheckpointFile(File checkpointFile, long interval) {
+    	this.checkpointFile = checkpointFile;
+    	this.checkpointInterval = interval;
+    }
+    
+    public MiningCheckpoint getResumeCheckpoint() {
+    	return resumeCheckpoint;
+    }
+    
+    /**
+     * It makes mine continue from the given checkpoint. The KB and the configuration 
+     * must be those of the interrupted run.
+     * @param resumeCheckpoint
+     */
+    public void setResumeCheckpoint(MiningCheckpoint resumeCheckpoint) {
+    	this.resumeCheckpoint = resumeCheckpoint;
+    }
+
+    public RuleSink getOutputSink() {
+    	return outputSink;
+    }
+    
+    /**
+     * It writes the output rules to the given sink as they are found, or at the end of the 
+     * mining in the top-k mode. The sink is closed when mine returns. If no sink is set, 
+     * the rules are printed in the standard output when the real time mode is enabled.
+     * @param outputSink
+     */
+    public void setOutputSink(RuleSink outputSink) {
+    	this.outputSink = outputSink;
+    }
+    
+    public MiningBudget getBudget() {
+    	return budget;
+    }
+    
+    /**
+     * It bounds the time and memory of the mining. When the budget is exhausted, mine
+     * evaluates the rules being processed, discards the rest of the queue and returns the
+     * rules found so far.
+     * @param budget
+     */
+    public void setBudget(MiningBudget budget) {
+    	this.budget = budget;
+    }
+    
+    /**
+     * It returns the head relations whose rules were all evaluated and refined in the last 
+     * call to mine. If the budget was not exhausted, these are all the head relations.
+     * @return
+     */
+    public Set<ByteString> getFullyExploredHeadRelations() {
+    	if (headRelations == null)
+    		return Collections.emptySet();
+    	Set<ByteString> result = new HashSet<>(headRelations);
+    	result.removeAll(incompleteHeadRelations);
+    	return result;
+    }
+    
+    /**
+     * It returns the head relations that were not fully explored in the last call to mine
+     * because the budget was exhausted.
+     * @return
+     */
+    public Set<ByteString> getIncompleteHeadRelations() {
+    	if (incompleteHeadRelations == null)
+    		return Collections.emptySet();
+    	return new HashSet<>(incompleteHeadRelations);
+    }
 
     public double getMinSignificanceThreshold() {
 		return minSignificanceThreshold;
@@ -203,27 +375,84 @@ public class AMIE {
      * @throws Exception
      */
     public List<Rule> mine() throws Exception {
-        List<Rule> result = new ArrayList<>();
-        MultiMap<Integer, Rule> indexedResult = new MultiMap<>();
-        RuleConsumer consumerObj = null;
-        Thread consumerThread = null;
-        Lock resultsLock = new ReentrantLock();
-        Condition resultsCondVar = resultsLock.newCondition();
+        final List<Rule> result = new ArrayList<>();
+        SubsumptionIndex indexedResult = new SubsumptionIndex();
+        final Lock resultsLock = new ReentrantLock();
         Collection<Rule> seedRules = new ArrayList<>();
         
+        if ((checkpointFile != null || resumeCheckpoint != null) && (topK > 0 || workStealing)) {
+        	throw new IllegalArgumentException("Checkpoints are not supported with work stealing "
+        			+ "and in the top-k mode");
+        }
+        
+        headRelations = Collections.newSetFromMap(new ConcurrentHashMap<ByteString, Boolean>());
+        incompleteHeadRelations = Collections.newSetFromMap(new ConcurrentHashMap<ByteString, Boolean>());
+        if (budget != null) {
+        	budget.start();
+        }
+        
         // Queue initialization
-        if (seeds == null || seeds.isEmpty()) {
+        if (resumeCheckpoint != null) {
+        	for (Rule rule : resumeCheckpoint.getOutput()) {
+        		result.add(rule);
+        		indexedResult.add(rule);
+        	}
+        } else if (seeds == null || seeds.isEmpty()) {
             seedRules = assistant.getInitialAtoms(minInitialSupport);
         } else {
             seedRules = assistant.getInitialAtomsFromSeeds(seeds, minInitialSupport);
         }
         
-        AMIEQueue queue = new AMIEQueue(seedRules, nThreads);
+        RuleQueue queue = null;
+        TopKRules topKRules = null;
+        if (topK > 0) {
+        	topKRules = new TopKRules(topK);
+        	queue = new PriorityRuleQueue(seedRules);
+        } else if (workStealing) {
+        	queue = new WorkStealingQueue(seedRules, nThreads);
+        } else {
+        	AMIEQueue amieQueue = resumeCheckpoint != null ? new AMIEQueue(resumeCheckpoint, nThreads)
+        			: new AMIEQueue(seedRules, nThreads);
+        	if (checkpointFile != null) {
+        		final File file = checkpointFile;
+        		amieQueue.setCheckpointer(new AMIEQueue.Checkpointer() {
+					@Override
+					public void checkpoint(int generation, Collection<Rule> current, 
+							Collection<Rule> next) throws IOException {
+						// Once rules have been discarded because of the budget, the previous 
+						// checkpoint is the last consistent state
+						if (!incompleteHeadRelations.isEmpty())
+							return;
+						List<Rule> output = null;
+						resultsLock.lock();
+						try {
+							output = new ArrayList<>(result);
+						} finally {
+							resultsLock.unlock();
+						}
+						new MiningCheckpoint(generation, current, next, output).write(file);
+						if (assistant.isVerbose()) {
+							System.err.println("Checkpoint written to " + file + ": generation " 
+									+ generation + ", " + (current.size() + next.size()) 
+									+ " rules in the queue, " + output.size() + " rules output");
+						}
+					}
+				}, checkpointInterval);
+        	}
+        	queue = amieQueue;
+        }
+        assistant.setTopK(topKRules);
 
-        if (realTime) {
-            consumerObj = new RuleConsumer(result, resultsLock, resultsCondVar);
-            consumerThread = new Thread(consumerObj);
-            consumerThread.start();
+        RuleSink sink = outputSink;
+        if (sink == null && realTime && topKRules == null) {
+        	sink = AsyncRuleSink.forConsole(assistant);
+        }
+        // The top k rules are only known at the end
+        RuleSink jobSink = topKRules == null ? sink : null;
+        if (jobSink != null) {
+        	for (Rule rule : result) {
+        		jobSink.write(rule);
+        	}
         }
 
         System.out.println("Using " + nThreads + " threads");
@@ -231,7 +460,8 @@ public class AMIE {
         ArrayList<Thread> currentJobs = new ArrayList<>();
         ArrayList<RDFMinerJob> jobObjects = new ArrayList<>();
         for (int i = 0; i < nThreads; ++i) {
-            RDFMinerJob jobObject = new RDFMinerJob(queue, result, resultsLock, resultsCondVar, indexedResult);
+            RDFMinerJob jobObject = new RDFMinerJob(queue, result, resultsLock, 
+            		indexedResult, topKRules, jobSink);
             Thread job = new Thread(jobObject);
             currentJobs.add(job);
             jobObjects.add(jobObject);
@@ -246,58 +476,30 @@ public class AMIE {
             job.join();
         }
 
-        if (realTime) {        
-            consumerThread.interrupt();
-            while (!consumerThread.isInterrupted());            	
+        // The budget is only reported if it cut the mining short, i.e., some rule was
+        // discarded or not refined
+        if (!incompleteHeadRelations.isEmpty()) {
+        	System.err.println("Mining budget (" + budget + ") exhausted after " 
+        			+ NumberFormatter.formatMS(budget.getElapsedTime()) + ", " 
+        			+ incompleteHeadRelations.size() + " head relations not fully explored");
         }
-
-        return result;
-    }
-
-    /**
-     * It removes and prints rules from a shared list (a list accessed by
-     * multiple threads).
-     *
-     * @author galarrag
-     *
-     */
-    private class RuleConsumer implements Runnable {
-
-        private List<Rule> consumeList;
-
-        private int lastConsumedIndex;
-
-        private Lock consumeLock;
-
-        private Condition conditionVariable;
-
-        public RuleConsumer(List<Rule> consumeList, Lock consumeLock, Condition conditionVariable) {
-            this.consumeList = consumeList;
-            this.lastConsumedIndex = -1;
-            this.consumeLock = consumeLock;
-            this.conditionVariable = conditionVariable;
+        
+        if (topKRules != null) {
+        	assistant.setTopK(null);
+        	result.clear();
+        	result.addAll(topKRules.getRules());
+        	if (sink != null) {
+        		for (Rule rule : result) {
+        			sink.write(rule);
+        		}
+        	}
         }
-
-        @Override
-        public void run() {
-            AMIE.printRuleHeaders(assistant);
-            while (!Thread.currentThread().isInterrupted()) {
-                consumeLock.lock();
-                try {
-                    while (lastConsumedIndex == consumeList.size() - 1) {
-                        conditionVariable.await();
-                        for (int i = lastConsumedIndex + 1; i < consumeList.size(); ++i) {
-                        	System.out.println(assistant.formatRule(consumeList.get(i)));
-                        }
-                        lastConsumedIndex = consumeList.size() - 1;
-                    }
-                } catch (InterruptedException e) {
-                	consumeLock.unlock();
-                	System.out.flush();
-                	break;
-                } 
-            }
+        
+        if (sink != null) {
+        	sink.close();
         }
+
+        return result;
     }
 
     /**
@@ -309,34 +511,40 @@ public class AMIE {
 
         private List<Rule> outputSet;
 
-        // A version of the output set thought for search.
-        private MultiMap<Integer, Rule> indexedOutputSet;
+        // A version of the output set thought for search. It can be accessed without locks.
+        private SubsumptionIndex indexedOutputSet;
+        
+        // The best rules in the top-k mining mode, null otherwise
+        private TopKRules topKRules;
 
-        private AMIEQueue queryPool;
+        private RuleQueue queryPool;
 
         private Lock resultsLock;
 
-        private Condition resultsCondition;
+        // Destination of the output rules, null if they are not written as they are found
+        private RuleSink outputSink;
 
         /**
          * 
          * @param seedsPool
          * @param outputSet
          * @param resultsLock Lock associated to the output buffer were mined rules are added
-         * @param resultsCondition Condition variable associated to the results lock
          * @param sharedCounter Reference to a shared counter that keeps track of the number of threads that are running
          * in the system.
          * @param indexedOutputSet
+         * @param topKRules The best rules in the top-k mining mode, null otherwise
+         * @param outputSink The sink where the rules are written as they are found, null otherwise
          */
-        public RDFMinerJob(AMIEQueue seedsPool,
+        public RDFMinerJob(RuleQueue seedsPool,
                 List<Rule> outputSet, Lock resultsLock,
-                Condition resultsCondition,
-                MultiMap<Integer, Rule> indexedOutputSet) {
+                SubsumptionIndex indexedOutputSet, TopKRules topKRules,
+                RuleSink outputSink) {
             this.queryPool = seedsPool;
             this.outputSet = outputSet;
             this.resultsLock = resultsLock;
-            this.resultsCondition = resultsCondition;
             this.indexedOutputSet = indexedOutputSet;
+            this.topKRules = topKRules;
+            this.outputSink = outputSink;
         }
 
         @Override
@@ -354,18 +562,30 @@ public class AMIE {
                 	this.queryPool.decrementMaxThreads();
                 	break;
                 } else {
+                	headRelations.add(currentRule.getHeadRelationBS());
+                	if (budget != null && budget.isExhausted()) {
+                		// Discard the rest of the queue
+                		incompleteHeadRelations.add(currentRule.getHeadRelationBS());
+                		continue;
+                	}
+
                     // Check if the rule meets the language bias and confidence thresholds and
                     // decide whether to output it.
                     boolean outputRule = false;
+                    dequeuedCounter.increment();
                     if (assistant.shouldBeOutput(currentRule)) {
+                        long start = confidenceBoundsTimer.start();
                         boolean ruleSatisfiesConfidenceBounds
                                 = assistant.calculateConfidenceBoundsAndApproximations(currentRule);
+                        confidenceBoundsTimer.stop(start);
                         if (ruleSatisfiesConfidenceBounds) {
-                            this.resultsLock.lock();
+                            start = parentsTimer.start();
                             assistant.setAdditionalParents(currentRule, indexedOutputSet);
-                            this.resultsLock.unlock();
+                            parentsTimer.stop(start);
                             // Calculate the metrics
+                            start = confidenceTimer.start();
                             assistant.calculateConfidenceMetrics(currentRule);
+                            confidenceTimer.stop(start);
                             // Check the confidence threshold and skyline technique.
                             outputRule = assistant.testConfidenceThresholds(currentRule);
                         } else {
@@ -378,6 +598,14 @@ public class AMIE {
                     if (assistant.isEnablePerfectRules()) {
                         furtherRefined = !currentRule.isPerfect();
                     }
+                    
+                    // Stop expanding the search space when the budget is exhausted
+                    if (furtherRefined && budget != null 
+                    		&& currentRule.getRealLength() < assistant.getMaxDepth()
+                    		&& budget.isExhausted()) {
+                    	incompleteHeadRelations.add(currentRule.getHeadRelationBS());
+                    	furtherRefined = false;
+                    }
 
                     // If so specialize it
                     if (furtherRefined) {
@@ -418,19 +646,24 @@ public class AMIE {
 
                     // Output the rule
                     if (outputRule) {
+                        boolean newRule = false;
                         this.resultsLock.lock();
-                        Set<Rule> outputQueries = indexedOutputSet.get(currentRule.alternativeParentHashCode());
-                        if (outputQueries != null) {
-                            if (!outputQueries.contains(currentRule)) {
-                                this.outputSet.add(currentRule);
-                                outputQueries.add(currentRule);
-                            }
-                        } else {
-                            this.outputSet.add(currentRule);
-                            this.indexedOutputSet.put(currentRule.alternativeParentHashCode(), currentRule);
+                        if (this.indexedOutputSet.add(currentRule)) {
+                        	newRule = true;
+                        	if (this.topKRules != null) {
+                        		this.topKRules.offer(currentRule);
+                        	} else {
+                        		this.outputSet.add(currentRule);
+                        	}
                         }
-                        this.resultsCondition.signal();
                         this.resultsLock.unlock();
+                        // Written outside the lock, the sink does not block
+                        if (newRule) {
+                        	outputCounter.increment();
+                        }
+                        if (newRule && this.outputSink != null) {
+                        	this.outputSink.write(currentRule);
+                        }
                     }
                 }
             }
@@ -550,6 +783,12 @@ public class AMIE {
         double minPCAConf = DEFAULT_PCA_CONFIDENCE;
         int minSup = DEFAULT_SUPPORT;
         int minInitialSup = DEFAULT_INITIAL_SUPPORT;
+        int topK = 0;
+        long checkpointInterval = 60;
+        long maxTime = 0;
+        long maxHeap = 0;
+        long queryCacheSize = 0;
+        long metricsInterval = -1;
         double minHeadCover = DEFAULT_HEAD_COVERAGE;
         int maxDepth = 3;
         int recursivityLimit = 3;
@@ -615,6 +854,79 @@ public class AMIE {
                 		+ "Default: false")
                 .create("oute");
         
+        Option workStealingOpt = OptionBuilder.withArgName("work-stealing")
+                .withDescription("Schedule the rules with per-thread queues and work stealing. "
+                		+ "A new generation of rules starts as soon as the previous generation "
+                		+ "with the same head relation is done. Default: false")
+                .create("ws");
+        
+        Option parallelRefinementOpt = OptionBuilder.withArgName("parallel-refinement")
+                .withDescription("Refine each rule with all threads: the mining operators and the "
+                		+ "candidate relations of each new atom are computed in parallel. "
+                		+ "Useful when there are few rules with many candidates, e.g., in the first "
+                		+ "generations. Default: false")
+                .create("rpar");
+        
+        Option topKOpt = OptionBuilder.withArgName("top-k")
+                .hasArg()
+                .withDescription("Mine only the k rules with the highest PCA confidence for each "
+                		+ "head relation. The rules are refined in best-first order and the "
+                		+ "confidence of the k-th rule is used as PCA confidence threshold. "
+                		+ "The rules are printed at the end. Default: all rules")
+                .create("topk");
+        
+        Option checkpointOpt = OptionBuilder.withArgName("checkpoint-file")
+                .hasArg()
+                .withDescription("Save the state of the mining in this file at the end of each "
+                		+ "generation and periodically (see -ckpti), so that the mining can be resumed "
+                		+ "with -resume.")
+                .create("ckpt");
+        
+        Option checkpointIntervalOpt = OptionBuilder.withArgName("checkpoint-interval")
+                .hasArg()
+                .withDescription("Minutes between two checkpoints within a generation, 0 to save "
+                		+ "checkpoints only at the end of each generation. Default: 60")
+                .create("ckpti");
+        
+        Option resumeOpt = OptionBuilder.withArgName("checkpoint-file")
+                .hasArg()
+                .withDescription("Continue the mining from the state saved in this file. The KB and "
+                		+ "the other options must be those of the interrupted run.")
+                .create("resume");
+        
+        Option maxTimeOpt = OptionBuilder.withArgName("max-time")
+                .hasArg()
+                .withDescription("Stop refining rules after this number of seconds and output the "
+                		+ "rules found so far. The rules being evaluated are still output. "
+                		+ "Default: no limit")
+                .create("maxt");
+        
+        Option maxHeapOpt = OptionBuilder.withArgName("max-heap")
+                .hasArg()
+                .withDescription("Stop refining rules when the used heap reaches this number of "
+                		+ "megabytes and output the rules found so far. Default: no limit")
+                .create("maxheap");
+
+        Option queryCacheOpt = OptionBuilder.withArgName("query-cache")
+                .hasArg()
+                .withDescription("Cache the results of the queries with several atoms in at most this "
+                		+ "number of megabytes (see QueryCache). Default: no cache")
+                .create("qcache");
+        
+        Option outputFileOpt = OptionBuilder.withArgName("output-file")
+                .hasArg()
+                .withDescription("Write the rules to this file instead of the standard output. "
+                		+ "The rules are written in JSON Lines if the name of the file ends with "
+                		+ ".jsonl and in TSV otherwise. Files ending with .gz are compressed.")
+                .create("ofile");
+        
+        Option metricsOpt = OptionBuilder.withArgName("metrics-interval")
+                .hasArg()
+                .withDescription("Record the time spent in the mining operators, the KB queries "
+                		+ "and the queue, expose it as JMX MBeans (domain amie) and print it every "
+                		+ "this number of seconds in the standard error, 0 to print it only at the end.")
+                .create("metrics");
+        
         Option datalogNotationOpt = OptionBuilder.withArgName("datalog-output")
                 .withDescription("Print rules using the datalog notation "
                 		+ "Default: false")
@@ -718,9 +1030,20 @@ public class AMIE {
                 .create("deml");
 
         Option disableQueryRewriteOp = OptionBuilder.withArgName("disable-query-rewriting")
-                .withDescription("Disable query rewriting and caching.")
+                .withDescription("Disable query rewriting.")
                 .create("dqrw");
 
+        Option queryPlanningOp = OptionBuilder.withArgName("query-planning")
+                .withDescription("Choose the order of the atoms of queries with at least 3 atoms "
+                		+ "with a cost-based planner. By default, the atom with the fewest "
+                		+ "instances is instantiated first. Default: false")
+                .create("qp");
+
+        Option queryParallelismOp = OptionBuilder.withArgName("query-parallelism")
+                .withDescription("Count the pairs of expensive countDistinctPairs queries with all "
+                		+ "threads. By default, each query is evaluated in a single thread. Default: false")
+                .create("qpar");
+
         Option disablePerfectRulesOp = OptionBuilder.withArgName("disable-perfect-rules")
                 .withDescription("Disable perfect rules.")
                 .create("dpr");
@@ -747,12 +1070,51 @@ public class AMIE {
         		.withDescription("Do not calculate standard confidence")
         		.create("ostd");
 
+        Option intKBOp = OptionBuilder.withArgName("integer-kb")
+        		.withDescription("Store the KB in dictionary-encoded integer indexes. "
+        				+ "It reduces the memory footprint of large KBs.")
+        		.create("ikb");
+
+        Option permutationsOp = OptionBuilder.withArgName("permutations")
+        		.withDescription("Comma-separated list of the permutation indexes built while loading, "
+        				+ "among SRO, ROS, OSR, RSO, ORS, SOR, e.g., SRO,ROS. The other permutations are "
+        				+ "built the first time a query needs them. Implies -ikb.")
+        		.hasArg()
+        		.create("kbperm");
+
+        Option leapfrogOp = OptionBuilder.withArgName("leapfrog-triejoin")
+        		.withDescription("Evaluate the queries with a worst-case optimal join (Leapfrog Triejoin) "
+        				+ "on the sorted indexes of the KB. Recommended for rules with cyclic bodies. Implies -ikb.")
+        		.create("lftj");
+
+        Option readSnapshotOp = OptionBuilder.withArgName("snapshot-file")
+        		.withDescription("Open the KB from a binary snapshot written with -wsnap "
+        				+ "instead of parsing the input files.")
+        		.hasArg()
+        		.create("rsnap");
+
+        Option writeSnapshotOp = OptionBuilder.withArgName("snapshot-file")
+        		.withDescription("Write a binary snapshot of the KB once it is loaded.")
+        		.hasArg()
+        		.create("wsnap");
+
         options.addOption(stdConfThresholdOpt);
         options.addOption(supportOpt);
         options.addOption(initialSupportOpt);
         options.addOption(headCoverageOpt);
         options.addOption(pruningMetricOpt);
         options.addOption(realTimeOpt);
+        options.addOption(workStealingOpt);
+        options.addOption(parallelRefinementOpt);
+        options.addOption(topKOpt);
+        options.addOption(checkpointOpt);
+        options.addOption(checkpointIntervalOpt);
+        options.addOption(resumeOpt);
+        options.addOption(maxTimeOpt);
+        options.addOption(maxHeapOpt);
+        options.addOption(queryCacheOpt);
+        options.addOption(outputFileOpt);
+        options.addOption(metricsOpt);
         options.addOption(bodyExcludedOpt);
         options.addOption(headExcludedOpt);
         options.addOption(maxDepthOpt);
@@ -777,6 +1139,13 @@ public class AMIE {
         options.addOption(extraFileOp);
         options.addOption(datalogNotationOpt);
         options.addOption(calculateStdConfidenceOp);
+        options.addOption(intKBOp);
+        options.addOption(permutationsOp);
+        options.addOption(leapfrogOp);
+        options.addOption(queryPlanningOp);
+        options.addOption(queryParallelismOp);
+        options.addOption(readSnapshotOp);
+        options.addOption(writeSnapshotOp);
 
         try {
             cli = parser.parse(options, args);
@@ -831,6 +1200,99 @@ public class AMIE {
             }
         }
 
+        if (cli.hasOption("topk")) {
+            String topKStr = cli.getOptionValue("topk");
+            try {
+                topK = Integer.parseInt(topKStr);
+                if (topK < 1) {
+                	throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("The option -topk (number of rules per head relation) requires a positive integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if (cli.hasOption("ckpti")) {
+            String checkpointIntervalStr = cli.getOptionValue("ckpti");
+            try {
+                checkpointInterval = Long.parseLong(checkpointIntervalStr);
+            } catch (NumberFormatException e) {
+                System.err.println("The option -ckpti (checkpoint interval) requires an integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if (cli.hasOption("maxt")) {
+            String maxTimeStr = cli.getOptionValue("maxt");
+            try {
+                maxTime = Long.parseLong(maxTimeStr);
+                if (maxTime < 1) {
+                	throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("The option -maxt (maximum mining time in seconds) requires a positive integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if (cli.hasOption("maxheap")) {
+            String maxHeapStr = cli.getOptionValue("maxheap");
+            try {
+                maxHeap = Long.parseLong(maxHeapStr);
+                if (maxHeap < 1) {
+                	throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("The option -maxheap (maximum used heap in MB) requires a positive integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if (cli.hasOption("qcache")) {
+            String queryCacheSizeStr = cli.getOptionValue("qcache");
+            try {
+                queryCacheSize = Long.parseLong(queryCacheSizeStr);
+                if (queryCacheSize < 1) {
+                	throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("The option -qcache (size of the query cache in MB) requires a positive integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if (cli.hasOption("metrics")) {
+            String metricsIntervalStr = cli.getOptionValue("metrics");
+            try {
+                metricsInterval = Long.parseLong(metricsIntervalStr);
+                if (metricsInterval < 0) {
+                	throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("The option -metrics (seconds between two reports) requires a non-negative integer as argument");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        if ((cli.hasOption("ckpt") || cli.hasOption("resume")) && (cli.hasOption("ws") || cli.hasOption("topk"))) {
+            System.err.println("The options -ckpt and -resume cannot be used with -ws or -topk");
+            System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+            System.exit(1);
+        }
+
         if (cli.hasOption("minhc")) {
             String minHeadCoverage = cli.getOptionValue("minhc");
             try {
@@ -945,7 +1407,7 @@ public class AMIE {
         enablePerfectRulesPruning = !cli.hasOption("dpr");
         String[] leftOverArgs = cli.getArgs();
 
-        if (leftOverArgs.length < 1) {
+        if (leftOverArgs.length < 1 && !cli.hasOption("rsnap")) {
             System.err.println("No input file has been provided");
             System.err.println("AMIE [OPTIONS] <.tsv INPUT FILES>");
             System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
@@ -962,15 +1424,56 @@ public class AMIE {
                 dataFiles.add(new File(leftOverArgs[i]));
             }
         }
-        KB dataSource = new KB();
+        Set<IntKB.Permutation> permutations = EnumSet.allOf(IntKB.Permutation.class);
+        if (cli.hasOption("kbperm")) {
+            permutations = EnumSet.noneOf(IntKB.Permutation.class);
+            try {
+                for (String permutation : cli.getOptionValue("kbperm").split(",")) {
+                    permutations.add(IntKB.Permutation.valueOf(permutation.trim().toUpperCase()));
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("The option -kbperm expects a comma-separated list of permutations among SRO, ROS, OSR, RSO, ORS, SOR");
+                System.err.println("AMIE+ [OPTIONS] <.tsv INPUT FILES>");
+                formatter.printHelp("AMIE+", options);
+                System.exit(1);
+            }
+        }
+
+        KB dataSource = null;
         long timeStamp1 = System.currentTimeMillis();
-        dataSource.load(dataFiles);
+        if (cli.hasOption("rsnap")) {
+            dataSource = KBSnapshot.read(new File(cli.getOptionValue("rsnap")));
+        } else {
+            if (cli.hasOption("kbperm")) {
+                dataSource = new IntKB(permutations);
+            } else {
+                dataSource = cli.hasOption("ikb") || cli.hasOption("lftj") ? new IntKB() : new KB();
+            }
+            dataSource.load(dataFiles);
+            if (dataSource instanceof IntKB) {
+                ((IntKB) dataSource).freeze();
+            }
+        }
+        if (cli.hasOption("lftj")) {
+            ((IntKB) dataSource).setQueryEngine(IntKB.QueryEngine.LEAPFROG);
+        }
+        if (cli.hasOption("qp")) {
+            dataSource.setCostBasedPlanning(true);
+        }
+        if (cli.hasOption("qpar")) {
+            dataSource.setQueryParallelism(nThreads);
+        }
         long timeStamp2 = System.currentTimeMillis();
         if (cli.hasOption("optimfh")) {
             Announce.message("Building overlap tables for confidence approximation.");
             dataSource.buildOverlapTables();
             Announce.done("Overlap tables were built.");
         }
+        if (cli.hasOption("wsnap")) {
+            Announce.doing("Writing KB snapshot to " + cli.getOptionValue("wsnap"));
+            KBSnapshot.write(dataSource, new File(cli.getOptionValue("wsnap")));
+            Announce.done();
+        }
         sourcesLoadingTime = timeStamp2 - timeStamp1;
 
         if (!targetFiles.isEmpty()) {
@@ -1129,15 +1632,49 @@ public class AMIE {
         mineAssistant.setAvoidUnboundTypeAtoms(avoidUnboundTypeAtoms);
         mineAssistant.setExploitMaxLengthOption(exploitMaxLengthForRuntime);
         mineAssistant.setEnableQueryRewriting(enableQueryRewriting);
+        if (queryCacheSize > 0) {
+            dataSource.setQueryCache(new QueryCache(queryCacheSize << 20));
+        }
         mineAssistant.setEnablePerfectRules(enablePerfectRulesPruning);
         mineAssistant.setVerbose(verbose);
         mineAssistant.setOmmitStdConfidence(ommitStdConfidence);
         mineAssistant.setDatalogNotation(datalogOutput);
+        if (cli.hasOption("rpar")) {
+            mineAssistant.setOperatorParallelism(nThreads);
+        }
 
         System.out.println(mineAssistant.getDescription());
         
         AMIE miner = new AMIE(mineAssistant, minInitialSup, minMetricValue, metric, nThreads);
         miner.setRealTime(realTime);
+        miner.setWorkStealing(cli.hasOption("ws"));
+        miner.setTopK(topK);
+        if (cli.hasOption("ckpt")) {
+        	miner.setCheckpointFile(new File(cli.getOptionValue("ckpt")), checkpointInterval * 60 * 1000);
+        	System.out.println("Saving checkpoints to " + cli.getOptionValue("ckpt"));
+        }
+        if (cli.hasOption("resume")) {
+        	MiningCheckpoint checkpoint = MiningCheckpoint.read(new File(cli.getOptionValue("resume")));
+        	miner.setResumeCheckpoint(checkpoint);
+        	System.out.println("Resuming from " + cli.getOptionValue("resume") + ": " 
+        			+ (checkpoint.getCurrent().size() + checkpoint.getNext().size()) 
+        			+ " rules in the queue, " + checkpoint.getOutput().size() + " rules output");
+        }
+        if (maxTime > 0 || maxHeap > 0) {
+        	miner.setBudget(new MiningBudget(maxTime * 1000, maxHeap << 20));
+        	System.out.println("Mining budget: " + miner.getBudget());
+        }
+        if (metricsInterval >= 0) {
+        	Metrics.setEnabled(true);
+        	Metrics.registerMBeans();
+        	if (metricsInterval > 0) {
+        		Metrics.startDump(System.err, metricsInterval * 1000);
+        	}
+        }
+        if (cli.hasOption("ofile")) {
+        	miner.setOutputSink(AsyncRuleSink.forFile(new File(cli.getOptionValue("ofile")), mineAssistant));
+        	System.out.println("Writing the rules to " + cli.getOptionValue("ofile"));
+        }
         miner.setSeeds(headTargetRelations);
 
         if (minStdConf > 0.0) {
@@ -1151,6 +1688,10 @@ public class AMIE {
         } else {
             System.out.println("No minimum threshold on PCA confidence");
         }
+        
+        if (topK > 0) {
+            System.out.println("Mining the top " + topK + " rules by PCA confidence for each head relation");
+        }
 
         if (enforceConstants) {
             System.out.println("Constants in the arguments of relations are enforced");
@@ -1180,6 +1721,15 @@ public class AMIE {
     }
     
 	private static void printRuleHeaders(MiningAssistant assistant) {
+		System.out.println(getRuleHeaders(assistant));
+	}
+	
+	/**
+	 * It returns the tab-separated column headers of the rules formatted by the assistant.
+	 * @param assistant
+	 * @return
+	 */
+	static String getRuleHeaders(MiningAssistant assistant) {
 		List<String> finalHeaders = new ArrayList<>(headers);
 		if (assistant.isOmmitStdConfidence()) {
 			finalHeaders.removeAll(Arrays.asList("Std Confidence", "Body size"));
@@ -1189,7 +1739,7 @@ public class AMIE {
 			finalHeaders.removeAll(Arrays.asList("Std. Lower Bound", "PCA Lower Bound", "PCA Conf estimation"));
         }
 		
-    	System.out.println(telecom.util.collections.Collections.implode(finalHeaders, "\t"));
+    	return telecom.util.collections.Collections.implode(finalHeaders, "\t");
 	}
 
 
@@ -1211,7 +1761,7 @@ public class AMIE {
 	    long time = System.currentTimeMillis();
 	    List<Rule> rules = miner.mine();
 	
-	    if (!miner.isRealTime()) {
+	    if ((!miner.isRealTime() || miner.getTopK() > 0) && miner.getOutputSink() == null) {
 	    	AMIE.printRuleHeaders(assistant);
 	        for (Rule rule : rules) {
 	        	System.out.println(assistant.formatRule(rule));
@@ -1222,6 +1772,19 @@ public class AMIE {
 	    System.out.println("Mining done in " + NumberFormatter.formatMS(miningTime));
 	    Announce.done("Total time " + NumberFormatter.formatMS(miningTime + loadingTime));
 	    System.out.println(rules.size() + " rules mined.");
+	    if (!miner.getIncompleteHeadRelations().isEmpty()) {
+	    	System.out.println("Fully explored head relations: " + miner.getFullyExploredHeadRelations());
+	    	System.out.println("Partially explored head relations: " + miner.getIncompleteHeadRelations());
+	    }
+	    QueryCache cache = assistant.getKb().getQueryCache();
+	    if (cache != null) {
+	    	System.out.println("Query cache: " + cache);
+	    }
+	    if (Metrics.isEnabled()) {
+	    	Metrics.stopDump();
+	    	System.out.println("Metrics:");
+	    	Metrics.dump(System.out);
+	    }
     }
 
 }
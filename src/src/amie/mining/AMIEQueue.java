@@ -1,5 +1,6 @@
 package amie.mining;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -7,6 +8,8 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import amie.metrics.Metrics;
+import amie.metrics.Timer;
 import amie.rules.Rule;
 
 /**
@@ -15,10 +18,37 @@ import amie.rules.Rule;
  * search strategy are always dequeued and refined before any rule corresponding
  * to the (n+1)th-round.
  * 
+ * The queue can also save the state of the mining with a Checkpointer. It does so at
+ * the end of each generation, when the mining is over and, periodically, by stopping 
+ * the threads as they finish the rules they are refining.
+ * 
+ * The time threads wait for rules and for the lock of the queue, when it is held by
+ * another thread, is recorded in the metrics "queue.wait" and "queue.lockContention".
+ * 
  * @author galarrag
  *
  */
-public final class AMIEQueue {
+public final class AMIEQueue implements RuleQueue {
+	
+	/**
+	 * It saves the state of the mining.
+	 */
+	public interface Checkpointer {
+		/**
+		 * Called while no rule is being refined.
+		 * @param generation The generation of the rules added to the queue
+		 * @param current The rules of the current generation
+		 * @param next The rules of the next generation
+		 * @throws IOException
+		 */
+		public void checkpoint(int generation, Collection<Rule> current, 
+				Collection<Rule> next) throws IOException;
+	}
+	
+	private static final Timer waitTimer = Metrics.timer("queue.wait");
+	
+	private static final Timer contentionTimer = Metrics.timer("queue.lockContention");
+	
 	private final Lock lock = new ReentrantLock(); 
 	
 	private final Condition empty = lock.newCondition(); 
@@ -33,6 +63,18 @@ public final class AMIEQueue {
 	
 	private int waitingThreads = 0;
 	
+	/** True once all the rules have been refined **/
+	private boolean done;
+	
+	private Checkpointer checkpointer;
+	
+	private long checkpointInterval;
+	
+	private long lastCheckpoint;
+	
+	/** True if the threads must stop for a checkpoint **/
+	private boolean pausing;
+	
 	public AMIEQueue(Collection<Rule> seeds, int maxThreads) {
 		this.generation = 1;
 		this.maxThreads = maxThreads; 
@@ -46,12 +88,41 @@ public final class AMIEQueue {
 		this.next = new LinkedHashSet<>();
 	}
 	
+	/**
+	 * It creates a queue in the state saved in a checkpoint. The rules keep their 
+	 * generations.
+	 * @param checkpoint
+	 * @param maxThreads
+	 */
+	public AMIEQueue(MiningCheckpoint checkpoint, int maxThreads) {
+		this.generation = checkpoint.getGeneration();
+		this.maxThreads = maxThreads;
+		this.waitingThreads = 0;
+		this.current = new LinkedHashSet<>(checkpoint.getCurrent());
+		this.next = new LinkedHashSet<>(checkpoint.getNext());
+	}
+	
+	/**
+	 * It saves the state of the mining at the end of each generation and every
+	 * interval milliseconds.
+	 * @param checkpointer
+	 * @param interval If not positive, the state is only saved at the end of each generation.
+	 */
+	public void setCheckpointer(Checkpointer checkpointer, long interval) {
+		acquire();
+		this.checkpointer = checkpointer;
+		this.checkpointInterval = interval;
+		this.lastCheckpoint = System.currentTimeMillis();
+		lock.unlock();
+	}
+	
 	/**
 	 * Adds an item to the queue.
 	 * @param o
 	 */
+	@Override
 	public void queue(Rule o) {
-		lock.lock();
+		acquire();
 		o.setGeneration(generation);
 		next.add(o);
 		lock.unlock();		
@@ -61,8 +132,9 @@ public final class AMIEQueue {
 	 * Adds a collection of items to the queue.
 	 * @param rules
 	 */
+	@Override
 	public void queueAll(Collection<Rule> rules) {
-		lock.lock();
+		acquire();
 		for (Rule r : rules) {
 			r.setGeneration(generation);
 			next.add(r);			
@@ -75,30 +147,82 @@ public final class AMIEQueue {
 	 * @return An object or null if the queue is empty.
 	 * @throws InterruptedException
 	 */
+	@Override
 	public Rule dequeue() throws InterruptedException {
-		lock.lock();
-		Rule item = null;
-	    if (current.isEmpty()) {
-    		++waitingThreads;
-	    	if (waitingThreads < maxThreads) {
-	    		empty.await();    		
-	    		--waitingThreads;
-	    	} else {	    	
-	    		nextGeneration();
-	    		--waitingThreads;
-		    	empty.signalAll();	
-	    	}
-	    	
-	    	if (current.isEmpty()) {
-	    		item = null;
-	    	} else {
-	    		item = poll();
-	    	}
-        } else {
-        	item = poll();
-        }
-		lock.unlock();
-	    return item;
+		acquire();
+		try {
+			if (checkpointer != null && checkpointInterval > 0 
+					&& System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+				pausing = true;
+			}
+			while (true) {
+				// No other thread is refining a rule
+				boolean allWaiting = waitingThreads + 1 >= maxThreads;
+				if (pausing && allWaiting) {
+					checkpoint();
+				}
+				
+				if (!pausing) {
+					if (!current.isEmpty()) {
+						return poll();
+					} else if (done) {
+						return null;
+					} else if (allWaiting) {
+						if (next.isEmpty()) {
+							done = true;
+							if (checkpointer != null) {
+								checkpoint();
+							}
+							empty.signalAll();
+							return null;
+						}
+						nextGeneration();
+						if (checkpointer != null) {
+							checkpoint();
+						}
+						empty.signalAll();
+						continue;
+					}
+				}
+				
+				++waitingThreads;
+				long start = waitTimer.start();
+				try {
+					empty.await();
+				} finally {
+					waitTimer.stop(start);
+				}
+				--waitingThreads;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * It locks the queue and measures the time spent waiting for the lock if it is
+	 * held by another thread.
+	 */
+	private void acquire() {
+		if (!lock.tryLock()) {
+			long start = contentionTimer.start();
+			lock.lock();
+			contentionTimer.stop(start);
+		}
+	}
+	
+	/**
+	 * It saves the state of the mining and wakes up the threads.
+	 */
+	private void checkpoint() {
+		try {
+			checkpointer.checkpoint(generation, current, next);
+		} catch (IOException e) {
+			System.err.println("The checkpoint could not be written: " + e.getMessage());
+		}
+		lastCheckpoint = System.currentTimeMillis();
+		pausing = false;
+		empty.signalAll();
 	}
 	
 	/**
@@ -127,8 +251,9 @@ public final class AMIEQueue {
 		return generation;
 	}
 
+	@Override
 	public void decrementMaxThreads() {
-		lock.lock();
+		acquire();
 		--maxThreads;
 		lock.unlock();
 	}
@@ -0,0 +1,268 @@
+package amie.mining;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import amie.mining.assistant.MiningAssistant;
+import amie.rules.Rule;
+
+/**
+ * A rule sink that writes the rules in a background thread. The mining threads add the
+ * rules to a lock-free queue, which the writer thread drains in batches into a buffered
+ * stream. The stream is flushed every time the queue is empty, so rules printed on the
+ * console appear as soon as the writer is idle.
+ *
+ * @author lgalarra
+ *
+ */
+public class AsyncRuleSink implements RuleSink {
+
+	/**
+	 * It converts rules into lines of text.
+	 */
+	public interface Format {
+		/**
+		 * The first line of the output, null if there is none.
+		 */
+		public String getHeader();
+
+		/**
+		 * The line of the rule, without line separator.
+		 */
+		public String format(Rule rule);
+	}
+
+	/**
+	 * The tab-separated format printed by AMIE, according to the configuration of the
+	 * mining assistant.
+	 */
+	public static class TSVFormat implements Format {
+		private final MiningAssistant assistant;
+
+		public TSVFormat(MiningAssistant assistant) {
+			this.assistant = assistant;
+		}
+
+		@Override
+		public String getHeader() {
+			return (AMIE.getRuleHeaders(assistant));
+		}
+
+		@Override
+		public String format(Rule rule) {
+			return (assistant.formatRule(rule));
+		}
+	}
+
+	/**
+	 * One JSON object per rule with the rule and all its metrics.
+	 */
+	public static class JSONLinesFormat implements Format {
+		private final DecimalFormat df = new DecimalFormat("#.#########");
+
+		@Override
+		public String getHeader() {
+			return (null);
+		}
+
+		@Override
+		public String format(Rule rule) {
+			StringBuilder strBuilder = new StringBuilder();
+			strBuilder.append("{\"rule\":");
+			appendString(strBuilder, rule.getRuleString());
+			strBuilder.append(",\"headCoverage\":").append(df.format(rule.getHeadCoverage()));
+			strBuilder.append(",\"stdConfidence\":").append(df.format(rule.getStdConfidence()));
+			strBuilder.append(",\"pcaConfidence\":").append(df.format(rule.getPcaConfidence()));
+			strBuilder.append(",\"support\":").append(df.format(rule.getSupport()));
+			strBuilder.append(",\"bodySize\":").append(rule.getBodySize());
+			strBuilder.append(",\"pcaBodySize\":").append(df.format(rule.getPcaBodySize()));
+			strBuilder.append(",\"functionalVariable\":");
+			appendString(strBuilder, String.valueOf(rule.getFunctionalVariable()));
+			strBuilder.append("}");
+			return (strBuilder.toString());
+		}
+
+		static void appendString(StringBuilder strBuilder, String str) {
+			strBuilder.append('"');
+			for (int i = 0; i < str.length(); ++i) {
+				char c = str.charAt(i);
+				switch (c) {
+				case '"':
+					strBuilder.append("\\\"");
+					break;
+				case '\\':
+					strBuilder.append("\\\\");
+					break;
+				case '\n':
+					strBuilder.append("\\n");
+					break;
+				case '\r':
+					strBuilder.append("\\r");
+					break;
+				case '\t':
+					strBuilder.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						strBuilder.append(String.format("\\u%04x", (int) c));
+					} else {
+						strBuilder.append(c);
+					}
+				}
+			}
+			strBuilder.append('"');
+		}
+	}
+
+	/** Maximum number of rules written between two flushes **/
+	private static final int BATCH_SIZE = 4096;
+
+	private final ConcurrentLinkedQueue<Rule> queue = new ConcurrentLinkedQueue<>();
+
+	private final Writer writer;
+
+	private final boolean closeStream;
+
+	private final Format format;
+
+	private final Thread writerThread;
+
+	/** True while the writer thread is parked **/
+	private volatile boolean idle;
+
+	private volatile boolean closed;
+
+	private volatile IOException error;
+
+	/**
+	 * @param out
+	 * @param closeStream If false, the stream is flushed but not closed when the sink is
+	 * closed, e.g., for System.out.
+	 * @param format
+	 */
+	public AsyncRuleSink(OutputStream out, boolean closeStream, Format format) {
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), 1 << 16);
+		this.closeStream = closeStream;
+		this.format = format;
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeAll();
+			}
+		}, "AMIE rule writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * It returns a sink that prints the rules in the standard output, as AMIE does.
+	 * @param assistant
+	 * @return
+	 */
+	public static AsyncRuleSink forConsole(MiningAssistant assistant) {
+		return (new AsyncRuleSink(System.out, false, new TSVFormat(assistant)));
+	}
+
+	/**
+	 * It returns a sink that writes the rules in the given file. The rules are written in
+	 * JSON Lines if the name of the file ends with .jsonl or .json, and in TSV otherwise.
+	 * The file is compressed with gzip if its name ends with .gz.
+	 * @param file
+	 * @param assistant
+	 * @return
+	 * @throws IOException
+	 */
+	public static AsyncRuleSink forFile(File file, MiningAssistant assistant) throws IOException {
+		String name = file.getName();
+		OutputStream out = new FileOutputStream(file);
+		if (name.endsWith(".gz")) {
+			out = new GZIPOutputStream(out, 1 << 16);
+			name = name.substring(0, name.length() - 3);
+		}
+		Format format = null;
+		if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+			format = new JSONLinesFormat();
+		} else {
+			format = new TSVFormat(assistant);
+		}
+		return (new AsyncRuleSink(out, true, format));
+	}
+
+	@Override
+	public void write(Rule rule) {
+		if (closed)
+			throw new IllegalStateException("The sink is closed");
+		// The error is reported by close
+		if (error != null)
+			return;
+		queue.offer(rule);
+		if (idle)
+			LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Body of the writer thread.
+	 */
+	private void writeAll() {
+		try {
+			String header = format.getHeader();
+			if (header != null) {
+				writer.write(header);
+				writer.write('\n');
+			}
+			while (true) {
+				int written = 0;
+				Rule rule = null;
+				while (written < BATCH_SIZE && (rule = queue.poll()) != null) {
+					writer.write(format.format(rule));
+					writer.write('\n');
+					++written;
+				}
+				writer.flush();
+				if (written == BATCH_SIZE)
+					continue;
+				if (closed && queue.isEmpty())
+					break;
+				idle = true;
+				// Rules added before the flag was set do not wake the thread up
+				if (queue.isEmpty() && !closed)
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+				idle = false;
+			}
+		} catch (IOException e) {
+			error = e;
+			queue.clear();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (closeStream) {
+			writer.close();
+		} else {
+			writer.flush();
+		}
+		if (error != null)
+			throw error;
+	}
+}
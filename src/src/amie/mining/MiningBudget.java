@@ -0,0 +1,115 @@
+package amie.mining;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Wall-clock and heap limits for a mining process. Once the budget is exhausted, AMIE
+ * stops refining rules: the rules already dequeued by the threads are evaluated and
+ * output, the rest of the queue is discarded and the best rules found so far are returned.
+ *
+ * A budget is exhausted when the time since start exceeds the time limit or when the used
+ * heap exceeds the heap limit. The used heap is measured after the last garbage collection
+ * of each pool, so that garbage waiting to be collected does not exhaust the budget. A budget 
+ * remains exhausted afterwards, even if the garbage collector frees memory.
+ *
+ * @author lgalarra
+ *
+ */
+public class MiningBudget {
+
+	/** Milliseconds, 0 for no limit **/
+	private final long maxTime;
+
+	/** Bytes, 0 for no limit **/
+	private final long maxHeap;
+
+	private long startTime;
+
+	private volatile boolean exhausted;
+
+	/**
+	 * @param maxTime Maximum mining time in milliseconds, 0 for no limit
+	 * @param maxHeap Maximum used heap in bytes, 0 for no limit
+	 */
+	public MiningBudget(long maxTime, long maxHeap) {
+		if (maxTime < 0 || maxHeap < 0)
+			throw new IllegalArgumentException("The limits of a budget cannot be negative");
+		this.maxTime = maxTime;
+		this.maxHeap = maxHeap;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	public long getMaxTime() {
+		return (maxTime);
+	}
+
+	public long getMaxHeap() {
+		return (maxHeap);
+	}
+
+	/**
+	 * It starts counting the time from now.
+	 */
+	public void start() {
+		startTime = System.currentTimeMillis();
+		exhausted = false;
+	}
+
+	/**
+	 * Milliseconds since the budget was started.
+	 * @return
+	 */
+	public long getElapsedTime() {
+		return (System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * It returns true if the time or the heap limit has been reached since the budget
+	 * was started. It can be called by several threads at the same time.
+	 * @return
+	 */
+	public boolean isExhausted() {
+		if (!exhausted) {
+			if ((maxTime > 0 && getElapsedTime() >= maxTime)
+					|| (maxHeap > 0 && getUsedHeap() >= maxHeap)) {
+				exhausted = true;
+			}
+		}
+		return (exhausted);
+	}
+
+	/**
+	 * Bytes of the heap used after the last collection of each pool. The pools
+	 * that have not been collected yet count with their current usage.
+	 */
+	private static long getUsedHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP)
+				continue;
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null || usage.getCommitted() == 0)
+				usage = pool.getUsage();
+			used += usage.getUsed();
+		}
+		return (used);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder strBuilder = new StringBuilder();
+		if (maxTime > 0)
+			strBuilder.append("time " + maxTime + " ms");
+		if (maxHeap > 0) {
+			if (strBuilder.length() > 0)
+				strBuilder.append(", ");
+			strBuilder.append("heap " + (maxHeap >> 20) + " MB");
+		}
+		if (strBuilder.length() == 0)
+			strBuilder.append("unlimited");
+		return (strBuilder.toString());
+	}
+}
@@ -0,0 +1,265 @@
+package amie.mining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javatools.datatypes.ByteString;
+import amie.rules.Rule;
+
+/**
+ * The state of a mining process: the rules in the queue of AMIE, the generation of
+ * the queue and the rules output so far. The ancestors of the rules in the queue are
+ * also stored, since the skyline technique compares the confidence of a rule with
+ * that of its ancestors.
+ *
+ * A checkpoint file is a gzipped stream with the dictionary of the entities, relations
+ * and variables of the rules, followed by the rules, where each atom is written as
+ * three positions of the dictionary.
+ *
+ * @author lgalarra
+ *
+ */
+public class MiningCheckpoint {
+
+	/** "AMIC" in ASCII **/
+	private static final int MAGIC = 0x414d4943;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int generation;
+
+	private final List<Rule> current;
+
+	private final List<Rule> next;
+
+	private final List<Rule> output;
+
+	/**
+	 * @param generation The generation of the rules added to the queue (see AMIEQueue)
+	 * @param current The rules of the current generation that have not been refined
+	 * @param next The rules of the next generation
+	 * @param output The rules output so far
+	 */
+	public MiningCheckpoint(int generation, Collection<Rule> current, Collection<Rule> next,
+			Collection<Rule> output) {
+		this.generation = generation;
+		this.current = new ArrayList<>(current);
+		this.next = new ArrayList<>(next);
+		this.output = new ArrayList<>(output);
+	}
+
+	public int getGeneration() {
+		return (generation);
+	}
+
+	public List<Rule> getCurrent() {
+		return (Collections.unmodifiableList(current));
+	}
+
+	public List<Rule> getNext() {
+		return (Collections.unmodifiableList(next));
+	}
+
+	public List<Rule> getOutput() {
+		return (Collections.unmodifiableList(output));
+	}
+
+	/**
+	 * It writes the checkpoint into the given file. The checkpoint is first written
+	 * into a temporary file, so the file is not damaged if the process dies while writing.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		// Rules in the order they are written
+		Map<Rule, Integer> ids = new IdentityHashMap<>();
+		List<Rule> rules = new ArrayList<>();
+		for (List<Rule> list : lists()) {
+			for (Rule rule : list) {
+				addRule(rule, ids, rules);
+			}
+		}
+		for (Rule rule : current) {
+			for (Rule ancestor : rule.getAncestors())
+				addRule(ancestor, ids, rules);
+		}
+		for (Rule rule : next) {
+			for (Rule ancestor : rule.getAncestors())
+				addRule(ancestor, ids, rules);
+		}
+
+		Map<ByteString, Integer> dictionary = new HashMap<>();
+		List<ByteString> terms = new ArrayList<>();
+		for (Rule rule : rules) {
+			for (ByteString[] atom : rule.getTriples()) {
+				for (ByteString term : atom) {
+					if (!dictionary.containsKey(term)) {
+						dictionary.put(term, terms.size());
+						terms.add(term);
+					}
+				}
+			}
+		}
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(generation);
+
+			out.writeInt(terms.size());
+			for (ByteString term : terms) {
+				byte[] bytes = term.toString().getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(rules.size());
+			for (Rule rule : rules) {
+				out.writeInt(rule.getTriples().size());
+				for (ByteString[] atom : rule.getTriples()) {
+					for (ByteString term : atom) {
+						out.writeInt(dictionary.get(term));
+					}
+				}
+				out.writeLong(rule.getHashCardinality());
+				out.writeDouble(rule.getSupport());
+				out.writeDouble(rule.getHeadCoverage());
+				out.writeDouble(rule.getSupportRatio());
+				out.writeLong(rule.getBodySize());
+				out.writeDouble(rule.getPcaBodySize());
+				out.writeInt(rule.getFunctionalVariablePosition());
+				out.writeDouble(rule.getConfidenceUpperBound());
+				out.writeDouble(rule.getPcaConfidenceUpperBound());
+				out.writeDouble(rule.getPcaEstimation());
+				out.writeInt(rule.getGeneration());
+				List<Integer> ancestors = new ArrayList<>();
+				for (Rule ancestor : rule.getAncestors()) {
+					Integer id = ids.get(ancestor);
+					if (id != null)
+						ancestors.add(id);
+				}
+				out.writeInt(ancestors.size());
+				for (int id : ancestors) {
+					out.writeInt(id);
+				}
+			}
+
+			for (List<Rule> list : lists()) {
+				out.writeInt(list.size());
+				for (Rule rule : list) {
+					out.writeInt(ids.get(rule));
+				}
+			}
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private List<List<Rule>> lists() {
+		List<List<Rule>> lists = new ArrayList<>();
+		lists.add(current);
+		lists.add(next);
+		lists.add(output);
+		return (lists);
+	}
+
+	private static void addRule(Rule rule, Map<Rule, Integer> ids, List<Rule> rules) {
+		if (!ids.containsKey(rule)) {
+			ids.put(rule, rules.size());
+			rules.add(rule);
+		}
+	}
+
+	/**
+	 * It reads a checkpoint written with write.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MiningCheckpoint read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a mining checkpoint");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+			int generation = in.readInt();
+
+			ByteString[] terms = new ByteString[in.readInt()];
+			for (int i = 0; i < terms.length; ++i) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				terms[i] = ByteString.of(new String(bytes, UTF8));
+			}
+
+			Rule[] rules = new Rule[in.readInt()];
+			int[][] ancestors = new int[rules.length][];
+			for (int i = 0; i < rules.length; ++i) {
+				int nAtoms = in.readInt();
+				List<ByteString[]> atoms = new ArrayList<>(nAtoms);
+				for (int j = 0; j < nAtoms; ++j) {
+					ByteString[] atom = new ByteString[3];
+					for (int k = 0; k < atom.length; ++k) {
+						atom[k] = terms[in.readInt()];
+					}
+					atoms.add(atom);
+				}
+				Rule rule = new Rule(atoms.get(0), atoms.subList(1, nAtoms), in.readLong());
+				rule.setSupport(in.readDouble());
+				rule.setHeadCoverage(in.readDouble());
+				rule.setSupportRatio(in.readDouble());
+				rule.setBodySize(in.readLong());
+				rule.setPcaBodySize(in.readDouble());
+				rule.setFunctionalVariablePosition(in.readInt());
+				rule.setConfidenceUpperBound(in.readDouble());
+				rule.setPcaConfidenceUpperBound(in.readDouble());
+				rule.setPcaEstimation(in.readDouble());
+				rule.setGeneration(in.readInt());
+				ancestors[i] = new int[in.readInt()];
+				for (int j = 0; j < ancestors[i].length; ++j) {
+					ancestors[i][j] = in.readInt();
+				}
+				rules[i] = rule;
+			}
+			for (int i = 0; i < rules.length; ++i) {
+				for (int id : ancestors[i]) {
+					rules[i].addParent(rules[id]);
+				}
+			}
+
+			List<List<Rule>> lists = new ArrayList<>();
+			for (int i = 0; i < 3; ++i) {
+				List<Rule> list = new ArrayList<>();
+				int size = in.readInt();
+				for (int j = 0; j < size; ++j) {
+					list.add(rules[in.readInt()]);
+				}
+				lists.add(list);
+			}
+			return (new MiningCheckpoint(generation, lists.get(0), lists.get(1), lists.get(2)));
+		}
+	}
+}
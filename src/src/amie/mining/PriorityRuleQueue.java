@@ -0,0 +1,235 @@
+package amie.mining;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javatools.datatypes.ByteString;
+import amie.rules.Rule;
+
+/**
+ * A queue that returns the rules in best-first order, used by the top-k mining mode.
+ * Rules are ordered by support, which is an upper bound for the support of all their
+ * specializations, and then by generation. Rules with high support are refined first,
+ * so good rules are found early and the top-k thresholds grow fast.
+ *
+ * A rule of generation n is only refined after all the rules of lower generations with
+ * its head relation and at least its support. Since this includes all the rules that
+ * subsume it, setAdditionalParents finds the same parents as with an AMIEQueue.
+ * The rules are kept in one bucket per head relation and generation, where the
+ * duplicates of the generation are discarded.
+ *
+ * @author lgalarra
+ *
+ */
+public final class PriorityRuleQueue implements RuleQueue {
+
+	/**
+	 * It sorts rules by decreasing support and then by increasing generation.
+	 */
+	public static final Comparator<Rule> bestFirstOrder = new Comparator<Rule>() {
+		@Override
+		public int compare(Rule o1, Rule o2) {
+			int cmp = Double.compare(o2.getSupport(), o1.getSupport());
+			if (cmp != 0)
+				return cmp;
+			return Integer.compare(o1.getGeneration(), o2.getGeneration());
+		}
+	};
+
+	private final Lock lock = new ReentrantLock();
+
+	private final Condition available = lock.newCondition();
+
+	/**
+	 * Rules of one head relation and one generation.
+	 */
+	private static final class Bucket {
+		final PriorityQueue<Rule> rules = new PriorityQueue<>(11, bestFirstOrder);
+
+		/** Rules queued in the generation, to avoid refining a rule twice **/
+		final Set<Rule> queued = new HashSet<>();
+
+		/** Number of rules of the bucket being processed **/
+		int processing;
+	}
+
+	/**
+	 * Rules of one head relation. A bucket is dropped once it is drained and the
+	 * buckets of the previous generations are gone, since no rule can produce
+	 * new rules for it.
+	 */
+	private static final class Head {
+		final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+
+		/** Rules being processed by the threads **/
+		final List<Rule> processing = new ArrayList<>();
+	}
+
+	private final Map<ByteString, Head> heads = new HashMap<>();
+
+	/** Number of queued rules **/
+	private int size;
+
+	/** Number of rules being processed **/
+	private int processing;
+
+	/** Rule being processed by each thread **/
+	private final ThreadLocal<Rule> current = new ThreadLocal<>();
+
+	public PriorityRuleQueue(Collection<Rule> seeds) {
+		for (Rule seed : seeds) {
+			seed.setGeneration(1);
+			add(seed);
+		}
+	}
+
+	@Override
+	public void queue(Rule rule) {
+		Rule parent = current.get();
+		rule.setGeneration(parent == null ? 2 : parent.getGeneration() + 1);
+		lock.lock();
+		try {
+			if (add(rule))
+				available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void queueAll(Collection<Rule> rules) {
+		for (Rule rule : rules) {
+			queue(rule);
+		}
+	}
+
+	/**
+	 * It adds the rule to the bucket of its head relation and generation,
+	 * unless the rule was already queued in that generation.
+	 */
+	private boolean add(Rule rule) {
+		Head head = heads.get(rule.getHeadRelationBS());
+		if (head == null)
+			heads.put(rule.getHeadRelationBS(), head = new Head());
+		Bucket bucket = head.buckets.get(rule.getGeneration());
+		if (bucket == null)
+			head.buckets.put(rule.getGeneration(), bucket = new Bucket());
+		if (!bucket.queued.add(rule))
+			return (false);
+		bucket.rules.add(rule);
+		++size;
+		return (true);
+	}
+
+	/**
+	 * It returns true if the rule must wait for a rule with its head relation which is
+	 * being processed and could subsume it.
+	 */
+	private static boolean mustWait(Rule rule, Head head) {
+		for (Rule other : head.processing) {
+			if (other.getGeneration() < rule.getGeneration()
+					&& other.getSupport() >= rule.getSupport())
+				return (true);
+		}
+		return (false);
+	}
+
+	/**
+	 * It removes and returns the best rule that does not have to wait for the rules
+	 * being processed, null if there is none. Only the best rule of each bucket is
+	 * considered: if it must wait, so do the other rules of the bucket, which have
+	 * the same generation and at most its support.
+	 */
+	private Rule poll() {
+		Rule result = null;
+		Bucket resultBucket = null;
+		for (Head head : heads.values()) {
+			for (Bucket bucket : head.buckets.values()) {
+				Rule rule = bucket.rules.peek();
+				if (rule == null || mustWait(rule, head))
+					continue;
+				if (result == null || bestFirstOrder.compare(rule, result) < 0) {
+					result = rule;
+					resultBucket = bucket;
+				}
+			}
+		}
+		if (result != null) {
+			resultBucket.rules.poll();
+			++resultBucket.processing;
+			heads.get(result.getHeadRelationBS()).processing.add(result);
+			--size;
+			++processing;
+		}
+		return (result);
+	}
+
+	/**
+	 * It marks the rule as processed and drops the buckets of its head relation
+	 * that can no longer receive rules.
+	 */
+	private void done(Rule rule) {
+		Head head = heads.get(rule.getHeadRelationBS());
+		for (int i = 0; i < head.processing.size(); ++i) {
+			if (head.processing.get(i) == rule) {
+				head.processing.remove(i);
+				break;
+			}
+		}
+		--head.buckets.get(rule.getGeneration()).processing;
+		--processing;
+		Iterator<Bucket> buckets = head.buckets.values().iterator();
+		while (buckets.hasNext()) {
+			Bucket bucket = buckets.next();
+			if (!bucket.rules.isEmpty() || bucket.processing > 0)
+				break;
+			buckets.remove();
+		}
+		if (head.buckets.isEmpty())
+			heads.remove(rule.getHeadRelationBS());
+	}
+
+	@Override
+	public Rule dequeue() throws InterruptedException {
+		lock.lock();
+		try {
+			Rule done = current.get();
+			if (done != null) {
+				current.remove();
+				done(done);
+				available.signalAll();
+			}
+			while (true) {
+				Rule rule = poll();
+				if (rule != null) {
+					current.set(rule);
+					return (rule);
+				}
+				if (size == 0 && processing == 0) {
+					// Nothing left and no thread can produce new rules
+					available.signalAll();
+					return (null);
+				}
+				available.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void decrementMaxThreads() {
+	}
+}
@@ -0,0 +1,41 @@
+package amie.mining;
+
+import java.util.Collection;
+
+import amie.rules.Rule;
+
+/**
+ * Queue of the rules to refine, shared by the mining threads. A thread retrieves a rule
+ * with dequeue, refines it and queues its specializations. The rule is considered processed
+ * when the thread calls dequeue again.
+ *
+ * @author lgalarra
+ *
+ */
+public interface RuleQueue {
+
+	/**
+	 * Adds a specialization of the rule being processed by the calling thread.
+	 * @param rule
+	 */
+	public void queue(Rule rule);
+
+	/**
+	 * Adds a collection of specializations of the rule being processed by the calling thread.
+	 * @param rules
+	 */
+	public void queueAll(Collection<Rule> rules);
+
+	/**
+	 * Retrieves and removes the next rule to refine. It blocks until a rule
+	 * is available.
+	 * @return A rule or null if there are no more rules to refine.
+	 * @throws InterruptedException
+	 */
+	public Rule dequeue() throws InterruptedException;
+
+	/**
+	 * Called by a thread that got null from dequeue before it stops.
+	 */
+	public void decrementMaxThreads();
+}
@@ -0,0 +1,28 @@
+package amie.mining;
+
+import java.io.IOException;
+
+import amie.rules.Rule;
+
+/**
+ * Destination of the rules output by AMIE. The mining threads call write for every new
+ * rule, so implementations must not block on I/O.
+ *
+ * @author lgalarra
+ *
+ */
+public interface RuleSink {
+
+	/**
+	 * Adds a rule to the output. The metrics of the rule must not change afterwards.
+	 * @param rule
+	 */
+	public void write(Rule rule);
+
+	/**
+	 * Writes all the pending rules and releases the resources of the sink. No rules can
+	 * be written afterwards.
+	 * @throws IOException If the rules could not be written
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,220 @@
+package amie.mining;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javatools.datatypes.ByteString;
+import amie.rules.Rule;
+
+/**
+ * A queue with one deque per thread and work stealing. Unlike AMIEQueue, it does not
+ * wait for all the rules of a generation before starting the next one. The breadth-first
+ * order is only enforced among the rules with the same head relation: a rule of generation n
+ * is refined once all the rules of generation n - 1 with its head relation have been
+ * processed. This is what setAdditionalParents requires, since the parents of a rule
+ * have its head relation, and the specializations of a rule never change its head.
+ *
+ * Specializations are buffered, and deduplicated, per head relation until their generation
+ * starts. They are then pushed to the deque of the thread that processed the last rule
+ * of the previous generation. Idle threads steal from the other deques.
+ *
+ * @author lgalarra
+ *
+ */
+public final class WorkStealingQueue implements RuleQueue {
+
+	/**
+	 * Rules of one head relation.
+	 */
+	private static final class HeadState {
+		/** Rules of the current generation that are queued or being processed **/
+		int pending;
+
+		/** Rules of the next generation **/
+		LinkedHashSet<Rule> next = new LinkedHashSet<>();
+	}
+
+	private final Map<ByteString, HeadState> heads = new ConcurrentHashMap<>();
+
+	private final List<ConcurrentLinkedDeque<Rule>> deques = new ArrayList<>();
+
+	private final AtomicInteger nextDeque = new AtomicInteger();
+
+	/** Deque of each thread **/
+	private final ThreadLocal<Integer> dequeIndex = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return (nextDeque.getAndIncrement() % deques.size());
+		}
+	};
+
+	/** Rule being processed by each thread **/
+	private final ThreadLocal<Rule> current = new ThreadLocal<>();
+
+	/** Rules queued and not yet processed, including those being processed **/
+	private final AtomicLong outstanding = new AtomicLong();
+
+	private final AtomicLong steals = new AtomicLong();
+
+	private final Lock lock = new ReentrantLock();
+
+	private final Condition idle = lock.newCondition();
+
+	public WorkStealingQueue(Collection<Rule> seeds, int maxThreads) {
+		for (int i = 0; i < Math.max(1, maxThreads); ++i) {
+			deques.add(new ConcurrentLinkedDeque<Rule>());
+		}
+		int i = 0;
+		for (Rule seed : seeds) {
+			HeadState state = head(seed);
+			seed.setGeneration(1);
+			++state.pending;
+			outstanding.incrementAndGet();
+			deques.get(i++ % deques.size()).add(seed);
+		}
+	}
+
+	private HeadState head(Rule rule) {
+		ByteString relation = rule.getHeadRelationBS();
+		HeadState state = heads.get(relation);
+		if (state == null) {
+			synchronized (heads) {
+				state = heads.get(relation);
+				if (state == null)
+					heads.put(relation, state = new HeadState());
+			}
+		}
+		return (state);
+	}
+
+	@Override
+	public void queue(Rule rule) {
+		Rule parent = current.get();
+		rule.setGeneration(parent == null ? 2 : parent.getGeneration() + 1);
+		HeadState state = head(rule);
+		boolean start = false;
+		synchronized (state) {
+			if (state.pending == 0) {
+				// No rule of this head is being processed, the rule starts a generation
+				state.pending = 1;
+				start = true;
+				outstanding.incrementAndGet();
+			} else if (state.next.add(rule)) {
+				outstanding.incrementAndGet();
+			}
+		}
+		if (start) {
+			deques.get(dequeIndex.get()).add(rule);
+			lock.lock();
+			idle.signalAll();
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void queueAll(Collection<Rule> rules) {
+		for (Rule rule : rules) {
+			queue(rule);
+		}
+	}
+
+	@Override
+	public Rule dequeue() throws InterruptedException {
+		ConcurrentLinkedDeque<Rule> deque = deques.get(dequeIndex.get());
+		Rule done = current.get();
+		if (done != null) {
+			current.remove();
+			finish(done, deque);
+		}
+		while (true) {
+			Rule rule = deque.pollFirst();
+			if (rule == null)
+				rule = steal();
+			if (rule != null) {
+				current.set(rule);
+				return (rule);
+			}
+			lock.lock();
+			try {
+				while (!hasWork() && outstanding.get() > 0)
+					idle.await();
+				if (outstanding.get() == 0)
+					return (null);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * It marks the rule as processed. If it was the last rule of its generation for its
+	 * head relation, the next generation starts.
+	 */
+	private void finish(Rule rule, ConcurrentLinkedDeque<Rule> deque) {
+		HeadState state = head(rule);
+		List<Rule> promoted = null;
+		synchronized (state) {
+			if (--state.pending == 0 && !state.next.isEmpty()) {
+				promoted = new ArrayList<>(state.next);
+				state.next = new LinkedHashSet<>();
+				state.pending = promoted.size();
+			}
+		}
+		if (promoted != null)
+			deque.addAll(promoted);
+		if (outstanding.decrementAndGet() == 0 || promoted != null) {
+			lock.lock();
+			idle.signalAll();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * It takes a rule from the tail of another deque.
+	 */
+	private Rule steal() {
+		int start = dequeIndex.get();
+		for (int i = 1; i < deques.size(); ++i) {
+			Rule rule = deques.get((start + i) % deques.size()).pollLast();
+			if (rule != null) {
+				steals.incrementAndGet();
+				return (rule);
+			}
+		}
+		return (null);
+	}
+
+	private boolean hasWork() {
+		for (ConcurrentLinkedDeque<Rule> deque : deques) {
+			if (!deque.isEmpty())
+				return (true);
+		}
+		return (false);
+	}
+
+	@Override
+	public void decrementMaxThreads() {
+		// Threads are not counted, the queue is exhausted when no rules are outstanding
+	}
+
+	public boolean isEmpty() {
+		return (outstanding.get() == 0);
+	}
+
+	/**
+	 * Number of rules taken from the deque of another thread.
+	 */
+	public long getSteals() {
+		return (steals.get());
+	}
+}
@@ -6,8 +6,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javatools.datatypes.ByteString;
 import javatools.datatypes.IntHashMap;
@@ -105,8 +107,6 @@ public class DefaultMiningAssistant extends MiningAssistant{
 			return;
 		}
 		
-		int nPatterns = rule.getTriples().size();
-
 		if(rule.isEmpty())
 			return;
 		
@@ -147,6 +147,24 @@ public class DefaultMiningAssistant extends MiningAssistant{
 		ByteString[] newEdge = rule.fullyUnboundTriplePattern();
 		ByteString relationVariable = newEdge[1];
 		
+		List<ByteString[]> newEdges = new ArrayList<>();
+		List<Integer> bindingPositions = new ArrayList<>();
+		for(Pair<Integer, Integer> varSetup: varSetups){
+			for(ByteString sourceVariable: sourceVariables){
+				for(ByteString variable: targetVariables){
+					if(!variable.equals(sourceVariable)){
+						ByteString[] edge = newEdge.clone();
+						edge[varSetup.first.intValue()] = sourceVariable;
+						edge[varSetup.second.intValue()] = variable;
+						newEdges.add(edge);
+						bindingPositions.add(varSetup.second);
+					}
+				}
+			}
+		}
+		Iterator<IntHashMap<ByteString>> bindings = projectionBindingsOf(rule, newEdges, bindingPositions, 
+				this.enabledFunctionalityHeuristic && this.enableQueryRewriting).iterator();
+		
 		for(Pair<Integer, Integer> varSetup: varSetups){			
 			int joinPosition = varSetup.first.intValue();
 			int closeCirclePosition = varSetup.second.intValue();
@@ -159,29 +177,7 @@ public class DefaultMiningAssistant extends MiningAssistant{
 				for(ByteString variable: targetVariables){
 					if(!variable.equals(sourceVariable)){
 						newEdge[closeCirclePosition] = variable;
-						
-						rule.getTriples().add(newEdge);
-						IntHashMap<ByteString> promisingRelations = null;
-						if (this.enabledFunctionalityHeuristic && this.enableQueryRewriting) {
-							Rule rewrittenQuery = rewriteProjectionQuery(rule, nPatterns, closeCirclePosition);
-							if(rewrittenQuery == null){
-								long t1 = System.currentTimeMillis();
-								promisingRelations = kb.countProjectionBindings(rule.getHead(), rule.getAntecedent(), newEdge[1]);
-								long t2 = System.currentTimeMillis();
-								if((t2 - t1) > 20000 && this.verbose)
-									System.err.println("countProjectionBindings var=" + newEdge[1] + " "  + rule + " has taken " + (t2 - t1) + " ms");
-							}else{
-								System.out.println(rewrittenQuery + " is a rewrite of " + rule);
-								long t1 = System.currentTimeMillis();
-								promisingRelations = kb.countProjectionBindings(rewrittenQuery.getHead(), rewrittenQuery.getAntecedent(), newEdge[1]);
-								long t2 = System.currentTimeMillis();
-								if((t2 - t1) > 20000 && this.verbose)
-									System.err.println("countProjectionBindings on rewritten query var=" + newEdge[1] + " "  + rewrittenQuery + " has taken " + (t2 - t1) + " ms");						
-							}
-						} else {
-							promisingRelations = this.kb.countProjectionBindings(rule.getHead(), rule.getAntecedent(), newEdge[1]);
-						}
-						rule.getTriples().remove(nPatterns);
+						IntHashMap<ByteString> promisingRelations = bindings.next();
 						List<ByteString> listOfPromisingRelations = promisingRelations.decreasingKeys();
 						for(ByteString relation: listOfPromisingRelations){
 							int cardinality = promisingRelations.get(relation);
@@ -274,36 +270,25 @@ public class DefaultMiningAssistant extends MiningAssistant{
 			joinVariables = openVariables;
 		}
 		
-		int nPatterns = query.getLength();
+		List<ByteString[]> newEdges = new ArrayList<>();
+		List<Integer> bindingPositions = new ArrayList<>();
+		for(int joinPosition = 0; joinPosition <= 2; joinPosition += 2){
+			for(ByteString joinVariable: joinVariables){
+				ByteString[] newEdge = edge.clone();
+				newEdge[joinPosition] = joinVariable;
+				newEdges.add(newEdge);
+				bindingPositions.add(joinPosition);
+			}
+		}
+		Iterator<IntHashMap<ByteString>> bindings = projectionBindingsOf(query, newEdges, bindingPositions, 
+				this.enableQueryRewriting).iterator();
 		
 		for(int joinPosition = 0; joinPosition <= 2; joinPosition += 2){			
 			for(ByteString joinVariable: joinVariables){
 				ByteString[] newEdge = edge.clone();
 				
 				newEdge[joinPosition] = joinVariable;
-				query.getTriples().add(newEdge);
-				IntHashMap<ByteString> promisingRelations = null;
-				Rule rewrittenQuery = null;
-				if (this.enableQueryRewriting) {
-					rewrittenQuery = rewriteProjectionQuery(query, nPatterns, joinPosition == 0 ? 0 : 2);	
-				}
-				
-				if(rewrittenQuery == null){
-					long t1 = System.currentTimeMillis();
-					promisingRelations = this.kb.countProjectionBindings(query.getHead(), query.getAntecedent(), newEdge[1]);
-					long t2 = System.currentTimeMillis();
-					if((t2 - t1) > 20000 && this.verbose) {
-						System.err.println("countProjectionBindings var=" + newEdge[1] + " "  + query + " has taken " + (t2 - t1) + " ms");
-					}
-				}else{
-					long t1 = System.currentTimeMillis();
-					promisingRelations = this.kb.countProjectionBindings(rewrittenQuery.getHead(), rewrittenQuery.getAntecedent(), newEdge[1]);
-					long t2 = System.currentTimeMillis();
-					if((t2 - t1) > 20000 && this.verbose)
-					System.err.println("countProjectionBindings on rewritten query var=" + newEdge[1] + " "  + rewrittenQuery + " has taken " + (t2 - t1) + " ms");						
-				}
-				
-				query.getTriples().remove(nPatterns);					
+				IntHashMap<ByteString> promisingRelations = bindings.next();
 				int danglingPosition = (joinPosition == 0 ? 2 : 0);
 				boolean boundHead = !KB.isVariable(query.getTriples().get(0)[danglingPosition]);
 				List<ByteString> listOfPromisingRelations = promisingRelations.decreasingKeys();				
@@ -463,6 +448,56 @@ public class DefaultMiningAssistant extends MiningAssistant{
 		}
 	}
 	
+	/**
+	 * It returns, for each of the atoms, the relations that can be added to the rule as the
+	 * atom with their support. The counts of the different atoms run in parallel if the
+	 * assistant refines rules in parallel.
+	 * @param rule
+	 * @param atoms Atoms with a variable in the relation position
+	 * @param bindingPositions For each atom, the position of the variable used to rewrite 
+	 * the query (see rewriteProjectionQuery)
+	 * @param rewrite If true, the queries are rewritten when possible
+	 * @return
+	 */
+	protected List<IntHashMap<ByteString>> projectionBindingsOf(final Rule rule, List<ByteString[]> atoms, 
+			List<Integer> bindingPositions, final boolean rewrite) {
+		final int nPatterns = rule.getTriples().size();
+		List<Callable<IntHashMap<ByteString>>> tasks = new ArrayList<>();
+		for (int i = 0; i < atoms.size(); ++i) {
+			final ByteString[] atom = atoms.get(i);
+			final int bindingPosition = bindingPositions.get(i);
+			tasks.add(new Callable<IntHashMap<ByteString>>() {
+				@Override
+				public IntHashMap<ByteString> call() {
+					// The KB instantiates the atoms of the query, so each task has its own copy
+					Rule query = rule.addAtom(atom, rule.getSupport());
+					Rule rewrittenQuery = null;
+					if (rewrite) {
+						rewrittenQuery = rewriteProjectionQuery(query, nPatterns, bindingPosition);
+					}
+					
+					long t1 = System.currentTimeMillis();
+					IntHashMap<ByteString> promisingRelations = null;
+					if(rewrittenQuery == null){
+						promisingRelations = kb.countProjectionBindings(query.getHead(), query.getAntecedent(), atom[1]);
+					}else{
+						promisingRelations = kb.countProjectionBindings(rewrittenQuery.getHead(), rewrittenQuery.getAntecedent(), atom[1]);
+					}
+					long t2 = System.currentTimeMillis();
+					if((t2 - t1) > 20000 && verbose) {
+						if (rewrittenQuery == null) {
+							System.err.println("countProjectionBindings var=" + atom[1] + " "  + query + " has taken " + (t2 - t1) + " ms");
+						} else {
+							System.err.println("countProjectionBindings on rewritten query var=" + atom[1] + " "  + rewrittenQuery + " has taken " + (t2 - t1) + " ms");
+						}
+					}
+					return promisingRelations;
+				}
+			});
+		}
+		return runAll(tasks);
+	}
+	
 	/**
 	 * It identifies redundant patterns in queries and rewrites them accordingly 
 	 * so that they become less expensive to evaluate. This function targets exclusively queries
@@ -532,8 +567,21 @@ public class DefaultMiningAssistant extends MiningAssistant{
 	 * @return
 	 */
 	protected long computeBodySize(ByteString var1, ByteString var2, Rule query){
+		return (computeBodySize(var1, var2, query, Long.MAX_VALUE));
+	}
+	
+	/**
+	 * Returns the number of distinct bindings of the given variables in the body of the rule,
+	 * counted up to the given limit.
+	 * @param var1
+	 * @param var2
+	 * @param query
+	 * @param limit
+	 * @return
+	 */
+	protected long computeBodySize(ByteString var1, ByteString var2, Rule query, long limit){
 		long t1 = System.currentTimeMillis();		
-		long result = this.kb.countDistinctPairs(var1, var2, query.getAntecedent());
+		long result = this.kb.countDistinctPairsAtMost(var1, var2, query.getAntecedent(), limit);
 		long t2 = System.currentTimeMillis();	
 		query.setPcaConfidenceRunningTime(t2 - t1);
 		if((t2 - t1) > 20000 && this.verbose) {
@@ -614,9 +662,11 @@ public class DefaultMiningAssistant extends MiningAssistant{
 			antecedent.add(existentialTriple);
 			try{
 				if (noOfHeadVars == 1) {
-					pcaDenominator = (double) this.kb.countDistinct(rule.getFunctionalVariable(), antecedent);
+					pcaDenominator = (double) this.kb.countDistinctAtMost(rule.getFunctionalVariable(), 
+							antecedent, bodySizeLimit(rule, getPcaConfidenceThreshold(rule)));
 				} else {
-					pcaDenominator = (double) this.kb.countDistinctPairs(succedent[0], succedent[2], antecedent);					
+					pcaDenominator = (double) this.kb.countDistinctPairsAtMost(succedent[0], succedent[2], 
+							antecedent, bodySizeLimit(rule, getPcaConfidenceThreshold(rule)));					
 				}
 				rule.setPcaBodySize(pcaDenominator);
 			}catch(UnsupportedOperationException e){
@@ -645,9 +695,11 @@ public class DefaultMiningAssistant extends MiningAssistant{
 					ByteString var1, var2;
 					var1 = head[KB.firstVariablePos(head)];
 					var2 = head[KB.secondVariablePos(head)];
-					denominator = (double) computeBodySize(var1, var2, candidate);
+					denominator = (double) computeBodySize(var1, var2, candidate, 
+							bodySizeLimit(candidate, minStdConfidence));
 				} else {					
-					denominator = (double) this.kb.countDistinct(candidate.getFunctionalVariable(), antecedent);
+					denominator = (double) this.kb.countDistinctAtMost(candidate.getFunctionalVariable(), 
+							antecedent, bodySizeLimit(candidate, minStdConfidence));
 				}				
 				candidate.setBodySize((long)denominator);
 			}catch(UnsupportedOperationException e){
@@ -1,24 +1,29 @@
 package amie.mining.assistant;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import amie.data.KB;
 import amie.rules.ConfidenceMetric;
 import amie.rules.Metric;
 import amie.rules.Rule;
+import amie.rules.SubsumptionIndex;
+import amie.rules.TopKRules;
 import javatools.datatypes.ByteString;
 import javatools.datatypes.IntHashMap;
-import javatools.datatypes.MultiMap;
 import javatools.datatypes.Pair;
 
 /**
@@ -188,7 +193,17 @@ public class MiningAssistant{
     /**
      * Sequence of mining operators to be applied to a rule.
      */
-    private LinkedList<Method> miningOperators;
+    private OperatorPipeline miningOperators;
+    
+    /**
+     * Pool used to refine a single rule in parallel, null if rules are refined sequentially.
+     */
+    private volatile ForkJoinPool operatorPool;
+    
+    /**
+     * The best rules found so far in the top-k mining mode, null otherwise. 
+     */
+    private TopKRules topK;
 	
 	
 	/**
@@ -220,89 +235,25 @@ public class MiningAssistant{
 		this.datalogNotation = false;
 		this.ommitStdConfidence = false;
 		buildRelationsDictionary();
-		this.miningOperators = new LinkedList<>();
 		computeOperatorHierarchy();
 	}	
 	
 	/**
-	 * Hierarchy of operators. If an operator is the parent of another operator, then it 
-	 * will be called before this operator and its output will be sent as argument 
-	 * to the child operator. For example the standard operator "dangling" is the parent of 
-	 * the "instantiated" operator because the latter depends on the output of the first one.
-	 * @author galarrag
-	 *
+	 * This method precomputes the order in which the mining operators will be 
+	 * called by AMIE. If an operator depends on another operator, then it 
+	 * will be called after this operator and its output will be sent as argument 
+	 * to the dependent operator. For example the standard operator "instantiated" depends on
+	 * "dangling" because it refines the output of the latter.
 	 */
-	class OperatorDependencyTree {
-		HashMap<Method, OperatorDependencyTree> tree;
-		
-		public OperatorDependencyTree() {
-			tree = new HashMap<>();
-		}
-		
-		public void addMethod(Method m) {
-			tree.put(m, new OperatorDependencyTree());
-		}
-		
-		public void addMethod(Method m, String parentId) {
-			OperatorDependencyTree parent = find(parentId);
-			if (parent != null)
-				parent.addMethod(m);
-		}
-
-		private OperatorDependencyTree find(String parentId) {
-			for (Method m : tree.keySet()) {
-				MiningOperator annotInstance = m.getAnnotation(MiningOperator.class);
-                if (annotInstance.name().equals(parentId)) {         
-                    return tree.get(m);
-                } else {
-                	OperatorDependencyTree child = tree.get(m).find(parentId);
-                	if (child != null)
-                		return child;
-                }
-			}
-			
-			return null;
-		}
-
-		/**
-		 * It performs a depth-first search to determine the order in which the operators
-		 * will be invoked.
-		 * @param output
-		 */
-		public void traverse(LinkedList<Method> output) {
-			for (Method m : tree.keySet()) {
-				output.add(m);
-				tree.get(m).traverse(output);
-			}
-		}
+	private void computeOperatorHierarchy() {
+		this.miningOperators = OperatorPipeline.compile(this);
 	}
 	
 	/**
-	 * This method precomputes the order in which the mining operators will be 
-	 * called by AMIE.
-	 * 
+	 * The mining operators applied to each rule, in order.
 	 */
-	private void computeOperatorHierarchy() {
-	    Class<?> klass = this.getClass();
-	    OperatorDependencyTree opTree = new OperatorDependencyTree();
-	    while (klass != Object.class) { // need to iterated thought hierarchy in order to retrieve methods from above the current instance
-	        // iterate though the list of methods declared in the class represented by klass variable, and add those annotated with the specified annotation
-	        final List<Method> allMethods = new ArrayList<Method>(Arrays.asList(klass.getDeclaredMethods()));
-	        for (final Method method : allMethods) {
-	            if (method.isAnnotationPresent(MiningOperator.class)) {         
-	            	MiningOperator annotInstance = method.getAnnotation(MiningOperator.class);
-	            	if (annotInstance.dependency().equals("")) {
-	            		opTree.addMethod(method);
-	            	} else {
-	            		opTree.addMethod(method, annotInstance.dependency());
-	            	}
-	            }
-	        }
-	        // move to the upper class in the hierarchy in search for more methods
-	        klass = klass.getSuperclass();
-	    }
-	    
-	    opTree.traverse(this.miningOperators);
+	public OperatorPipeline getMiningOperators() {
+		return miningOperators;
 	}
 	
 	/**
@@ -379,6 +330,33 @@ public class MiningAssistant{
 	public void setPcaConfidenceThreshold(double minConfidence) {
 		this.minPcaConfidence = minConfidence;
 	}
+	
+	/**
+	 * It returns the minimum PCA confidence of the given rule. In the top-k mining mode
+	 * this is the confidence of the k-th best rule with the same head relation, 
+	 * if higher than minPcaConfidence.
+	 * @param rule
+	 * @return
+	 */
+	public double getPcaConfidenceThreshold(Rule rule) {
+		if (topK == null) {
+			return minPcaConfidence;
+		}
+		return Math.max(minPcaConfidence, topK.getPcaConfidenceThreshold(rule));
+	}
+	
+	public TopKRules getTopK() {
+		return topK;
+	}
+
+	/**
+	 * It enables the top-k mining mode. The confidence of the rules in topK is used as 
+	 * PCA confidence threshold (see getPcaConfidenceThreshold(Rule)).
+	 * @param topK The best rules found so far, null to disable the mode.
+	 */
+	public void setTopK(TopKRules topK) {
+		this.topK = topK;
+	}
 
 	/**
 	 * @param minConfidence the minConfidence to set
@@ -584,18 +562,24 @@ public class MiningAssistant{
 			joinVariables = rule.getOpenVariables();
 		}
 
-		int nPatterns = rule.getTriples().size();
 		ByteString originalRelationVariable = newEdge[1];		
 		
+		List<ByteString[]> newEdges = new ArrayList<>();
+		for(int joinPosition = 0; joinPosition <= 2; joinPosition += 2){
+			for(ByteString joinVariable: joinVariables){
+				ByteString[] edge = newEdge.clone();
+				edge[joinPosition] = joinVariable;
+				newEdges.add(edge);
+			}
+		}
+		Iterator<IntHashMap<ByteString>> bindings = frequentBindingsOf(rule, newEdges).iterator();
+		
 		for(int joinPosition = 0; joinPosition <= 2; joinPosition += 2){
 			ByteString originalFreshVariable = newEdge[joinPosition];
 			
 			for(ByteString joinVariable: joinVariables){					
 				newEdge[joinPosition] = joinVariable;
-				rule.getTriples().add(newEdge);
-				IntHashMap<ByteString> promisingRelations = kb.frequentBindingsOf(newEdge[1], 
-						rule.getFunctionalVariable(), rule.getTriples());
-				rule.getTriples().remove(nPatterns);
+				IntHashMap<ByteString> promisingRelations = bindings.next();
 				
 				int danglingPosition = (joinPosition == 0 ? 2 : 0);
 				boolean boundHead = !KB.isVariable(rule.getTriples().get(0)[danglingPosition]);
@@ -611,7 +595,7 @@ public class MiningAssistant{
 						if(candidate.containsUnifiablePatterns()){
 							//Verify whether dangling variable unifies to a single value (I do not like this hack)
 							if(boundHead && 
-									kb.countDistinct(newEdge[danglingPosition], candidate.getTriples()) < 2)
+									!kb.countDistinctAtLeast(newEdge[danglingPosition], candidate.getTriples(), 2))
 								continue;
 						}
 						
@@ -673,8 +657,6 @@ public class MiningAssistant{
 			return;
 		}
 		
-		int nPatterns = rule.getTriples().size();
-
 		if(rule.isEmpty())
 			return;
 		
@@ -697,6 +679,21 @@ public class MiningAssistant{
 		ByteString[] newEdge = rule.fullyUnboundTriplePattern();
 		ByteString relationVariable = newEdge[1];
 		
+		List<ByteString[]> newEdges = new ArrayList<>();
+		for(Pair<Integer, Integer> varSetup: varSetups){
+			for(ByteString sourceVariable: sourceVariables){
+				for(ByteString variable: allVariables){
+					if(!variable.equals(sourceVariable)){
+						ByteString[] edge = newEdge.clone();
+						edge[varSetup.first.intValue()] = sourceVariable;
+						edge[varSetup.second.intValue()] = variable;
+						newEdges.add(edge);
+					}
+				}
+			}
+		}
+		Iterator<IntHashMap<ByteString>> bindings = frequentBindingsOf(rule, newEdges).iterator();
+		
 		for(Pair<Integer, Integer> varSetup: varSetups){			
 			int joinPosition = varSetup.first.intValue();
 			int closeCirclePosition = varSetup.second.intValue();
@@ -709,11 +706,7 @@ public class MiningAssistant{
 				for(ByteString variable: allVariables){
 					if(!variable.equals(sourceVariable)){
 						newEdge[closeCirclePosition] = variable;
-						
-						rule.getTriples().add(newEdge);
-						IntHashMap<ByteString> promisingRelations = 
-								kb.frequentBindingsOf(newEdge[1], rule.getFunctionalVariable(), rule.getTriples());
-						rule.getTriples().remove(nPatterns);
+						IntHashMap<ByteString> promisingRelations = bindings.next();
 						
 						for(ByteString relation: promisingRelations){
 							if(bodyExcludedRelations != null && bodyExcludedRelations.contains(relation))
@@ -877,7 +870,7 @@ public class MiningAssistant{
 		hardQueryInfo = kb.identifyHardQueryTypeI(candidate.getAntecedent());
 		if(hardQueryInfo != null){
 			double pcaConfUpperBound = getPcaConfidenceUpperBound(candidate);			
-			if(pcaConfUpperBound < this.minPcaConfidence){
+			if(pcaConfUpperBound < getPcaConfidenceThreshold(candidate)){
 				if (this.verbose) {
 					System.err.println("Query " + candidate + 
 							" discarded by PCA confidence upper bound " + pcaConfUpperBound);			
@@ -953,7 +946,7 @@ public class MiningAssistant{
 		
 		double estimatedPCA = (double)candidate.getSupport() / denominator;
 		candidate.setPcaEstimation(estimatedPCA);
-		if (estimatedPCA < this.minPcaConfidence) {
+		if (estimatedPCA < getPcaConfidenceThreshold(candidate)) {
 			if (!this.verbose) {
 				System.err.println("Query " + candidate + " discarded by functionality heuristic with ratio " + estimatedPCA);
 			}							
@@ -1055,7 +1048,7 @@ public class MiningAssistant{
 				double ratio = overlapHead * f4 * (ifuncOutputRelation / funcOutputRelation);
 				ratio = (double)candidate.getSupport() / ratio;
 				candidate.setPcaEstimation(ratio);
-				if(ratio < minPcaConfidence) { 
+				if(ratio < getPcaConfidenceThreshold(candidate)) { 
 					if (this.verbose) {
 						System.err.println("Rule " + candidate + 
 								" discarded by functionality heuristic with ratio " + ratio);
@@ -1083,7 +1076,7 @@ public class MiningAssistant{
 		}	
 		
 		if(candidate.getStdConfidence() >= minStdConfidence 
-				&& candidate.getPcaConfidence() >= minPcaConfidence){
+				&& candidate.getPcaConfidence() >= getPcaConfidenceThreshold(candidate)){
 			//Now check the confidence with respect to its ancestors
 			List<Rule> ancestors = candidate.getAncestors();			
 			for(int i = 0; i < ancestors.size(); ++i){
@@ -1254,7 +1247,8 @@ public class MiningAssistant{
 			//Improved confidence: Add an existential version of the head
 			antecedent.add(existentialTriple);
 			try{
-				pcaDenominator = kb.countDistinct(rule.getFunctionalVariable(), antecedent);
+				pcaDenominator = kb.countDistinctAtMost(rule.getFunctionalVariable(), antecedent, 
+						bodySizeLimit(rule, getPcaConfidenceThreshold(rule)));
 				rule.setPcaBodySize(pcaDenominator);
 			}catch(UnsupportedOperationException e){
 				
@@ -1264,6 +1258,20 @@ public class MiningAssistant{
 		return rule.getPcaConfidence();
 	}
 	
+	/**
+	 * It returns the smallest body size for which the rule would fall below the
+	 * given confidence threshold. Body sizes do not need to be counted beyond this
+	 * value: the rule is discarded anyway and the confidence stays below the threshold.
+	 * @param rule A rule whose support is known
+	 * @param minConfidence
+	 * @return
+	 */
+	protected long bodySizeLimit(Rule rule, double minConfidence) {
+		if (minConfidence <= 0.0)
+			return (Long.MAX_VALUE);
+		return ((long) Math.floor(rule.getSupport() / minConfidence) + 1);
+	}
+	
 	/**
 	 * It computes the standard confidence of the given rule based on the evidence in database.
 	 * The value is both returned and set to the rule
@@ -1279,7 +1287,8 @@ public class MiningAssistant{
 		if(!antecedent.isEmpty()) {
 			//Confidence
 			try{
-				denominator = kb.countDistinct(candidate.getFunctionalVariable(), antecedent);
+				denominator = kb.countDistinctAtMost(candidate.getFunctionalVariable(), antecedent, 
+						bodySizeLimit(candidate, minStdConfidence));
 				candidate.setBodySize(denominator);
 			} catch(UnsupportedOperationException e) {
 				
@@ -1296,24 +1305,11 @@ public class MiningAssistant{
      * of X => Y)
      *
      * @param currentRule
+     * @param outputIndex
      */
-    public void setAdditionalParents(Rule currentRule, MultiMap<Integer, Rule> indexedOutputSet) {
-        int currentGeneration = currentRule.getGeneration();
-        int offset = 1;
-        // Go up until you find a parent that was output
-        while (currentGeneration - offset > 1) {
-        	int generation = currentGeneration - offset;
-            int parentHashCode = Rule.headAndGenerationHashCode(currentRule.getHeadKey(), generation);
-            Set<Rule> candidateParentsOfGeneration = indexedOutputSet.get(parentHashCode);
-            
-            if (candidateParentsOfGeneration != null) {
-	            for (Rule parent : candidateParentsOfGeneration) {
-	                if (parent.subsumes(currentRule)) {
-	                	currentRule.addParent(parent);
-	                }
-	            }
-        	}
-            ++offset;
+    public void setAdditionalParents(Rule currentRule, SubsumptionIndex outputIndex) {
+        for (Rule parent : outputIndex.getSubsumingRules(currentRule, currentRule.getGeneration())) {
+        	currentRule.addParent(parent);
         }
     }
     
@@ -1356,21 +1352,183 @@ public class MiningAssistant{
 	 */
 	public Map<String, Collection<Rule>> applyMiningOperators(Rule currentRule, double threshold) 
 			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-		Map<String, Collection<Rule>> temporalResultsMap = new LinkedHashMap<>();
-		for (Method m: this.miningOperators) {
-			MiningOperator mo = m.getAnnotation(MiningOperator.class);
-			Collection<Rule> tmpResult = new ArrayList<>();
-			if (mo.dependency().equals("")) {
-				m.invoke(this, currentRule, threshold, tmpResult);
-			} else {
-				m.invoke(this, currentRule, threshold, temporalResultsMap.get(mo.dependency()), tmpResult);
+		if (operatorPool != null) {
+			return applyMiningOperatorsInParallel(currentRule, threshold);
+		}
+		
+		return miningOperators.apply(currentRule, threshold);
+	}
+	
+	// ---------------------------------------------------------------------------
+	// Parallel refinement
+	// ---------------------------------------------------------------------------
+	
+	/**
+	 * It sets the number of threads that refine a single rule. The operators that do not depend 
+	 * on each other, as well as the candidate relations of each new atom, are then computed as 
+	 * tasks of a pool shared by all the mining threads.
+	 * @param parallelism Number of threads, 1 or less to refine each rule sequentially
+	 */
+	public void setOperatorParallelism(int parallelism) {
+		ForkJoinPool old = operatorPool;
+		operatorPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		if (old != null)
+			old.shutdown();
+	}
+	
+	public int getOperatorParallelism() {
+		ForkJoinPool pool = operatorPool;
+		return (pool == null ? 1 : pool.getParallelism());
+	}
+	
+	/**
+	 * Parallel version of applyMiningOperators. The operators run in waves: an operator runs
+	 * in the wave after the operator it depends on. Since operators may add atoms to the
+	 * rule temporarily, each operator refines its own copy of the rule. The copy is replaced
+	 * by the rule in the parents of the results.
+	 * @param currentRule
+	 * @param threshold
+	 * @return The results of each operator, in the order of the operators
+	 * @throws InvocationTargetException
+	 */
+	private Map<String, Collection<Rule>> applyMiningOperatorsInParallel(Rule currentRule, 
+			final double threshold) throws InvocationTargetException {
+		final OperatorPipeline pipeline = this.miningOperators;
+		final List<Collection<Rule>> results = new ArrayList<>();
+		for (int i = 0; i < pipeline.size(); ++i) {
+			results.add(null);
+		}
+		Set<Rule> copies = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+		for (int wave = 0; wave < pipeline.getNumberOfWaves(); ++wave) {
+			List<Integer> operators = new ArrayList<>();
+			List<Callable<Collection<Rule>>> tasks = new ArrayList<>();
+			for (int i = 0; i < pipeline.size(); ++i) {
+				if (pipeline.getWave(i) != wave)
+					continue;
+				final int operator = i;
+				final Rule copy = new Rule(currentRule, currentRule.getSupport());
+				final Collection<Rule> dependency = pipeline.getDependency(i) == -1 ? 
+						null : results.get(pipeline.getDependency(i));
+				copies.add(copy);
+				operators.add(i);
+				tasks.add(new Callable<Collection<Rule>>() {
+					@Override
+					public Collection<Rule> call() throws Exception {
+						Collection<Rule> output = new ArrayList<>();
+						pipeline.apply(operator, copy, threshold, dependency, output);
+						return output;
+					}
+				});
 			}
 			
-			temporalResultsMap.put(mo.name(), tmpResult);
+			List<Collection<Rule>> outputs = null;
+			try {
+				outputs = runAll(tasks);
+			} catch (RuntimeException e) {
+				for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+					if (cause instanceof InvocationTargetException)
+						throw (InvocationTargetException) cause;
+				}
+				throw e;
+			}
+			for (int i = 0; i < operators.size(); ++i) {
+				results.set(operators.get(i), outputs.get(i));
+			}
+		}
+		
+		Map<String, Collection<Rule>> temporalResultsMap = new LinkedHashMap<>();
+		for (int i = 0; i < pipeline.size(); ++i) {
+			for (Rule candidate : results.get(i)) {
+				List<Rule> parents = candidate.getAncestors();
+				for (int j = 0; j < parents.size(); ++j) {
+					if (copies.contains(parents.get(j)))
+						parents.set(j, currentRule);
+				}
+			}
+			temporalResultsMap.put(pipeline.getName(i), results.get(i));
 		}
 		
 		return temporalResultsMap;
 	}
+	
+	/**
+	 * It runs the tasks in the operator pool, or one after the other in the calling thread if 
+	 * rules are refined sequentially.
+	 * @param tasks
+	 * @return The results of the tasks, in the same order
+	 */
+	protected <T> List<T> runAll(List<? extends Callable<T>> tasks) {
+		ForkJoinPool pool = operatorPool;
+		List<T> results = new ArrayList<>(tasks.size());
+		if (pool == null || tasks.size() < 2) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return results;
+		}
+		
+		// The tasks issued while evaluating a query are nested queries in the other threads too
+		final int depth = KB.getQueryDepth();
+		final List<ForkJoinTask<T>> forks = new ArrayList<>(tasks.size());
+		for (final Callable<T> task : tasks) {
+			forks.add(ForkJoinTask.adapt(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					int previous = KB.setQueryDepth(depth);
+					try {
+						return task.call();
+					} finally {
+						KB.setQueryDepth(previous);
+					}
+				}
+			}));
+		}
+		if (ForkJoinTask.getPool() == pool) {
+			// Subtask of an operator
+			ForkJoinTask.invokeAll(forks);
+		} else {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(forks);
+				}
+			});
+		}
+		for (ForkJoinTask<T> fork : forks) {
+			results.add(fork.join());
+		}
+		return results;
+	}
+	
+	/**
+	 * It returns, for each of the atoms, the relations that can be added to the rule as the
+	 * atom with their support. The atoms have a variable in the relation position.
+	 * @param rule
+	 * @param atoms
+	 * @return
+	 */
+	protected List<IntHashMap<ByteString>> frequentBindingsOf(final Rule rule, List<ByteString[]> atoms) {
+		List<Callable<IntHashMap<ByteString>>> tasks = new ArrayList<>();
+		for (final ByteString[] atom : atoms) {
+			tasks.add(new Callable<IntHashMap<ByteString>>() {
+				@Override
+				public IntHashMap<ByteString> call() {
+					// The KB instantiates the atoms of the query, so each task has its own copy
+					Rule query = rule.addAtom(atom, rule.getSupport());
+					return kb.frequentBindingsOf(atom[1], query.getFunctionalVariable(), query.getTriples());
+				}
+			});
+		}
+		return runAll(tasks);
+	}
     
 	public void setAllowConstants(boolean allowConstants) {
 		// TODO Auto-generated method stub
@@ -0,0 +1,237 @@
+package amie.mining.assistant;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import amie.metrics.Counter;
+import amie.metrics.Metrics;
+import amie.metrics.Timer;
+import amie.rules.Rule;
+
+/**
+ * The sequence of mining operators applied to a rule. An operator that depends on
+ * another operator, e.g., "instantiated" depends on "dangling", comes after it in the
+ * sequence and receives its output.
+ *
+ * The pipeline of an assistant is built once from the methods annotated with MiningOperator.
+ * The methods are bound to the assistant as method handles, so applying an operator does
+ * not involve reflection.
+ *
+ * The time spent in each operator and the number of rules it produces are recorded in the
+ * metrics "operator.NAME" and "operator.NAME.rules".
+ *
+ * @author lgalarra
+ *
+ */
+public final class OperatorPipeline {
+
+	private static final MethodType OPERATOR =
+			MethodType.methodType(void.class, Rule.class, double.class, Collection.class);
+
+	private static final MethodType DEPENDENT_OPERATOR =
+			MethodType.methodType(void.class, Rule.class, double.class, Collection.class, Collection.class);
+
+	private final List<String> names = new ArrayList<>();
+
+	private final List<RefinementOperator> operators = new ArrayList<>();
+
+	/** Position of the operator each operator depends on, -1 if none **/
+	private final List<Integer> dependencies = new ArrayList<>();
+
+	/** Operators that can run at the same time have the same wave **/
+	private final List<Integer> waves = new ArrayList<>();
+
+	private int nWaves;
+
+	private final List<Timer> timers = new ArrayList<>();
+
+	private final List<Counter> counters = new ArrayList<>();
+
+	/**
+	 * Operator implemented by an annotated method of the assistant.
+	 */
+	private static final class HandleOperator implements RefinementOperator {
+		private final MethodHandle handle;
+
+		private final boolean dependent;
+
+		HandleOperator(MethodHandle handle, boolean dependent) {
+			this.handle = handle;
+			this.dependent = dependent;
+		}
+
+		@Override
+		public void refine(Rule rule, double minSupportThreshold, Collection<Rule> input,
+				Collection<Rule> output) {
+			try {
+				if (dependent) {
+					handle.invokeExact(rule, minSupportThreshold, input, output);
+				} else {
+					handle.invokeExact(rule, minSupportThreshold, output);
+				}
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+	/**
+	 * It builds the pipeline of the methods annotated with MiningOperator in the class of the
+	 * assistant and its superclasses. If several methods have the same operator name, e.g.,
+	 * because a subclass overrides an operator, the most specific one is used. Operators
+	 * whose dependency does not exist are ignored.
+	 * @param assistant
+	 * @return
+	 */
+	public static OperatorPipeline compile(MiningAssistant assistant) {
+		Map<String, Method> methods = new LinkedHashMap<>();
+		for (Class<?> klass = assistant.getClass(); klass != Object.class; klass = klass.getSuperclass()) {
+			for (Method method : klass.getDeclaredMethods()) {
+				MiningOperator annotation = method.getAnnotation(MiningOperator.class);
+				if (annotation != null && !methods.containsKey(annotation.name())) {
+					methods.put(annotation.name(), method);
+				}
+			}
+		}
+
+		OperatorPipeline pipeline = new OperatorPipeline();
+		boolean added = true;
+		// Operators are added once the operator they depend on has been added
+		while (added) {
+			added = false;
+			for (Method method : methods.values()) {
+				MiningOperator annotation = method.getAnnotation(MiningOperator.class);
+				if (pipeline.names.contains(annotation.name()))
+					continue;
+				if (annotation.dependency().equals("")
+						|| pipeline.names.contains(annotation.dependency())) {
+					pipeline.add(annotation.name(), annotation.dependency(),
+							bind(assistant, method, !annotation.dependency().equals("")));
+					added = true;
+				}
+			}
+		}
+		return pipeline;
+	}
+
+	/**
+	 * It turns the method into an operator bound to the assistant. Calls are dispatched
+	 * virtually, as with Method.invoke.
+	 */
+	private static RefinementOperator bind(MiningAssistant assistant, Method method, boolean dependent) {
+		MethodType type = dependent ? DEPENDENT_OPERATOR : OPERATOR;
+		if (method.getParameterTypes().length != type.parameterCount()) {
+			throw new IllegalArgumentException("The method " + method
+					+ " does not have the signature of a mining operator");
+		}
+		try {
+			method.setAccessible(true);
+			MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(assistant);
+			return new HandleOperator(handle.asType(type), dependent);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("The method " + method + " is not accessible", e);
+		}
+	}
+
+	/**
+	 * It adds an operator at the end of the pipeline.
+	 * @param name
+	 * @param dependency Name of the operator it depends on, the empty string if none. It must
+	 * be already in the pipeline.
+	 * @param operator
+	 */
+	public void add(String name, String dependency, RefinementOperator operator) {
+		int dependencyIndex = dependency.equals("") ? -1 : names.indexOf(dependency);
+		if (names.contains(name)) {
+			throw new IllegalArgumentException("The operator " + name + " is already in the pipeline");
+		}
+		if (!dependency.equals("") && dependencyIndex == -1) {
+			throw new IllegalArgumentException("The operator " + name + " depends on "
+					+ dependency + ", which is not in the pipeline");
+		}
+		names.add(name);
+		operators.add(operator);
+		dependencies.add(dependencyIndex);
+		int wave = dependencyIndex == -1 ? 0 : waves.get(dependencyIndex) + 1;
+		waves.add(wave);
+		nWaves = Math.max(nWaves, wave + 1);
+		timers.add(Metrics.timer("operator." + name));
+		counters.add(Metrics.counter("operator." + name + ".rules"));
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String getName(int i) {
+		return names.get(i);
+	}
+
+	/**
+	 * Position of the operator the i-th operator depends on, -1 if none.
+	 */
+	public int getDependency(int i) {
+		return dependencies.get(i);
+	}
+
+	/**
+	 * The i-th operator can run once all the operators of previous waves are done.
+	 */
+	public int getWave(int i) {
+		return waves.get(i);
+	}
+
+	public int getNumberOfWaves() {
+		return nWaves;
+	}
+
+	/**
+	 * It applies the i-th operator.
+	 * @throws InvocationTargetException If the operator throws an exception
+	 */
+	public void apply(int i, Rule rule, double minSupportThreshold, Collection<Rule> input,
+			Collection<Rule> output) throws InvocationTargetException {
+		int outputSize = output.size();
+		long start = timers.get(i).start();
+		try {
+			operators.get(i).refine(rule, minSupportThreshold, input, output);
+		} catch (RuntimeException | Error e) {
+			throw new InvocationTargetException(e);
+		} finally {
+			timers.get(i).stop(start);
+		}
+		counters.get(i).add(output.size() - outputSize);
+	}
+
+	/**
+	 * It applies all the operators to the rule, one after the other.
+	 * @param rule
+	 * @param minSupportThreshold
+	 * @return The output of each operator, in the order of the pipeline
+	 * @throws InvocationTargetException If an operator throws an exception
+	 */
+	public Map<String, Collection<Rule>> apply(Rule rule, double minSupportThreshold)
+			throws InvocationTargetException {
+		List<Collection<Rule>> outputs = new ArrayList<>(size());
+		Map<String, Collection<Rule>> results = new LinkedHashMap<>();
+		for (int i = 0; i < size(); ++i) {
+			Collection<Rule> output = new ArrayList<>();
+			int dependency = dependencies.get(i);
+			apply(i, rule, minSupportThreshold, dependency == -1 ? null : outputs.get(dependency), output);
+			outputs.add(output);
+			results.put(names.get(i), output);
+		}
+		return results;
+	}
+}
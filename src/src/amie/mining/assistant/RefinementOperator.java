@@ -0,0 +1,25 @@
+package amie.mining.assistant;
+
+import java.util.Collection;
+
+import amie.rules.Rule;
+
+/**
+ * A mining operator, i.e., a function that adds the refinements of a rule to an output
+ * collection. Methods annotated with MiningOperator are compiled into instances of this
+ * interface (see OperatorPipeline).
+ * @author lgalarra
+ *
+ */
+public interface RefinementOperator {
+
+	/**
+	 * @param rule The rule to refine
+	 * @param minSupportThreshold Minimum support of the refinements
+	 * @param input Output of the operator this operator depends on, null if it does
+	 * not depend on any operator
+	 * @param output
+	 */
+	public void refine(Rule rule, double minSupportThreshold, Collection<Rule> input,
+			Collection<Rule> output);
+}
@@ -12,9 +12,9 @@ import amie.mining.assistant.MiningAssistant;
 import amie.mining.assistant.MiningOperator;
 import amie.rules.QueryEquivalenceChecker;
 import amie.rules.Rule;
+import amie.rules.SubsumptionIndex;
 import javatools.datatypes.ByteString;
 import javatools.datatypes.IntHashMap;
-import javatools.datatypes.MultiMap;
 import javatools.datatypes.Pair;
 
 public class CompletenessMiningAssistant extends MiningAssistant {
@@ -455,11 +455,11 @@ public class CompletenessMiningAssistant extends MiningAssistant {
 	}
 	
 	@Override
-	public void setAdditionalParents(Rule currentRule, MultiMap<Integer, Rule> indexedOutputSet) {
+	public void setAdditionalParents(Rule currentRule, SubsumptionIndex outputIndex) {
 		int idxOfRelationAtom = currentRule.firstIndexOfRelation(amie.data.U.typeRelationBS);
 		int idxOfCardinalityRelation = indexOfCardinalityAtom(currentRule);
 		if (idxOfRelationAtom == -1 && idxOfCardinalityRelation == -1) {
-			super.setAdditionalParents(currentRule, indexedOutputSet);
+			super.setAdditionalParents(currentRule, outputIndex);
 		}
         
         // First check if there are no a parents of the same size caused by
@@ -468,27 +468,20 @@ public class CompletenessMiningAssistant extends MiningAssistant {
         // B: type(x, Architect) => isFamous(x, true) but in other thread we have mined the rule
         // C: livesIn(x, Paris) (x, Person) => isFamous(x, true), then we need to make the bridge between
         // A and C (namely C is also a father of A)
-        int offset = 0;
         List<ByteString[]> queryPattern = currentRule.getTriplesWithoutSpecialRelations();
-        // Go up until you find a parent that was output
-        while (queryPattern.size() - offset > 1) {
-        	int currentLength = queryPattern.size() - offset;
-            int parentHashCode = Rule.headAndGenerationHashCode(currentRule.getHeadKey(), currentLength);
-            // Give all the rules of size 'currentLength' and the same head atom (potential parents)
-            Set<Rule> candidateParentsOfCurrentLength = indexedOutputSet.get(parentHashCode);
-            
-            if (candidateParentsOfCurrentLength != null) {
-	            for (Rule parent : candidateParentsOfCurrentLength) {
-	            	boolean subsumes = parent.subsumes(currentRule);
-	            	boolean subsumesWithSpecialAtoms = subsumesWithSpecialAtoms(parent, currentRule);
-	            	
-	                if (subsumes || subsumesWithSpecialAtoms) {
-	                	currentRule.addParent(parent);	                	
-	                }
-	            }
+        // All the rules with the same head atom and at most the size of the pattern (potential parents)
+        for (Rule parent : outputIndex.getRules(currentRule.getHeadKey())) {
+        	int generation = parent.getGeneration();
+        	if (generation < 2 || generation > queryPattern.size()) {
+        		continue;
         	}
-            ++offset;
-        }  
+        	boolean subsumes = parent.subsumes(currentRule);
+        	boolean subsumesWithSpecialAtoms = subsumesWithSpecialAtoms(parent, currentRule);
+        	
+            if (subsumes || subsumesWithSpecialAtoms) {
+            	currentRule.addParent(parent);	                	
+            }
+        }
     }
 	
 	private boolean subsumesWithSpecialAtoms(Rule parent, Rule currentRule) {
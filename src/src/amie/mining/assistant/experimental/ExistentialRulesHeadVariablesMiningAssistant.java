@@ -114,7 +114,7 @@ public class ExistentialRulesHeadVariablesMiningAssistant extends
 		
 		calculateConfidenceMetrics(candidate);
 		
-		if (candidate.getStdConfidence() >= minStdConfidence && candidate.getPcaConfidence() >= minPcaConfidence) {
+		if (candidate.getStdConfidence() >= minStdConfidence && candidate.getPcaConfidence() >= getPcaConfidenceThreshold(candidate)) {
 			//Now check the confidence with respect to its ancestors
 			List<Rule> ancestors = candidate.getAncestors();			
 			for (int i = ancestors.size() - 2; i >= 0; --i) {
@@ -0,0 +1,116 @@
+package amie.rules;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+
+/**
+ * This class computes a 64-bit fingerprint of a conjunctive query that does not depend
+ * on the names of the variables or the order of the atoms, except for the first atom
+ * (the head of a rule), which is distinguished from the others.
+ *
+ * The fingerprint is computed by color refinement (1-dimensional Weisfeiler-Leman) on the
+ * graph of atoms and variables: the color of an atom is refined with the colors of its
+ * variables and the color of a variable with the colors of the atoms where it occurs.
+ * Equivalent queries (see QueryEquivalenceChecker) always have the same fingerprint.
+ * Queries with the same fingerprint are very likely, but not necessarily, equivalent.
+ *
+ * @author lgalarra
+ *
+ */
+public class QueryFingerprint {
+
+	private static final long HEAD = 0x2545F4914F6CDD1DL;
+
+	private static final long BODY = 0x7A3B9D1E5C4F2B6AL;
+
+	private static final long VARIABLE = 0x1F83D9ABFB41BD6BL;
+
+	/**
+	 * The finalizer of the SplitMix64 generator.
+	 */
+	static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	static long combine(long h, long value) {
+		return mix(h ^ (value + 0x9E3779B97F4A7C15L + (h << 6) + (h >>> 2)));
+	}
+
+	/**
+	 * It returns the fingerprint of the query.
+	 * @param query The first atom is considered the head
+	 * @return
+	 */
+	public static long fingerprint(List<ByteString[]> query) {
+		int nAtoms = query.size();
+		Map<ByteString, Integer> variables = new HashMap<>();
+		// Variable at each position of each atom, -1 for constants
+		int[][] positions = new int[nAtoms][];
+		long[] atomColors = new long[nAtoms];
+		for (int i = 0; i < nAtoms; ++i) {
+			ByteString[] atom = query.get(i);
+			positions[i] = new int[atom.length];
+			long color = i == 0 ? HEAD : BODY;
+			for (int k = 0; k < atom.length; ++k) {
+				if (KB.isVariable(atom[k])) {
+					Integer variable = variables.get(atom[k]);
+					if (variable == null) {
+						variable = variables.size();
+						variables.put(atom[k], variable);
+					}
+					positions[i][k] = variable;
+					// Positions of the same variable in the atom
+					for (int l = 0; l < k; ++l) {
+						if (positions[i][l] == variable)
+							color = combine(color, 3 * k + l);
+					}
+				} else {
+					positions[i][k] = -1;
+					color = combine(color, combine(k, atom[k].hashCode()));
+				}
+			}
+			atomColors[i] = color;
+		}
+
+		int nVariables = variables.size();
+		long[] variableColors = new long[nVariables];
+		for (int v = 0; v < nVariables; ++v) {
+			variableColors[v] = VARIABLE;
+		}
+
+		// The colors are stable after at most as many rounds as nodes in the graph
+		long[] occurrences = new long[nVariables];
+		for (int round = 0; round < nAtoms + nVariables; ++round) {
+			for (int v = 0; v < nVariables; ++v) {
+				occurrences[v] = 0;
+			}
+			for (int i = 0; i < nAtoms; ++i) {
+				long color = atomColors[i];
+				for (int k = 0; k < positions[i].length; ++k) {
+					int variable = positions[i][k];
+					if (variable != -1) {
+						// The sum does not depend on the order of the occurrences
+						occurrences[variable] += combine(atomColors[i], k);
+						color = combine(color, combine(k, variableColors[variable]));
+					}
+				}
+				atomColors[i] = color;
+			}
+			for (int v = 0; v < nVariables; ++v) {
+				variableColors[v] = combine(variableColors[v], occurrences[v]);
+			}
+		}
+
+		long sum = 0;
+		for (int i = 1; i < nAtoms; ++i) {
+			sum += mix(atomColors[i]);
+		}
+		return combine(combine(nAtoms, nAtoms == 0 ? 0 : atomColors[0]), sum);
+	}
+}
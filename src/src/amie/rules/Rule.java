@@ -124,6 +124,26 @@ public class Rule {
      */
     private int generation;
     
+    /**
+     * Last computed fingerprint of the atoms (see QueryFingerprint).
+     */
+    private Fingerprint fingerprint;
+    
+    /**
+     * A fingerprint and the atoms it was computed from. Rules can be modified 
+     * through getTriples(), so the fingerprint is only valid as long as the atoms do not change.
+     */
+    private static final class Fingerprint {
+    	final long value;
+    	
+    	final ByteString[] atoms;
+    	
+    	Fingerprint(long value, ByteString[] atoms) {
+    		this.value = value;
+    		this.atoms = atoms;
+    	}
+    }
+    
     /**
      * ****** End of Standard Metrics ************
      */
@@ -1299,6 +1319,40 @@ public class Rule {
         return result;
     }
 
+    /**
+     * It returns a 64-bit fingerprint of the atoms of the rule that does not depend on the
+     * names of the variables or the order of the body atoms. Equivalent rules have the 
+     * same fingerprint.
+     * @return
+     */
+    public long getFingerprint() {
+    	Fingerprint current = fingerprint;
+    	if (current != null && current.atoms.length == 3 * triples.size()) {
+    		int i = 0;
+    		for (ByteString[] triple : triples) {
+    			if (triple.length != 3 || !triple[0].equals(current.atoms[i]) 
+    					|| !triple[1].equals(current.atoms[i + 1]) 
+    					|| !triple[2].equals(current.atoms[i + 2])) {
+    				break;
+    			}
+    			i += 3;
+    		}
+    		if (i == current.atoms.length) {
+    			return current.value;
+    		}
+    	}
+    	
+    	ByteString[] atoms = new ByteString[3 * triples.size()];
+    	int i = 0;
+    	for (ByteString[] triple : triples) {
+    		System.arraycopy(triple, 0, atoms, i, 3);
+    		i += 3;
+    	}
+    	current = new Fingerprint(QueryFingerprint.fingerprint(triples), atoms);
+    	fingerprint = current;
+    	return current.value;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -1306,15 +1360,12 @@ public class Rule {
     public int hashCode() {    	
         final int prime = 31;
         int result = 1;
+        long fingerprint = getFingerprint();
+        result = prime * result + (int) initialSupport;
         if (generation > 0) {
-	        result = prime * result + (int) initialSupport;
 	        result = prime * result + (int) generation;
-	        result = prime * result + (headKey == null ? 0 : headKey.hashCode());
-        } else { 
-	        result = prime * result + (int) initialSupport;
-	        result = prime * result + (int) getRealLength();
-	        result = prime * result + (headKey == null ? 0 : headKey.hashCode());	
-       }
+        }
+        result = prime * result + (int) (fingerprint ^ (fingerprint >>> 32));
         return result;
     }
 
@@ -1348,6 +1399,12 @@ public class Rule {
         if (((long)support) != ((long)other.support)) {
             return false;
         }
+        
+        // Different fingerprints imply different rules, equal fingerprints are very likely
+        // but not necessarily equivalent
+        if (getFingerprint() != other.getFingerprint()) {
+        	return false;
+        }
 
         return QueryEquivalenceChecker.areEquivalent(triples, other.triples);
     }
@@ -1722,10 +1779,18 @@ public class Rule {
         return d.functionality(head[1]) > d.inverseFunctionality(head[1]) ? 0 : 2;
     }
 
+    public double getConfidenceUpperBound() {
+        return stdConfidenceUpperBound;
+    }
+
     public void setConfidenceUpperBound(double stdConfUpperBound) {
         this.stdConfidenceUpperBound = stdConfUpperBound;
     }
 
+    public double getPcaConfidenceUpperBound() {
+        return pcaConfidenceUpperBound;
+    }
+
     public void setPcaConfidenceUpperBound(double pcaConfUpperBound) {
         // TODO Auto-generated method stub
         this.pcaConfidenceUpperBound = pcaConfUpperBound;
@@ -2332,19 +2397,59 @@ public class Rule {
 			return Rule.areEquivalent(someRule.getHead(), getHead());
 		}
 		
-		List<int[]> combinations = telecom.util.collections.Collections.subsetsOfSize(
-				someRule.getLength() - 1, getLength() - 1);
+		// Only the subsets of atoms of someRule with the relations of the antecedent of
+		// this rule can be equivalent to it
+		List<ByteString[]> antecedent = new ArrayList<>(getAntecedent());
+		Collections.sort(antecedent, new Comparator<ByteString[]>() {
+			@Override
+			public int compare(ByteString[] o1, ByteString[] o2) {
+				return o1[1].toString().compareTo(o2[1].toString());
+			}
+		});
+		return subsumes(antecedent, someRule, new int[antecedent.size()], 0);
+	}
+	
+	/**
+	 * It assigns an atom of the antecedent of the target rule with the same relation to each 
+	 * atom of the antecedent from position i on, and tests whether the resulting subset of 
+	 * atoms is equivalent to this rule. Atoms with the same relation get increasing positions, 
+	 * so each subset is tested once.
+	 */
+	private boolean subsumes(List<ByteString[]> antecedent, Rule someRule, int[] assignment, int i) {
 		List<ByteString[]> targetAntecedent = someRule.getAntecedent();
-		for (int[] cmb : combinations) {
+		if (i == antecedent.size()) {
+			int[] cmb = assignment.clone();
+			Arrays.sort(cmb);
 			List<ByteString[]> subsetOfAtoms = new ArrayList<>();
 			subsetOfAtoms.add(someRule.getHead());
 			for (int idx : cmb) {
 				subsetOfAtoms.add(targetAntecedent.get(idx));
 			}
-			if (QueryEquivalenceChecker.areEquivalent(subsetOfAtoms, triples))
+			return QueryEquivalenceChecker.areEquivalent(subsetOfAtoms, triples);
+		}
+		ByteString relation = antecedent.get(i)[1];
+		int start = 0;
+		if (i > 0 && antecedent.get(i - 1)[1].equals(relation)) {
+			start = assignment[i - 1] + 1;
+		}
+		for (int j = start; j < targetAntecedent.size(); ++j) {
+			ByteString targetRelation = targetAntecedent.get(j)[1];
+			if (!targetRelation.equals(relation) 
+					&& !KB.isVariable(targetRelation) && !KB.isVariable(relation)) {
+				continue;
+			}
+			boolean used = false;
+			for (int k = 0; k < i; ++k) {
+				used |= assignment[k] == j;
+			}
+			if (used) {
+				continue;
+			}
+			assignment[i] = j;
+			if (subsumes(antecedent, someRule, assignment, i + 1)) {
 				return true;
+			}
 		}
-		
 		return false;
 	}
     
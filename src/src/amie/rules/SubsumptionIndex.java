@@ -0,0 +1,146 @@
+package amie.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+
+/**
+ * An index of rules, typically the output rules of AMIE, that finds the rules that
+ * subsume a given rule (see Rule.subsumes). Rules are grouped by head key and
+ * number of body atoms. Each rule has a 64-bit signature of the relations of its body:
+ * a rule can only subsume another rule if the relations of its body are a subset of
+ * those of the other rule, so most candidates are discarded with a bit test.
+ *
+ * The index can be read and modified by several threads at the same time.
+ *
+ * @author lgalarra
+ *
+ */
+public class SubsumptionIndex {
+
+	private static final class Entry {
+		final Rule rule;
+
+		final long signature;
+
+		Entry(Rule rule, long signature) {
+			this.rule = rule;
+			this.signature = signature;
+		}
+	}
+
+	/**
+	 * The rules with a given head key.
+	 */
+	private static final class HeadIndex {
+		final Set<Rule> rules = Collections.newSetFromMap(new ConcurrentHashMap<Rule, Boolean>());
+
+		/** Rules by number of body atoms **/
+		final ConcurrentHashMap<Integer, Queue<Entry>> bodySizes = new ConcurrentHashMap<>();
+	}
+
+	private final ConcurrentHashMap<String, HeadIndex> heads = new ConcurrentHashMap<>();
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * It returns the signature of the relations of the body of the rule. A body atom
+	 * with a variable relation could match any relation.
+	 */
+	static long signature(Rule rule) {
+		long signature = 0;
+		for (ByteString[] atom : rule.getAntecedent()) {
+			if (KB.isVariable(atom[1]))
+				return -1L;
+			signature |= 1L << (QueryFingerprint.mix(atom[1].hashCode()) & 63);
+		}
+		return signature;
+	}
+
+	private HeadIndex head(String headKey) {
+		HeadIndex index = heads.get(headKey);
+		if (index == null) {
+			HeadIndex newIndex = new HeadIndex();
+			index = heads.putIfAbsent(headKey, newIndex);
+			if (index == null)
+				index = newIndex;
+		}
+		return index;
+	}
+
+	/**
+	 * It adds a rule to the index.
+	 * @param rule
+	 * @return false if the index already contains the rule
+	 */
+	public boolean add(Rule rule) {
+		HeadIndex index = head(rule.getHeadKey());
+		if (!index.rules.add(rule))
+			return false;
+		int bodySize = rule.getLength() - 1;
+		Queue<Entry> entries = index.bodySizes.get(bodySize);
+		if (entries == null) {
+			Queue<Entry> newEntries = new ConcurrentLinkedQueue<>();
+			entries = index.bodySizes.putIfAbsent(bodySize, newEntries);
+			if (entries == null)
+				entries = newEntries;
+		}
+		entries.add(new Entry(rule, signature(rule)));
+		size.incrementAndGet();
+		return true;
+	}
+
+	public boolean contains(Rule rule) {
+		HeadIndex index = heads.get(rule.getHeadKey());
+		return index != null && index.rules.contains(rule);
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * It returns the rules with the given head key.
+	 */
+	public Set<Rule> getRules(String headKey) {
+		HeadIndex index = heads.get(headKey);
+		if (index == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(index.rules);
+	}
+
+	/**
+	 * It returns the rules of the index with a non-empty body that subsume the given rule.
+	 * @param rule
+	 * @param maxGeneration Only rules of a lower generation are returned
+	 * @return
+	 */
+	public List<Rule> getSubsumingRules(Rule rule, int maxGeneration) {
+		List<Rule> result = new ArrayList<>();
+		HeadIndex index = heads.get(rule.getHeadKey());
+		if (index == null)
+			return result;
+		long signature = signature(rule);
+		for (int bodySize = 1; bodySize < rule.getLength() - 1; ++bodySize) {
+			Queue<Entry> entries = index.bodySizes.get(bodySize);
+			if (entries == null)
+				continue;
+			for (Entry entry : entries) {
+				if ((entry.signature & ~signature) != 0)
+					continue;
+				int generation = entry.rule.getGeneration();
+				if (generation > 1 && generation < maxGeneration && entry.rule.subsumes(rule))
+					result.add(entry.rule);
+			}
+		}
+		return result;
+	}
+}
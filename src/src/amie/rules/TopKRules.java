@@ -0,0 +1,132 @@
+package amie.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javatools.datatypes.ByteString;
+
+/**
+ * The k best rules by PCA confidence for each head relation. Ties are broken by support.
+ * Once a head relation has k rules, the PCA confidence of the k-th rule is a threshold:
+ * rules with that head relation and a lower PCA confidence cannot make it to the top.
+ * The threshold only grows as better rules are offered.
+ *
+ * It can be accessed by several threads at the same time.
+ *
+ * @author lgalarra
+ *
+ */
+public class TopKRules {
+
+	/**
+	 * It sorts rules from the worst to the best.
+	 */
+	public static final Comparator<Rule> ascendingOrder = new Comparator<Rule>() {
+		@Override
+		public int compare(Rule o1, Rule o2) {
+			int cmp = Double.compare(o1.getPcaConfidence(), o2.getPcaConfidence());
+			if (cmp != 0)
+				return cmp;
+			return Double.compare(o1.getSupport(), o2.getSupport());
+		}
+	};
+
+	/**
+	 * The best rules of one head relation.
+	 */
+	private static final class HeadRules {
+		/** The worst rule is at the top **/
+		final PriorityQueue<Rule> rules = new PriorityQueue<>(11, ascendingOrder);
+
+		volatile double threshold;
+	}
+
+	private final int k;
+
+	private final ConcurrentHashMap<ByteString, HeadRules> heads = new ConcurrentHashMap<>();
+
+	public TopKRules(int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be positive");
+		this.k = k;
+	}
+
+	public int getK() {
+		return (k);
+	}
+
+	private HeadRules head(ByteString relation) {
+		HeadRules head = heads.get(relation);
+		if (head == null) {
+			HeadRules newHead = new HeadRules();
+			head = heads.putIfAbsent(relation, newHead);
+			if (head == null)
+				head = newHead;
+		}
+		return (head);
+	}
+
+	/**
+	 * It adds the rule to the top k rules of its head relation if it is better than the
+	 * k-th rule. The k-th rule is then removed.
+	 * @param rule A rule whose PCA confidence is known
+	 * @return true if the rule was added
+	 */
+	public boolean offer(Rule rule) {
+		HeadRules head = head(rule.getHeadRelationBS());
+		synchronized (head) {
+			if (head.rules.size() == k) {
+				if (ascendingOrder.compare(rule, head.rules.peek()) <= 0)
+					return (false);
+				head.rules.poll();
+			}
+			head.rules.add(rule);
+			if (head.rules.size() == k)
+				head.threshold = head.rules.peek().getPcaConfidence();
+		}
+		return (true);
+	}
+
+	/**
+	 * It returns the minimum PCA confidence a rule with the head relation of the given rule
+	 * must have to be among the top k rules, 0 if there are less than k rules.
+	 * @param rule
+	 * @return
+	 */
+	public double getPcaConfidenceThreshold(Rule rule) {
+		HeadRules head = heads.get(rule.getHeadRelationBS());
+		return (head == null ? 0.0 : head.threshold);
+	}
+
+	/**
+	 * It returns the top rules of all head relations, each head relation from the best
+	 * to the worst rule.
+	 * @return
+	 */
+	public List<Rule> getRules() {
+		List<Rule> result = new ArrayList<>();
+		for (HeadRules head : heads.values()) {
+			List<Rule> rules;
+			synchronized (head) {
+				rules = new ArrayList<>(head.rules);
+			}
+			Collections.sort(rules, Collections.reverseOrder(ascendingOrder));
+			result.addAll(rules);
+		}
+		return (result);
+	}
+
+	public int size() {
+		int size = 0;
+		for (HeadRules head : heads.values()) {
+			synchronized (head) {
+				size += head.rules.size();
+			}
+		}
+		return (size);
+	}
+}
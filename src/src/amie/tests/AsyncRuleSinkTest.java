@@ -0,0 +1,112 @@
+package amie.tests;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import amie.data.KB;
+import amie.mining.AMIE;
+import amie.mining.AsyncRuleSink;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.mining.assistant.MiningAssistant;
+import amie.rules.Metric;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class AsyncRuleSinkTest extends TestCase {
+	KB kb = new KB();
+
+	MiningAssistant assistant;
+
+	File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 11);
+		assistant = new DefaultMiningAssistant(kb);
+		file = File.createTempFile("amie", ".jsonl.gz");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private static Rule rule(String head, String body, int support) {
+		Rule rule = new Rule(KB.triple("?x", head, "?y"), support);
+		rule.getTriples().add(KB.triple("?x", body, "?y"));
+		rule.setPcaBodySize(2 * support);
+		return (rule);
+	}
+
+	public void testConcurrentWrites() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final AsyncRuleSink sink = new AsyncRuleSink(out, true, new AsyncRuleSink.TSVFormat(assistant));
+		final List<Rule> rules = new ArrayList<>();
+		for (int i = 0; i < 4000; ++i) {
+			rules.add(rule("<h" + i + ">", "<b>", 10));
+		}
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; ++t) {
+			final int offset = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = offset; i < rules.size(); i += 4) {
+						sink.write(rules.get(i));
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		sink.close();
+
+		List<String> lines = Arrays.asList(out.toString("UTF-8").split("\n"));
+		assertEquals(rules.size() + 1, lines.size());
+		assertTrue(lines.get(0).startsWith("Rule\t"));
+		HashSet<String> expected = new HashSet<>();
+		for (Rule rule : rules) {
+			expected.add(assistant.formatRule(rule));
+		}
+		assertEquals(expected, new HashSet<>(lines.subList(1, lines.size())));
+	}
+
+	public void testCompressedJSONLines() throws Exception {
+		AMIE miner = new AMIE(assistant, 5, 5, Metric.Support, 2);
+		miner.setRealTime(false);
+		miner.setOutputSink(AsyncRuleSink.forFile(file, assistant));
+		List<Rule> rules = miner.mine();
+		assertFalse(rules.isEmpty());
+
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)), "UTF-8"))) {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		assertEquals(rules.size(), lines.size());
+		HashSet<String> ruleStrings = new HashSet<>();
+		for (Rule rule : rules) {
+			ruleStrings.add("{\"rule\":\"" + rule.getRuleString() + "\"");
+		}
+		for (String line : lines) {
+			assertTrue(line.endsWith("}"));
+			assertTrue(line.contains("\"pcaConfidence\":"));
+			assertTrue(ruleStrings.contains(line.substring(0, line.indexOf(",\"headCoverage\""))));
+		}
+	}
+}
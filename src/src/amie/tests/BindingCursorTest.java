@@ -0,0 +1,129 @@
+package amie.tests;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import amie.data.BindingCursor;
+import amie.data.KB;
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+import junit.framework.TestCase;
+
+public class BindingCursorTest extends TestCase {
+	KB kb = new KB();
+
+	ByteString x = ByteString.of("?x");
+
+	ByteString y = ByteString.of("?y");
+
+	static final int ENTITIES = 8;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(3);
+		for (int i = 0; i < 60; ++i) {
+			kb.add("<e" + random.nextInt(ENTITIES) + ">", "<r" + random.nextInt(3) + ">",
+					"<e" + random.nextInt(ENTITIES) + ">");
+		}
+	}
+
+	/**
+	 * It evaluates the query by trying all the values of ?x, ?y and ?z.
+	 */
+	private Set<String> bruteForce(List<ByteString[]> query, ByteString... projection) {
+		Set<String> result = new HashSet<>();
+		for (int vx = 0; vx < ENTITIES; ++vx) {
+			for (int vy = 0; vy < ENTITIES; ++vy) {
+				for (int vz = 0; vz < ENTITIES; ++vz) {
+					String[] values = {"<e" + vx + ">", "<e" + vy + ">", "<e" + vz + ">"};
+					boolean holds = true;
+					for (ByteString[] atom : query) {
+						String[] fact = new String[3];
+						for (int i = 0; i < 3; ++i) {
+							int variable = "?x?y?z".indexOf(atom[i].toString());
+							fact[i] = variable == -1 ? atom[i].toString() : values[variable / 2];
+						}
+						holds &= kb.count(fact) != 0;
+					}
+					if (holds) {
+						String tuple = "";
+						for (ByteString variable : projection) {
+							tuple += values["?x?y?z".indexOf(variable.toString()) / 2] + " ";
+						}
+						result.add(tuple);
+					}
+				}
+			}
+		}
+		return (result);
+	}
+
+	private void assertSameResults(List<ByteString[]> query) {
+		Set<String> expected = bruteForce(query, x);
+		Set<String> actual = new HashSet<>();
+		for (ByteString value : kb.selectDistinct(x, query)) {
+			actual.add(value + " ");
+		}
+		assertEquals(expected, actual);
+
+		expected = bruteForce(query, x, y);
+		actual.clear();
+		Map<ByteString, IntHashMap<ByteString>> pairs = kb.selectDistinct(x, y, query);
+		for (ByteString value1 : pairs.keySet()) {
+			for (ByteString value2 : pairs.get(value1)) {
+				actual.add(value1 + " " + value2 + " ");
+			}
+		}
+		assertEquals(expected, actual);
+		assertEquals(expected.size(), kb.cursor(query, x, y).countDistinct(Long.MAX_VALUE));
+		assertEquals(!expected.isEmpty(), kb.cursor(query).exists());
+	}
+
+	public void testChainsAndTriangles() {
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "?y"), KB.triple("?y", "<r1>", "?z")));
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "?y"), KB.triple("?y", "<r1>", "?z"),
+				KB.triple("?x", "<r2>", "?z")));
+		assertSameResults(KB.triples(KB.triple("?z", "<r0>", "?x"), KB.triple("?z", "<r0>", "?y"),
+				KB.triple("?y", "<r1>", "?x")));
+	}
+
+	public void testConstantsAndSpecialAtoms() {
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "<e1>"), KB.triple("?x", "<r1>", "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "?z"), KB.triple("?y", "<r0>", "?z"),
+				KB.triple("?x", KB.DIFFERENTFROMstr, "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<r2>", "?y"), KB.triple("<e9>", "<r1>", "?y")));
+	}
+
+	public void testPlannedOrder() {
+		kb.setCostBasedPlanning(true);
+		testChainsAndTriangles();
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "?z"), KB.triple("?y", "<r0>", "?z"),
+				KB.triple("?x", KB.DIFFERENTFROMstr, "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<r2>", "?y"), KB.triple("?y", "<r1>", "?z"),
+				KB.triple("?z", "<r3>", "?x")));
+	}
+
+	public void testRepeatedVariables() {
+		kb.add("<e1>", "<r0>", "<e1>");
+		kb.add("<e1>", "<r1>", "<e2>");
+		assertSameResults(KB.triples(KB.triple("?x", "<r0>", "?x"), KB.triple("?x", "<r1>", "?y")));
+	}
+
+	public void testIteration() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<r0>", "?y"), KB.triple("?y", "<r1>", "?z"));
+		BindingCursor cursor = kb.cursor(query, x);
+		Set<ByteString> values = new HashSet<>();
+		while (cursor.next()) {
+			assertTrue(values.add(cursor.get(0)));
+			assertEquals(cursor.get(0), cursor.get(x));
+		}
+		assertFalse(cursor.next());
+		assertEquals(kb.selectDistinct(x, query), values);
+		// The query is not modified
+		assertEquals("?y", query.get(1)[0].toString());
+		assertEquals(Math.min(2, values.size()), kb.cursor(query, x).countDistinct(2));
+	}
+}
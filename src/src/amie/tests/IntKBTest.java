@@ -0,0 +1,167 @@
+package amie.tests;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import amie.data.IntKB;
+import amie.data.IntTripleIndex;
+import amie.data.KB;
+import javatools.datatypes.ByteString;
+import javatools.datatypes.IntHashMap;
+import junit.framework.TestCase;
+
+public class IntKBTest extends TestCase {
+	KB kb = new KB();
+
+	IntKB intKb = new IntKB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		for (KB k : new KB[]{kb, intKb}) {
+			k.add(KB.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+			k.add(KB.triple("<Thomas>", "<wasBornIn>", "<Munich>"));
+			k.add(KB.triple("<Antoine>", "<wasBornIn>", "<Colmar>"));
+			k.add(KB.triple("<Oana>", "<livesIn>", "<Paris>"));
+			k.add(KB.triple("<Luis>", "<livesIn>", "<Paris>"));
+			k.add(KB.triple("<Thomas>", "<livesIn>", "<Paris>"));
+			k.add(KB.triple("<Antoine>", "<livesIn>", "<Paris>"));
+			k.add(KB.triple("<Ambar>", "<worksAt>", "<ESPOL>"));
+			k.add(KB.triple("<Luis>", "<worksAt>", "<Telecom>"));
+			k.add(KB.triple("<Thomas>", "<worksAt>", "<Telecom>"));
+			k.add(KB.triple("<Antoine>", "<worksAt>", "<Telecom>"));
+			k.add(KB.triple("<Telecom>", "<isLocatedIn>", "<Paris>"));
+		}
+	}
+
+	public void testAdd() {
+		assertEquals(kb.size(), intKb.size());
+		assertFalse(intKb.add(KB.triple("<Luis>", "<livesIn>", "<Paris>")));
+		assertTrue(intKb.add(KB.triple("<Luis>", "<livesIn>", "<Guayaquil>")));
+		assertEquals(kb.size() + 1, intKb.size());
+		assertEquals(kb.size(KB.Column.Subject), intKb.size(KB.Column.Subject));
+		assertEquals(kb.size(KB.Column.Relation), intKb.size(KB.Column.Relation));
+	}
+
+	public void testContains() {
+		assertTrue(intKb.contains("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		assertFalse(intKb.contains("<Luis>", "<wasBornIn>", "<Paris>"));
+		assertFalse(intKb.contains("<Fabian>", "<wasBornIn>", "<Paris>"));
+		assertTrue(intKb.contains(KB.triple("<wasBornIn>", KB.NOTEXISTSstr, "<Ambar>")));
+		assertFalse(intKb.contains(KB.triple("<wasBornIn>", KB.NOTEXISTSstr, "<Antoine>")));
+	}
+
+	public void testCounts() {
+		List<ByteString[]> patterns = KB.triples(KB.triple("?x", "<livesIn>", "<Paris>"),
+				KB.triple("<Luis>", "?r", "<Paris>"),
+				KB.triple("<Luis>", "<worksAt>", "?y"),
+				KB.triple("?x", "<worksAt>", "?y"),
+				KB.triple("?x", "?r", "<Telecom>"),
+				KB.triple("<hasChild>", KB.NOTEXISTSstr, "?x"),
+				KB.triple("?x", "?r", "?y"));
+		for (ByteString[] pattern : patterns) {
+			assertEquals(kb.count(pattern), intKb.count(pattern));
+		}
+	}
+
+	public void testSelectDistinct() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<livesIn>", "?y"),
+				KB.triple("?x", "<worksAt>", "?z"));
+		Set<ByteString> expected = kb.selectDistinct(ByteString.of("?x"), query);
+		Set<ByteString> values = intKb.selectDistinct(ByteString.of("?x"), query);
+		assertEquals(expected, values);
+		assertEquals(3, values.size());
+
+		Map<ByteString, IntHashMap<ByteString>> pairs = intKb.selectDistinct(ByteString.of("?x"), ByteString.of("?z"), query);
+		assertEquals(3, pairs.size());
+		assertTrue(pairs.get(ByteString.of("<Luis>")).contains(ByteString.of("<Telecom>")));
+		assertEquals(kb.countDistinctPairs(ByteString.of("?x"), ByteString.of("?z"), query),
+				intKb.countDistinctPairs(ByteString.of("?x"), ByteString.of("?z"), query));
+	}
+
+	public void testDelete() {
+		assertTrue(intKb.delete("<Luis>", "<livesIn>", "<Paris>"));
+		assertFalse(intKb.delete("<Luis>", "<livesIn>", "<Paris>"));
+		assertFalse(intKb.contains("<Luis>", "<livesIn>", "<Paris>"));
+		assertEquals(3, intKb.count(KB.triple("?x", "<livesIn>", "<Paris>")));
+		assertEquals(kb.size() - 1, intKb.size());
+	}
+
+	public void testLargeSets() {
+		for (int i = 0; i < 1000; ++i) {
+			intKb.add(KB.triple("<e" + i + ">", "<rdf:type>", "<Person>"));
+		}
+		assertEquals(1000, intKb.count(KB.triple("?x", "<rdf:type>", "<Person>")));
+		for (int i = 0; i < 1000; i += 2) {
+			assertTrue(intKb.delete("<e" + i + ">", "<rdf:type>", "<Person>"));
+		}
+		assertEquals(500, intKb.count(KB.triple("?x", "<rdf:type>", "<Person>")));
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(i % 2 == 1, intKb.contains("<e" + i + ">", "<rdf:type>", "<Person>"));
+		}
+	}
+
+	public void testFreeze() {
+		intKb.freeze();
+		assertTrue(intKb.isFrozen());
+		assertTrue(intKb.contains("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		assertFalse(intKb.contains("<Luis>", "<wasBornIn>", "<Paris>"));
+		testCounts();
+		testSelectDistinct();
+		try {
+			intKb.add(KB.triple("<Luis>", "<livesIn>", "<Guayaquil>"));
+			fail("A frozen KB cannot be modified");
+		} catch (UnsupportedOperationException e) {}
+		assertEquals(kb.size(), intKb.size());
+	}
+
+	public void testRuns() {
+		IntTripleIndex index = new IntTripleIndex();
+		for (int value = 10; value > 0; --value) {
+			index.add(1, 2, 3 * value);
+		}
+		IntTripleIndex.Run run = index.values(1, 2, new IntTripleIndex.Run());
+		assertEquals(10, run.size());
+		assertFalse(run.isSorted());
+		int sum = 0;
+		for (int value = run.next(); value != 0; value = run.next()) {
+			sum += value;
+		}
+		assertEquals(165, sum);
+		index.freeze();
+		run = index.values(1, 2, run);
+		assertTrue(run.isSorted());
+		assertEquals(3, run.next());
+		assertEquals(9, run.seek(8));
+		assertEquals(9, run.next());
+		assertEquals(30, run.seek(30));
+		assertEquals(0, run.seek(31));
+		assertEquals(1, index.keys(1, run).size());
+		assertEquals(2, run.next());
+		assertEquals(0, index.values(1, 5, run).size());
+		assertEquals(0, run.next());
+	}
+
+	public void testLazyPermutations() {
+		IntKB lazyKb = new IntKB(EnumSet.of(IntKB.Permutation.ROS));
+		lazyKb.add(intKb);
+		assertEquals(EnumSet.of(IntKB.Permutation.SRO, IntKB.Permutation.ROS), lazyKb.getBuiltPermutations());
+		assertEquals(4, lazyKb.count(KB.triple("?x", "<livesIn>", "<Paris>")));
+		assertEquals(2, lazyKb.getBuiltPermutations().size());
+		// Needs OSR
+		assertEquals(1, lazyKb.count(KB.triple("<Luis>", "?r", "<Paris>")));
+		assertTrue(lazyKb.getBuiltPermutations().contains(IntKB.Permutation.OSR));
+		lazyKb.add(KB.triple("<Oana>", "<worksAt>", "<Telecom>"));
+		assertEquals(2, lazyKb.count(KB.triple("<Oana>", "?r", "?y")));
+		lazyKb.freeze();
+		assertTrue(lazyKb.isFrozen());
+		assertEquals(4, lazyKb.count(KB.triple("?x", "<worksAt>", "<Telecom>")));
+		intKb.add(KB.triple("<Oana>", "<worksAt>", "<Telecom>"));
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<livesIn>", "?y"),
+				KB.triple("?x", "<worksAt>", "?z"));
+		assertEquals(intKb.countDistinctPairs(ByteString.of("?x"), ByteString.of("?z"), query),
+				lazyKb.countDistinctPairs(ByteString.of("?x"), ByteString.of("?z"), query));
+		assertEquals(intKb.count(KB.triple("?x", "?r", "?y")), lazyKb.count(KB.triple("?x", "?r", "?y")));
+	}
+}
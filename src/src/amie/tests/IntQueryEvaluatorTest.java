@@ -0,0 +1,128 @@
+package amie.tests;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import amie.data.IntKB;
+import amie.data.IntQueryEvaluator;
+import amie.data.KB;
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+
+public class IntQueryEvaluatorTest extends TestCase {
+	KB kb = new KB();
+
+	IntKB intKb = new IntKB();
+
+	IntKB frozenKb = new IntKB();
+
+	ByteString x = ByteString.of("?x");
+
+	ByteString y = ByteString.of("?y");
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(7);
+		String[] relations = {"<knows>", "<livesIn>", "<worksWith>"};
+		for (int i = 0; i < 600; ++i) {
+			String subject = "<e" + random.nextInt(40) + ">";
+			String relation = relations[random.nextInt(relations.length)];
+			String object = "<e" + random.nextInt(40) + ">";
+			kb.add(subject, relation, object);
+			intKb.add(subject, relation, object);
+			frozenKb.add(subject, relation, object);
+		}
+		frozenKb.freeze();
+	}
+
+	private void assertSameResults(List<ByteString[]> query) {
+		for (IntKB other : new IntKB[]{intKb, frozenKb}) {
+			assertNotNull(IntQueryEvaluator.compile(other, query, x, y));
+			assertEquals(kb.selectDistinct(x, query), other.selectDistinct(x, query));
+			assertEquals(kb.selectDistinct(y, query), other.selectDistinct(y, query));
+			assertEquals(kb.countDistinct(x, query), other.countDistinct(x, query));
+			assertEquals(kb.countDistinctPairs(x, y, query), other.countDistinctPairs(x, y, query));
+			// Single atoms are answered by an IdentityHashMap, which compares the values by reference
+			assertEquals(new HashMap<>(kb.selectDistinct(x, y, query)), other.selectDistinct(x, y, query));
+			assertEquals(kb.existsBS(query), other.existsBS(query));
+			for (long limit : new long[]{1, 5}) {
+				assertEquals(Math.min(kb.countDistinct(x, query), limit), other.countDistinctAtMost(x, query, limit));
+				assertEquals(Math.min(kb.countDistinctPairs(x, y, query), limit),
+						other.countDistinctPairsAtMost(x, y, query, limit));
+			}
+		}
+	}
+
+	public void testSingleAtoms() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "?y", "<e3>")));
+		// KB does not select pairs from an atom with three variables
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "?y", "?z"));
+		assertEquals(kb.selectDistinct(x, query), frozenKb.selectDistinct(x, query));
+		assertEquals(kb.countDistinct(y, query), intKb.countDistinct(y, query));
+		ByteString z = ByteString.of("?z");
+		assertEquals(kb.countDistinctPairs(x, z, query), frozenKb.countDistinctPairs(x, z, query));
+	}
+
+	public void testPathsAndTriangles() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?z"),
+				KB.triple("?z", "<worksWith>", "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?z"), KB.triple("?x", "<livesIn>", "?z")));
+		// Closing atom of a path, its values are intersected with the path
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?z"),
+				KB.triple("?z", "<worksWith>", "?y"), KB.triple("?x", "<livesIn>", "?y")));
+	}
+
+	public void testStarsAndConstants() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?x", "<livesIn>", "?z"), KB.triple("?x", "<worksWith>", "?w")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "<e1>"),
+				KB.triple("?x", "?r", "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<livesIn>", "<unknown>")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("<e2>", "<knows>", "<e3>")));
+	}
+
+	public void testParallelPairs() {
+		KB big = new KB();
+		IntKB intBig = new IntKB();
+		for (int i = 0; i < 3 * KB.PARALLEL_PAIRS_THRESHOLD; ++i) {
+			for (KB other : new KB[]{big, intBig}) {
+				other.add("<e" + i + ">", "<knows>", "<e" + (i * 7 % 101) + ">");
+				other.add("<e" + i + ">", "<livesIn>", "<c" + (i % 13) + ">");
+				other.add("<e" + i + ">", "<livesIn>", "<c" + (i % 5) + ">");
+			}
+		}
+		intBig.freeze();
+		ByteString z = ByteString.of("?z");
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<livesIn>", "?z"));
+		long expected = big.countDistinctPairs(x, z, query);
+		intBig.setQueryParallelism(4);
+		assertEquals(expected, intBig.countDistinctPairs(x, z, query));
+		assertEquals(100, intBig.countDistinctPairsAtMost(x, z, query, 100));
+		assertEquals(expected, intBig.countDistinctPairsAtMost(x, z, query, expected + 1));
+		// Below the threshold, the pairs are counted sequentially
+		intKb.setQueryParallelism(4);
+		frozenKb.setQueryParallelism(4);
+		try {
+			testPathsAndTriangles();
+		} finally {
+			intBig.setQueryParallelism(1);
+			intKb.setQueryParallelism(1);
+			frozenKb.setQueryParallelism(1);
+		}
+	}
+
+	public void testUnsupported() {
+		assertNull(IntQueryEvaluator.compile(intKb, KB.triples(KB.triple("?x", "<knows>", "?x")), x));
+		assertNull(IntQueryEvaluator.compile(intKb, KB.triples(KB.triple("?x", KB.DIFFERENTFROMstr, "?y")), x));
+		assertNull(IntQueryEvaluator.compile(intKb, KB.triples(KB.triple("?x", "<knows>", "?z")), y));
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?x"),
+				KB.triple("?x", "<livesIn>", "?y"));
+		assertEquals(kb.selectDistinct(x, query), intKb.selectDistinct(x, query));
+	}
+}
@@ -0,0 +1,120 @@
+package amie.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import amie.data.IntKB;
+import amie.data.KB;
+import amie.data.KBLoader;
+import amie.data.TripleParser;
+import junit.framework.TestCase;
+
+public class KBLoaderTest extends TestCase {
+
+	File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("amie", ".tsv");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		for (int i = 0; i < 500; ++i) {
+			writer.write("<e" + i + ">\t<rdf:type>\t<Person>\n");
+			writer.write("<id" + i + ">\t<e" + i + ">\t<livesIn>\t<c" + (i % 7) + ">\n");
+		}
+		// Duplicates, datatypes, trailing dots, non-ASCII and malformed lines
+		writer.write("<e1>\t<rdf:type>\t<Person>\n");
+		writer.write("<e1>\t<hasAge>\t\"31\"^^xsd:integer .\n");
+		writer.write("<Télécom>\t<isLocatedIn>\t<Paris>\r\n");
+		writer.write("malformed line\n");
+		writer.write("<e2>\t<hasAge>\t\"27\"");
+		writer.close();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private void assertLoaded(KB kb) {
+		assertEquals(1003, kb.size());
+		assertEquals(500, kb.count(KB.triple("?x", "<rdf:type>", "<Person>")));
+		assertEquals(500, kb.count(KB.triple("?x", "<livesIn>", "?y")));
+		assertEquals(72, kb.count(KB.triple("?x", "<livesIn>", "<c0>")));
+		assertTrue(kb.contains("<e1>", "<hasAge>", "\"31\""));
+		assertTrue(kb.contains("<e2>", "<hasAge>", "\"27\""));
+		assertTrue(kb.contains("<Télécom>", "<isLocatedIn>", "<Paris>"));
+		assertEquals(500, kb.relationSize(KB.compress("<rdf:type>")));
+	}
+
+	public void testSequentialEquivalence() throws Exception {
+		KB expected = new KB();
+		expected.loadSequential(Arrays.asList(file));
+		assertLoaded(expected);
+	}
+
+	public void testSmallRanges() throws Exception {
+		for (long rangeSize : new long[]{1, 7, 40, 1 << 20}) {
+			KB kb = new KB();
+			new KBLoader(kb, 4, rangeSize).load(Arrays.asList(file));
+			assertLoaded(kb);
+		}
+	}
+
+	public void testIntKB() throws Exception {
+		for (long rangeSize : new long[]{13, 1 << 20}) {
+			IntKB kb = new IntKB();
+			new KBLoader(kb, 3, rangeSize).load(Arrays.asList(file));
+			assertLoaded(kb);
+			kb.freeze();
+			assertLoaded(kb);
+		}
+	}
+
+	public void testLoadTwice() throws Exception {
+		IntKB kb = new IntKB();
+		kb.load(file);
+		kb.load(file);
+		assertLoaded(kb);
+	}
+
+	public void testNTriples() throws Exception {
+		File ntFile = File.createTempFile("amie", ".nt");
+		ntFile.deleteOnExit();
+		StringBuilder longLiteral = new StringBuilder();
+		for (int i = 0; i < (3 << 19); ++i)
+			longLiteral.append('a');
+		Writer writer = new OutputStreamWriter(new FileOutputStream(ntFile), "UTF-8");
+		writer.write("<e1> <name> \"Luis \\\"Lucho\\\"\"@es .\n");
+		writer.write("_:b1 <hasAge> \"31\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n");
+		writer.write("# comment\n");
+		writer.write("<e1> <description> \"" + longLiteral + "\" .\n");
+		writer.write("<e1>  <livesIn>   <Paris>.\n");
+		writer.close();
+		for (KB kb : new KB[]{new KB(), new IntKB()}) {
+			new KBLoader(kb, 2, 50).load(Arrays.asList(ntFile));
+			assertEquals(4, kb.size());
+			assertTrue(kb.contains("<e1>", "<name>", "\"Luis \\\"Lucho\\\"\"@es"));
+			assertTrue(kb.contains("_:b1", "<hasAge>", "\"31\""));
+			assertTrue(kb.contains("<e1>", "<livesIn>", "<Paris>"));
+			assertEquals(1, kb.count(KB.triple("<e1>", "<description>", "?x")));
+		}
+		ntFile.delete();
+	}
+
+	public void testParser() throws Exception {
+		TripleParser parser = new TripleParser();
+		byte[] line = "<id1>\t<s>\t <p> \t\"1.5\"^^xsd:double\t\t.".getBytes("UTF-8");
+		assertTrue(parser.parse(line, 0, line.length));
+		assertEquals("<s>", new String(line, parser.start(0), parser.end(0) - parser.start(0), "UTF-8"));
+		assertEquals("<p>", new String(line, parser.start(1), parser.end(1) - parser.start(1), "UTF-8"));
+		assertEquals("\"1.5\"", new String(line, parser.start(2), parser.end(2) - parser.start(2), "UTF-8"));
+		byte[] invalid = "<s>\t<p>".getBytes("UTF-8");
+		assertFalse(parser.parse(invalid, 0, invalid.length));
+		byte[] words = "some words here".getBytes("UTF-8");
+		assertFalse(parser.parse(words, 0, words.length));
+	}
+}
@@ -0,0 +1,98 @@
+package amie.tests;
+
+import java.io.File;
+import java.util.List;
+
+import amie.data.IntKB;
+import amie.data.KB;
+import amie.data.KBSnapshot;
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+
+public class KBSnapshotTest extends TestCase {
+	KB kb = new KB();
+
+	File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(KB.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		kb.add(KB.triple("<Thomas>", "<wasBornIn>", "<Munich>"));
+		kb.add(KB.triple("<Antoine>", "<wasBornIn>", "<Colmar>"));
+		kb.add(KB.triple("<Oana>", "<livesIn>", "<Paris>"));
+		kb.add(KB.triple("<Luis>", "<livesIn>", "<Paris>"));
+		kb.add(KB.triple("<Thomas>", "<livesIn>", "<Paris>"));
+		kb.add(KB.triple("<Antoine>", "<livesIn>", "<Paris>"));
+		kb.add(KB.triple("<Ambar>", "<worksAt>", "<ESPOL>"));
+		kb.add(KB.triple("<Luis>", "<worksAt>", "<Telecom>"));
+		kb.add(KB.triple("<Thomas>", "<worksAt>", "<Telecom>"));
+		kb.add(KB.triple("<Antoine>", "<worksAt>", "<Telecom>"));
+		kb.add(KB.triple("<Telecom>", "<isLocatedIn>", "<Paris>"));
+		kb.add(KB.triple("<Télécom_ParisTech>", "<isLocatedIn>", "<Paris>"));
+		kb.buildOverlapTables();
+		file = File.createTempFile("amie", ".kb");
+		file.deleteOnExit();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private void assertSameKB(KB expected, KB actual) {
+		assertEquals(expected.size(), actual.size());
+		for (KB.Column column : KB.Column.values()) {
+			assertEquals(expected.size(column), actual.size(column));
+		}
+		List<ByteString[]> patterns = KB.triples(KB.triple("?x", "<livesIn>", "<Paris>"),
+				KB.triple("<Luis>", "?r", "?y"),
+				KB.triple("?x", "<worksAt>", "?y"),
+				KB.triple("?x", "<isLocatedIn>", "<Paris>"),
+				KB.triple("<Oana>", KB.EXISTSstr, "?x"));
+		for (ByteString[] pattern : patterns) {
+			assertEquals(expected.count(pattern), actual.count(pattern));
+		}
+		assertTrue(actual.contains("<Télécom_ParisTech>", "<isLocatedIn>", "<Paris>"));
+		assertFalse(actual.contains("<Luis>", "<wasBornIn>", "<Paris>"));
+		ByteString livesIn = ByteString.of("<livesIn>");
+		ByteString worksAt = ByteString.of("<worksAt>");
+		assertEquals(expected.overlap(livesIn, worksAt, KB.SUBJECT2SUBJECT),
+				actual.overlap(livesIn, worksAt, KB.SUBJECT2SUBJECT));
+		assertEquals(expected.relationSize(livesIn), actual.relationSize(livesIn));
+	}
+
+	public void testWriteRead() throws Exception {
+		KBSnapshot.write(kb, file);
+		assertTrue(KBSnapshot.isSnapshot(file));
+		IntKB snapshot = KBSnapshot.read(file);
+		assertTrue(snapshot.isFrozen());
+		assertSameKB(kb, snapshot);
+	}
+
+	public void testWriteReadIntKB() throws Exception {
+		IntKB intKb = new IntKB();
+		intKb.add(kb);
+		intKb.buildOverlapTables();
+		KBSnapshot.write(intKb, file);
+		assertSameKB(kb, KBSnapshot.read(file));
+	}
+
+	public void testDeletedRelation() throws Exception {
+		// The overlap tables still mention the relation, which is not copied into the snapshot
+		kb.add(KB.triple("<Luis>", "<hasChild>", "<Ambar>"));
+		kb.rebuildOverlapTables();
+		kb.delete("<Luis>", "<hasChild>", "<Ambar>");
+		KBSnapshot.write(kb, file);
+		IntKB snapshot = KBSnapshot.read(file);
+		assertEquals(kb.size(), snapshot.size());
+		ByteString livesIn = ByteString.of("<livesIn>");
+		ByteString hasChild = ByteString.of("<hasChild>");
+		assertEquals(kb.overlap(livesIn, ByteString.of("<worksAt>"), KB.SUBJECT2SUBJECT),
+				snapshot.overlap(livesIn, ByteString.of("<worksAt>"), KB.SUBJECT2SUBJECT));
+		assertEquals(0, snapshot.count(KB.triple(ByteString.of("?x"), hasChild, ByteString.of("?y"))));
+	}
+
+	public void testNotASnapshot() throws Exception {
+		assertFalse(KBSnapshot.isSnapshot(new File(file.getPath() + ".missing")));
+	}
+}
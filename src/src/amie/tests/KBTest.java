@@ -1,9 +1,17 @@
 package amie.tests;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import amie.data.IntKB;
 import amie.data.KB;
+import amie.data.KBLoader;
 import javatools.datatypes.ByteString;
 import javatools.datatypes.IntHashMap;
 import junit.framework.TestCase;
@@ -88,4 +96,109 @@ public class KBTest extends TestCase {
 		assertTrue(values.get(ByteString.of("<wasBornIn>")).containsKey(ByteString.of("<Paris>")));
 	}
 
+	public void testOverlapTables() {
+		IntKB intKb = new IntKB();
+		intKb.add(kb);
+		ByteString wasBornIn = ByteString.of("<wasBornIn>");
+		ByteString livesIn = ByteString.of("<livesIn>");
+		ByteString worksAt = ByteString.of("<worksAt>");
+		ByteString isLocatedIn = ByteString.of("<isLocatedIn>");
+		for (KB k : new KB[]{kb, intKb}) {
+			for (int parallelism : new int[]{1, 4}) {
+				k.buildOverlapTables(parallelism);
+				assertEquals(3, k.overlap(wasBornIn, livesIn, KB.SUBJECT2SUBJECT));
+				assertEquals(3, k.overlap(livesIn, wasBornIn, KB.SUBJECT2SUBJECT));
+				assertEquals(4, k.overlap(worksAt, worksAt, KB.SUBJECT2SUBJECT));
+				assertEquals(1, k.overlap(isLocatedIn, worksAt, KB.SUBJECT2OBJECT));
+				assertEquals(0, k.overlap(worksAt, isLocatedIn, KB.SUBJECT2OBJECT));
+				assertEquals(1, k.overlap(livesIn, isLocatedIn, KB.OBJECT2OBJECT));
+				assertEquals(1, k.overlap(isLocatedIn, livesIn, KB.OBJECT2OBJECT));
+				assertEquals(0, k.overlap(wasBornIn, livesIn, KB.OBJECT2OBJECT));
+				assertEquals(3, k.overlap(wasBornIn, wasBornIn, KB.OBJECT2OBJECT));
+			}
+		}
+	}
+
+	private void assertSameOverlaps(KB k) {
+		KB expected = new KB();
+		expected.add(k);
+		expected.buildOverlapTables();
+		List<ByteString> relations = expected.getRelationsList();
+		for (ByteString r1 : relations) {
+			for (ByteString r2 : relations) {
+				for (int overlap : new int[]{KB.SUBJECT2SUBJECT, KB.SUBJECT2OBJECT, KB.OBJECT2OBJECT}) {
+					assertEquals(r1 + " " + r2 + " " + overlap, expected.overlap(r1, r2, overlap),
+							k.overlap(r1, r2, overlap));
+				}
+			}
+		}
+	}
+
+	public void testIncrementalOverlaps() throws Exception {
+		IntKB intKb = new IntKB();
+		intKb.add(kb);
+		for (KB k : new KB[]{kb, intKb}) {
+			k.buildOverlapTables();
+			k.add(KB.triple("<Oana>", "<worksAt>", "<Telecom>"));
+			k.add(KB.triple("<Paris>", "<isLocatedIn>", "<Paris>"));
+			k.add(KB.triple("<Telecom>", "<hasHeadquarter>", "<Telecom>"));
+			assertSameOverlaps(k);
+			k.delete("<Luis>", "<livesIn>", "<Paris>");
+			k.delete("<Telecom>", "<hasHeadquarter>", "<Telecom>");
+			k.delete("<Telecom>", "<isLocatedIn>", "<Paris>");
+			assertSameOverlaps(k);
+
+			File file = File.createTempFile("amie", ".tsv");
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write("<Luis>\t<livesIn>\t<Paris>\n");
+			writer.write("<Luis>\t<livesIn>\t<Guayaquil>\n");
+			writer.write("<Guayaquil>\t<isLocatedIn>\t<Ecuador>\n");
+			writer.write("<Ecuador>\t<hasCapital>\t<Quito>\n");
+			writer.write("<Ecuador>\t<hasCapital>\t<Ecuador>\n");
+			writer.close();
+			new KBLoader(k, 2).load(Arrays.asList(file));
+			file.delete();
+			assertSameOverlaps(k);
+		}
+	}
+
+	public void testBoundedCounts() {
+		ByteString x = ByteString.of("?x");
+		ByteString y = ByteString.of("?y");
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<livesIn>", "<Paris>"), 
+				KB.triple("?x", "<worksAt>", "?y"));
+		assertEquals(3, kb.countDistinct(x, query));
+		assertEquals(2, kb.countDistinctAtMost(x, query, 2));
+		assertEquals(3, kb.countDistinctAtMost(x, query, 10));
+		assertTrue(kb.countDistinctAtLeast(x, query, 3));
+		assertFalse(kb.countDistinctAtLeast(x, query, 4));
+		assertEquals(1, kb.countDistinctAtMost(y, query, 10));
+		
+		query = KB.triples(KB.triple("?x", "<livesIn>", "?y"), KB.triple("?x", "<worksAt>", "?z"));
+		assertEquals(3, kb.countDistinctPairs(x, y, query));
+		assertEquals(2, kb.countDistinctPairsAtMost(x, y, query, 2));
+		assertEquals(3, kb.countDistinctPairsAtMost(x, y, query, 3));
+		assertEquals(0, kb.countDistinctPairsAtMost(x, y, query, 0));
+	}
+
+	public void testParallelPairs() {
+		KB big = new KB();
+		for (int i = 0; i < 3 * KB.PARALLEL_PAIRS_THRESHOLD; ++i) {
+			big.add("<e" + i + ">", "<knows>", "<e" + (i * 7 % 101) + ">");
+			big.add("<e" + i + ">", "<livesIn>", "<c" + (i % 13) + ">");
+			big.add("<e" + i + ">", "<livesIn>", "<c" + (i % 5) + ">");
+		}
+		ByteString x = ByteString.of("?x");
+		ByteString z = ByteString.of("?z");
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"), 
+				KB.triple("?y", "<livesIn>", "?z"));
+		long expected = big.countDistinctPairs(x, z, query);
+		big.setQueryParallelism(4);
+		assertEquals(4, big.getQueryParallelism());
+		assertEquals(expected, big.countDistinctPairs(x, z, query));
+		assertEquals(100, big.countDistinctPairsAtMost(x, z, query, 100));
+		assertEquals(expected, big.countDistinctPairsAtMost(x, z, query, expected + 1));
+		assertEquals("?y", query.get(0)[2].toString());
+		big.setQueryParallelism(1);
+	}
 }
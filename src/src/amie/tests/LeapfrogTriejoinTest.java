@@ -0,0 +1,91 @@
+package amie.tests;
+
+import java.util.List;
+import java.util.Random;
+
+import amie.data.IntKB;
+import amie.data.KB;
+import amie.data.LeapfrogTriejoin;
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+
+public class LeapfrogTriejoinTest extends TestCase {
+	KB kb = new KB();
+
+	IntKB intKb = new IntKB();
+
+	ByteString x = ByteString.of("?x");
+
+	ByteString y = ByteString.of("?y");
+
+	ByteString z = ByteString.of("?z");
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(42);
+		String[] relations = {"<knows>", "<livesIn>", "<worksWith>"};
+		for (int i = 0; i < 600; ++i) {
+			String subject = "<e" + random.nextInt(40) + ">";
+			String relation = relations[random.nextInt(relations.length)];
+			String object = "<e" + random.nextInt(40) + ">";
+			kb.add(subject, relation, object);
+			intKb.add(subject, relation, object);
+		}
+		intKb.freeze();
+		intKb.setQueryEngine(IntKB.QueryEngine.LEAPFROG);
+	}
+
+	private void assertSameResults(List<ByteString[]> query) {
+		assertEquals(kb.selectDistinct(x, query), intKb.selectDistinct(x, query));
+		assertEquals(kb.countDistinct(x, query), intKb.countDistinct(x, query));
+		assertEquals(kb.countDistinctPairs(x, y, query), intKb.countDistinctPairs(x, y, query));
+		assertEquals(kb.selectDistinct(x, y, query), intKb.selectDistinct(x, y, query));
+		assertEquals(kb.existsBS(query), intKb.existsBS(query));
+		for (long limit : new long[]{1, 5}) {
+			assertEquals(Math.min(kb.countDistinct(x, query), limit), intKb.countDistinctAtMost(x, query, limit));
+			assertEquals(Math.min(kb.countDistinct(x, query), limit), kb.countDistinctAtMost(x, query, limit));
+			assertEquals(Math.min(kb.countDistinctPairs(x, y, query), limit), 
+					intKb.countDistinctPairsAtMost(x, y, query, limit));
+			assertEquals(Math.min(kb.countDistinctPairs(x, y, query), limit), 
+					kb.countDistinctPairsAtMost(x, y, query, limit));
+		}
+	}
+
+	public void testTriangle() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?z"), KB.triple("?x", "<livesIn>", "?z")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?z", "<knows>", "?y"), KB.triple("?z", "<knows>", "?x")));
+	}
+
+	public void testFourAtoms() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<knows>", "?z"), KB.triple("?z", "<worksWith>", "?w"),
+				KB.triple("?x", "<livesIn>", "?w")));
+	}
+
+	public void testConstantsAndRelationVariables() {
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "<e1>"),
+				KB.triple("?x", "?r", "?y")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<livesIn>", "<unknown>")));
+		assertSameResults(KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("<e2>", "<knows>", "<e3>")));
+	}
+
+	public void testUnsupported() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?x"),
+				KB.triple("?x", "<livesIn>", "?y"));
+		assertNull(LeapfrogTriejoin.compile(intKb, query, x));
+		assertSameResults(query);
+		assertNull(LeapfrogTriejoin.compile(intKb, KB.triples(KB.triple("?x", KB.DIFFERENTFROMstr, "?y")), x));
+	}
+
+	public void testVariableOrder() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?z"), KB.triple("?z", "<livesIn>", "?w"));
+		LeapfrogTriejoin join = LeapfrogTriejoin.compile(intKb, query, z);
+		assertEquals(z, join.getVariableOrder().get(0));
+		assertEquals(4, join.getVariableOrder().size());
+	}
+}
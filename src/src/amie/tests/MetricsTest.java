@@ -0,0 +1,116 @@
+package amie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+import amie.metrics.Metrics;
+import amie.metrics.Timer;
+import amie.mining.AMIE;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.rules.Metric;
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 13);
+		Metrics.reset();
+		Metrics.setEnabled(true);
+	}
+
+	protected void tearDown() throws Exception {
+		Metrics.setEnabled(false);
+		Metrics.reset();
+		super.tearDown();
+	}
+
+	public void testTimer() {
+		Timer timer = Metrics.timer("test.timer");
+		assertSame(timer, Metrics.timer("test.timer"));
+		for (int i = 1; i <= 100; ++i) {
+			timer.record(i * 1000);
+		}
+		assertEquals(100, timer.getCount());
+		assertEquals(5.05, timer.getTotalTimeMillis(), 1e-9);
+		assertEquals(100.0, timer.getMaxTimeMicros(), 1e-9);
+		// Histogram buckets are powers of two
+		assertTrue(timer.getMedianTimeMicros() >= 50.0);
+		assertTrue(timer.getMedianTimeMicros() < 100.0);
+		assertEquals(100.0, timer.get99thPercentileMicros(), 1e-9);
+
+		Metrics.setEnabled(false);
+		long start = timer.start();
+		assertEquals(Timer.NOT_TIMED, start);
+		timer.stop(start);
+		Metrics.counter("test.counter").increment();
+		assertEquals(100, timer.getCount());
+		assertEquals(0, Metrics.counter("test.counter").getCount());
+	}
+
+	public void testNestedQueries() {
+		ByteString a = ByteString.of("?a");
+		ByteString b = ByteString.of("?b");
+		kb.countDistinctPairs(a, b, KB.triples(KB.triple("?a", "<r0>", "?c"),
+				KB.triple("?c", "<r1>", "?b")));
+		assertEquals(1, Metrics.timer("kb.countDistinctPairs").getCount());
+		// The queries issued by countDistinctPairs are part of its time
+		assertEquals(0, Metrics.timer("kb.countDistinct").getCount());
+		assertEquals(0, Metrics.timer("kb.selectDistinct").getCount());
+		kb.countDistinct(a, KB.triples(KB.triple("?a", "<r0>", "?c")));
+		assertEquals(1, Metrics.timer("kb.countDistinct").getCount());
+	}
+
+	public void testNestedQueriesInOtherThreads() {
+		KB large = new KB();
+		for (int i = 0; i < 2 * KB.PARALLEL_PAIRS_THRESHOLD; ++i) {
+			large.add("<e" + i + ">", "<r0>", "<c" + (i % 10) + ">");
+			large.add("<c" + (i % 10) + ">", "<r1>", "<d" + (i % 7) + ">");
+		}
+		large.setQueryParallelism(2);
+		try {
+			large.countDistinctPairs(ByteString.of("?a"), ByteString.of("?b"),
+					KB.triples(KB.triple("?a", "<r0>", "?c"), KB.triple("?c", "<r1>", "?b")));
+		} finally {
+			large.setQueryParallelism(1);
+		}
+		assertEquals(1, Metrics.timer("kb.countDistinctPairs").getCount());
+		// The bindings of ?a are split among the threads of the pool
+		assertEquals(0, Metrics.timer("kb.selectDistinct").getCount());
+	}
+
+	public void testMiningMetrics() throws Exception {
+		AMIE miner = new AMIE(new DefaultMiningAssistant(kb), 5, 5, Metric.Support, 2);
+		miner.setRealTime(false);
+		int nRules = miner.mine().size();
+		assertEquals(nRules, Metrics.counter("mining.outputRules").getCount());
+		assertTrue(Metrics.counter("mining.rules").getCount() >= nRules);
+		assertTrue(Metrics.timer("operator.dangling").getCount() > 0);
+		assertTrue(Metrics.counter("operator.closing.rules").getCount() > 0);
+		assertTrue(Metrics.timer("mining.confidence").getCount() > 0);
+		assertTrue(Metrics.timer("kb.countDistinct").getCount() > 0);
+
+		Metrics.registerMBeans();
+		ObjectName name = new ObjectName("amie:type=Timer,name=" + ObjectName.quote("operator.dangling"));
+		assertEquals(Metrics.timer("operator.dangling").getCount(),
+				ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"));
+		// Metrics created after the registration are registered too
+		Metrics.counter("test.late");
+		name = new ObjectName("amie:type=Counter,name=" + ObjectName.quote("test.late"));
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Metrics.dump(new PrintStream(out, true, "UTF-8"));
+		String dump = out.toString("UTF-8");
+		assertTrue(dump.contains("operator.dangling\tcount="));
+		assertTrue(dump.contains("mining.outputRules\tcount=" + nRules));
+		// Unused metrics are not printed
+		assertFalse(dump.contains("test.late"));
+	}
+}
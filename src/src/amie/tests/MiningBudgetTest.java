@@ -0,0 +1,124 @@
+package amie.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+import amie.mining.AMIE;
+import amie.mining.MiningBudget;
+import amie.mining.MiningCheckpoint;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.rules.Metric;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class MiningBudgetTest extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 5);
+	}
+
+	private AMIE miner(MiningBudget budget) {
+		AMIE miner = new AMIE(new DefaultMiningAssistant(kb), 5, 5, Metric.Support, 1);
+		miner.setRealTime(false);
+		miner.setBudget(budget);
+		return (miner);
+	}
+
+	/**
+	 * A budget exhausted after a given number of checks.
+	 */
+	private static MiningBudget budget(final int checks) {
+		return new MiningBudget(0, 0) {
+			int calls = 0;
+
+			@Override
+			public boolean isExhausted() {
+				return (++calls > checks);
+			}
+		};
+	}
+
+	private static Set<Rule> rulesWithHead(List<Rule> rules, ByteString relation) {
+		Set<Rule> result = new HashSet<>();
+		for (Rule rule : rules) {
+			if (rule.getHeadRelationBS().equals(relation))
+				result.add(rule);
+		}
+		return (result);
+	}
+
+	public void testTimeLimit() throws Exception {
+		MiningBudget budget = new MiningBudget(20, 0);
+		budget.start();
+		assertFalse(budget.isExhausted());
+		Thread.sleep(40);
+		assertTrue(budget.isExhausted());
+		assertFalse(new MiningBudget(0, 0).isExhausted());
+		assertTrue(new MiningBudget(0, 1).isExhausted());
+	}
+
+	public void testUnlimitedBudget() throws Exception {
+		List<Rule> expected = miner(null).mine();
+		AMIE miner = miner(new MiningBudget(3600 * 1000, 0));
+		List<Rule> rules = miner.mine();
+		assertEquals(new HashSet<>(expected), new HashSet<>(rules));
+		assertTrue(miner.getIncompleteHeadRelations().isEmpty());
+		for (Rule rule : rules) {
+			assertTrue(miner.getFullyExploredHeadRelations().contains(rule.getHeadRelationBS()));
+		}
+	}
+
+	public void testExhaustedBudget() throws Exception {
+		List<Rule> expected = miner(null).mine();
+		// Exhausted during the last generation of some head relations
+		AMIE miner = miner(budget(350));
+		List<Rule> rules = miner.mine();
+		assertFalse(rules.isEmpty());
+		assertTrue(rules.size() < expected.size());
+		assertTrue(new HashSet<>(expected).containsAll(rules));
+		assertFalse(miner.getIncompleteHeadRelations().isEmpty());
+		// The rules of the fully explored head relations are those of the full mining
+		Set<ByteString> explored = miner.getFullyExploredHeadRelations();
+		assertFalse(explored.isEmpty());
+		List<ByteString> heads = new ArrayList<>(miner.getIncompleteHeadRelations());
+		heads.retainAll(explored);
+		assertTrue(heads.isEmpty());
+		for (ByteString relation : explored) {
+			assertEquals(rulesWithHead(expected, relation), rulesWithHead(rules, relation));
+		}
+	}
+
+	public void testBudgetExhaustedAfterMining() throws Exception {
+		// Number of checks of a full mining
+		final int[] checks = new int[1];
+		List<Rule> expected = miner(new MiningBudget(0, 0) {
+			@Override
+			public boolean isExhausted() {
+				++checks[0];
+				return (false);
+			}
+		}).mine();
+		// Exhausted once the last rule has been processed
+		AMIE miner = miner(budget(checks[0]));
+		File file = File.createTempFile("amie", ".ckpt");
+		try {
+			miner.setCheckpointFile(file, 0);
+			assertEquals(new HashSet<>(expected), new HashSet<>(miner.mine()));
+			assertTrue(miner.getIncompleteHeadRelations().isEmpty());
+			// The checkpoint of the finished mining is still written
+			MiningCheckpoint checkpoint = MiningCheckpoint.read(file);
+			assertTrue(checkpoint.getCurrent().isEmpty());
+			assertTrue(checkpoint.getNext().isEmpty());
+			assertEquals(new HashSet<>(expected), new HashSet<>(checkpoint.getOutput()));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package amie.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import amie.data.KB;
+import amie.mining.AMIE;
+import amie.mining.MiningCheckpoint;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.mining.assistant.MiningAssistant;
+import amie.rules.Metric;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class MiningCheckpointTest extends TestCase {
+	KB kb = new KB();
+
+	File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 3);
+		file = File.createTempFile("amie", ".ckpt");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private AMIE miner(MiningAssistant assistant) {
+		AMIE miner = new AMIE(assistant, 5, 5, Metric.Support, 2);
+		miner.setRealTime(false);
+		return (miner);
+	}
+
+	public void testReadWrite() throws Exception {
+		Rule parent = new Rule(KB.triple("?a", "<r0>", "?b"), KB.triples(KB.triple("?a", "<r1>", "?b")), 10);
+		parent.setPcaBodySize(20);
+		parent.setBodySize(40);
+		parent.setHeadCoverage(0.5);
+		parent.setGeneration(2);
+		Rule child = parent.addAtom(KB.triple("?b", "<r2>", "?a"), 8);
+		child.setGeneration(3);
+		child.addParent(parent);
+		Rule other = new Rule(KB.triple("?a", "<r3>", "<e1>"), 7);
+		other.setGeneration(1);
+		List<Rule> current = new ArrayList<>();
+		current.add(other);
+		List<Rule> next = new ArrayList<>();
+		next.add(child);
+		List<Rule> output = new ArrayList<>();
+		output.add(parent);
+		new MiningCheckpoint(4, current, next, output).write(file);
+
+		MiningCheckpoint checkpoint = MiningCheckpoint.read(file);
+		assertEquals(4, checkpoint.getGeneration());
+		assertEquals(current, checkpoint.getCurrent());
+		assertEquals(next, checkpoint.getNext());
+		assertEquals(output, checkpoint.getOutput());
+		Rule readParent = checkpoint.getOutput().get(0);
+		assertEquals(0.5, readParent.getPcaConfidence());
+		assertEquals(0.25, readParent.getStdConfidence());
+		assertEquals(0.5, readParent.getHeadCoverage());
+		assertEquals(parent.hashCode(), readParent.hashCode());
+		// The parent of the rule in the queue is the rule in the output
+		assertSame(readParent, checkpoint.getNext().get(0).getAncestors().get(0));
+		assertEquals(3, checkpoint.getNext().get(0).getGeneration());
+		assertEquals(8.0, checkpoint.getNext().get(0).getSupport());
+	}
+
+	public void testResumeFinishedMining() throws Exception {
+		List<Rule> expected = miner(new DefaultMiningAssistant(kb)).mine();
+		assertFalse(expected.isEmpty());
+
+		AMIE miner = miner(new DefaultMiningAssistant(kb));
+		miner.setCheckpointFile(file, 0);
+		assertEquals(new HashSet<>(expected), new HashSet<>(miner.mine()));
+
+		// The last checkpoint is saved when the mining is over
+		MiningCheckpoint checkpoint = MiningCheckpoint.read(file);
+		assertTrue(checkpoint.getCurrent().isEmpty());
+		assertTrue(checkpoint.getNext().isEmpty());
+		assertEquals(new HashSet<>(expected), new HashSet<>(checkpoint.getOutput()));
+		miner = miner(new DefaultMiningAssistant(kb));
+		miner.setResumeCheckpoint(checkpoint);
+		List<Rule> resumed = miner.mine();
+		assertEquals(expected.size(), resumed.size());
+		assertEquals(new HashSet<>(expected), new HashSet<>(resumed));
+	}
+
+	public void testResumeWithinGeneration() throws Exception {
+		MiningAssistant assistant = new DefaultMiningAssistant(kb);
+		List<Rule> expected = miner(assistant).mine();
+
+		// Only the first half of the seeds were refined when the checkpoint was saved
+		List<Rule> seeds = new ArrayList<>(assistant.getInitialAtoms(5));
+		List<Rule> current = seeds.subList(seeds.size() / 2, seeds.size());
+		List<Rule> next = new ArrayList<>();
+		for (Rule seed : seeds) {
+			seed.setGeneration(1);
+		}
+		for (Rule seed : seeds.subList(0, seeds.size() / 2)) {
+			Map<String, Collection<Rule>> children = assistant.applyMiningOperators(seed, 5);
+			for (Collection<Rule> rules : children.values()) {
+				for (Rule rule : rules) {
+					rule.setGeneration(2);
+					next.add(rule);
+				}
+			}
+		}
+		new MiningCheckpoint(2, current, next, new ArrayList<Rule>()).write(file);
+
+		AMIE miner = miner(new DefaultMiningAssistant(kb));
+		miner.setResumeCheckpoint(MiningCheckpoint.read(file));
+		List<Rule> resumed = miner.mine();
+		assertEquals(expected.size(), resumed.size());
+		assertEquals(new HashSet<>(expected), new HashSet<>(resumed));
+	}
+}
@@ -0,0 +1,98 @@
+package amie.tests;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import amie.data.KB;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.mining.assistant.MiningOperator;
+import amie.mining.assistant.OperatorPipeline;
+import amie.mining.assistant.RefinementOperator;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class OperatorPipelineTest extends TestCase {
+	KB kb = new KB();
+
+	/**
+	 * An assistant that overrides the dangling operator.
+	 */
+	public static class CountingMiningAssistant extends DefaultMiningAssistant {
+		int calls;
+
+		public CountingMiningAssistant(KB dataSource) {
+			super(dataSource);
+		}
+
+		@Override
+		@MiningOperator(name="dangling")
+		public void getDanglingAtoms(Rule query, double minCardinality, Collection<Rule> output) {
+			++calls;
+			super.getDanglingAtoms(query, minCardinality, output);
+		}
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add("<a>", "<r>", "<b>");
+		kb.add("<b>", "<r>", "<c>");
+		kb.add("<a>", "<s>", "<c>");
+	}
+
+	public void testDependencies() {
+		OperatorPipeline pipeline = new DefaultMiningAssistant(kb).getMiningOperators();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < pipeline.size(); ++i) {
+			names.add(pipeline.getName(i));
+		}
+		assertEquals(4, names.size());
+		assertTrue(names.containsAll(Arrays.asList("dangling", "closing", "instantiated", "specializing")));
+		int instantiated = names.indexOf("instantiated");
+		assertEquals(names.indexOf("dangling"), pipeline.getDependency(instantiated));
+		assertTrue(pipeline.getDependency(instantiated) < instantiated);
+		assertEquals(1, pipeline.getWave(instantiated));
+		assertEquals(2, pipeline.getNumberOfWaves());
+	}
+
+	public void testOverriddenOperatorIsCalledOnce() throws Exception {
+		CountingMiningAssistant assistant = new CountingMiningAssistant(kb);
+		Rule rule = new Rule(KB.triple("?x", "<r>", "?y"), 2);
+		Map<String, Collection<Rule>> candidates = assistant.applyMiningOperators(rule, 1);
+		assertEquals(1, assistant.calls);
+		assertFalse(candidates.get("dangling").isEmpty());
+	}
+
+	public void testCustomOperators() throws Exception {
+		OperatorPipeline pipeline = new OperatorPipeline();
+		pipeline.add("copy", "", new RefinementOperator() {
+			@Override
+			public void refine(Rule rule, double minSupportThreshold, Collection<Rule> input,
+					Collection<Rule> output) {
+				output.add(rule);
+			}
+		});
+		pipeline.add("fail", "copy", new RefinementOperator() {
+			@Override
+			public void refine(Rule rule, double minSupportThreshold, Collection<Rule> input,
+					Collection<Rule> output) {
+				assertEquals(1, input.size());
+				throw new IllegalStateException();
+			}
+		});
+		try {
+			pipeline.add("orphan", "missing", null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			pipeline.apply(new Rule(KB.triple("?x", "<r>", "?y"), 2), 1);
+			fail();
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}
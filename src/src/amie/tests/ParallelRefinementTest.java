@@ -0,0 +1,65 @@
+package amie.tests;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import amie.data.KB;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.mining.assistant.MiningAssistant;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class ParallelRefinementTest extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 11, 300, 20);
+	}
+
+	private List<Rule> refine(MiningAssistant assistant, Rule rule) throws Exception {
+		List<Rule> result = new ArrayList<>();
+		Map<String, Collection<Rule>> candidates = assistant.applyMiningOperators(rule, 2);
+		for (String operator : candidates.keySet()) {
+			for (Rule candidate : candidates.get(operator)) {
+				result.add(candidate);
+				// The parents are never copies of the refined rule
+				for (Rule parent : candidate.getAncestors()) {
+					assertTrue(parent == rule || !parent.equals(rule));
+				}
+			}
+		}
+		return (result);
+	}
+
+	private void assertSameCandidates(MiningAssistant assistant, Rule rule) throws Exception {
+		// Fresh variables may get different names, the candidates are compared with Rule.equals
+		assistant.setOperatorParallelism(1);
+		List<Rule> expected = refine(assistant, rule);
+		assistant.setOperatorParallelism(4);
+		List<Rule> actual = refine(assistant, rule);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(expected.get(i), actual.get(i));
+			assertEquals(expected.get(i).getSupport(), actual.get(i).getSupport());
+		}
+		assertEquals(4, assistant.getOperatorParallelism());
+		assistant.setOperatorParallelism(1);
+	}
+
+	public void testSameCandidates() throws Exception {
+		MiningAssistant assistant = new DefaultMiningAssistant(kb);
+		assistant.setAllowConstants(true);
+		for (int i = 0; i < 4; ++i) {
+			Rule head = new Rule(KB.triple("?a", "<r" + i + ">", "?b"),
+					kb.count(KB.triple("?a", "<r" + i + ">", "?b")));
+			assertSameCandidates(assistant, head);
+			Map<String, Collection<Rule>> children = assistant.applyMiningOperators(head, 2);
+			for (Rule child : children.get("dangling")) {
+				assertSameCandidates(assistant, child);
+			}
+		}
+	}
+}
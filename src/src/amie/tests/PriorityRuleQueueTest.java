@@ -0,0 +1,36 @@
+package amie.tests;
+
+import java.util.List;
+
+import amie.mining.AMIEQueue;
+import amie.mining.PriorityRuleQueue;
+import amie.tests.WorkStealingQueueTest.Event;
+import junit.framework.TestCase;
+
+public class PriorityRuleQueueTest extends TestCase {
+
+	public void testSameRulesAsAMIEQueue() throws InterruptedException {
+		List<String> expected = WorkStealingQueueTest.rules(
+				WorkStealingQueueTest.run(new AMIEQueue(WorkStealingQueueTest.seeds(), 4), 4));
+		for (int i = 0; i < 20; ++i) {
+			PriorityRuleQueue queue = new PriorityRuleQueue(WorkStealingQueueTest.seeds());
+			assertEquals(expected, WorkStealingQueueTest.rules(WorkStealingQueueTest.run(queue, 4)));
+		}
+	}
+
+	public void testSubsumingRulesFirst() throws InterruptedException {
+		for (int i = 0; i < 20; ++i) {
+			List<Event> events = WorkStealingQueueTest.run(
+					new PriorityRuleQueue(WorkStealingQueueTest.seeds()), 4);
+			// The rules of a generation have the same support, so they wait for the previous one
+			for (Event previous : events) {
+				for (Event event : events) {
+					if (previous.rule.getHeadRelationBS().equals(event.rule.getHeadRelationBS())
+							&& previous.rule.getGeneration() < event.rule.getGeneration()) {
+						assertTrue(previous.end < event.start);
+					}
+				}
+			}
+		}
+	}
+}
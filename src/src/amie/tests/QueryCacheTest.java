@@ -0,0 +1,114 @@
+package amie.tests;
+
+import java.util.List;
+import java.util.Random;
+
+import amie.data.IntKB;
+import amie.data.KB;
+import amie.data.QueryCache;
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+
+public class QueryCacheTest extends TestCase {
+	KB kb = new KB();
+
+	KB cachedKb = new KB();
+
+	IntKB intKb = new IntKB();
+
+	QueryCache cache = new QueryCache();
+
+	ByteString x = ByteString.of("?x");
+
+	ByteString y = ByteString.of("?y");
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(7);
+		String[] relations = {"<knows>", "<livesIn>", "<worksWith>"};
+		for (int i = 0; i < 400; ++i) {
+			String subject = "<e" + random.nextInt(30) + ">";
+			String relation = relations[random.nextInt(relations.length)];
+			String object = "<e" + random.nextInt(30) + ">";
+			kb.add(subject, relation, object);
+			cachedKb.add(subject, relation, object);
+			intKb.add(subject, relation, object);
+		}
+		intKb.freeze();
+		cachedKb.setQueryCache(cache);
+	}
+
+	public void testRenamedAndReorderedQueries() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?z"));
+		List<ByteString[]> renamed = KB.triples(KB.triple("?a", "<worksWith>", "?b"),
+				KB.triple("?x", "<knows>", "?a"));
+		assertEquals(kb.countDistinct(x, query), cachedKb.countDistinct(x, query));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(kb.countDistinct(x, query), cachedKb.countDistinct(x, renamed));
+		assertEquals(1, cache.getHits());
+		// Different projection variable
+		assertEquals(kb.countDistinct(y, query), cachedKb.countDistinct(y, query));
+		assertEquals(1, cache.getHits());
+		assertEquals(kb.selectDistinct(x, query), cachedKb.selectDistinct(x, query));
+		assertEquals(kb.selectDistinct(x, query), cachedKb.selectDistinct(x, renamed));
+		assertEquals(kb.countDistinctPairs(x, y, query), cachedKb.countDistinctPairs(x, y, query));
+		assertEquals(kb.countDistinctPairs(x, y, query), cachedKb.countDistinctPairs(x, y, query));
+		assertEquals(3, cache.getHits());
+		assertEquals(4, cache.size());
+	}
+
+	public void testSingleAtomsAreNotCached() {
+		cachedKb.countDistinct(x, KB.triples(KB.triple("?x", "<knows>", "?y")));
+		assertEquals(0, cache.getHits() + cache.getMisses());
+	}
+
+	public void testInvalidation() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<livesIn>", "<paris>"));
+		assertEquals(0, cachedKb.countDistinct(x, query));
+		cachedKb.add("<e0>", "<knows>", "<e1>");
+		cachedKb.add("<e1>", "<livesIn>", "<paris>");
+		assertTrue(cache.size() == 0);
+		assertTrue(cachedKb.countDistinct(x, query) > 0);
+		cachedKb.delete("<e1>", "<livesIn>", "<paris>");
+		assertEquals(0, cachedKb.countDistinct(x, query));
+		assertEquals(0, cache.getHits());
+	}
+
+	public void testEviction() {
+		QueryCache small = new QueryCache(16 << 10);
+		cachedKb.setQueryCache(small);
+		for (int i = 0; i < 100; ++i) {
+			List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+					KB.triple("?y", "<knows>", "<e" + i + ">"));
+			cachedKb.countDistinct(x, query);
+		}
+		assertTrue(small.getEstimatedSize() <= 16 << 10);
+		assertTrue(small.size() < 100);
+		assertTrue(small.getEvictions() > 0);
+	}
+
+	public void testLargeResultsAreNotCached() {
+		QueryCache small = new QueryCache(16 << 10);
+		cachedKb.setQueryCache(small);
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?z"));
+		assertEquals(kb.countDistinct(x, query), cachedKb.countDistinct(x, query));
+		assertEquals(kb.selectDistinct(x, query), cachedKb.selectDistinct(x, query));
+		assertEquals(1, small.size());
+		assertEquals(kb.selectDistinct(x, query), cachedKb.selectDistinct(x, query));
+		assertEquals(0, small.getHits());
+	}
+
+	public void testIntKB() {
+		intKb.setQueryEngine(IntKB.QueryEngine.LEAPFROG);
+		intKb.setQueryCache(cache);
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<worksWith>", "?x"));
+		assertEquals(kb.countDistinct(x, query), intKb.countDistinct(x, query));
+		assertEquals(kb.countDistinct(x, query), intKb.countDistinct(x, query));
+		assertEquals(1, cache.getHits());
+	}
+}
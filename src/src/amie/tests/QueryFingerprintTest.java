@@ -0,0 +1,82 @@
+package amie.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+import amie.data.KB;
+import amie.rules.QueryEquivalenceChecker;
+import amie.rules.QueryFingerprint;
+import amie.rules.Rule;
+
+public class QueryFingerprintTest extends TestCase {
+
+	List<List<ByteString[]>> queries = new ArrayList<>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "?b"), KB.triple("?a", "<wasBornIn>", "?b")));
+		queries.add(KB.triples(KB.triple("?x", "<livesIn>", "?y"), KB.triple("?x", "<wasBornIn>", "?y")));
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "?b"), KB.triple("?b", "<wasBornIn>", "?a")));
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "?b"), KB.triple("?a", "<wasBornIn>", "?c"),
+				KB.triple("?c", "<isLocatedIn>", "?b")));
+		queries.add(KB.triples(KB.triple("?s", "<livesIn>", "?o"), KB.triple("?z", "<isLocatedIn>", "?o"),
+				KB.triple("?s", "<wasBornIn>", "?z")));
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "?b"), KB.triple("?c", "<wasBornIn>", "?a"),
+				KB.triple("?c", "<isLocatedIn>", "?b")));
+		queries.add(KB.triples(KB.triple("?s", "<married>", "?u"), KB.triple("?u", "<married>", "?s")));
+		queries.add(KB.triples(KB.triple("?x", "<married>", "?z"), KB.triple("?z", "<married>", "?y")));
+		queries.add(KB.triples(KB.triple("?x", "<married>", "?x"), KB.triple("?x", "<married>", "?y")));
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "<Paris>"), KB.triple("?a", "<wasBornIn>", "?b")));
+		queries.add(KB.triples(KB.triple("?a", "<livesIn>", "<Lyon>"), KB.triple("?a", "<wasBornIn>", "?b")));
+		// The same body atoms, different head
+		queries.add(KB.triples(KB.triple("?a", "<wasBornIn>", "?b"), KB.triple("?a", "<livesIn>", "?b")));
+	}
+
+	public void testRenamingAndReordering() {
+		// Equivalent queries have the same class
+		int[] classes = {0, 0, 1, 2, 2, 3, 4, 5, 6, 7, 8, 9};
+		for (int i = 0; i < queries.size(); ++i) {
+			for (int j = 0; j < queries.size(); ++j) {
+				assertEquals(classes[i] == classes[j],
+						QueryFingerprint.fingerprint(queries.get(i)) == QueryFingerprint.fingerprint(queries.get(j)));
+			}
+		}
+	}
+
+	public void testEquivalentQueries() {
+		for (List<ByteString[]> q1 : queries) {
+			for (List<ByteString[]> q2 : queries) {
+				if (QueryFingerprint.fingerprint(q1) == QueryFingerprint.fingerprint(q2))
+					assertTrue(QueryEquivalenceChecker.areEquivalent(q1, q2));
+			}
+		}
+	}
+
+	public void testRules() {
+		Rule r1 = new Rule(KB.triple("?a", "<livesIn>", "?b"), KB.triples(KB.triple("?a", "<wasBornIn>", "?c"),
+				KB.triple("?c", "<isLocatedIn>", "?b")), 10);
+		Rule r2 = new Rule(KB.triple("?s", "<livesIn>", "?o"), KB.triples(KB.triple("?z", "<isLocatedIn>", "?o"),
+				KB.triple("?s", "<wasBornIn>", "?z")), 10);
+		Rule r3 = new Rule(KB.triple("?a", "<livesIn>", "?b"), KB.triples(KB.triple("?c", "<wasBornIn>", "?a"),
+				KB.triple("?c", "<isLocatedIn>", "?b")), 10);
+		Set<Rule> rules = new HashSet<>();
+		assertTrue(rules.add(r1));
+		assertFalse(rules.add(r2));
+		assertTrue(rules.add(r3));
+		assertEquals(r1.getFingerprint(), r2.getFingerprint());
+		assertEquals(r1.hashCode(), r2.hashCode());
+
+		// The fingerprint follows the changes of the atoms
+		long fingerprint = r1.getFingerprint();
+		r1.getTriples().get(1)[0] = ByteString.of("?b");
+		assertFalse(fingerprint == r1.getFingerprint());
+		r1.getTriples().get(1)[0] = ByteString.of("?a");
+		assertEquals(fingerprint, r1.getFingerprint());
+		r1.getTriples().add(KB.triple("?a", "<isCitizenOf>", "?b"));
+		assertFalse(fingerprint == r1.getFingerprint());
+	}
+}
@@ -0,0 +1,67 @@
+package amie.tests;
+
+import java.util.List;
+
+import amie.data.KB;
+import amie.data.QueryPlanner;
+import javatools.datatypes.ByteString;
+import junit.framework.TestCase;
+
+public class QueryPlannerTest extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Everybody lives in one of two cities, few people are married
+		for (int i = 0; i < 200; ++i) {
+			kb.add("<p" + i + ">", "<livesIn>", "<c" + (i % 2) + ">");
+			kb.add("<p" + i + ">", "<knows>", "<p" + ((i + 1) % 200) + ">");
+			kb.add("<p" + i + ">", "<knows>", "<p" + ((i + 7) % 200) + ">");
+		}
+		for (int i = 0; i < 10; ++i) {
+			kb.add("<p" + (2 * i) + ">", "<isMarriedTo>", "<p" + (2 * i + 2) + ">");
+		}
+	}
+
+	public void testPlanStartsWithSelectiveAtom() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<livesIn>", "?z"),
+				KB.triple("?y", "<livesIn>", "?z"), KB.triple("?x", "<isMarriedTo>", "?y"));
+		QueryPlanner.Plan plan = kb.explain(query);
+		assertFalse(plan.isEmpty());
+		assertEquals(3, plan.getSteps().size());
+		assertEquals(2, plan.first());
+		assertTrue(plan.getCost() < 200 * 200);
+		assertTrue(plan.toString().contains("<isMarriedTo>"));
+	}
+
+	public void testEmptyQuery() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<livesIn>", "?z"),
+				KB.triple("?x", "<worksAt>", "?y"), KB.triple("?y", "<knows>", "?z"));
+		assertTrue(kb.explain(query).isEmpty());
+		assertEquals(-1, kb.explain(query).first());
+	}
+
+	public void testSpecialAtomsLast() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", KB.DIFFERENTFROMstr, "?y"),
+				KB.triple("?x", "<knows>", "?y"), KB.triple("?y", "<isMarriedTo>", "?z"));
+		QueryPlanner.Plan plan = kb.explain(query);
+		assertEquals(0, plan.getSteps().get(2).atom);
+	}
+
+	public void testSameResults() {
+		List<ByteString[]> query = KB.triples(KB.triple("?x", "<knows>", "?y"),
+				KB.triple("?y", "<knows>", "?z"), KB.triple("?x", "<livesIn>", "?w"),
+				KB.triple("?z", "<livesIn>", "?w"));
+		ByteString x = ByteString.of("?x");
+		ByteString z = ByteString.of("?z");
+		assertFalse(kb.isCostBasedPlanning());
+		kb.setCostBasedPlanning(true);
+		long count = kb.countDistinctPairs(x, z, query);
+		kb.buildOverlapTables();
+		assertEquals(count, kb.countDistinctPairs(x, z, query));
+		kb.setCostBasedPlanning(false);
+		assertFalse(kb.isCostBasedPlanning());
+		assertEquals(count, kb.countDistinctPairs(x, z, query));
+		assertEquals(kb.selectDistinct(x, query).size(), kb.countDistinct(x, query));
+	}
+}
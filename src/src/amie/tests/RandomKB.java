@@ -0,0 +1,37 @@
+package amie.tests;
+
+import java.util.Random;
+
+import amie.data.KB;
+
+/**
+ * Random KB shared by the mining tests: facts on few entities and RELATIONS relations,
+ * dense enough for AMIE to find rules of all lengths in a fraction of a second.
+ */
+public class RandomKB {
+	private RandomKB() {}
+
+	public static final int FACTS = 400;
+
+	public static final int ENTITIES = 25;
+
+	public static final int RELATIONS = 4;
+
+	/**
+	 * It adds FACTS random facts on ENTITIES entities to the KB.
+	 */
+	public static void fill(KB kb, long seed) {
+		fill(kb, seed, FACTS, ENTITIES);
+	}
+
+	/**
+	 * It adds random facts to the KB. The same seed gives the same facts.
+	 */
+	public static void fill(KB kb, long seed, int facts, int entities) {
+		Random random = new Random(seed);
+		for (int i = 0; i < facts; ++i) {
+			kb.add("<e" + random.nextInt(entities) + ">", "<r" + random.nextInt(RELATIONS) + ">",
+					"<e" + random.nextInt(entities) + ">");
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package amie.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import amie.data.KB;
+import amie.rules.Rule;
+import amie.rules.SubsumptionIndex;
+import junit.framework.TestCase;
+
+public class SubsumptionIndexTest extends TestCase {
+
+	List<Rule> rules = new ArrayList<>();
+
+	private static Rule rule(int generation, String[]... atoms) {
+		Rule rule = new Rule(KB.triple(atoms[0][0], atoms[0][1], atoms[0][2]), 10);
+		for (int i = 1; i < atoms.length; ++i) {
+			rule.getTriples().add(KB.triple(atoms[i][0], atoms[i][1], atoms[i][2]));
+		}
+		rule.setGeneration(generation);
+		return rule;
+	}
+
+	private static String[] atom(String subject, String relation, String object) {
+		return new String[]{subject, relation, object};
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// 0: livesIn(a, b) <= wasBornIn(a, b)
+		rules.add(rule(2, atom("?a", "<livesIn>", "?b"), atom("?a", "<wasBornIn>", "?b")));
+		// 1: livesIn(a, b) <= isCitizenOf(a, b)
+		rules.add(rule(2, atom("?a", "<livesIn>", "?b"), atom("?a", "<isCitizenOf>", "?b")));
+		// 2: livesIn(a, b) <= wasBornIn(b, a)
+		rules.add(rule(2, atom("?a", "<livesIn>", "?b"), atom("?b", "<wasBornIn>", "?a")));
+		// 3: livesIn(a, b) <= wasBornIn(a, b), isCitizenOf(a, b)
+		rules.add(rule(3, atom("?a", "<livesIn>", "?b"), atom("?a", "<wasBornIn>", "?b"),
+				atom("?a", "<isCitizenOf>", "?b")));
+		// 4: livesIn(a, b) <= wasBornIn(a, c), isLocatedIn(c, b)
+		rules.add(rule(3, atom("?a", "<livesIn>", "?b"), atom("?a", "<wasBornIn>", "?c"),
+				atom("?c", "<isLocatedIn>", "?b")));
+		// 5: livesIn(a, b) <= wasBornIn(a, b), isCitizenOf(a, b), wasBornIn(a, c)
+		rules.add(rule(4, atom("?a", "<livesIn>", "?b"), atom("?a", "<wasBornIn>", "?b"),
+				atom("?a", "<isCitizenOf>", "?b"), atom("?a", "<wasBornIn>", "?c")));
+		// 6: livesIn(a, b) <= wasBornIn(a, c), isLocatedIn(c, b), isCitizenOf(a, b)
+		rules.add(rule(4, atom("?a", "<livesIn>", "?b"), atom("?a", "<wasBornIn>", "?c"),
+				atom("?c", "<isLocatedIn>", "?b"), atom("?a", "<isCitizenOf>", "?b")));
+		// 7: isCitizenOf(a, b) <= wasBornIn(a, b)
+		rules.add(rule(2, atom("?a", "<isCitizenOf>", "?b"), atom("?a", "<wasBornIn>", "?b")));
+	}
+
+	public void testAdd() {
+		SubsumptionIndex index = new SubsumptionIndex();
+		for (Rule rule : rules) {
+			assertTrue(index.add(rule));
+		}
+		// Same rule with other variable names
+		assertFalse(index.add(rule(2, atom("?x", "<livesIn>", "?y"), atom("?x", "<wasBornIn>", "?y"))));
+		assertEquals(rules.size(), index.size());
+		assertTrue(index.contains(rules.get(4)));
+		assertEquals(7, index.getRules(rules.get(0).getHeadKey()).size());
+		assertTrue(index.getRules("<hasChild>").isEmpty());
+	}
+
+	public void testSubsumingRules() {
+		SubsumptionIndex index = new SubsumptionIndex();
+		for (Rule rule : rules) {
+			index.add(rule);
+		}
+		assertEquals(new HashSet<>(rules.subList(0, 2)),
+				new HashSet<>(index.getSubsumingRules(rules.get(3), 3)));
+		assertEquals(new HashSet<>(rules.subList(0, 2)),
+				new HashSet<>(index.getSubsumingRules(rules.get(5), 3)));
+		List<Rule> expected = new ArrayList<>(rules.subList(0, 2));
+		expected.add(rules.get(3));
+		assertEquals(new HashSet<>(expected), new HashSet<>(index.getSubsumingRules(rules.get(5), 4)));
+		expected = new ArrayList<>();
+		expected.add(rules.get(1));
+		expected.add(rules.get(4));
+		assertEquals(new HashSet<>(expected), new HashSet<>(index.getSubsumingRules(rules.get(6), 4)));
+		// Rules of other head relations are not parents
+		assertTrue(index.getSubsumingRules(rules.get(7), 4).isEmpty());
+	}
+
+	public void testAgreesWithSubsumes() {
+		SubsumptionIndex index = new SubsumptionIndex();
+		for (Rule rule : rules) {
+			index.add(rule);
+		}
+		for (Rule rule : rules) {
+			List<Rule> expected = new ArrayList<>();
+			for (Rule parent : rules) {
+				if (parent.getGeneration() > 1 && parent.getGeneration() < rule.getGeneration()
+						&& parent.getHeadKey().equals(rule.getHeadKey()) && parent.subsumes(rule)) {
+					expected.add(parent);
+				}
+			}
+			assertEquals(new HashSet<>(expected),
+					new HashSet<>(index.getSubsumingRules(rule, rule.getGeneration())));
+		}
+	}
+
+	public void testSubsumes() {
+		assertTrue(rules.get(0).subsumes(rules.get(3)));
+		assertTrue(rules.get(3).subsumes(rules.get(5)));
+		assertFalse(rules.get(2).subsumes(rules.get(3)));
+		assertFalse(rules.get(3).subsumes(rules.get(6)));
+		assertFalse(rules.get(5).subsumes(rules.get(3)));
+		assertFalse(rules.get(0).subsumes(rules.get(7)));
+	}
+}
@@ -0,0 +1,101 @@
+package amie.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javatools.datatypes.ByteString;
+import amie.data.KB;
+import amie.mining.AMIE;
+import amie.mining.assistant.DefaultMiningAssistant;
+import amie.mining.assistant.MiningAssistant;
+import amie.rules.Metric;
+import amie.rules.Rule;
+import amie.rules.TopKRules;
+import junit.framework.TestCase;
+
+public class TopKRulesTest extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		RandomKB.fill(kb, 7);
+	}
+
+	private static Rule rule(String head, String body, int support, int pcaBodySize) {
+		Rule rule = new Rule(KB.triple("?x", head, "?y"), support);
+		rule.getTriples().add(KB.triple("?x", body, "?y"));
+		rule.setPcaBodySize(pcaBodySize);
+		return (rule);
+	}
+
+	public void testOffer() {
+		TopKRules topK = new TopKRules(2);
+		Rule r1 = rule("<r>", "<a>", 10, 20);
+		Rule r2 = rule("<r>", "<b>", 10, 40);
+		Rule r3 = rule("<r>", "<c>", 10, 12);
+		Rule r4 = rule("<r>", "<d>", 20, 80);
+		Rule r5 = rule("<s>", "<a>", 10, 100);
+		assertTrue(topK.offer(r1));
+		assertEquals(0.0, topK.getPcaConfidenceThreshold(r1));
+		assertTrue(topK.offer(r2));
+		assertEquals(0.25, topK.getPcaConfidenceThreshold(r1));
+		assertTrue(topK.offer(r3));
+		assertEquals(0.5, topK.getPcaConfidenceThreshold(r1));
+		// Same confidence as the k-th rule, but lower support
+		assertFalse(topK.offer(r2));
+		assertFalse(topK.offer(r4));
+		// Other head relation
+		assertEquals(0.0, topK.getPcaConfidenceThreshold(r5));
+		assertTrue(topK.offer(r5));
+		assertEquals(3, topK.size());
+		List<Rule> rules = topK.getRules();
+		assertEquals(3, rules.size());
+		assertTrue(rules.indexOf(r3) < rules.indexOf(r1));
+		assertTrue(rules.contains(r5));
+	}
+
+	private List<Rule> mine(int topK, int nThreads) throws Exception {
+		MiningAssistant assistant = new DefaultMiningAssistant(kb);
+		// The approximations are not upper bounds, they could discard top rules
+		assistant.setEnabledFunctionalityHeuristic(false);
+		AMIE miner = new AMIE(assistant, 5, 5, Metric.Support, nThreads);
+		miner.setRealTime(false);
+		miner.setTopK(topK);
+		return (miner.mine());
+	}
+
+	/**
+	 * It returns the PCA confidences of the rules of each head relation, from the highest
+	 * to the lowest.
+	 */
+	private Map<ByteString, List<Double>> confidences(List<Rule> rules, int k) {
+		Map<ByteString, List<Double>> result = new HashMap<>();
+		for (Rule rule : rules) {
+			List<Double> confidences = result.get(rule.getHeadRelationBS());
+			if (confidences == null) {
+				confidences = new ArrayList<>();
+				result.put(rule.getHeadRelationBS(), confidences);
+			}
+			confidences.add(rule.getPcaConfidence());
+		}
+		for (List<Double> confidences : result.values()) {
+			Collections.sort(confidences, Collections.reverseOrder());
+			confidences.subList(Math.min(k, confidences.size()), confidences.size()).clear();
+		}
+		return (result);
+	}
+
+	public void testSameTopRulesAsFullMining() throws Exception {
+		List<Rule> all = mine(0, 1);
+		assertFalse(all.isEmpty());
+		Map<ByteString, List<Double>> expected = confidences(all, 3);
+		for (int nThreads : new int[]{1, 4}) {
+			List<Rule> top = mine(3, nThreads);
+			assertTrue(top.size() <= 3 * expected.size());
+			assertEquals(expected, confidences(top, 3));
+		}
+	}
+}
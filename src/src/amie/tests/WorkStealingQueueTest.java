@@ -0,0 +1,117 @@
+package amie.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import amie.data.KB;
+import amie.mining.AMIEQueue;
+import amie.mining.RuleQueue;
+import amie.mining.WorkStealingQueue;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class WorkStealingQueueTest extends TestCase {
+
+	static final int HEADS = 5;
+
+	static final int MAX_GENERATION = 3;
+
+	/**
+	 * A processed rule with the times at which it was dequeued and finished.
+	 */
+	static final class Event {
+		Rule rule;
+		long start;
+		long end;
+	}
+
+	static List<Rule> seeds() {
+		List<Rule> seeds = new ArrayList<>();
+		for (int i = 0; i < HEADS; ++i) {
+			seeds.add(new Rule(KB.triple("?x", "<h" + i + ">", "?y"), 100));
+		}
+		return (seeds);
+	}
+
+	/**
+	 * It refines the rules until the queue is exhausted. Each rule gets one specialization per
+	 * body relation, so rules with the same atoms in different orders are queued several times.
+	 */
+	static List<Event> run(final RuleQueue queue, int nThreads) throws InterruptedException {
+		final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+		final AtomicLong clock = new AtomicLong();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < nThreads; ++i) {
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						Event event = null;
+						while (true) {
+							if (event != null)
+								event.end = clock.incrementAndGet();
+							Rule rule = queue.dequeue();
+							if (rule == null)
+								break;
+							event = new Event();
+							event.rule = rule;
+							event.start = clock.incrementAndGet();
+							events.add(event);
+							if (rule.getGeneration() < MAX_GENERATION) {
+								List<Rule> children = new ArrayList<>();
+								for (int j = 0; j < 2; ++j) {
+									children.add(rule.addAtom(KB.triple("?x", "<b" + j + ">", "?y"), 10));
+								}
+								queue.queueAll(children);
+							}
+						}
+						queue.decrementMaxThreads();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		return (events);
+	}
+
+	static List<String> rules(List<Event> events) {
+		List<String> result = new ArrayList<>();
+		for (Event event : events) {
+			result.add(event.rule.getGeneration() + " " + event.rule.getRuleString());
+		}
+		Collections.sort(result);
+		return (result);
+	}
+
+	public void testSameRulesAsAMIEQueue() throws InterruptedException {
+		List<String> expected = rules(run(new AMIEQueue(seeds(), 4), 4));
+		// 1 seed, 2 rules with one body atom, 3 with two (b0 b1 is queued twice)
+		assertEquals(HEADS * 6, expected.size());
+		assertEquals(expected, rules(run(new WorkStealingQueue(seeds(), 1), 1)));
+		for (int i = 0; i < 20; ++i) {
+			WorkStealingQueue queue = new WorkStealingQueue(seeds(), 4);
+			assertEquals(expected, rules(run(queue, 4)));
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	public void testGenerationsPerHead() throws InterruptedException {
+		for (int i = 0; i < 20; ++i) {
+			List<Event> events = run(new WorkStealingQueue(seeds(), 4), 4);
+			for (Event previous : events) {
+				for (Event event : events) {
+					if (previous.rule.getHeadRelationBS().equals(event.rule.getHeadRelationBS())
+							&& previous.rule.getGeneration() == event.rule.getGeneration() - 1) {
+						assertTrue(previous.end < event.start);
+					}
+				}
+			}
+		}
+	}
+}